@@ -159,6 +159,10 @@ public class MolgenisOptions implements Serializable
 	@Option(name = "mapper_implementation", param = Option.Param.ENUM, type = Option.Type.OPTIONAL_ARGUMENT, usage = "Expert option: Choosing wether multiquery is used instead of prepared statements. Default: MULTIQUERY")
 	public MapperImplementation mapper_implementation = MapperImplementation.MULTIQUERY;
 
+	/** Advanced option: full-text index for SEARCH rules of JDBC mappers */
+	@Option(name = "search_index", param = Option.Param.STRING, type = Option.Type.OPTIONAL_ARGUMENT, usage = "Expert option: Full-text index used for SEARCH rules of JDBC mappers, either 'memory' or the directory of a Lucene index, which is built on startup when incomplete. Without index SEARCH rules use 'LIKE'. Default: ''")
+	public String search_index = "";
+
 	@Option(name = "generate_persistence", param = Option.Param.STRING, type = Option.Type.OPTIONAL_ARGUMENT, usage = "Expert option: Choosing the JPA persistence unit name from the persistence.xml that is used by molgenis. Default: molgenis")
 	public String jpa_persistenceUnitName = "molgenis";
 
@@ -1,33 +1,39 @@
 package org.molgenis.framework.db;
 
 import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
-import java.sql.ResultSet;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.molgenis.MolgenisFieldTypes;
 import org.molgenis.MolgenisOptions;
 import org.molgenis.framework.db.QueryRule.Operator;
+import org.molgenis.framework.db.jdbc.JDBCDatabase;
 import org.molgenis.framework.db.jdbc.JDBCQueryGernatorUtil;
+import org.molgenis.framework.db.jdbc.ResultSetTupleIterator;
 import org.molgenis.framework.security.Login;
+import org.molgenis.framework.security.PermissionCache;
 import org.molgenis.framework.security.SimpleLogin;
 import org.molgenis.io.TupleReader;
 import org.molgenis.io.TupleWriter;
 import org.molgenis.model.elements.Field;
 import org.molgenis.model.elements.Model;
 import org.molgenis.util.Entity;
-import org.molgenis.util.tuple.CaseInsensitiveKeyValueTuple;
 import org.molgenis.util.tuple.EntityTuple;
 import org.molgenis.util.tuple.Tuple;
-import org.molgenis.util.tuple.WritableTuple;
 
 public abstract class AbstractDatabase implements Database
 {
@@ -38,6 +44,22 @@ public abstract class AbstractDatabase implements Database
 	/** batch size */
 	protected static final int BATCH_SIZE = 500;
 
+	/** maximum number of ids per query when loading subclass entities */
+	private int loadBatchSize = BATCH_SIZE;
+
+	/** unfiltered counts above this number may be estimated, 0 = never */
+	private int approximateCountThreshold = 0;
+
+	/** entity classes written in the running transaction */
+	private final Set<Class<? extends Entity>> txChangedEntities = new HashSet<Class<? extends Entity>>();
+
+	/** whether an entity that defines permissions was written in the transaction */
+	private boolean txChangedPermissions = false;
+
+	/** resolved foreign keys of the running import, see beginImportCache */
+	private ForeignKeyCache importCache;
+	private int importCacheDepth = 0;
+
 	/** List of mappers, mapping entities backend */
 	protected Map<String, Mapper<? extends Entity>> mappers = new LinkedHashMap<String, Mapper<? extends Entity>>();
 
@@ -65,10 +87,165 @@ public abstract class AbstractDatabase implements Database
 		return model;
 	}
 
+	/**
+	 * Counts the entities matching the rules. Outside transactions counts are
+	 * cached if {@link #getCountCache()} provides a cache. Unfiltered counts
+	 * are estimated from table statistics if enabled with
+	 * {@link #setApproximateCountThreshold(int)}.
+	 */
 	@Override
 	public <E extends Entity> int count(Class<E> klazz, QueryRule... rules) throws DatabaseException
 	{
-		return getMapperFor(klazz).count(rules);
+		Mapper<E> mapper = getMapperFor(klazz);
+		CountCache countCache = getCountCache();
+		if (countCache == null || inTx()) return count(mapper, rules);
+
+		Integer count = countCache.get(klazz, rules);
+		if (count != null) return count;
+
+		boolean local = mapper instanceof AbstractMapper && ((AbstractMapper<E>) mapper).isLocal(rules);
+		long version = countCache.getVersion(klazz, local);
+		int result = count(mapper, rules);
+		countCache.put(klazz, local, version, result, rules);
+		return result;
+	}
+
+	private <E extends Entity> int count(Mapper<E> mapper, QueryRule... rules) throws DatabaseException
+	{
+		if (approximateCountThreshold > 0 && mapper instanceof AbstractMapper && CountCache.isUnfiltered(rules))
+		{
+			int estimate = ((AbstractMapper<E>) mapper).estimateCount();
+			if (estimate >= approximateCountThreshold) return estimate;
+		}
+		return mapper.count(rules);
+	}
+
+	/**
+	 * Returns the cache used by {@link #count(Class, QueryRule...)}, or null if
+	 * counts are not cached. Override to enable count caching.
+	 */
+	protected CountCache getCountCache()
+	{
+		return null;
+	}
+
+	/**
+	 * Returns a version of the data of the entity class that changes on each
+	 * add, update and remove through the mappers. Can be used to validate
+	 * caches of data derived from the entities.
+	 * 
+	 * @param entityClass
+	 * @param local
+	 *            true if the data only depends on the tables of the entity
+	 *            class hierarchy, false if it also depends on other entities
+	 *            (e.g. xref labels)
+	 * @return the version, or -1 if versions are not tracked (see
+	 *         {@link #getDataVersions()}) or within a transaction
+	 */
+	public long getDataVersion(Class<? extends Entity> entityClass, boolean local)
+	{
+		DataVersions dataVersions = getDataVersions();
+		if (dataVersions == null || inTx()) return -1;
+		return dataVersions.getVersion(entityClass, local);
+	}
+
+	/**
+	 * Returns the data versions shared by all databases on the same database,
+	 * or null if data versions are not tracked. Override to enable data
+	 * versions.
+	 */
+	protected DataVersions getDataVersions()
+	{
+		return null;
+	}
+
+	/**
+	 * Returns the cache of entities marked with 'cache' in the model, or null
+	 * if entities are not cached. Override to enable entity caching.
+	 */
+	public EntityCache getEntityCache()
+	{
+		return null;
+	}
+
+	/**
+	 * Invalidates the cached counts, entities and data versions of the entity
+	 * class. Called by the mappers on each add, update and remove.
+	 */
+	void invalidateCaches(Class<? extends Entity> entityClass)
+	{
+		CountCache countCache = getCountCache();
+		EntityCache entityCache = getEntityCache();
+		DataVersions dataVersions = getDataVersions();
+		if (countCache != null) countCache.invalidate(entityClass);
+		if (entityCache != null) entityCache.invalidate(entityClass);
+		if (dataVersions != null) dataVersions.invalidate(entityClass);
+		// other connections may cache the old values before the commit
+		if (inTx() && (countCache != null || entityCache != null || dataVersions != null)) txChangedEntities
+				.add(entityClass);
+	}
+
+	/**
+	 * Marks that an entity that defines permissions was written, so that the
+	 * {@link PermissionCache} is invalidated again when the transaction is
+	 * committed or rolled back. Called by {@link PermissionCache#invalidate(Database)}.
+	 */
+	public void invalidatePermissionsOnTxEnd()
+	{
+		// other connections may cache the old permissions before the commit
+		if (inTx()) txChangedPermissions = true;
+	}
+
+	/**
+	 * Invalidates the cached counts, entities and permissions written in the
+	 * transaction. Must be called when a transaction is committed or rolled
+	 * back.
+	 */
+	protected void invalidateTxCaches()
+	{
+		if (txChangedPermissions)
+		{
+			PermissionCache.getInstance().invalidate();
+			txChangedPermissions = false;
+		}
+		CountCache countCache = getCountCache();
+		EntityCache entityCache = getEntityCache();
+		DataVersions dataVersions = getDataVersions();
+		for (Class<? extends Entity> entityClass : txChangedEntities)
+		{
+			if (countCache != null) countCache.invalidate(entityClass);
+			if (entityCache != null) entityCache.invalidate(entityClass);
+			if (dataVersions != null) dataVersions.invalidate(entityClass);
+		}
+		txChangedEntities.clear();
+	}
+
+	@Override
+	public void beginImportCache()
+	{
+		if (importCacheDepth++ == 0) importCache = new ForeignKeyCache();
+	}
+
+	@Override
+	public void endImportCache()
+	{
+		if (importCacheDepth == 0) throw new IllegalStateException("endImportCache without beginImportCache");
+		if (--importCacheDepth == 0) importCache = null;
+	}
+
+	@Override
+	public ForeignKeyCache getImportCache()
+	{
+		return importCache;
+	}
+
+	/**
+	 * Drops the foreign keys cached by the running import. Must be called when
+	 * a transaction is rolled back, ids added in it no longer exist.
+	 */
+	protected void clearImportCache()
+	{
+		if (importCache != null) importCache.clear();
 	}
 
 	@Override
@@ -88,24 +265,7 @@ public abstract class AbstractDatabase implements Database
 	public <E extends Entity> void find(Class<E> entityClass, TupleWriter writer, List<String> fieldsToExport,
 			QueryRule... rules) throws DatabaseException
 	{
-		try
-		{
-			writer.writeColNames(fieldsToExport);
-			int count = 0;
-			for (Entity e : find(entityClass, rules))
-			{
-				writer.write(new EntityTuple(e));
-
-				count++;
-			}
-			if (logger.isDebugEnabled()) if (logger.isDebugEnabled()) logger.debug(String.format(
-					"find(%s, writer) wrote %s lines", entityClass.getSimpleName(), count));
-			writer.close();
-		}
-		catch (Exception ex)
-		{
-			throw new DatabaseException(ex);
-		}
+		this.getMapperFor(entityClass).find(writer, fieldsToExport, rules);
 	}
 
 	// @Override
@@ -130,6 +290,21 @@ public abstract class AbstractDatabase implements Database
 		return new QueryImp<E>(this, getEntityClass(entity)).example(entity);
 	}
 
+	@Override
+	public <E extends Entity> PreparedQuery<E> prepare(Class<E> entityClass, QueryRule... rules)
+	{
+		return new PreparedQueryImp<E>(this, entityClass, isBindingParameters(), rules);
+	}
+
+	/**
+	 * Whether the mappers of this database handle rules with bound
+	 * {@link QueryParameter}s. If not, prepared queries fill in the values.
+	 */
+	protected boolean isBindingParameters()
+	{
+		return false;
+	}
+
 	/**
 	 * Only use when really needed!
 	 * 
@@ -201,6 +376,9 @@ public abstract class AbstractDatabase implements Database
 		{
 			stmt = con.createStatement();
 			stmt.executeUpdate(sql);
+			if (getCountCache() != null) getCountCache().invalidateAll();
+			if (getEntityCache() != null) getEntityCache().invalidateAll();
+			if (getDataVersions() != null) getDataVersions().invalidateAll();
 		}
 		catch (Exception e)
 		{
@@ -276,9 +454,8 @@ public abstract class AbstractDatabase implements Database
 			// add the keys to the index, if exists
 			if (!keysMissing)
 			{
-				keyIndex.add(keyValues);
-				// create the entity index using the hash
-				entityIndex.put(combinedKeyBuilder.toString(), entity);
+				// create the entity index using the hash, query each key once
+				if (entityIndex.put(combinedKeyBuilder.toString(), entity) == null) keyIndex.add(keyValues);
 			}
 			else
 			{
@@ -303,45 +480,14 @@ public abstract class AbstractDatabase implements Database
 		if (!keysMissing && keyIndex.size() > 0)
 		{
 			newEntities = new ArrayList<E>();
-			Query<E> q = this.query(getClassForEntity(entities.get(0)));
-
-			// in case of one field key, simply query
-			if (keyNames.length == 1)
-			{
-				List<Object> values = new ArrayList<Object>();
-				for (Map<String, Object> keyValues : keyIndex)
-				{
-					values.add(keyValues.get(keyNames[0]));
-				}
-				q.in(keyNames[0], values);
-			}
-			// in case of composite key make massive 'OR' query
-			// form (key1 = x AND key2 = X) OR (key1=y AND key2=y)
-			else
-			{
-				// very expensive!
-				for (Map<String, Object> keyValues : keyIndex)
-				{
-					for (int i = 0; i < keyNames.length; i++)
-					{
-						if (i > 0) q.or();
-						q.equals(keyNames[i], keyValues.get(keyNames[i]));
-					}
-				}
-			}
-			List<E> selectForUpdate = q.find();
+			List<E> selectForUpdate = findByKeys(entityClass, keyNames, keyIndex);
 
 			// separate existing from new entities
 			for (E p : selectForUpdate)
 			{
 				// reconstruct composite key so we can use the entityIndex
-				StringBuilder combinedKeyBuilder = new StringBuilder();
-				for (String key : keyNames)
-				{
-					combinedKeyBuilder.append(';').append(p.get(key));
-				}
 				// copy existing from entityIndex to existingEntities
-				entityIndex.remove(combinedKeyBuilder.toString());
+				entityIndex.remove(createCombinedKey(p, keyNames));
 				existingEntities.add(p);
 			}
 			// copy remaining to newEntities
@@ -451,49 +597,136 @@ public abstract class AbstractDatabase implements Database
 		}
 	}
 
-	public <E extends Entity> void matchByNameAndUpdateFields(List<E> existingEntities, List<E> entities)
-			throws DatabaseException
+	/**
+	 * Finds the existing entities for a list of (composite) key values. The
+	 * keys are queried in chunks of {@link #BATCH_SIZE}, where each key field
+	 * is restricted to the values in the chunk (key1 IN(...) AND key2 IN(...))
+	 * instead of one (key1=x AND key2=x) OR ... clause per entity. For
+	 * composite keys this can select combinations that were not asked for,
+	 * these are filtered out afterwards.
+	 * 
+	 * @param entityClass
+	 * @param keyNames
+	 * @param keyIndex
+	 *            per entity a map of key name to its (non-null) key values
+	 * @return existing entities
+	 * @throws DatabaseException
+	 */
+	private <E extends Entity> List<E> findByKeys(Class<E> entityClass, String[] keyNames,
+			List<Map<String, Object>> keyIndex) throws DatabaseException
 	{
-		// List<E> updatedDbEntities = new ArrayList<E>();
-		for (E entityInDb : existingEntities)
+		List<E> result = new ArrayList<E>();
+		for (int i = 0; i < keyIndex.size(); i += BATCH_SIZE)
 		{
-			for (E newEntity : entities)
+			List<Map<String, Object>> chunk = keyIndex.subList(i, Math.min(i + BATCH_SIZE, keyIndex.size()));
+
+			List<QueryRule> rules = new ArrayList<QueryRule>(keyNames.length);
+			for (String key : keyNames)
 			{
-				// FIXME very wrong! this assumes every data model has 'name' as
-				// secondary key.
-				boolean match = false;
-				// check if there are any label fields otherwise check
-				// impossible
-				if (entityInDb.getLabelFields().size() > 0)
+				Set<Object> values = new LinkedHashSet<Object>();
+				boolean hasNull = false;
+				for (Map<String, Object> keyValues : chunk)
 				{
-					match = true;
+					Object value = keyValues.get(key);
+					if (value != null) values.add(value);
+					else
+						hasNull = true;
 				}
-				for (String labelField : entityInDb.getLabelFields())
+
+				QueryRule isNull = new QueryRule(key, Operator.EQUALS, (Object) null);
+				if (values.isEmpty())
+				{
+					rules.add(isNull);
+				}
+				else
 				{
-					Object x1 = entityInDb.get(labelField);
-					Object x2 = newEntity.get(labelField);
+					QueryRule in = new QueryRule(key, Operator.IN, new ArrayList<Object>(values));
+					rules.add(hasNull ? new QueryRule(in, new QueryRule(Operator.OR), isNull) : in);
+				}
+			}
+			List<E> candidates = find(entityClass, rules.toArray(new QueryRule[rules.size()]));
 
-					if (!x1.equals(x2))
+			if (keyNames.length == 1)
+			{
+				result.addAll(candidates);
+			}
+			else
+			{
+				Set<String> combinedKeys = new HashSet<String>();
+				for (Map<String, Object> keyValues : chunk)
+				{
+					StringBuilder combinedKeyBuilder = new StringBuilder();
+					for (String key : keyNames)
 					{
-						match = false;
-						break;
+						combinedKeyBuilder.append(';');
+						if (keyValues.get(key) != null) combinedKeyBuilder.append(keyValues.get(key));
 					}
+					combinedKeys.add(combinedKeyBuilder.toString());
 				}
-				if (match)
+				for (E candidate : candidates)
 				{
-					try
-					{
-						entityInDb.set(new EntityTuple(newEntity), false);
-					}
-					catch (Exception ex)
-					{
-						throw new DatabaseException(ex);
-					}
+					if (combinedKeys.contains(createCombinedKey(candidate, keyNames))) result.add(candidate);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Concats the key values of an entity into one string, in the same way as
+	 * the entity index in {@link #update(List, DatabaseAction, String...)}
+	 */
+	private static String createCombinedKey(Entity entity, String[] keyNames)
+	{
+		StringBuilder combinedKeyBuilder = new StringBuilder();
+		for (String key : keyNames)
+		{
+			combinedKeyBuilder.append(';');
+			if (entity.get(key) != null) combinedKeyBuilder.append(entity.get(key));
+		}
+		return combinedKeyBuilder.toString();
+	}
+
+	public <E extends Entity> void matchByNameAndUpdateFields(List<E> existingEntities, List<E> entities)
+			throws DatabaseException
+	{
+		// FIXME very wrong! this assumes every data model has 'name' as
+		// secondary key.
+		if (existingEntities.isEmpty() || existingEntities.get(0).getLabelFields().isEmpty()) return;
+		List<String> labelFields = existingEntities.get(0).getLabelFields();
+
+		// index the new entities on their label values, the last one wins
+		Map<List<Object>, E> entitiesByLabel = new HashMap<List<Object>, E>();
+		for (E newEntity : entities)
+		{
+			entitiesByLabel.put(getLabelValues(newEntity, labelFields), newEntity);
+		}
+
+		for (E entityInDb : existingEntities)
+		{
+			E newEntity = entitiesByLabel.get(getLabelValues(entityInDb, labelFields));
+			if (newEntity != null)
+			{
+				try
+				{
+					entityInDb.set(new EntityTuple(newEntity), false);
+				}
+				catch (Exception ex)
+				{
+					throw new DatabaseException(ex);
 				}
 			}
 		}
 	}
 
+	private static List<Object> getLabelValues(Entity entity, List<String> labelFields)
+	{
+		List<Object> labelValues = new ArrayList<Object>(labelFields.size());
+		for (String labelField : labelFields)
+			labelValues.add(entity.get(labelField));
+		return labelValues;
+	}
+
 	@Override
 	public <E extends Entity> int add(E entity) throws DatabaseException
 	{
@@ -704,91 +937,150 @@ public abstract class AbstractDatabase implements Database
 	/**
 	 * Only use when really needed!
 	 * 
+	 * Convenience wrapper around {@link #sqlIterator(String, QueryRule...)}
+	 * that collects all rows in a list.
+	 * 
 	 * @throws DatabaseException
 	 */
 	@Override
-	public synchronized List<Tuple> sql(String sql, QueryRule... rules) throws DatabaseException
+	public List<Tuple> sql(String sql, QueryRule... rules) throws DatabaseException
 	{
-		ResultSet rs = null;
-		Statement stmt = null;
+		List<Object> parameters = new ArrayList<Object>();
+		String allSql = sql
+				+ (rules.length > 0 ? JDBCQueryGernatorUtil.createWhereSql(null, parameters, false, true, rules) : "");
+		return sql(allSql, parameters);
+	}
+
+	/**
+	 * Only use when really needed!
+	 * 
+	 * Convenience wrapper around {@link #sqlIterator(String, List)} that
+	 * collects all rows in a list.
+	 * 
+	 * @throws DatabaseException
+	 */
+	@Override
+	public List<Tuple> sql(String sql, List<Object> parameters) throws DatabaseException
+	{
+		TupleIterator it = sqlIterator(sql, parameters);
 		try
 		{
-			String allSql = sql
-					+ (rules.length > 0 ? JDBCQueryGernatorUtil.createWhereSql(null, false, true, rules) : "");
-
-			if (logger.isDebugEnabled()) logger.debug("executeQuery: " + allSql);
-			Connection con = getConnection();
-			stmt = con.createStatement();
+			List<Tuple> tuples = new ArrayList<Tuple>();
+			while (it.hasNext())
+				tuples.add(it.next());
 
-			if (stmt == null)
-			{
-				throw new Exception("statement is null???");
-			}
-			rs = stmt.executeQuery(allSql);
+			if (logger.isDebugEnabled()) logger.debug("sql(" + sql + ")" + tuples.size() + " objects found");
+			return tuples;
+		}
+		catch (RuntimeException e)
+		{
+			throw new DatabaseException(e);
+		}
+		finally
+		{
+			IOUtils.closeQuietly(it);
+		}
+	}
 
-			// get field types
-			java.sql.ResultSetMetaData metadata = rs.getMetaData();
-			int colcount = metadata.getColumnCount();
+	/**
+	 * Only use when really needed!
+	 * 
+	 * Executes the query as prepared statement and returns its rows lazily.
+	 * All rows share one column header. The caller must close the iterator if
+	 * it does not iterate to the end.
+	 * 
+	 * @throws DatabaseException
+	 */
+	@Override
+	public TupleIterator sqlIterator(String sql, QueryRule... rules) throws DatabaseException
+	{
+		List<Object> parameters = new ArrayList<Object>();
+		String allSql = sql
+				+ (rules.length > 0 ? JDBCQueryGernatorUtil.createWhereSql(null, parameters, false, true, rules) : "");
+		return sqlIterator(allSql, parameters);
+	}
 
-			List<Field> fieldTypes = new ArrayList<Field>();
-			for (int i = 1; i <= colcount; i++)
+	/**
+	 * Only use when really needed!
+	 * 
+	 * Executes the query with '?' placeholders as prepared statement, binding
+	 * the parameters in order, and returns its rows lazily. The statement is
+	 * obtained using {@link #prepareStatement(String)} and given back using
+	 * {@link #releaseStatement(String, PreparedStatement)} when the iterator is
+	 * closed.
+	 * 
+	 * @throws DatabaseException
+	 */
+	@Override
+	public TupleIterator sqlIterator(final String sql, List<Object> parameters) throws DatabaseException
+	{
+		if (logger.isDebugEnabled()) logger.debug("executeQuery: " + sql + " " + parameters);
+		PreparedStatement pstmt = null;
+		try
+		{
+			pstmt = prepareStatement(sql);
+			if (parameters != null)
 			{
-				if (metadata.getColumnName(i) == null)
-				{
-					System.out.println("column name for column " + i + " unknown,sql=" + sql);
-				}
-				Field f = new Field(metadata.getColumnLabel(i));
-				f.setType(MolgenisFieldTypes.getTypeBySqlTypesCode(metadata.getColumnType(i)));
-				fieldTypes.add(f);
+				for (int i = 0; i < parameters.size(); i++)
+					pstmt.setObject(i + 1, parameters.get(i));
 			}
 
-			// transform result set in entity list
-			List<Tuple> tuples = new ArrayList<Tuple>();
-			if (rs != null)
+			final PreparedStatement stmt = pstmt;
+			return new ResultSetTupleIterator(null, stmt.executeQuery())
 			{
-				while (rs.next())
+				private boolean released = false;
+
+				@Override
+				public void close() throws IOException
 				{
-					WritableTuple tuple = new CaseInsensitiveKeyValueTuple();
-					for (int i = 1; i <= colcount; i++)
+					try
 					{
-						tuple.set(rs.getMetaData().getColumnLabel(i), rs.getObject(i));
+						super.close();
+					}
+					finally
+					{
+						// close() is called at the end of the rows and again by
+						// the caller
+						if (!released)
+						{
+							released = true;
+							releaseStatement(sql, stmt);
+						}
 					}
-					tuples.add(tuple);
 				}
-			}
-			rs.close();
-			rs = null;
-			stmt.close();
-			stmt = null;
-
-			if (logger.isDebugEnabled()) logger.debug("sql(" + allSql + ")" + tuples.size() + " objects found");
-			return tuples;
+			};
 		}
 		catch (Exception e)
 		{
+			if (pstmt != null) releaseStatement(sql, pstmt);
 			throw new DatabaseException(e);
 		}
-		finally
-		{
-			if (rs != null) try
-			{
-				rs.close();
-			}
-			catch (SQLException e)
-			{
-				e.printStackTrace();
-			}
-			if (stmt != null) try
-			{
-				stmt.close();
-			}
-			catch (SQLException e)
-			{
-				e.printStackTrace();
-			}
-			rs = null;
-			stmt = null;
-		}
+	}
+
+	/**
+	 * Returns a prepared statement for the sql. Must be given back using
+	 * {@link #releaseStatement(String, PreparedStatement)}. Subclasses may
+	 * override this pair to reuse statements.
+	 * 
+	 * @param sql
+	 * @return prepared statement
+	 * @throws DatabaseException
+	 * @throws SQLException
+	 */
+	protected PreparedStatement prepareStatement(String sql) throws DatabaseException, SQLException
+	{
+		return getConnection().prepareStatement(sql);
+	}
+
+	/**
+	 * Gives back a statement obtained using {@link #prepareStatement(String)}.
+	 * 
+	 * @param sql
+	 * @param stmt
+	 */
+	protected void releaseStatement(String sql, PreparedStatement stmt)
+	{
+		JDBCDatabase.closeStatement(stmt);
 	}
 
 	@Override
@@ -797,37 +1089,109 @@ public abstract class AbstractDatabase implements Database
 		return find(entityClass, new QueryRule(Operator.SEARCH, searchString));
 	}
 
+	/**
+	 * Reloads entities that are instances of a subclass of the given superclass
+	 * as that subclass. Entities are grouped by {@link Field#TYPE_FIELD} and
+	 * each group is queried with IN rules on the id field in chunks of
+	 * {@link #getLoadBatchSize()}, so the number of queries depends on the
+	 * number of subclasses instead of the number of entities. The order of the
+	 * entities is retained.
+	 */
 	@Override
 	public <E extends Entity> List<? extends Entity> load(Class<E> superClass, List<E> entities)
 			throws DatabaseException
 	{
-		List<E> result = new ArrayList<E>();
-		for (E e : entities)
+		List<Entity> result = new ArrayList<Entity>(entities);
+
+		// positions of the entities to requery, per subclass and id
+		Map<String, Map<Object, List<Integer>>> typeIndex = new LinkedHashMap<String, Map<Object, List<Integer>>>();
+		for (int i = 0; i < entities.size(); i++)
 		{
-			if (e.get(Field.TYPE_FIELD).equals(superClass.getSimpleName()))
+			E e = entities.get(i);
+			// entities of superclass type or of an unrelated type are added to
+			// the results as is
+			if (e.get(Field.TYPE_FIELD).equals(superClass.getSimpleName()) || !superClass.isInstance(e)) continue;
+
+			String type = e.get(Field.TYPE_FIELD).toString();
+			Map<Object, List<Integer>> idIndex = typeIndex.get(type);
+			if (idIndex == null)
 			{
-				// Entity is already of superclass type, ignore and add to
-				// results
-				result.add(e);
+				idIndex = new LinkedHashMap<Object, List<Integer>>();
+				typeIndex.put(type, idIndex);
 			}
-			else if (superClass.isInstance(e))
+			Object id = e.get(e.getIdField());
+			List<Integer> positions = idIndex.get(id);
+			if (positions == null)
 			{
-				// Entity is of subclass type, requery and add to results
-				@SuppressWarnings("unchecked")
-				Class<E> klazz = (Class<E>) this.getClassForName(e.get(Field.TYPE_FIELD).toString());
-				E r = this.findById(klazz, e.get(e.getIdField()));
-				result.add(r);
+				positions = new ArrayList<Integer>(1);
+				idIndex.put(id, positions);
 			}
-			else
+			positions.add(i);
+			// not found entities are returned as null, like findById does
+			result.set(i, null);
+		}
+
+		for (Map.Entry<String, Map<Object, List<Integer>>> entry : typeIndex.entrySet())
+		{
+			Class<? extends Entity> klazz = this.getClassForName(entry.getKey());
+			if (klazz == null) throw new DatabaseException("load failed: unknown entity type '" + entry.getKey() + "'");
+			Map<Object, List<Integer>> idIndex = entry.getValue();
+			String idField = entities.get(idIndex.values().iterator().next().get(0)).getIdField();
+
+			List<Object> ids = new ArrayList<Object>(idIndex.keySet());
+			for (int i = 0; i < ids.size(); i += loadBatchSize)
 			{
-				// Entity is not a subclass or the superclass itself, ignore and
-				// add to results
-				result.add(e);
+				List<Object> chunk = ids.subList(i, Math.min(i + loadBatchSize, ids.size()));
+				for (Entity r : this.find(klazz, new QueryRule(idField, Operator.IN, new ArrayList<Object>(chunk))))
+				{
+					List<Integer> positions = idIndex.get(r.get(idField));
+					if (positions != null) for (Integer position : positions)
+						result.set(position, r);
+				}
 			}
 		}
 		return result;
 	}
 
+	/**
+	 * @return maximum number of ids per query used by
+	 *         {@link #load(Class, List)}
+	 */
+	public int getLoadBatchSize()
+	{
+		return loadBatchSize;
+	}
+
+	public void setLoadBatchSize(int loadBatchSize)
+	{
+		if (loadBatchSize < 1) throw new IllegalArgumentException("loadBatchSize must be larger than zero");
+		this.loadBatchSize = loadBatchSize;
+	}
+
+	/**
+	 * @return minimum estimated number of rows above which unfiltered counts
+	 *         are estimated from table statistics, 0 if counts are exact
+	 */
+	public int getApproximateCountThreshold()
+	{
+		return approximateCountThreshold;
+	}
+
+	/**
+	 * Lets unfiltered counts of very large tables use table statistics instead
+	 * of count(*). The estimate is only used if it is at least the threshold,
+	 * so smaller tables are still counted exactly.
+	 * 
+	 * @param approximateCountThreshold
+	 *            minimum estimated number of rows, 0 disables estimates
+	 */
+	public void setApproximateCountThreshold(int approximateCountThreshold)
+	{
+		if (approximateCountThreshold < 0) throw new IllegalArgumentException(
+				"approximateCountThreshold must not be negative");
+		this.approximateCountThreshold = approximateCountThreshold;
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public <E extends Entity> Class<E> getEntityClass(E entity)
@@ -24,6 +24,9 @@ public abstract class AbstractMapper<E extends Entity> implements Mapper<E>
 	/** log messages */
 	private static final Logger logger = Logger.getLogger(AbstractMapper.class);
 
+	/** label to id cache, only set while a bulk add/update/remove runs */
+	private ForeignKeyCache foreignKeyCache;
+
 	public AbstractMapper(Database database)
 	{
 		this.database = database;
@@ -127,6 +130,82 @@ public abstract class AbstractMapper<E extends Entity> implements Mapper<E>
 	public abstract void removeMrefs(List<E> entities) throws SQLException, IOException, DatabaseException,
 			ParseException;
 
+	/**
+	 * Returns the foreign key cache of the running import (see
+	 * {@link Database#beginImportCache()}), else the cache shared by all
+	 * batches of the running bulk add/update/remove, or a new empty cache if
+	 * neither runs. Used by {@link #resolveForeignKeys(List)}.
+	 */
+	protected ForeignKeyCache getForeignKeyCache()
+	{
+		ForeignKeyCache importCache = getDatabase() != null ? getDatabase().getImportCache() : null;
+		if (importCache != null) return importCache;
+		return foreignKeyCache != null ? foreignKeyCache : new ForeignKeyCache();
+	}
+
+	/**
+	 * Starts a foreign key cache unless one is already active.
+	 * 
+	 * @return true if the cache was started and should be ended by the caller
+	 */
+	private boolean startForeignKeyCache()
+	{
+		if (foreignKeyCache != null) return false;
+		foreignKeyCache = new ForeignKeyCache();
+		return true;
+	}
+
+	private void endForeignKeyCache(boolean started)
+	{
+		if (started) foreignKeyCache = null;
+	}
+
+	/**
+	 * Drops cached foreign keys to this entity, its labels may have changed or
+	 * it may have been removed
+	 */
+	private void invalidateForeignKeyCaches()
+	{
+		Class<?> entityClass = create().getClass();
+		ForeignKeyCache importCache = getDatabase().getImportCache();
+		if (importCache != null) importCache.invalidate(entityClass);
+		if (foreignKeyCache != null) foreignKeyCache.invalidate(entityClass);
+	}
+
+	/**
+	 * Invalidates the cached counts and entities of this entity, see
+	 * {@link CountCache} and {@link EntityCache}
+	 */
+	private void invalidateCaches()
+	{
+		if (getDatabase() instanceof AbstractDatabase) ((AbstractDatabase) getDatabase()).invalidateCaches(create()
+				.getClass());
+	}
+
+	/**
+	 * Returns true if a count with these rules only depends on the tables of
+	 * this entity (and its superclasses), so that cached counts of it need not
+	 * be invalidated by writes to other entities. Defaults to false.
+	 * 
+	 * @param rules
+	 */
+	protected boolean isLocal(QueryRule... rules)
+	{
+		return false;
+	}
+
+	/**
+	 * Returns the number of entities estimated from table statistics, or -1 if
+	 * no estimate is available. Used for unfiltered counts on very large
+	 * tables, see {@link AbstractDatabase#setApproximateCountThreshold(int)}.
+	 * 
+	 * @throws DatabaseException
+	 */
+	public int estimateCount() throws DatabaseException
+	{
+		return -1;
+	}
+
 	@Override
 	public void find(TupleWriter writer, QueryRule... rules) throws DatabaseException
 	{
@@ -148,6 +227,7 @@ public abstract class AbstractMapper<E extends Entity> implements Mapper<E>
 
 		// create a transaction unless already in it
 		boolean privateTx = !getDatabase().inTx();
+		boolean privateCache = startForeignKeyCache();
 
 		try
 		{
@@ -159,11 +239,12 @@ public abstract class AbstractMapper<E extends Entity> implements Mapper<E>
 			// insert this class in batches
 			for (int i = 0; i < entities.size(); i += BATCH_SIZE)
 			{
-				// attempt to resolve foreign keys by label (ie. 'name')
-				this.resolveForeignKeys(entities);
-
 				int endindex = Math.min(i + BATCH_SIZE, entities.size());
 				List<E> sublist = entities.subList(i, endindex);
+
+				// attempt to resolve foreign keys by label (ie. 'name')
+				this.resolveForeignKeys(sublist);
+
 				updatedRows += this.executeAdd(sublist);
 			}
 
@@ -189,6 +270,11 @@ public abstract class AbstractMapper<E extends Entity> implements Mapper<E>
 			logger.error("ADD failed on " + this.create().getClass().getSimpleName() + ": " + sqle.getMessage());
 			throw new DatabaseException(sqle);
 		}
+		finally
+		{
+			endForeignKeyCache(privateCache);
+			invalidateCaches();
+		}
 	}
 
 	@Override
@@ -199,6 +285,7 @@ public abstract class AbstractMapper<E extends Entity> implements Mapper<E>
 
 		// start private tx
 		boolean privateTx = !getDatabase().inTx();
+		boolean privateCache = startForeignKeyCache();
 
 		try
 		{
@@ -230,6 +317,10 @@ public abstract class AbstractMapper<E extends Entity> implements Mapper<E>
 			if (privateTx) getDatabase().rollbackTx();
 			throw new DatabaseException("add(" + create().getClass().getSimpleName() + ") failed: " + e.getMessage(), e);
 		}
+		finally
+		{
+			endForeignKeyCache(privateCache);
+		}
 		return rowsAffected;
 	}
 
@@ -248,6 +339,7 @@ public abstract class AbstractMapper<E extends Entity> implements Mapper<E>
 
 		// privateTx
 		boolean privateTx = !getDatabase().inTx();
+		boolean privateCache = startForeignKeyCache();
 
 		try
 		{
@@ -286,6 +378,12 @@ public abstract class AbstractMapper<E extends Entity> implements Mapper<E>
 			throw new DatabaseException("Update(" + create().getClass().getSimpleName() + ") failed: "
 					+ sqle.getMessage(), sqle);
 		}
+		finally
+		{
+			invalidateForeignKeyCaches();
+			endForeignKeyCache(privateCache);
+			invalidateCaches();
+		}
 	}
 
 	@Override
@@ -296,6 +394,7 @@ public abstract class AbstractMapper<E extends Entity> implements Mapper<E>
 
 		// privateTx
 		boolean privateTx = !getDatabase().inTx();
+		boolean privateCache = startForeignKeyCache();
 
 		try
 		{
@@ -320,6 +419,10 @@ public abstract class AbstractMapper<E extends Entity> implements Mapper<E>
 			throw new DatabaseException(
 					"update(" + create().getClass().getSimpleName() + ") failed: " + e.getMessage(), e);
 		}
+		finally
+		{
+			endForeignKeyCache(privateCache);
+		}
 		return rowsAffected;
 	}
 
@@ -335,6 +438,7 @@ public abstract class AbstractMapper<E extends Entity> implements Mapper<E>
 	{
 		int updatedRows = 0;
 		boolean privateTx = !getDatabase().inTx();
+		boolean privateCache = startForeignKeyCache();
 		try
 		{
 			// start anonymous transaction for the batched remove
@@ -372,6 +476,12 @@ public abstract class AbstractMapper<E extends Entity> implements Mapper<E>
 			throw new DatabaseException("remove(" + create().getClass().getSimpleName() + ") failed: "
 					+ sqle.getMessage(), sqle);
 		}
+		finally
+		{
+			invalidateForeignKeyCaches();
+			endForeignKeyCache(privateCache);
+			invalidateCaches();
+		}
 	}
 
 	@Override
@@ -379,6 +489,7 @@ public abstract class AbstractMapper<E extends Entity> implements Mapper<E>
 	{
 		int rowsAffected = 0;
 		boolean privateTx = !getDatabase().inTx();
+		boolean privateCache = startForeignKeyCache();
 		try
 		{
 			if (privateTx) getDatabase().beginTx();
@@ -402,6 +513,10 @@ public abstract class AbstractMapper<E extends Entity> implements Mapper<E>
 			throw new DatabaseException(
 					"remove(" + create().getClass().getSimpleName() + ") failed: " + e.getMessage(), e);
 		}
+		finally
+		{
+			endForeignKeyCache(privateCache);
+		}
 		return rowsAffected;
 	}
 
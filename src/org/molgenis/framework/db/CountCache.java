@@ -0,0 +1,254 @@
+package org.molgenis.framework.db;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.molgenis.framework.db.QueryRule.Operator;
+import org.molgenis.util.Entity;
+
+/**
+ * Bounded least recently used cache of {@link Database#count(Class, QueryRule...)}
+ * results, keyed on entity class and the normalised filter rules. Used by
+ * {@link AbstractDatabase#count(Class, QueryRule...)} so that pagers and grids
+ * do not repeat the same count for every page.
+ * <p>
+ * Cached counts are invalidated by version counters instead of being evicted:
+ * every add/update/remove of an entity bumps the version of its class
+ * hierarchy (a write to a subclass also changes the count of its superclass)
+ * and a global version. Counts with rules on local fields only depend on the
+ * hierarchy version, counts with rules on xref labels or mrefs depend on the
+ * global version. Writes that bypass the mappers are not seen, therefore
+ * entries also expire after {@link #getMaxAge()} milliseconds.
+ */
+public class CountCache
+{
+	/** default maximum number of counts kept */
+	public static final int DEFAULT_MAX_SIZE = 1000;
+
+	/** default maximum age of a count in milliseconds */
+	public static final long DEFAULT_MAX_AGE = 60000;
+
+	private final Map<String, Entry> counts;
+
+	/** version per root entity class name */
+	private final Map<String, Long> versions = new HashMap<String, Long>();
+
+	/** version that is bumped on each write */
+	private long globalVersion = 0;
+
+	private long maxAge = DEFAULT_MAX_AGE;
+
+	public CountCache()
+	{
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	public CountCache(final int maxSize)
+	{
+		if (maxSize < 1) throw new IllegalArgumentException("maxSize must be larger than zero");
+		this.counts = new LinkedHashMap<String, Entry>(64, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+			{
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached count, or null if unknown or no longer valid
+	 *
+	 * @param entityClass
+	 * @param rules
+	 *            rules as passed to count
+	 */
+	public synchronized Integer get(Class<? extends Entity> entityClass, QueryRule... rules)
+	{
+		String key = createKey(entityClass, rules);
+		Entry entry = counts.get(key);
+		if (entry == null) return null;
+		if (entry.version != getVersion(entityClass, entry.local)
+				|| System.currentTimeMillis() - entry.created > maxAge)
+		{
+			counts.remove(key);
+			return null;
+		}
+		return entry.count;
+	}
+
+	/**
+	 * Returns the version a count depends on. Must be retrieved before the
+	 * count is executed and passed to {@link #put}, so that a write during the
+	 * count invalidates the result.
+	 *
+	 * @param entityClass
+	 * @param local
+	 *            true if the count only depends on the tables of the entity
+	 *            class hierarchy
+	 */
+	public synchronized long getVersion(Class<? extends Entity> entityClass, boolean local)
+	{
+		if (!local) return globalVersion;
+		Long version = versions.get(getRootClass(entityClass).getName());
+		return version != null ? version : 0;
+	}
+
+	/**
+	 * Stores a count
+	 *
+	 * @param entityClass
+	 * @param local
+	 *            true if the count only depends on the tables of the entity
+	 *            class hierarchy
+	 * @param version
+	 *            result of {@link #getVersion(Class, boolean)} before counting
+	 * @param count
+	 * @param rules
+	 *            rules as passed to count
+	 */
+	public synchronized void put(Class<? extends Entity> entityClass, boolean local, long version, int count,
+			QueryRule... rules)
+	{
+		if (version != getVersion(entityClass, local)) return;
+		counts.put(createKey(entityClass, rules), new Entry(count, local, version));
+	}
+
+	/**
+	 * Invalidates all counts of the class hierarchy of the given entity class
+	 * and all counts that depend on other entities.
+	 */
+	public synchronized void invalidate(Class<? extends Entity> entityClass)
+	{
+		String root = getRootClass(entityClass).getName();
+		Long version = versions.get(root);
+		versions.put(root, version != null ? version + 1 : 1);
+		globalVersion++;
+	}
+
+	/**
+	 * Invalidates all counts, for example after an update with plain sql
+	 */
+	public synchronized void invalidateAll()
+	{
+		counts.clear();
+		for (Map.Entry<String, Long> version : versions.entrySet())
+			version.setValue(version.getValue() + 1);
+		globalVersion++;
+	}
+
+	public synchronized int size()
+	{
+		return counts.size();
+	}
+
+	public synchronized long getMaxAge()
+	{
+		return maxAge;
+	}
+
+	/**
+	 * @param maxAge
+	 *            maximum age of a count in milliseconds
+	 */
+	public synchronized void setMaxAge(long maxAge)
+	{
+		if (maxAge < 0) throw new IllegalArgumentException("maxAge must not be negative");
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Returns true if the rules do not filter, i.e. only sort or limit the
+	 * result
+	 */
+	public static boolean isUnfiltered(QueryRule... rules)
+	{
+		if (rules != null) for (QueryRule rule : rules)
+			if (rule != null && !isIgnored(rule)) return false;
+		return true;
+	}
+
+	/**
+	 * Creates the cache key. Sort, limit and offset rules do not change a count
+	 * and are left out. Rules that are only combined by AND are sorted.
+	 */
+	static String createKey(Class<? extends Entity> entityClass, QueryRule... rules)
+	{
+		List<String> filters = new ArrayList<String>();
+		boolean or = false;
+		if (rules != null) for (QueryRule rule : rules)
+		{
+			if (rule == null || isIgnored(rule)) continue;
+			if (rule.getOperator() == Operator.OR) or = true;
+			filters.add(toKey(rule));
+		}
+		if (!or) Collections.sort(filters);
+
+		StringBuilder key = new StringBuilder(entityClass.getName());
+		for (String filter : filters)
+			key.append('\u0000').append(filter);
+		return key.toString();
+	}
+
+	private static String toKey(QueryRule rule)
+	{
+		if (rule.getOperator() == Operator.NESTED)
+		{
+			StringBuilder key = new StringBuilder("(");
+			for (QueryRule nested : rule.getNestedRules())
+				key.append(toKey(nested)).append(' ');
+			return key.append(')').toString();
+		}
+		// arrays have no content based toString
+		if (rule.getValue() instanceof Object[]) return rule.getField() + " " + rule.getOperator() + " "
+				+ Arrays.deepToString((Object[]) rule.getValue());
+		return rule.toString();
+	}
+
+	private static boolean isIgnored(QueryRule rule)
+	{
+		switch (rule.getOperator())
+		{
+			case SORTASC:
+			case SORTDESC:
+			case LIMIT:
+			case OFFSET:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Class<? extends Entity> getRootClass(Class<? extends Entity> entityClass)
+	{
+		Class<? extends Entity> root = entityClass;
+		while (root.getSuperclass() != null && Entity.class.isAssignableFrom(root.getSuperclass())
+				&& !Modifier.isAbstract(root.getSuperclass().getModifiers()))
+			root = (Class<? extends Entity>) root.getSuperclass();
+		return root;
+	}
+
+	private static class Entry
+	{
+		final int count;
+		final boolean local;
+		final long version;
+		final long created = System.currentTimeMillis();
+
+		Entry(int count, boolean local, long version)
+		{
+			this.count = count;
+			this.local = local;
+			this.version = version;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package org.molgenis.framework.db;
+
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.molgenis.util.Entity;
+
+/**
+ * Version counters of the data of the entity classes, used to validate caches
+ * of data derived from the entities, see
+ * {@link AbstractDatabase#getDataVersion(Class, boolean)}.
+ * <p>
+ * Every add/update/remove of an entity bumps the version of its class
+ * hierarchy (a write to a subclass also changes the data of its superclass)
+ * and a global version. Data that only depends on the tables of a class
+ * hierarchy depends on the hierarchy version, data that also depends on other
+ * entities (e.g. xref labels) on the global version.
+ */
+public class DataVersions
+{
+	/** version per root entity class name */
+	private final Map<String, Long> versions = new HashMap<String, Long>();
+
+	/** version that is bumped on each write */
+	private long globalVersion = 0;
+
+	/** version of all entity classes, bumped by {@link #invalidateAll()} */
+	private long baseVersion = 0;
+
+	/**
+	 * @param entityClass
+	 * @param local
+	 *            true if the data only depends on the tables of the entity
+	 *            class hierarchy
+	 */
+	public synchronized long getVersion(Class<? extends Entity> entityClass, boolean local)
+	{
+		if (!local) return globalVersion;
+		Long version = versions.get(getRootClass(entityClass).getName());
+		return version != null ? baseVersion + version : baseVersion;
+	}
+
+	/**
+	 * Bumps the version of the class hierarchy of the entity class and the
+	 * global version
+	 */
+	public synchronized void invalidate(Class<? extends Entity> entityClass)
+	{
+		String root = getRootClass(entityClass).getName();
+		Long version = versions.get(root);
+		versions.put(root, version != null ? version + 1 : 1);
+		globalVersion++;
+	}
+
+	/**
+	 * Bumps all versions, for example after an update with plain sql
+	 */
+	public synchronized void invalidateAll()
+	{
+		baseVersion++;
+		globalVersion++;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Class<? extends Entity> getRootClass(Class<? extends Entity> entityClass)
+	{
+		Class<? extends Entity> root = entityClass;
+		while (root.getSuperclass() != null && Entity.class.isAssignableFrom(root.getSuperclass())
+				&& !Modifier.isAbstract(root.getSuperclass().getModifiers()))
+			root = (Class<? extends Entity>) root.getSuperclass();
+		return root;
+	}
+}
@@ -120,6 +120,30 @@ public interface Database extends Closeable
 	 */
 	public void rollbackTx() throws DatabaseException;
 
+	/**
+	 * Begin an import.
+	 * <p>
+	 * Until the matching endImportCache, foreign keys that are resolved from
+	 * labels (e.g. by the entity importers and by bulk add and update) are
+	 * kept in one {@link ForeignKeyCache}, so that each label is looked up
+	 * once for the whole import instead of once per batch. Calls may be
+	 * nested, the cache ends with the outermost endImportCache.
+	 */
+	public void beginImportCache();
+
+	/**
+	 * End an import started with beginImportCache.
+	 */
+	public void endImportCache();
+
+	/**
+	 * Returns the foreign key cache of the running import, or null if no
+	 * import runs.
+	 * 
+	 * @return foreign key cache or null
+	 */
+	public ForeignKeyCache getImportCache();
+
 	/**
 	 * Count the entities of type entityClass. Optionally, additional filtering
 	 * rules can be set. The rules are passed via a variable parameter-list,
@@ -232,6 +256,23 @@ public interface Database extends Closeable
 	 */
 	public <E extends Entity> Query<E> queryByExample(E entity);
 
+	/**
+	 * Create a PreparedQuery from rules with named parameters, to execute the
+	 * same query many times with other values.
+	 *
+	 * @see PreparedQuery
+	 * @see QueryParameter
+	 *
+	 * @param <E>
+	 *            type of entity
+	 * @param entityClass
+	 *            class of entity
+	 * @param rules
+	 *            rules of which the values can be a QueryParameter
+	 * @return prepared query, bind the parameters before executing it
+	 */
+	public <E extends Entity> PreparedQuery<E> prepare(Class<E> entityClass, QueryRule... rules);
+
 	/**
 	 * Add one entity object to the database.
 	 * 
@@ -491,6 +532,31 @@ public interface Database extends Closeable
 	 */
 	public List<Tuple> sql(String query, QueryRule... queryRules) throws DatabaseException;
 
+	/**
+	 * Executes a query and lazily iterates over the resulting (Molgenis)Tuples.
+	 * The iterator must be closed when not iterated to the end.
+	 * 
+	 * @return TupleIterator
+	 */
+	public TupleIterator sqlIterator(String query, QueryRule... queryRules) throws DatabaseException;
+
+	/**
+	 * Executes a query with '?' placeholders, binding the parameters in order,
+	 * and get back a List of (Molgenis)Tuples
+	 * 
+	 * @return List<Tuple>
+	 */
+	public List<Tuple> sql(String query, List<Object> parameters) throws DatabaseException;
+
+	/**
+	 * Executes a query with '?' placeholders, binding the parameters in order,
+	 * and lazily iterates over the resulting (Molgenis)Tuples. The iterator
+	 * must be closed when not iterated to the end.
+	 * 
+	 * @return TupleIterator
+	 */
+	public TupleIterator sqlIterator(String query, List<Object> parameters) throws DatabaseException;
+
 	/**
 	 * Generate the find SQL (use with caution!)
 	 */
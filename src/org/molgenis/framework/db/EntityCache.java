@@ -0,0 +1,294 @@
+package org.molgenis.framework.db;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.molgenis.util.Entity;
+import org.molgenis.util.tuple.KeyValueTuple;
+
+/**
+ * Read-through cache of entities, keyed on their primary key and secondary
+ * unique keys. Used by the JDBC mappers for entities that are marked with
+ * <code>&lt;entity cache="true" cacheSize="..."&gt;</code> in the model, so
+ * that findById, load and the resolution of xref labels of small, often read
+ * tables are served from memory.
+ * <p>
+ * Each cached entity class has its own region with least recently used
+ * eviction. Like {@link CountCache} entries are invalidated by version instead
+ * of being evicted: every add/update/remove of an entity stamps its class
+ * hierarchy with a new version. An entry is valid as long as none of the
+ * entity classes it depends on, i.e. its own hierarchy and the entities its
+ * xref and mref labels come from, has been written since the entry was read.
+ * Entities are copied in and out, so callers may change the entities they get.
+ * All methods are synchronized, so the cache can be shared between request
+ * threads.
+ */
+public class EntityCache
+{
+	/** default maximum number of entities kept per entity class */
+	public static final int DEFAULT_MAX_SIZE = 1000;
+
+	/** regions per entity class name */
+	private final Map<String, Region> regions = new HashMap<String, Region>();
+
+	/** version of the last write per root entity class name */
+	private final Map<String, Long> versions = new HashMap<String, Long>();
+
+	/** version that is incremented on each write */
+	private long version = 0;
+
+	/**
+	 * Enables caching of an entity class. Does nothing if the entity class is
+	 * already registered.
+	 *
+	 * @param entityClass
+	 * @param maxSize
+	 *            maximum number of entities kept
+	 * @param dependencies
+	 *            other entity classes the cached values depend on, e.g. the
+	 *            entities of xref labels
+	 */
+	public synchronized void register(Class<? extends Entity> entityClass, int maxSize,
+			Collection<Class<? extends Entity>> dependencies)
+	{
+		if (maxSize < 1) throw new IllegalArgumentException("maxSize must be larger than zero");
+		if (regions.containsKey(entityClass.getName())) return;
+		List<String> roots = new ArrayList<String>();
+		roots.add(getRootClass(entityClass).getName());
+		for (Class<? extends Entity> dependency : dependencies)
+		{
+			String root = getRootClass(dependency).getName();
+			if (!roots.contains(root)) roots.add(root);
+		}
+		regions.put(entityClass.getName(), new Region(maxSize, roots));
+	}
+
+	/**
+	 * @return true if the entity class is registered
+	 */
+	public synchronized boolean isRegistered(Class<? extends Entity> entityClass)
+	{
+		return regions.containsKey(entityClass.getName());
+	}
+
+	/**
+	 * Returns the version entities must be read at. Must be retrieved before
+	 * the entities are queried and passed to {@link #put}, so that a write
+	 * during the query invalidates the result.
+	 */
+	public synchronized long getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * Returns a copy of the cached entity, or null if unknown or no longer
+	 * valid. Counts a hit or miss.
+	 *
+	 * @param entityClass
+	 * @param key
+	 *            key created with {@link #createKey(List, List)}
+	 * @throws DatabaseException
+	 */
+	public synchronized <E extends Entity> E get(Class<E> entityClass, String key) throws DatabaseException
+	{
+		Region region = regions.get(entityClass.getName());
+		if (region == null) return null;
+		Entry entry = region.entries.get(key);
+		if (entry != null && !isValid(region, entry.version))
+		{
+			region.entries.remove(key);
+			entry = null;
+		}
+		if (entry == null)
+		{
+			region.misses++;
+			return null;
+		}
+		region.hits++;
+		return entityClass.cast(copy(entry.entity));
+	}
+
+	/**
+	 * Stores a copy of an entity under each of its keys. Ignored if the entity
+	 * class is not registered or was written after the version was retrieved.
+	 *
+	 * @param entityClass
+	 *            the class the entity was queried as
+	 * @param version
+	 *            result of {@link #getVersion()} before querying
+	 * @param entity
+	 * @param keys
+	 *            keys created with {@link #createKey(List, List)}
+	 * @throws DatabaseException
+	 */
+	public synchronized void put(Class<? extends Entity> entityClass, long version, Entity entity,
+			Collection<String> keys) throws DatabaseException
+	{
+		Region region = regions.get(entityClass.getName());
+		if (region == null || !isValid(region, version) || keys.isEmpty()) return;
+		Entry entry = new Entry(copy(entity), version);
+		region.maxKeys = region.maxSize * keys.size();
+		for (String key : keys)
+			region.entries.put(key, entry);
+	}
+
+	/**
+	 * Invalidates the cached entities of the class hierarchy of the given
+	 * entity class and of the entities that depend on it.
+	 */
+	public synchronized void invalidate(Class<? extends Entity> entityClass)
+	{
+		versions.put(getRootClass(entityClass).getName(), ++version);
+	}
+
+	/**
+	 * Invalidates all entities, for example after an update with plain sql
+	 */
+	public synchronized void invalidateAll()
+	{
+		version++;
+		for (Region region : regions.values())
+			region.entries.clear();
+	}
+
+	/**
+	 * @return number of lookups of the entity class served from the cache
+	 */
+	public synchronized long getHits(Class<? extends Entity> entityClass)
+	{
+		Region region = regions.get(entityClass.getName());
+		return region != null ? region.hits : 0;
+	}
+
+	/**
+	 * @return number of lookups of the entity class that were not cached
+	 */
+	public synchronized long getMisses(Class<? extends Entity> entityClass)
+	{
+		Region region = regions.get(entityClass.getName());
+		return region != null ? region.misses : 0;
+	}
+
+	/**
+	 * @return number of cached keys of the entity class
+	 */
+	public synchronized int size(Class<? extends Entity> entityClass)
+	{
+		Region region = regions.get(entityClass.getName());
+		return region != null ? region.entries.size() : 0;
+	}
+
+	/**
+	 * Creates the cache key for the values of a (composite) unique key
+	 *
+	 * @param fields
+	 *            field names of the key, lower case
+	 * @param values
+	 *            values in the order of the fields
+	 * @return the key, or null if one of the values is null
+	 */
+	public static String createKey(List<String> fields, List<?> values)
+	{
+		StringBuilder key = new StringBuilder();
+		for (int i = 0; i < fields.size(); i++)
+		{
+			if (values.get(i) == null) return null;
+			key.append(fields.get(i)).append('\u0000').append(values.get(i)).append('\u0000');
+		}
+		return key.toString();
+	}
+
+	private boolean isValid(Region region, long entryVersion)
+	{
+		for (String root : region.dependencies)
+		{
+			Long written = versions.get(root);
+			if (written != null && written > entryVersion) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Copies an entity, including its mref lists and dates
+	 */
+	@SuppressWarnings("unchecked")
+	private static <E extends Entity> E copy(E entity) throws DatabaseException
+	{
+		try
+		{
+			KeyValueTuple values = new KeyValueTuple();
+			for (String field : entity.getFields())
+			{
+				Object value = entity.get(field);
+				if (value instanceof List<?>) value = new ArrayList<Object>((List<?>) value);
+				else if (value instanceof Date) value = ((Date) value).clone();
+				values.set(field, value);
+			}
+			E copy = (E) entity.getClass().newInstance();
+			copy.set(values, false);
+			return copy;
+		}
+		catch (Exception e)
+		{
+			throw new DatabaseException("copy of " + entity.getClass().getSimpleName() + " failed: " + e.getMessage(),
+					e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Class<? extends Entity> getRootClass(Class<? extends Entity> entityClass)
+	{
+		Class<? extends Entity> root = entityClass;
+		while (root.getSuperclass() != null && Entity.class.isAssignableFrom(root.getSuperclass())
+				&& !Modifier.isAbstract(root.getSuperclass().getModifiers()))
+			root = (Class<? extends Entity>) root.getSuperclass();
+		return root;
+	}
+
+	/** cached entities of one entity class */
+	private static class Region
+	{
+		final int maxSize;
+		final List<String> dependencies;
+		final Map<String, Entry> entries;
+		int maxKeys;
+		long hits = 0;
+		long misses = 0;
+
+		Region(int maxSize, List<String> dependencies)
+		{
+			this.maxSize = maxSize;
+			this.maxKeys = maxSize;
+			this.dependencies = dependencies;
+			this.entries = new LinkedHashMap<String, Entry>(64, 0.75f, true)
+			{
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+				{
+					return size() > maxKeys;
+				}
+			};
+		}
+	}
+
+	private static class Entry
+	{
+		final Entity entity;
+		final long version;
+
+		Entry(Entity entity, long version)
+		{
+			this.entity = entity;
+			this.version = version;
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package org.molgenis.framework.db;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded least recently used cache of resolved foreign keys, mapping the
+ * label(s) of a referenced entity to its id. Used by
+ * {@link Mapper#resolveForeignKeys(java.util.List)} and the generated entity
+ * importers so that, during a bulk add or update or a whole import (see
+ * {@link Database#beginImportCache()}), each label is only looked up once.
+ * <p>
+ * Ids are cached per referenced entity class. When entities of a class are
+ * updated or removed, {@link #invalidate(Class)} drops the ids of that class
+ * and of its super- and subclasses.
+ */
+public class ForeignKeyCache
+{
+	/** default maximum number of labels kept */
+	public static final int DEFAULT_MAX_SIZE = 100000;
+
+	private final Map<String, Entry> ids;
+	/** per referenced entity class the version its cached ids are valid for */
+	private final Map<Class<?>, Integer> versions = new HashMap<Class<?>, Integer>();
+
+	public ForeignKeyCache()
+	{
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	public ForeignKeyCache(final int maxSize)
+	{
+		if (maxSize < 1) throw new IllegalArgumentException("maxSize must be larger than zero");
+		this.ids = new LinkedHashMap<String, Entry>(256, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+			{
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Returns the id for the label of the referenced entity, or null if
+	 * unknown
+	 *
+	 * @param entityClass
+	 *            referenced (xref) entity class
+	 * @param labelFields
+	 *            (comma separated) label field name(s)
+	 * @param label
+	 *            (concatenated) label value(s)
+	 */
+	public synchronized Object get(Class<?> entityClass, String labelFields, String label)
+	{
+		String key = createKey(entityClass, labelFields, label);
+		Entry entry = ids.get(key);
+		if (entry == null) return null;
+		if (entry.version != getVersion(entityClass))
+		{
+			ids.remove(key);
+			return null;
+		}
+		return entry.id;
+	}
+
+	/**
+	 * Stores the id for the label of the referenced entity
+	 *
+	 * @param entityClass
+	 *            referenced (xref) entity class
+	 * @param labelFields
+	 *            (comma separated) label field name(s)
+	 * @param label
+	 *            (concatenated) label value(s)
+	 * @param id
+	 */
+	public synchronized void put(Class<?> entityClass, String labelFields, String label, Object id)
+	{
+		if (id == null) return;
+		Integer version = versions.get(entityClass);
+		if (version == null)
+		{
+			version = 0;
+			versions.put(entityClass, version);
+		}
+		ids.put(createKey(entityClass, labelFields, label), new Entry(id, version));
+	}
+
+	/**
+	 * Drops the cached ids of entities that may have changed because entities
+	 * of the given class were updated or removed: those of the class itself
+	 * and of its super- and subclasses.
+	 *
+	 * @param changedClass
+	 */
+	public synchronized void invalidate(Class<?> changedClass)
+	{
+		for (Map.Entry<Class<?>, Integer> entry : versions.entrySet())
+		{
+			Class<?> entityClass = entry.getKey();
+			if (entityClass.isAssignableFrom(changedClass) || changedClass.isAssignableFrom(entityClass)) entry
+					.setValue(entry.getValue() + 1);
+		}
+	}
+
+	public synchronized int size()
+	{
+		return ids.size();
+	}
+
+	public synchronized void clear()
+	{
+		ids.clear();
+		versions.clear();
+	}
+
+	private int getVersion(Class<?> entityClass)
+	{
+		Integer version = versions.get(entityClass);
+		return version != null ? version : -1;
+	}
+
+	private static String createKey(Class<?> entityClass, String labelFields, String label)
+	{
+		return entityClass.getName() + '\u0000' + labelFields + '\u0000' + label;
+	}
+
+	private static class Entry
+	{
+		final Object id;
+		final int version;
+
+		Entry(Object id, int version)
+		{
+			this.id = id;
+			this.version = version;
+		}
+	}
+}
@@ -17,6 +17,14 @@ public class MapperDecorator<E extends Entity> implements Mapper<E>
 		this.mapper = generatedMapper;
 	}
 
+	/**
+	 * Returns the decorated mapper
+	 */
+	public Mapper<E> getMapper()
+	{
+		return mapper;
+	}
+
 	@Override
 	public int add(List<E> entities) throws DatabaseException
 	{
@@ -0,0 +1,45 @@
+package org.molgenis.framework.db;
+
+import java.util.List;
+import java.util.Set;
+
+import org.molgenis.io.TupleWriter;
+import org.molgenis.util.Entity;
+
+/**
+ * Query with named parameters that is built once and executed many times with
+ * other values, see {@link QueryParameter}. Create one using
+ * {@link Query#prepare()} or {@link Database#prepare(Class, QueryRule...)}.
+ * <p>
+ * The JDBC mappers translate a query shape into sql once and cache it, so
+ * executing a prepared query only binds the values. Other databases execute
+ * the rules with the values filled in.
+ * <p>
+ * The bound values are kept by the prepared query, so share it between
+ * threads only if the values are bound before.
+ */
+public interface PreparedQuery<E extends Entity>
+{
+	/**
+	 * Sets the value of a parameter for the next executions
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the query has no parameter with this name
+	 */
+	public PreparedQuery<E> bind(String name, Object value);
+
+	/** Names of the parameters of this query */
+	public Set<String> getParameterNames();
+
+	/** The rules of this query, with the currently bound values */
+	public QueryRule[] getRules() throws DatabaseException;
+
+	public List<E> find() throws DatabaseException;
+
+	public int count() throws DatabaseException;
+
+	public void find(TupleWriter writer) throws DatabaseException;
+
+	/** Finder for csv data with added option only export particular fields */
+	public void find(TupleWriter writer, List<String> fieldsToExport) throws DatabaseException;
+}
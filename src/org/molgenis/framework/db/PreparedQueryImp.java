@@ -0,0 +1,102 @@
+package org.molgenis.framework.db;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.molgenis.io.TupleWriter;
+import org.molgenis.util.Entity;
+
+/**
+ * Simple implementation of the PreparedQuery interface. The rules are given to
+ * the database with the parameters bound, or with the values filled in if the
+ * database cannot handle parameters.
+ */
+public class PreparedQueryImp<E extends Entity> implements PreparedQuery<E>
+{
+	private final Database database;
+	private final Class<E> klazz;
+	private final QueryRule[] rules;
+	private final Set<String> parameterNames;
+	private final boolean bindParameters;
+	private final Map<String, Object> values = new LinkedHashMap<String, Object>();
+
+	/**
+	 * @param db
+	 *            the database this query is bound to
+	 * @param klazz
+	 *            the Entity class that this query will filter
+	 * @param bindParameters
+	 *            whether the database handles bound parameters in rules, see
+	 *            {@link QueryParameter#bind(Map, QueryRule...)}. If false, the
+	 *            values are filled in.
+	 * @param rules
+	 *            rules with parameters
+	 */
+	public PreparedQueryImp(Database db, Class<E> klazz, boolean bindParameters, QueryRule... rules)
+	{
+		this.database = db;
+		this.klazz = klazz;
+		this.bindParameters = bindParameters;
+		this.rules = rules != null ? rules.clone() : new QueryRule[0];
+		this.parameterNames = QueryParameter.getNames(this.rules);
+	}
+
+	@Override
+	public PreparedQuery<E> bind(String name, Object value)
+	{
+		if (!parameterNames.contains(name)) throw new IllegalArgumentException("unknown parameter '" + name
+				+ "', parameters are " + parameterNames);
+		values.put(name, value);
+		return this;
+	}
+
+	@Override
+	public Set<String> getParameterNames()
+	{
+		return parameterNames;
+	}
+
+	@Override
+	public QueryRule[] getRules() throws DatabaseException
+	{
+		QueryRule[] boundRules = QueryParameter.bind(values, rules);
+		return bindParameters ? boundRules : QueryParameter.toValues(boundRules);
+	}
+
+	@Override
+	public List<E> find() throws DatabaseException
+	{
+		return database.find(klazz, getRules());
+	}
+
+	@Override
+	public int count() throws DatabaseException
+	{
+		return database.count(klazz, getRules());
+	}
+
+	@Override
+	public void find(TupleWriter writer) throws DatabaseException
+	{
+		database.find(klazz, writer, getRules());
+	}
+
+	@Override
+	public void find(TupleWriter writer, List<String> fieldsToExport) throws DatabaseException
+	{
+		database.find(klazz, writer, fieldsToExport, getRules());
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder strBuilder = new StringBuilder();
+		for (QueryRule rule : rules)
+		{
+			strBuilder.append(rule.toString());
+		}
+		return strBuilder.toString();
+	}
+}
@@ -279,6 +279,19 @@ public interface Query<E extends Entity>
 	 */
 	public String createFindSql() throws DatabaseException;
 
+	/**
+	 * Creates a PreparedQuery from the rules of this query, in which values
+	 * can be a QueryParameter.
+	 *
+	 * <pre>
+	 * PreparedQuery&lt;Panel&gt; q = db.query(Panel.class).eq(&quot;investigation&quot;, param(&quot;inv&quot;)).prepare();
+	 * </pre>
+	 *
+	 * Will throw an UnsupportedOperationException if the Query does not know
+	 * the Database and Class&lt;E extends Entity&gt; to use.
+	 */
+	public PreparedQuery<E> prepare();
+
 	/**
 	 * Method to create 'where field in (select * from ...)' subquery as
 	 * condition
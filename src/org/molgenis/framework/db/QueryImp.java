@@ -346,4 +346,15 @@ public class QueryImp<E extends Entity> implements Query<E>
 		return database.createFindSql(klazz, this.getRules());
 
 	}
+
+	@Override
+	public PreparedQuery<E> prepare()
+	{
+		if (this.klazz != null && this.database != null)
+		{
+			return database.prepare(this.klazz, this.getRules());
+		}
+		throw new UnsupportedOperationException(
+				"Cannot prepare this query because no database and entity is provided. Use Database.prepare(Class,QueryRule...)");
+	}
 }
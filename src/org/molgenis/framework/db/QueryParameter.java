@@ -0,0 +1,223 @@
+package org.molgenis.framework.db;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Named placeholder for the value of a QueryRule, used to build a
+ * {@link PreparedQuery} once and execute it many times with other values:
+ *
+ * <pre>
+ * PreparedQuery&lt;Panel&gt; q = db.query(Panel.class).eq(&quot;investigation&quot;, param(&quot;inv&quot;)).prepare();
+ * q.bind(&quot;inv&quot;, 1).find();
+ * q.bind(&quot;inv&quot;, 2).find();
+ * </pre>
+ *
+ * A parameter can be used as the value of a comparison (=, !=, LIKE, &lt;,
+ * &lt;=, &gt;, &gt;=). Rules with a bound parameter carry both the name and
+ * the value, so that mappers can recognize rules of the same shape.
+ */
+public class QueryParameter
+{
+	private final String name;
+	private final boolean bound;
+	private final Object value;
+
+	public QueryParameter(String name)
+	{
+		this(name, false, null);
+	}
+
+	private QueryParameter(String name, boolean bound, Object value)
+	{
+		if (name == null || name.isEmpty()) throw new IllegalArgumentException("parameter name is empty");
+		this.name = name;
+		this.bound = bound;
+		this.value = value;
+	}
+
+	/**
+	 * Shorthand for 'new QueryParameter(name)'
+	 */
+	public static QueryParameter param(String name)
+	{
+		return new QueryParameter(name);
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public boolean isBound()
+	{
+		return bound;
+	}
+
+	/** the bound value, can be null */
+	public Object getValue()
+	{
+		return value;
+	}
+
+	/** Returns a copy of this parameter bound to a value */
+	public QueryParameter bind(Object value)
+	{
+		return new QueryParameter(name, true, value);
+	}
+
+	/** Returns this parameter without value */
+	public QueryParameter unbind()
+	{
+		return bound ? new QueryParameter(name) : this;
+	}
+
+	@Override
+	public String toString()
+	{
+		return bound ? String.valueOf(value) : ":" + name;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		final int prime = 31;
+		int result = name.hashCode();
+		result = prime * result + (bound ? 1231 : 1237);
+		result = prime * result + ((value == null) ? 0 : value.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (this == obj) return true;
+		if (obj == null || getClass() != obj.getClass()) return false;
+		QueryParameter other = (QueryParameter) obj;
+		if (!name.equals(other.name) || bound != other.bound) return false;
+		return value == null ? other.value == null : value.equals(other.value);
+	}
+
+	/**
+	 * Returns the names of the parameters used in the rules, including nested
+	 * rules
+	 */
+	public static Set<String> getNames(QueryRule... rules)
+	{
+		Set<String> names = new LinkedHashSet<String>();
+		for (QueryParameter parameter : getParameters(rules).values())
+			names.add(parameter.getName());
+		return names;
+	}
+
+	public static boolean hasParameters(QueryRule... rules)
+	{
+		if (rules != null) for (QueryRule rule : rules)
+		{
+			if (rule == null) continue;
+			if (rule.getValue() instanceof QueryParameter) return true;
+			if (rule.getOperator() == QueryRule.Operator.NESTED && hasParameters(rule.getNestedRules())) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the bound values of the parameters in the rules
+	 *
+	 * @throws DatabaseException
+	 *             if a parameter is not bound
+	 */
+	public static Map<String, Object> getValues(QueryRule... rules) throws DatabaseException
+	{
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+		for (QueryParameter parameter : getParameters(rules).values())
+		{
+			if (!parameter.isBound()) throw new DatabaseException("no value bound for parameter '"
+					+ parameter.getName() + "'");
+			values.put(parameter.getName(), parameter.getValue());
+		}
+		return values;
+	}
+
+	/**
+	 * Copies the rules, binding the parameters to the given values. Rules
+	 * without parameters are not copied.
+	 *
+	 * @throws DatabaseException
+	 *             if no value is given for a parameter
+	 */
+	public static QueryRule[] bind(Map<String, Object> values, QueryRule... rules) throws DatabaseException
+	{
+		return replace(rules, values, false);
+	}
+
+	/**
+	 * Copies the rules, replacing bound parameters by their value. This gives
+	 * the rules as if they were written without parameters.
+	 *
+	 * @throws DatabaseException
+	 *             if a parameter is not bound
+	 */
+	public static QueryRule[] toValues(QueryRule... rules) throws DatabaseException
+	{
+		return replace(rules, null, true);
+	}
+
+	private static QueryRule[] replace(QueryRule[] rules, Map<String, Object> values, boolean toValues)
+			throws DatabaseException
+	{
+		if (rules == null || !hasParameters(rules)) return rules;
+		QueryRule[] result = new QueryRule[rules.length];
+		for (int i = 0; i < rules.length; i++)
+		{
+			QueryRule rule = rules[i];
+			if (rule != null && rule.getValue() instanceof QueryParameter)
+			{
+				QueryParameter parameter = (QueryParameter) rule.getValue();
+				rule = new QueryRule(rule);
+				if (toValues)
+				{
+					if (!parameter.isBound()) throw new DatabaseException("no value bound for parameter '"
+							+ parameter.getName() + "'");
+					rule.setValue(parameter.getValue());
+				}
+				else
+				{
+					if (!values.containsKey(parameter.getName())) throw new DatabaseException(
+							"no value bound for parameter '" + parameter.getName() + "'");
+					rule.setValue(parameter.bind(values.get(parameter.getName())));
+				}
+			}
+			else if (rule != null && rule.getOperator() == QueryRule.Operator.NESTED
+					&& hasParameters(rule.getNestedRules()))
+			{
+				rule = new QueryRule(replace(rule.getNestedRules(), values, toValues));
+			}
+			result[i] = rule;
+		}
+		return result;
+	}
+
+	private static Map<String, QueryParameter> getParameters(QueryRule... rules)
+	{
+		Map<String, QueryParameter> parameters = new LinkedHashMap<String, QueryParameter>();
+		collect(parameters, rules);
+		return parameters;
+	}
+
+	private static void collect(Map<String, QueryParameter> parameters, QueryRule... rules)
+	{
+		if (rules != null) for (QueryRule rule : rules)
+		{
+			if (rule == null) continue;
+			if (rule.getValue() instanceof QueryParameter)
+			{
+				QueryParameter parameter = (QueryParameter) rule.getValue();
+				if (!parameters.containsKey(parameter.getName())) parameters.put(parameter.getName(), parameter);
+			}
+			else if (rule.getOperator() == QueryRule.Operator.NESTED) collect(parameters, rule.getNestedRules());
+		}
+	}
+}
@@ -71,7 +71,10 @@ public class QueryRule
 	 */
 	public enum Operator
 	{
-		/** search all fields */
+		/**
+		 * search all string and text fields: with a search index each term
+		 * matches the start of a word, without it anywhere in a field
+		 */
 		SEARCH("search"),
 		/** 'field' equal to 'value' */
 		EQUALS("="),
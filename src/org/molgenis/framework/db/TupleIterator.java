@@ -0,0 +1,21 @@
+package org.molgenis.framework.db;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+import org.molgenis.util.tuple.Tuple;
+
+/**
+ * Lazily iterates over the rows of a query result. The underlying resources
+ * (e.g. a JDBC ResultSet) are released when the last row has been read or when
+ * close is called, so always close the iterator when not iterating to the end.
+ */
+public interface TupleIterator extends Iterator<Tuple>, Closeable
+{
+	/**
+	 * Returns the column names of the rows returned by this iterator
+	 * 
+	 * @return
+	 */
+	public Iterable<String> getColNames();
+}
@@ -1,29 +1,50 @@
 package org.molgenis.framework.db.jdbc;
 
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.log4j.Logger;
 import org.molgenis.fieldtypes.DecimalField;
 import org.molgenis.fieldtypes.FieldType;
 import org.molgenis.fieldtypes.IntField;
 import org.molgenis.fieldtypes.LongField;
+import org.molgenis.fieldtypes.MrefField;
 import org.molgenis.fieldtypes.StringField;
 import org.molgenis.fieldtypes.TextField;
+import org.molgenis.fieldtypes.UnknownField;
+import org.molgenis.fieldtypes.XrefField;
+import org.molgenis.framework.db.AbstractDatabase;
 import org.molgenis.framework.db.AbstractMapper;
 import org.molgenis.framework.db.Database;
 import org.molgenis.framework.db.DatabaseException;
+import org.molgenis.framework.db.EntityCache;
 import org.molgenis.framework.db.Query;
+import org.molgenis.framework.db.QueryParameter;
 import org.molgenis.framework.db.QueryRule;
 import org.molgenis.framework.db.QueryRule.Operator;
+import org.molgenis.framework.db.TupleIterator;
 import org.molgenis.io.TupleWriter;
+import org.molgenis.io.processor.AbstractCellProcessor;
+import org.molgenis.io.processor.CellProcessor;
 import org.molgenis.model.MolgenisModelException;
 import org.molgenis.model.elements.Field;
+import org.molgenis.model.elements.Unique;
 import org.molgenis.util.Entity;
 import org.molgenis.util.tuple.EntityTuple;
 import org.molgenis.util.tuple.Tuple;
@@ -39,52 +60,404 @@ public abstract class AbstractJDBCMapper<E extends Entity> extends AbstractMappe
 	/** log messages */
 	private static final Logger logger = Logger.getLogger(AbstractJDBCMapper.class);
 
+	/** default number of rows fetched per round trip when streaming */
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+
+	private int fetchSize = DEFAULT_FETCH_SIZE;
+
+	/** default number of rows sent per JDBC batch when adding/updating/removing */
+	public static final int DEFAULT_STATEMENT_BATCH_SIZE = 500;
+
+	private int statementBatchSize = DEFAULT_STATEMENT_BATCH_SIZE;
+
+	/** default maximum number of search index hits used in a query */
+	public static final int DEFAULT_MAX_SEARCH_HITS = 5000;
+
+	private int maxSearchHits = DEFAULT_MAX_SEARCH_HITS;
+
+	/** maximum number of compiled query shapes kept for all mappers */
+	public static final int MAX_COMPILED_QUERIES = 1000;
+
+	/**
+	 * where clauses of queries with parameters, keyed on mapper class and
+	 * query shape, shared by all databases
+	 */
+	private static final Map<List<Object>, CompiledQuery> compiledQueries = new LinkedHashMap<List<Object>, CompiledQuery>(
+			16, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<List<Object>, CompiledQuery> eldest)
+		{
+			return size() > MAX_COMPILED_QUERIES;
+		}
+	};
+
+	/** mref fields and their labels, rewritten by rewriteMrefRule */
+	private Set<String> mrefFields;
+
+	/** string and text fields searched by SEARCH rules, loaded on first use */
+	private List<String> searchFields;
+
+	/** maximum number of cached entities, 0 if not cached */
+	private int cacheSize;
+
+	/** primary and unique keys used for caching, loaded on first use */
+	private List<CacheKey> cacheKeys;
+
+	/** entities of the xref and mref labels of cached entities */
+	private List<Class<? extends Entity>> cacheDependencies;
+
 	public AbstractJDBCMapper(Database database)
 	{
 		super(database);
 	}
 
+	/**
+	 * Streams the result of a query to a TupleWriter. Rows are read from a
+	 * forward-only, read-only ResultSet using {@link #getFetchSize()} and are
+	 * converted to entities in chunks of {@link #BATCH_SIZE}. For each chunk
+	 * the mrefs are resolved using {@link #mapMrefs(List)} after which the
+	 * chunk is written and discarded, so memory use does not depend on the
+	 * size of the result.
+	 * <p>
+	 * If fieldsToExport is given, only the columns of these fields (and the id)
+	 * are selected, see {@link #createProjectionSql(List)}.
+	 * <p>
+	 * Note: MySQL only honours the fetch size when 'useCursorFetch=true' is set
+	 * on the connection url, otherwise the driver buffers the full result set.
+	 */
 	@Override
 	public void find(TupleWriter writer, List<String> fieldsToExport, QueryRule[] rules) throws DatabaseException
 	{
+		Connection conn = getDatabase().getConnection();
+		PreparedStatement stmt = null;
+		TupleIterator it = null;
+		boolean restoreAutoCommit = false;
 		try
 		{
-			// streaming result!!!!
-			List<Tuple> rsList = executeSelect(rules);
+			List<Object> parameters = new ArrayList<Object>();
+			String findSql = fieldsToExport != null ? createProjectionSql(fieldsToExport) : null;
+			String sql = findSql != null && !hasOperator(Operator.LAST, rules) ? createSelectSql(findSql, parameters,
+					rules) : createSelectSql(parameters, rules);
+			if (logger.isDebugEnabled()) logger.debug("find(TupleWriter): " + sql + " " + parameters);
 
-			// transform result set in writer
-			E entity = create();
-			if (writer != null) writer.writeColNames(new EntityTuple(entity).getColNames());
-			writer.writeColNames(fieldsToExport);
-			int i = 0;
-			List<E> entityBatch = new ArrayList<E>();
-			for (Tuple row : rsList)
+			// some drivers (e.g. postgresql) only use a cursor outside
+			// auto-commit mode
+			if (!getDatabase().inTx() && conn.getAutoCommit())
 			{
-				entity = create();
-				entity.set(row);
+				conn.setAutoCommit(false);
+				restoreAutoCommit = true;
+			}
+
+			// not cached: fetch size and cursor are specific to this query
+			stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			stmt.setFetchSize(fetchSize);
+			for (int i = 0; i < parameters.size(); i++)
+				stmt.setObject(i + 1, parameters.get(i));
+			it = new ResultSetTupleIterator(stmt, stmt.executeQuery());
+
+			if (fieldsToExport != null) writer.writeColNames(fieldsToExport);
+			else
+				writer.writeColNames(new EntityTuple(create()).getColNames());
+
+			int count = 0;
+			List<E> entityBatch = new ArrayList<E>(BATCH_SIZE);
+			while (it.hasNext())
+			{
+				E entity = create();
+				entity.set(it.next());
 				entityBatch.add(entity);
-				i++;
 
+				if (entityBatch.size() == BATCH_SIZE)
+				{
+					count += writeBatch(writer, entityBatch);
+				}
 			}
 			// write remaining
-			// load mrefs
-			logger.debug("*** mapMrefs -> LEFTOVERS"); // program does NOT crash
-														// after this
-			mapMrefs(entityBatch);
-			for (E e : entityBatch)
-			{
-				writer.write(new EntityTuple(e));
-			}
-			entityBatch.clear();
+			if (entityBatch.size() > 0) count += writeBatch(writer, entityBatch);
 			writer.close();
 
-			logger.debug("find(" + create().getClass().getSimpleName() + ", TupleWriter, " + Arrays.asList(rules)
-					+ "): wrote " + i + " lines.");
+			if (logger.isDebugEnabled()) logger.debug("find(" + create().getClass().getSimpleName()
+					+ ", TupleWriter, " + (rules != null ? Arrays.asList(rules) : "") + "): wrote " + count + " lines.");
 		}
 		catch (Exception e)
 		{
 			throw new DatabaseException(e);
 		}
+		finally
+		{
+			if (it != null) IOUtils.closeQuietly(it);
+			else
+				JDBCDatabase.closeStatement(stmt);
+			if (restoreAutoCommit)
+			{
+				try
+				{
+					conn.commit();
+					conn.setAutoCommit(true);
+				}
+				catch (SQLException e)
+				{
+					logger.warn("find(TupleWriter): failed to restore auto-commit: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Helper method for streaming find: loads the mrefs for a chunk of
+	 * entities, writes them and clears the chunk.
+	 * 
+	 * @return number of entities written
+	 */
+	private int writeBatch(TupleWriter writer, List<E> entityBatch) throws DatabaseException, IOException
+	{
+		mapMrefs(entityBatch);
+		for (E e : entityBatch)
+		{
+			writer.write(new EntityTuple(e));
+		}
+		int size = entityBatch.size();
+		entityBatch.clear();
+		return size;
+	}
+
+	/**
+	 * Number of rows the driver should fetch per round trip when streaming
+	 * results using {@link #find(TupleWriter, List, QueryRule[])}.
+	 */
+	public int getFetchSize()
+	{
+		return fetchSize;
+	}
+
+	public void setFetchSize(int fetchSize)
+	{
+		this.fetchSize = fetchSize;
+	}
+
+	public int getStatementBatchSize()
+	{
+		return statementBatchSize;
+	}
+
+	public void setStatementBatchSize(int statementBatchSize)
+	{
+		if (statementBatchSize < 1) throw new IllegalArgumentException("statementBatchSize must be larger than zero");
+		this.statementBatchSize = statementBatchSize;
+	}
+
+	/**
+	 * Maximum number of search index hits that is translated into an 'IN'
+	 * rule, searches with more hits use 'LIKE' instead. Note that the index
+	 * matches search terms to the start of words while 'LIKE' matches them
+	 * anywhere in a value, so these searches may return more results than the
+	 * index would.
+	 */
+	public int getMaxSearchHits()
+	{
+		return maxSearchHits;
+	}
+
+	public void setMaxSearchHits(int maxSearchHits)
+	{
+		if (maxSearchHits < 1) throw new IllegalArgumentException("maxSearchHits must be larger than zero");
+		this.maxSearchHits = maxSearchHits;
+	}
+
+	@Override
+	public int add(List<E> entities) throws DatabaseException
+	{
+		int result = super.add(entities);
+		updateSearchIndex(entities);
+		return result;
+	}
+
+	@Override
+	public int update(List<E> entities) throws DatabaseException
+	{
+		int result = super.update(entities);
+		updateSearchIndex(entities);
+		return result;
+	}
+
+	@Override
+	public int remove(List<E> entities) throws DatabaseException
+	{
+		int result = super.remove(entities);
+		if (getSearchIndex() != null)
+		{
+			List<String> ids = new ArrayList<String>(entities.size());
+			for (E entity : entities)
+				if (entity.getIdValue() != null) ids.add(entity.getIdValue().toString());
+			((JDBCDatabase) getDatabase()).removeFromSearchIndex(create().getClass(), ids);
+		}
+		return result;
+	}
+
+	/**
+	 * Rebuilds the search index for all entities of this mapper
+	 * 
+	 * @see JDBCDatabase#index()
+	 */
+	void index() throws DatabaseException
+	{
+		final Class<? extends Entity> entityClass = create().getClass();
+		final String idField = create().getIdField();
+		final List<String> fields = getSearchFields();
+		if (fields.isEmpty()) return;
+		final Map<String, Map<String, String>> documents = new LinkedHashMap<String, Map<String, String>>();
+		List<String> fieldsToExport = new ArrayList<String>(fields);
+		fieldsToExport.add(idField);
+
+		// stream all rows into the index in batches
+		find(new TupleWriter()
+		{
+			private final List<CellProcessor> cellProcessors = new ArrayList<CellProcessor>();
+
+			@Override
+			public void writeColNames(Iterable<String> colNames) throws IOException
+			{
+			}
+
+			@Override
+			public void write(Tuple tuple) throws IOException
+			{
+				Map<String, String> document = createDocument(tuple, fields);
+				for (Map.Entry<String, String> entry : document.entrySet())
+					entry.setValue(AbstractCellProcessor.processCell(entry.getValue(), false, cellProcessors));
+				documents.put(tuple.getString(idField), document);
+				if (documents.size() == BATCH_SIZE) close();
+			}
+
+			@Override
+			public void addCellProcessor(CellProcessor cellProcessor)
+			{
+				cellProcessors.add(cellProcessor);
+			}
+
+			@Override
+			public void close() throws IOException
+			{
+				try
+				{
+					getSearchIndex().update(entityClass, documents);
+					documents.clear();
+				}
+				catch (DatabaseException e)
+				{
+					throw new IOException(e);
+				}
+			}
+		}, fieldsToExport, new QueryRule[0]);
+		getSearchIndex().markIndexed(entityClass);
+		logger.info("indexed " + entityClass.getSimpleName());
+	}
+
+	private void updateSearchIndex(List<E> entities) throws DatabaseException
+	{
+		if (getSearchIndex() == null) return;
+		List<String> fields = getSearchFields();
+		Map<String, Map<String, String>> documents = new LinkedHashMap<String, Map<String, String>>();
+		for (E entity : entities)
+		{
+			if (entity.getIdValue() != null) documents.put(entity.getIdValue().toString(),
+					createDocument(new EntityTuple(entity), fields));
+		}
+		((JDBCDatabase) getDatabase()).updateSearchIndex(create().getClass(), documents);
+	}
+
+	private static Map<String, String> createDocument(Tuple tuple, List<String> fields)
+	{
+		Map<String, String> document = new HashMap<String, String>();
+		for (String field : fields)
+			document.put(field, tuple.getString(field));
+		return document;
+	}
+
+	private SearchIndex getSearchIndex()
+	{
+		return getDatabase() instanceof JDBCDatabase ? ((JDBCDatabase) getDatabase()).getSearchIndex() : null;
+	}
+
+	/**
+	 * Returns the string and text fields of this entity (including inherited
+	 * fields), which are searched by SEARCH rules.
+	 */
+	protected List<String> getSearchFields() throws DatabaseException
+	{
+		if (searchFields == null)
+		{
+			List<String> fields = new ArrayList<String>();
+			try
+			{
+				// link tables of mrefs are not part of the model: no fields
+				for (Field f : getDatabase().getMetaData().getIndex().getAllFields(create().getClass().getSimpleName()))
+				{
+					if (f.getType() instanceof StringField || f.getType() instanceof TextField) fields.add(f.getName());
+				}
+			}
+			catch (MolgenisModelException e)
+			{
+				throw new DatabaseException(e);
+			}
+			searchFields = fields;
+		}
+		return searchFields;
+	}
+
+	/**
+	 * Translates a SEARCH rule into an 'IN' rule on the ids found in the search
+	 * index.
+	 * 
+	 * @return the rule, or null if the search index cannot be used
+	 */
+	private QueryRule createIndexedSearchRule(QueryRule rule) throws DatabaseException
+	{
+		SearchIndex index = getSearchIndex();
+		Class<? extends Entity> entityClass = create().getClass();
+		if (index == null || rule.getValue() == null || !index.isIndexed(entityClass)) return null;
+
+		List<String> ids = index.search(entityClass, getSearchFields(), rule.getValue().toString(), maxSearchHits);
+		if (ids == null) return null;
+
+		String idField = create().getIdField();
+		// nothing found: the id is never null
+		if (ids.isEmpty()) return new QueryRule(idField, Operator.EQUALS, null);
+
+		try
+		{
+			FieldType idType = getFieldType(idField);
+			List<Object> values = new ArrayList<Object>(ids.size());
+			for (String id : ids)
+				values.add(idType.getTypedValue(id));
+			return new QueryRule(idField, Operator.IN, values);
+		}
+		catch (ParseException e)
+		{
+			throw new DatabaseException(e);
+		}
+	}
+
+	/**
+	 * Helper method for executing a batch of statements.
+	 * 
+	 * @param pstmt
+	 *            statement with one or more batched parameter sets
+	 * @return number of rows affected, counting rows of which the driver does
+	 *         not report the count as one
+	 * @throws SQLException
+	 */
+	protected static int executeBatch(PreparedStatement pstmt) throws SQLException
+	{
+		int updatedRows = 0;
+		for (int count : pstmt.executeBatch())
+		{
+			updatedRows += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+		}
+		return updatedRows;
 	}
 
 	/**
@@ -147,6 +520,19 @@ public abstract class AbstractJDBCMapper<E extends Entity> extends AbstractMappe
 	 */
 	public abstract String createCountSql(QueryRule... rules) throws DatabaseException;
 
+	/**
+	 * The FROM clause shared by {@link #createFindSql(QueryRule...)} and
+	 * {@link #createCountSql(QueryRule...)}: the table of this entity joined
+	 * with its superclass tables and the tables of its xref labels.
+	 */
+	public abstract String createFromSql();
+
+	/**
+	 * Name of the table of this entity, the first table of
+	 * {@link #createFromSql()}
+	 */
+	public abstract String getTableName();
+
 	/**
 	 * Translate object field name to table fieldname
 	 */
@@ -194,9 +580,10 @@ public abstract class AbstractJDBCMapper<E extends Entity> extends AbstractMappe
 	{
 		try
 		{
-			String sql = createCountSql(rules) + createWhereSql(false, true, this.rewriteRules(getDatabase(), rules));
+			List<Object> parameters = new ArrayList<Object>();
+			String sql = createCountSql(rules) + createFilterSql(parameters, removeSortRules(rules));
 			// + createWhereSql(getMapperFor(klazz), false, true, rules);
-			List<Tuple> rsList = getDatabase().sql(sql);
+			List<Tuple> rsList = getDatabase().sql(sql, parameters);
 			int result = rsList.get(0).getInt("num_rows");
 			logger.debug("counted " + result + " " + this.create().getClass().getSimpleName() + " objects");
 			return result;
@@ -207,8 +594,102 @@ public abstract class AbstractJDBCMapper<E extends Entity> extends AbstractMappe
 		}
 	}
 
+	/**
+	 * Rules are local if they only filter on fields of this entity and its
+	 * superclasses. Rules on mrefs, on xref labels or joins with other
+	 * entities are not.
+	 */
+	@Override
+	protected boolean isLocal(QueryRule... rules)
+	{
+		if (rules != null) for (QueryRule rule : rules)
+		{
+			if (rule == null) continue;
+			switch (rule.getOperator())
+			{
+				case NESTED:
+					if (!isLocal(rule.getNestedRules())) return false;
+					break;
+				case JOIN:
+				case IN_SUBQUERY:
+				case SUBQUERY:
+					return false;
+				case SEARCH:
+				case AND:
+				case OR:
+				case LIMIT:
+				case OFFSET:
+				case SORTASC:
+				case SORTDESC:
+					break;
+				default:
+					if (rule.getField() == null) break;
+					FieldType type = getFieldType(rule.getField());
+					if (type == null || type instanceof MrefField || type instanceof UnknownField) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Estimates the number of rows from the table statistics of MySQL
+	 * (information_schema.TABLES) or PostgreSQL (pg_class). Returns -1 for
+	 * other databases.
+	 */
+	@Override
+	public int estimateCount() throws DatabaseException
+	{
+		try
+		{
+			String product = getDatabase().getConnection().getMetaData().getDatabaseProductName().toLowerCase();
+
+			String table = getTableName();
+
+			List<Tuple> rsList;
+			if (product.contains("mysql"))
+			{
+				rsList = getDatabase().sql(
+						"SELECT TABLE_ROWS AS num_rows FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?",
+						Arrays.<Object> asList(table));
+			}
+			else if (product.contains("postgres"))
+			{
+				rsList = getDatabase().sql(
+						"SELECT reltuples AS num_rows FROM pg_class WHERE relkind = 'r' AND relname = ?",
+						Arrays.<Object> asList(table.toLowerCase()));
+			}
+			else
+				return -1;
+
+			if (rsList.isEmpty() || rsList.get(0).get("num_rows") == null) return -1;
+			long estimate = ((Number) rsList.get(0).get("num_rows")).longValue();
+			logger.debug("estimated " + estimate + " " + this.create().getClass().getSimpleName() + " objects");
+			return (int) Math.min(estimate, Integer.MAX_VALUE);
+		}
+		catch (Exception e)
+		{
+			throw new DatabaseException(e);
+		}
+	}
+
+	/**
+	 * Finds entities. If this entity is cached, see {@link #getCacheSize()},
+	 * lookups on the primary key or a unique key are served from the
+	 * {@link EntityCache}.
+	 */
 	@Override
 	public List<E> find(QueryRule... rules) throws DatabaseException
+	{
+		EntityCache cache = getEntityCache();
+		if (cache != null && rules != null)
+		{
+			List<E> entities = findCached(cache, rules);
+			if (entities != null) return entities;
+		}
+		return executeFind(rules);
+	}
+
+	private List<E> executeFind(QueryRule... rules) throws DatabaseException
 	{
 		try
 		{
@@ -247,7 +728,30 @@ public abstract class AbstractJDBCMapper<E extends Entity> extends AbstractMappe
 	 */
 	private List<Tuple> executeSelect(QueryRule... rules) throws DatabaseException, SQLException
 	{
-		String sql = createFindSqlInclRules(rules);
+		// execute the query as prepared statement
+		List<Object> parameters = new ArrayList<Object>();
+		String sql = createSelectSql(parameters, rules);
+		return getDatabase().sql(sql, parameters);
+	}
+
+	/**
+	 * Helper function to create the select statement including rules. Values
+	 * are replaced by '?' and added to the parameters.
+	 * 
+	 * @param parameters
+	 * @param rules
+	 * @return sql
+	 * @throws DatabaseException
+	 */
+	private String createSelectSql(List<Object> parameters, QueryRule... rules) throws DatabaseException
+	{
+		return createSelectSql(createFindSql(), parameters, rules);
+	}
+
+	private String createSelectSql(String findSql, List<Object> parameters, QueryRule... rules)
+			throws DatabaseException
+	{
+		String sql = findSql + createFilterSql(parameters, rules);
 		if (rules != null)
 		{
 			// FIXME too complicated
@@ -261,8 +765,67 @@ public abstract class AbstractJDBCMapper<E extends Entity> extends AbstractMappe
 				}
 			}
 		}
-		// execute the query
-		return getDatabase().sql(sql);
+		return sql;
+	}
+
+	/**
+	 * Creates a find statement that only selects the columns of the given
+	 * fields and the id. Fields of the entity that are not a column of the
+	 * find statement, such as mrefs and their labels, are not selected but
+	 * loaded by {@link #mapMrefs(List)}. Returns null if a field is unknown, in
+	 * which case all columns must be selected.
+	 * 
+	 * @param fields
+	 * @throws DatabaseException
+	 */
+	protected String createProjectionSql(List<String> fields) throws DatabaseException
+	{
+		E entity = create();
+		Set<String> entityFields = new HashSet<String>();
+		for (String field : entity.getFields())
+			entityFields.add(field.toLowerCase());
+
+		Set<String> selected = new LinkedHashSet<String>();
+		selected.add(entity.getIdField());
+		selected.addAll(fields);
+
+		StringBuilder select = new StringBuilder();
+		for (String field : selected)
+		{
+			String column = getTableFieldName(field);
+			// fields without column are not qualified with a table (alias)
+			if (column == null || column.indexOf('.') == -1)
+			{
+				if (entityFields.contains(field.toLowerCase())) continue;
+				return null;
+			}
+			select.append(select.length() == 0 ? "SELECT " : ", ").append(column);
+			if (!column.substring(column.lastIndexOf('.') + 1).equalsIgnoreCase(field)) select.append(" AS ").append(
+					field);
+		}
+		return select + createFromSql();
+	}
+
+	/**
+	 * Sorting does not change a count, and 'count(*) ... ORDER BY' is not
+	 * accepted by all databases
+	 */
+	private static QueryRule[] removeSortRules(QueryRule... rules)
+	{
+		if (!hasOperator(Operator.SORTASC, rules) && !hasOperator(Operator.SORTDESC, rules)) return rules;
+		List<QueryRule> result = new ArrayList<QueryRule>();
+		for (QueryRule rule : rules)
+			if (rule == null
+					|| (rule.getOperator() != Operator.SORTASC && rule.getOperator() != Operator.SORTDESC)) result
+					.add(rule);
+		return result.toArray(new QueryRule[result.size()]);
+	}
+
+	private static boolean hasOperator(Operator operator, QueryRule... rules)
+	{
+		if (rules != null) for (QueryRule rule : rules)
+			if (rule != null && rule.getOperator() == operator) return true;
+		return false;
 	}
 
 	/**
@@ -293,9 +856,153 @@ public abstract class AbstractJDBCMapper<E extends Entity> extends AbstractMappe
 	@Override
 	public String createFindSqlInclRules(QueryRule[] rules) throws DatabaseException
 	{
+		rules = QueryParameter.toValues(rules);
 		return createFindSql() + createWhereSql(false, true, this.rewriteRules(getDatabase(), rules));
 	}
 
+	/**
+	 * Helper function to create the where clause of the find and count
+	 * statements, including sort, limit and offset. Values are replaced by
+	 * '?' and added to the parameters.
+	 * <p>
+	 * Rules with bound {@link QueryParameter}s are translated once per query
+	 * shape and mapper class, after which only the values are bound, see
+	 * {@link #compile(QueryRule...)}. Other rules are rewritten and translated
+	 * on each call.
+	 */
+	protected String createFilterSql(List<Object> parameters, QueryRule... rules) throws DatabaseException
+	{
+		if (QueryParameter.hasParameters(rules))
+		{
+			CompiledQuery compiled = compile(rules);
+			if (compiled != null)
+			{
+				List<Object> values = compiled.bind(QueryParameter.getValues(rules));
+				if (values != null)
+				{
+					parameters.addAll(values);
+					return compiled.whereSql;
+				}
+			}
+			rules = QueryParameter.toValues(rules);
+		}
+		return createWhereSql(parameters, false, true, this.rewriteRules(getDatabase(), rules));
+	}
+
+	/**
+	 * Returns the compiled where clause for the shape of these rules, i.e. the
+	 * rules without the values of their parameters. Returns null if the rules
+	 * cannot be compiled, because their sql depends on the data: SEARCH rules
+	 * and rules on mrefs are rewritten using the search index or the mref
+	 * link tables. Parameters can only be used in comparisons.
+	 */
+	private CompiledQuery compile(QueryRule... rules) throws DatabaseException
+	{
+		List<Object> key = new ArrayList<Object>();
+		key.add(getClass());
+		if (!addShape(key, rules)) return null;
+
+		CompiledQuery compiled;
+		synchronized (compiledQueries)
+		{
+			compiled = compiledQueries.get(key);
+		}
+		if (compiled == null)
+		{
+			QueryRule[] shape = new QueryRule[key.size() - 1];
+			for (int i = 0; i < shape.length; i++)
+				shape[i] = (QueryRule) key.get(i + 1);
+			List<Object> parameters = new ArrayList<Object>();
+			String whereSql = createWhereSql(parameters, false, true, shape);
+			compiled = new CompiledQuery(whereSql, parameters);
+			if (logger.isDebugEnabled()) logger.debug("compiled " + create().getClass().getSimpleName() + " query "
+					+ key.subList(1, key.size()) + ": " + whereSql);
+			synchronized (compiledQueries)
+			{
+				compiledQueries.put(key, compiled);
+			}
+		}
+		return compiled;
+	}
+
+	/**
+	 * Adds copies of the rules to the shape, with parameters unbound and
+	 * arrays as lists so that the rules can be compared.
+	 *
+	 * @return false if the rules cannot be compiled
+	 */
+	private boolean addShape(List<Object> shape, QueryRule... rules) throws DatabaseException
+	{
+		if (rules != null) for (QueryRule rule : rules)
+		{
+			if (rule == null || rule.getClass() != QueryRule.class) return false;
+			Operator operator = rule.getOperator();
+			if (operator == Operator.SEARCH) return false;
+			if (operator == Operator.NESTED)
+			{
+				List<Object> nested = new ArrayList<Object>();
+				if (!addShape(nested, rule.getNestedRules())) return false;
+				shape.add(new QueryRule(nested.toArray(new QueryRule[nested.size()])));
+				continue;
+			}
+			if (rule.getField() != null && getMrefFields().contains(rule.getField().toLowerCase())) return false;
+
+			QueryRule copy = new QueryRule(rule);
+			if (rule.getValue() instanceof QueryParameter)
+			{
+				switch (operator)
+				{
+					case EQUALS:
+					case NOT:
+					case LIKE:
+					case LESS:
+					case LESS_EQUAL:
+					case GREATER:
+					case GREATER_EQUAL:
+						copy.setValue(((QueryParameter) rule.getValue()).unbind());
+						break;
+					default:
+						return false;
+				}
+			}
+			else if (rule.getValue() instanceof Object[])
+			{
+				copy.setValue(Arrays.asList((Object[]) rule.getValue()));
+			}
+			shape.add(copy);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the lower case names of the mref fields of this entity and of
+	 * their labels.
+	 */
+	private Set<String> getMrefFields() throws DatabaseException
+	{
+		if (mrefFields == null)
+		{
+			Set<String> fields = new HashSet<String>();
+			try
+			{
+				// link tables of mrefs are not part of the model: no fields
+				for (Field f : getDatabase().getMetaData().getIndex().getAllFields(create().getClass().getSimpleName()))
+				{
+					if (!(f.getType() instanceof MrefField)) continue;
+					fields.add(f.getName().toLowerCase());
+					for (String label : f.getXrefLabelNames())
+						fields.add((f.getName() + "_" + label).toLowerCase());
+				}
+			}
+			catch (MolgenisModelException e)
+			{
+				throw new DatabaseException(e);
+			}
+			mrefFields = fields;
+		}
+		return mrefFields;
+	}
+
 	/**
 	 * Mref fields do not really exist in the table but instead in a separate
 	 * link table. This method should query this link table to rewrite the query
@@ -338,7 +1045,9 @@ public abstract class AbstractJDBCMapper<E extends Entity> extends AbstractMappe
 			}
 			else
 			{
-				QueryRule r = this.rewriteMrefRule(db, rule);
+				// search using the index if available
+				QueryRule r = rule.getOperator() == Operator.SEARCH ? createIndexedSearchRule(rule) : null;
+				if (r == null) r = this.rewriteMrefRule(db, rule);
 				// r.setOr(rule.isOr());
 				// rules.add(new QueryRule(Operator.OR));
 				rules.add(r);
@@ -366,6 +1075,23 @@ public abstract class AbstractJDBCMapper<E extends Entity> extends AbstractMappe
 	 * @throws DatabaseException
 	 */
 	public String createWhereSql(boolean isNested, boolean withOffset, QueryRule... rules) throws DatabaseException
+	{
+		return createWhereSql(null, isNested, withOffset, rules);
+	}
+
+	/**
+	 * Helper method for creating a where clause with '?' placeholders from
+	 * QueryRule...rules. The values to bind are added to parameters, in order
+	 * of appearance. IN lists are padded to a fixed bucket size so that the
+	 * number of distinct statements stays small.
+	 * 
+	 * @param parameters
+	 *            list to add the bound values to. If null, the values are
+	 *            inlined as escaped sql strings.
+	 * @see #createWhereSql(boolean, boolean, QueryRule...)
+	 */
+	public String createWhereSql(List<Object> parameters, boolean isNested, boolean withOffset, QueryRule... rules)
+			throws DatabaseException
 	{
 		StringBuilder where_clause = new StringBuilder("");
 		QueryRule previousRule = new QueryRule(Operator.AND);
@@ -396,9 +1122,8 @@ public abstract class AbstractJDBCMapper<E extends Entity> extends AbstractMappe
 					}
 					else if (rule.getOperator() == QueryRule.Operator.SEARCH)
 					{
-						// naive implementation, should use hibernate search
-						// when it comes
-						// available!
+						// naive implementation, used if no search index is
+						// available (see createIndexedSearchRule)
 						List<QueryRule> searchRules = new ArrayList<QueryRule>();
 
 						try
@@ -414,8 +1139,8 @@ public abstract class AbstractJDBCMapper<E extends Entity> extends AbstractMappe
 								List<QueryRule> termRules = new ArrayList<QueryRule>();
 
 								// create different query rule depending on type
-								List<Field> fields = getDatabase().getMetaData()
-										.getEntity(create().getClass().getSimpleName()).getAllFields();
+								List<Field> fields = getDatabase().getMetaData().getIndex()
+										.getAllFields(create().getClass().getSimpleName());
 
 								for (Field f : fields)
 								{
@@ -442,7 +1167,7 @@ public abstract class AbstractJDBCMapper<E extends Entity> extends AbstractMappe
 							}
 
 							where_clause.append("(");
-							where_clause.append(createWhereSql(true, false,
+							where_clause.append(createWhereSql(parameters, true, false,
 									searchRules.toArray(new QueryRule[searchRules.size()])));
 							where_clause.append(")");
 
@@ -469,7 +1194,7 @@ public abstract class AbstractJDBCMapper<E extends Entity> extends AbstractMappe
 								}
 							}
 							where_clause.append("(");
-							where_clause.append(createWhereSql(true, false, nestedrules));
+							where_clause.append(createWhereSql(parameters, true, false, nestedrules));
 							where_clause.append(")");
 						}
 					}
@@ -524,18 +1249,26 @@ public abstract class AbstractJDBCMapper<E extends Entity> extends AbstractMappe
 								values = (Object[]) rule.getValue();
 							}
 
-							for (int i = 0; i < values.length; i++)
+							if (parameters != null)
 							{
-								if (i > 0) where_clause.append(",");
-								if (omitQuotes(getFieldType(rule.getField())))
-								{
-									// where_clause.append(values[i]
-									// .toString());
-									where_clause.append("" + escapeSql(values[i]) + "");
-								}
-								else
+								JDBCQueryGernatorUtil.appendInParameters(where_clause, parameters, values,
+										getFieldType(rule.getField()));
+							}
+							else
+							{
+								for (int i = 0; i < values.length; i++)
 								{
-									where_clause.append("'" + escapeSql(values[i]) + "'");
+									if (i > 0) where_clause.append(",");
+									if (omitQuotes(getFieldType(rule.getField())))
+									{
+										// where_clause.append(values[i]
+										// .toString());
+										where_clause.append("" + escapeSql(values[i]) + "");
+									}
+									else
+									{
+										where_clause.append("'" + escapeSql(values[i]) + "'");
+									}
 								}
 							}
 							where_clause.append(") ");
@@ -588,7 +1321,9 @@ public abstract class AbstractJDBCMapper<E extends Entity> extends AbstractMappe
 						}
 						if (Boolean.TRUE.equals(rule.getValue())) rule.setValue("1");
 						if (Boolean.FALSE.equals(rule.getValue())) rule.setValue("0");
-						Object value = rule.getValue() == null ? "NULL" : escapeSql(rule.getValue());
+						Object value = rule.getValue() == null ? "NULL" : (parameters != null
+								&& !rule.getOperator().equals(Operator.JOIN) ? rule.getValue().toString()
+								: escapeSql(rule.getValue()));
 
 						if (!value.equals("NULL") && rule.getOperator() == Operator.LIKE
 								&& (!omitQuotes(getFieldType(rule.getField()))))
@@ -612,6 +1347,13 @@ public abstract class AbstractJDBCMapper<E extends Entity> extends AbstractMappe
 						{
 							where_clause.append(rule.getField() + " " + operator + " " + value + "");
 						}
+						else if (parameters != null && rule.getValue() instanceof QueryParameter)
+						{
+							// placeholder of a compiled query, see compile()
+							where_clause.append(rule.getField() + " " + operator + " ?");
+							parameters.add(new ParameterSlot(((QueryParameter) rule.getValue()).getName(),
+									getFieldType(rule.getField()), rule.getOperator() == Operator.LIKE));
+						}
 						else
 						{
 							if ("NULL".equals(value) && operator.equals("="))
@@ -622,6 +1364,11 @@ public abstract class AbstractJDBCMapper<E extends Entity> extends AbstractMappe
 							{
 								where_clause.append(rule.getField() + " IS NOT NULL");
 							}
+							else if (parameters != null)
+							{
+								where_clause.append(rule.getField() + " " + operator + " ?");
+								parameters.add(JDBCQueryGernatorUtil.toParameter(value, getFieldType(rule.getField())));
+							}
 							else
 							{
 								where_clause.append(rule.getField() + " " + operator + " '" + value + "'");
@@ -734,6 +1481,90 @@ public abstract class AbstractJDBCMapper<E extends Entity> extends AbstractMappe
 
 	}
 
+	/**
+	 * Where clause of a query shape, with the constant values and the
+	 * {@link ParameterSlot}s of the parameters in order of the '?'s
+	 */
+	private static class CompiledQuery
+	{
+		private final String whereSql;
+		private final List<Object> parameters;
+
+		CompiledQuery(String whereSql, List<Object> parameters)
+		{
+			this.whereSql = whereSql;
+			this.parameters = parameters;
+		}
+
+		/**
+		 * Returns the values to bind to the statement, or null if a parameter
+		 * is null: 'field = NULL' must be translated into 'field IS NULL'.
+		 */
+		List<Object> bind(Map<String, Object> values)
+		{
+			List<Object> result = new ArrayList<Object>(parameters.size());
+			for (Object parameter : parameters)
+			{
+				if (parameter instanceof ParameterSlot)
+				{
+					Object value = values.get(((ParameterSlot) parameter).name);
+					if (value == null) return null;
+					result.add(((ParameterSlot) parameter).toParameter(value));
+				}
+				else
+					result.add(parameter);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Placeholder for the value of a parameter in a compiled query. Values are
+	 * converted like createWhereSql does for constant values.
+	 */
+	private static class ParameterSlot
+	{
+		private final String name;
+		private final FieldType type;
+		private final boolean like;
+
+		ParameterSlot(String name, FieldType type, boolean like)
+		{
+			this.name = name;
+			this.type = type;
+			this.like = like;
+		}
+
+		Object toParameter(Object value)
+		{
+			if (Boolean.TRUE.equals(value)) value = "1";
+			if (Boolean.FALSE.equals(value)) value = "0";
+			String result = value.toString();
+			if (like && !omitQuotes(type) && !result.trim().startsWith("%") && !result.trim().endsWith("%"))
+			{
+				result = "%" + result + "%";
+			}
+			return JDBCQueryGernatorUtil.toParameter(result, type);
+		}
+	}
+
+	/**
+	 * Primary or unique key used to cache entities
+	 */
+	private static class CacheKey
+	{
+		/** lower case field names, as used in rules */
+		final List<String> fields;
+		/** lower case names to get the values from entities */
+		final List<String> valueFields;
+
+		CacheKey(List<String> fields, List<String> valueFields)
+		{
+			this.fields = fields;
+			this.valueFields = valueFields;
+		}
+	}
+
 	@Override
 	public List<E> findByExample(E example) throws DatabaseException
 	{
@@ -764,4 +1595,155 @@ public abstract class AbstractJDBCMapper<E extends Entity> extends AbstractMappe
 		if (result.size() > 0) return result.get(0);
 		return null;
 	}
+
+	/**
+	 * Returns the maximum number of entities cached, as set with
+	 * <code>&lt;entity cache="true" cacheSize="..."&gt;</code> in the model, or
+	 * 0 if this entity is not cached.
+	 */
+	public int getCacheSize() throws DatabaseException
+	{
+		loadCacheKeys();
+		return cacheSize;
+	}
+
+	/**
+	 * Returns the entity cache if this entity is cached, or null. Outside
+	 * transactions only: within a transaction the connection may see
+	 * uncommitted changes.
+	 */
+	private EntityCache getEntityCache() throws DatabaseException
+	{
+		if (!(getDatabase() instanceof AbstractDatabase) || getDatabase().inTx()) return null;
+		EntityCache cache = ((AbstractDatabase) getDatabase()).getEntityCache();
+		if (cache == null || getCacheSize() == 0) return null;
+		Class<? extends Entity> entityClass = create().getClass();
+		if (!cache.isRegistered(entityClass)) cache.register(entityClass, cacheSize, cacheDependencies);
+		return cache;
+	}
+
+	private void loadCacheKeys() throws DatabaseException
+	{
+		if (cacheKeys != null) return;
+		List<CacheKey> keys = new ArrayList<CacheKey>();
+		List<Class<? extends Entity>> dependencies = new ArrayList<Class<? extends Entity>>();
+		int size = 0;
+		try
+		{
+			String entityName = create().getClass().getSimpleName();
+			org.molgenis.model.elements.Entity entity = getDatabase().getMetaData().getIndex().getEntity(entityName);
+			if (entity != null && entity.isCached())
+			{
+				String idField = create().getIdField().toLowerCase();
+				keys.add(new CacheKey(Arrays.asList(idField), Arrays.asList(idField)));
+				for (Unique unique : entity.getAllKeys())
+				{
+					List<String> fields = new ArrayList<String>();
+					List<String> valueFields = new ArrayList<String>();
+					for (Field f : unique.getFields())
+					{
+						if (f.getType() instanceof MrefField) break;
+						fields.add(f.getName().toLowerCase());
+						// the value of an xref is the entity it refers to
+						valueFields.add(f.getType() instanceof XrefField ? (f.getName() + "_" + f.getXrefFieldName())
+								.toLowerCase() : f.getName().toLowerCase());
+					}
+					if (fields.size() == unique.getFields().size() && !fields.equals(Arrays.asList(idField))) keys
+							.add(new CacheKey(fields, valueFields));
+				}
+				for (Field f : getDatabase().getMetaData().getIndex().getAllFields(entityName))
+				{
+					if (!(f.getType() instanceof XrefField || f.getType() instanceof MrefField)) continue;
+					Class<? extends Entity> xrefClass = getDatabase().getClassForName(f.getXrefEntityName());
+					if (xrefClass != null) dependencies.add(xrefClass);
+				}
+				size = entity.getCacheSize();
+			}
+		}
+		catch (MolgenisModelException e)
+		{
+			throw new DatabaseException(e);
+		}
+		cacheSize = size;
+		cacheDependencies = dependencies;
+		cacheKeys = keys;
+	}
+
+	/**
+	 * Serves rules that look up entities on a key from the cache: EQUALS rules
+	 * on all fields of the primary or a unique key, or one IN rule on a single
+	 * field key. Entities that are not cached are queried and added to the
+	 * cache.
+	 * 
+	 * @return the entities, or null if the rules are no key lookup
+	 */
+	@SuppressWarnings("unchecked")
+	private List<E> findCached(EntityCache cache, QueryRule... rules) throws DatabaseException
+	{
+		Map<String, Object> values = new HashMap<String, Object>();
+		boolean in = false;
+		for (QueryRule rule : rules)
+		{
+			if (rule == null || rule.getClass() != QueryRule.class || rule.getField() == null
+					|| rule.getValue() == null || rule.getValue() instanceof QueryParameter) return null;
+			if (rule.getOperator() == Operator.IN && rules.length == 1) in = true;
+			else if (rule.getOperator() != Operator.EQUALS) return null;
+			if (values.put(rule.getField().toLowerCase(), rule.getValue()) != null) return null;
+		}
+
+		CacheKey key = null;
+		for (CacheKey cacheKey : cacheKeys)
+			if (cacheKey.fields.size() == values.size() && values.keySet().containsAll(cacheKey.fields)) key = cacheKey;
+		if (key == null || (in && key.fields.size() > 1)) return null;
+
+		// key values to look up, in order of the rule values
+		List<List<Object>> lookups = new ArrayList<List<Object>>();
+		if (in)
+		{
+			Object value = values.get(key.fields.get(0));
+			List<?> list = value instanceof Object[] ? Arrays.asList((Object[]) value) : value instanceof List<?> ? (List<?>) value
+					: null;
+			if (list == null || list.isEmpty()) return null;
+			for (Object item : new LinkedHashSet<Object>(list))
+				lookups.add(Arrays.asList(item));
+		}
+		else
+		{
+			List<Object> lookup = new ArrayList<Object>();
+			for (String field : key.fields)
+				lookup.add(values.get(field));
+			lookups.add(lookup);
+		}
+
+		Class<E> entityClass = (Class<E>) create().getClass();
+		long version = cache.getVersion();
+		List<E> entities = createList(lookups.size());
+		List<Object> missing = new ArrayList<Object>();
+		for (List<Object> lookup : lookups)
+		{
+			E entity = cache.get(entityClass, EntityCache.createKey(key.fields, lookup));
+			if (entity != null) entities.add(entity);
+			else
+				missing.add(lookup.get(0));
+		}
+		if (missing.isEmpty()) return entities;
+
+		List<E> found = executeFind(in ? new QueryRule[]
+		{ new QueryRule(key.fields.get(0), Operator.IN, missing) } : rules);
+		for (E entity : found)
+		{
+			List<String> entityKeys = new ArrayList<String>(cacheKeys.size());
+			for (CacheKey cacheKey : cacheKeys)
+			{
+				List<Object> keyValues = new ArrayList<Object>(cacheKey.valueFields.size());
+				for (String field : cacheKey.valueFields)
+					keyValues.add(entity.get(field));
+				String entityKey = EntityCache.createKey(cacheKey.fields, keyValues);
+				if (entityKey != null) entityKeys.add(entityKey);
+			}
+			cache.put(entityClass, version, entity, entityKeys);
+			entities.add(entity);
+		}
+		return entities;
+	}
 }
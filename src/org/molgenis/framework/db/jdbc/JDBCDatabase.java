@@ -7,11 +7,22 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.lang.reflect.Modifier;
 import java.nio.charset.Charset;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.WeakHashMap;
 
 import javax.persistence.EntityManager;
 import javax.sql.DataSource;
@@ -21,8 +32,14 @@ import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 import org.molgenis.MolgenisOptions;
 import org.molgenis.framework.db.AbstractDatabase;
+import org.molgenis.framework.db.CountCache;
+import org.molgenis.framework.db.DataVersions;
 import org.molgenis.framework.db.DatabaseException;
+import org.molgenis.framework.db.EntityCache;
 import org.molgenis.framework.db.ExampleData;
+import org.molgenis.framework.db.Mapper;
+import org.molgenis.framework.db.MapperDecorator;
+import org.molgenis.util.Entity;
 
 /**
  * JDBC implementation of Database to query relational databases.
@@ -223,6 +240,7 @@ public class JDBCDatabase extends AbstractDatabase
 			connection.commit();
 			connection.setAutoCommit(true);
 			inTransaction = false;
+			applySearchIndexChanges();
 			// FIXME in case of hsqldb we need to checkpoint
 			// if(this.source.getDriverClassName().contains("hsql"))
 			// this.executeQuery("checkpoint");
@@ -236,6 +254,7 @@ public class JDBCDatabase extends AbstractDatabase
 		finally
 		{
 			closeConnection();
+			invalidateTxCaches();
 		}
 	}
 
@@ -245,6 +264,8 @@ public class JDBCDatabase extends AbstractDatabase
 		try
 		{
 			if (!inTransaction) throw new DatabaseException("rollbackTx failed: no active transaction");
+			searchIndexChanges.clear();
+			clearImportCache();
 			connection.rollback();
 			connection.setAutoCommit(true);
 			inTransaction = false;
@@ -258,9 +279,316 @@ public class JDBCDatabase extends AbstractDatabase
 		finally
 		{
 			closeConnection();
+			invalidateTxCaches();
 		}
 	}
 
+	/**
+	 * Returns the count cache shared by all JDBCDatabases on the same database,
+	 * see {@link #getDataSourceKey()}
+	 */
+	@Override
+	protected CountCache getCountCache()
+	{
+		Object key = getDataSourceKey();
+		if (countCache == null && key != null)
+		{
+			synchronized (countCaches)
+			{
+				countCache = countCaches.get(key);
+				if (countCache == null)
+				{
+					countCache = new CountCache();
+					countCaches.put(key, countCache);
+				}
+			}
+		}
+		return countCache;
+	}
+
+	/**
+	 * Returns the entity cache shared by all JDBCDatabases on the same
+	 * database, see {@link #getDataSourceKey()}. Only entities marked with
+	 * 'cache' in the model are cached, see
+	 * {@link AbstractJDBCMapper#getCacheSize()}.
+	 */
+	@Override
+	public EntityCache getEntityCache()
+	{
+		Object key = getDataSourceKey();
+		if (entityCache == null && key != null)
+		{
+			synchronized (entityCaches)
+			{
+				entityCache = entityCaches.get(key);
+				if (entityCache == null)
+				{
+					entityCache = new EntityCache();
+					entityCaches.put(key, entityCache);
+				}
+			}
+		}
+		return entityCache;
+	}
+
+	/**
+	 * Returns the data versions shared by all JDBCDatabases on the same
+	 * database, see {@link #getDataSourceKey()}
+	 */
+	@Override
+	protected DataVersions getDataVersions()
+	{
+		Object key = getDataSourceKey();
+		if (dataVersions == null && key != null)
+		{
+			synchronized (dataVersionsByKey)
+			{
+				dataVersions = dataVersionsByKey.get(key);
+				if (dataVersions == null)
+				{
+					dataVersions = new DataVersions();
+					dataVersionsByKey.put(key, dataVersions);
+				}
+			}
+		}
+		return dataVersions;
+	}
+
+	/**
+	 * The mappers compile rules with parameters into sql once per query shape,
+	 * see {@link AbstractJDBCMapper}
+	 */
+	@Override
+	protected boolean isBindingParameters()
+	{
+		return true;
+	}
+
+	/**
+	 * Returns the full-text index used for SEARCH rules, or null if SEARCH
+	 * rules are translated into 'LIKE' on all string fields.
+	 */
+	public SearchIndex getSearchIndex()
+	{
+		Object key = getDataSourceKey();
+		if (key == null) return searchIndex;
+		synchronized (searchIndexes)
+		{
+			return searchIndexes.get(key);
+		}
+	}
+
+	/**
+	 * Sets the full-text index used for SEARCH rules. The index is shared by
+	 * all JDBCDatabases on the same database, see {@link #getDataSourceKey()}.
+	 * Call {@link #index()} to build the index for existing data, after which
+	 * it is maintained on add, update and remove.
+	 * 
+	 * @param searchIndex
+	 *            index, or null to use 'LIKE' queries
+	 */
+	public void setSearchIndex(SearchIndex searchIndex)
+	{
+		Object key = getDataSourceKey();
+		if (key == null) this.searchIndex = searchIndex;
+		else
+			synchronized (searchIndexes)
+			{
+				if (searchIndex != null) searchIndexes.put(key, searchIndex);
+				else
+					searchIndexes.remove(key);
+			}
+	}
+
+	/**
+	 * Sets up the search index configured with the 'search_index' option,
+	 * unless the database already has one. Entities that were not indexed
+	 * before are indexed by rebuilding the index. If that fails, e.g. because
+	 * the tables do not exist yet, SEARCH rules use 'LIKE' until
+	 * {@link #index()} or {@link #createTables()} is called. Databases whose
+	 * database cannot be identified (see {@link #getDataSourceKey()}) use
+	 * 'LIKE', because each of them would rebuild the index.
+	 * 
+	 * @param location
+	 *            'memory', a directory, or empty to use 'LIKE' queries
+	 * @throws DatabaseException
+	 */
+	protected void initSearchIndex(String location) throws DatabaseException
+	{
+		if (location == null || location.isEmpty()) return;
+		if (getDataSourceKey() == null)
+		{
+			logger.warn("search index '" + location + "' not used: unknown connection url");
+			return;
+		}
+		synchronized (searchIndexes)
+		{
+			if (getSearchIndex() != null) return;
+			SearchIndex index;
+			if (location.equals("memory")) index = new LuceneSearchIndex();
+			else
+			{
+				// a directory can only be opened by one index writer
+				index = directorySearchIndexes.get(location);
+				if (index == null)
+				{
+					index = new LuceneSearchIndex(new File(location));
+					directorySearchIndexes.put(location, index);
+				}
+			}
+			setSearchIndex(index);
+
+			for (Class<? extends Entity> entityClass : getEntityClasses())
+			{
+				if (!Modifier.isAbstract(entityClass.getModifiers()) && !index.isIndexed(entityClass))
+				{
+					logger.info("search index '" + location + "' is incomplete, rebuilding");
+					try
+					{
+						index();
+					}
+					catch (DatabaseException e)
+					{
+						logger.warn("search index '" + location + "' not built: " + e.getMessage());
+					}
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds the search index for all entities. Superclasses are indexed
+	 * before their subclasses, so that documents of subclass entities get the
+	 * fields of both.
+	 * 
+	 * @throws DatabaseException
+	 */
+	public void index() throws DatabaseException
+	{
+		SearchIndex index = getSearchIndex();
+		if (index == null) throw new DatabaseException("index failed: no search index set");
+
+		List<Class<? extends Entity>> entityClasses = getEntityClasses();
+		Collections.sort(entityClasses, new Comparator<Class<? extends Entity>>()
+		{
+			@Override
+			public int compare(Class<? extends Entity> c1, Class<? extends Entity> c2)
+			{
+				return getDepth(c1) - getDepth(c2);
+			}
+		});
+
+		index.clear();
+		for (Class<? extends Entity> entityClass : entityClasses)
+		{
+			if (Modifier.isAbstract(entityClass.getModifiers())) continue;
+			Mapper<? extends Entity> mapper = getMapperFor(entityClass);
+			while (mapper instanceof MapperDecorator<?>)
+				mapper = ((MapperDecorator<? extends Entity>) mapper).getMapper();
+			if (mapper instanceof AbstractJDBCMapper<?>) ((AbstractJDBCMapper<?>) mapper).index();
+		}
+		index.commit();
+	}
+
+	private static int getDepth(Class<?> entityClass)
+	{
+		int depth = 0;
+		for (Class<?> c = entityClass; c != null; c = c.getSuperclass())
+			depth++;
+		return depth;
+	}
+
+	/**
+	 * Updates the search index, after commit if in a transaction
+	 */
+	void updateSearchIndex(Class<? extends Entity> entityClass, Map<String, Map<String, String>> documents)
+			throws DatabaseException
+	{
+		if (inTx()) searchIndexChanges.add(new SearchIndexChange(entityClass, documents, null));
+		else
+		{
+			SearchIndex index = getSearchIndex();
+			index.update(entityClass, documents);
+			index.commit();
+		}
+	}
+
+	/**
+	 * Removes documents from the search index, after commit if in a
+	 * transaction
+	 */
+	void removeFromSearchIndex(Class<? extends Entity> entityClass, Collection<String> ids) throws DatabaseException
+	{
+		if (inTx()) searchIndexChanges.add(new SearchIndexChange(entityClass, null, ids));
+		else
+		{
+			SearchIndex index = getSearchIndex();
+			index.remove(entityClass, ids);
+			index.commit();
+		}
+	}
+
+	private void applySearchIndexChanges() throws DatabaseException
+	{
+		try
+		{
+			SearchIndex index = getSearchIndex();
+			if (index == null || searchIndexChanges.isEmpty()) return;
+			for (SearchIndexChange change : searchIndexChanges)
+			{
+				if (change.documents != null) index.update(change.entityClass, change.documents);
+				else
+					index.remove(change.entityClass, change.ids);
+			}
+			index.commit();
+		}
+		finally
+		{
+			searchIndexChanges.clear();
+		}
+	}
+
+	/**
+	 * Returns the key the caches and search index are shared on: the data
+	 * source, or for a database created with just a connection (e.g. by the
+	 * generated front controller on each request) the url and user of the
+	 * connection.
+	 * 
+	 * @return the key, or null if the connection does not provide its url
+	 */
+	private Object getDataSourceKey()
+	{
+		if (source != null) return source instanceof SimpleDataSourceWrapper ? ((SimpleDataSourceWrapper) source).dSource
+				: source;
+		if (connectionKey == null && connection != null)
+		{
+			try
+			{
+				DatabaseMetaData metaData = connection.getMetaData();
+				String url = metaData != null ? metaData.getURL() : null;
+				if (url != null)
+				{
+					String key = url + '\u0000' + metaData.getUserName();
+					synchronized (connectionKeys)
+					{
+						connectionKey = connectionKeys.get(key);
+						if (connectionKey == null)
+						{
+							connectionKey = key;
+							connectionKeys.put(key, key);
+						}
+					}
+				}
+			}
+			catch (SQLException e)
+			{
+				logger.warn("no shared caches: " + e.getMessage());
+			}
+		}
+		return connectionKey;
+	}
+
 	@Override
 	public void close() throws IOException
 	{
@@ -287,6 +615,47 @@ public class JDBCDatabase extends AbstractDatabase
 	/** Ticket to indicate a private transaction */
 	String privateTransaction = null;
 
+	/** Reusable prepared statements of the current connection */
+	private PreparedStatementCache statementCache;
+
+	/** Count caches shared by all databases using the same data source */
+	private static final Map<Object, CountCache> countCaches = new WeakHashMap<Object, CountCache>();
+
+	/** Count cache of the data source, looked up on first use */
+	private CountCache countCache;
+
+	/** Entity caches shared by all databases using the same data source */
+	private static final Map<Object, EntityCache> entityCaches = new WeakHashMap<Object, EntityCache>();
+
+	/** Entity cache of the data source, looked up on first use */
+	private EntityCache entityCache;
+
+	/** Data versions shared by all databases using the same data source */
+	private static final Map<Object, DataVersions> dataVersionsByKey = new WeakHashMap<Object, DataVersions>();
+
+	/** Data versions of the data source, looked up on first use */
+	private DataVersions dataVersions;
+
+	/**
+	 * Keys of the connection urls and users, strongly referenced so that the
+	 * shared caches outlive the databases created per request
+	 */
+	private static final Map<String, String> connectionKeys = new HashMap<String, String>();
+
+	/** Key of the connection of a database created with just a connection */
+	private String connectionKey;
+
+	/** Search indexes shared by all databases using the same data source */
+	private static final Map<Object, SearchIndex> searchIndexes = new WeakHashMap<Object, SearchIndex>();
+	/** directory based search indexes by location, see initSearchIndex */
+	private static final Map<String, SearchIndex> directorySearchIndexes = new HashMap<String, SearchIndex>();
+
+	/** Search index of a database created with just a connection */
+	private SearchIndex searchIndex;
+
+	/** Search index changes of the running transaction, applied on commit */
+	private final List<SearchIndexChange> searchIndexChanges = new ArrayList<SearchIndexChange>();
+
 	public JDBCDatabase(DataSourceWrapper source)
 	{
 		this.source = source;
@@ -325,6 +694,44 @@ public class JDBCDatabase extends AbstractDatabase
 		}
 	}
 
+	/**
+	 * Takes the statement from the prepared statement cache of the current
+	 * connection. A new cache is started whenever the connection changes.
+	 */
+	@Override
+	protected synchronized PreparedStatement prepareStatement(String sql) throws DatabaseException, SQLException
+	{
+		Connection conn = getConnection();
+		if (statementCache == null || statementCache.getConnection() != conn)
+		{
+			if (statementCache != null) statementCache.close();
+			statementCache = new PreparedStatementCache(conn);
+		}
+		return statementCache.take(sql);
+	}
+
+	@Override
+	protected synchronized void releaseStatement(String sql, PreparedStatement stmt)
+	{
+		if (statementCache != null) statementCache.release(sql, stmt);
+		else
+			closeStatement(stmt);
+	}
+
+	/**
+	 * Closes the cached statements of the current connection
+	 */
+	private synchronized void closeStatementCache()
+	{
+		if (statementCache != null)
+		{
+			if (logger.isDebugEnabled()) logger.debug("closing statement cache: hits=" + statementCache.getHits()
+					+ ", misses=" + statementCache.getMisses());
+			statementCache.close();
+			statementCache = null;
+		}
+	}
+
 	public DataSourceWrapper getSource()
 	{
 		return source;
@@ -356,6 +763,7 @@ public class JDBCDatabase extends AbstractDatabase
 		{
 			if (connection != null)
 			{
+				closeStatementCache();
 				try
 				{
 					connection.setAutoCommit(true); // restore default
@@ -404,6 +812,8 @@ public class JDBCDatabase extends AbstractDatabase
 	public void createTables() throws DatabaseException
 	{
 		this.executeSqlFile("/create_tables.sql");
+		// the tables are empty, so this only marks all entities as indexed
+		if (getSearchIndex() != null) index();
 	}
 
 	@Override
@@ -470,4 +880,20 @@ public class JDBCDatabase extends AbstractDatabase
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	/** add/update or remove of search index documents */
+	private static class SearchIndexChange
+	{
+		final Class<? extends Entity> entityClass;
+		final Map<String, Map<String, String>> documents;
+		final Collection<String> ids;
+
+		SearchIndexChange(Class<? extends Entity> entityClass, Map<String, Map<String, String>> documents,
+				Collection<String> ids)
+		{
+			this.entityClass = entityClass;
+			this.documents = documents;
+			this.ids = ids;
+		}
+	}
+}
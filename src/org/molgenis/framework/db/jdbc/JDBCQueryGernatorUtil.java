@@ -43,6 +43,22 @@ public class JDBCQueryGernatorUtil
 	 */
 	public static String createWhereSql(Mapper<?> mapper, boolean isNested, boolean withOffset, QueryRule... rules)
 			throws DatabaseException
+	{
+		return createWhereSql(mapper, null, isNested, withOffset, rules);
+	}
+
+	/**
+	 * Helper method for creating a where clause with '?' placeholders from
+	 * QueryRule...rules. The values to bind are added to parameters, in order
+	 * of appearance.
+	 * 
+	 * @param parameters
+	 *            list to add the bound values to. If null, the values are
+	 *            inlined as escaped sql strings.
+	 * @see #createWhereSql(Mapper, boolean, boolean, QueryRule...)
+	 */
+	public static String createWhereSql(Mapper<?> mapper, List<Object> parameters, boolean isNested,
+			boolean withOffset, QueryRule... rules) throws DatabaseException
 	{
 		StringBuilder where_clause = new StringBuilder("");
 		QueryRule previousRule = new QueryRule(Operator.AND);
@@ -93,8 +109,8 @@ public class JDBCQueryGernatorUtil
 								List<QueryRule> termRules = new ArrayList<QueryRule>();
 
 								// create different query rule depending on type
-								List<Field> fields = mapper.getDatabase().getMetaData()
-										.getEntity(mapper.create().getClass().getSimpleName()).getAllFields();
+								List<Field> fields = mapper.getDatabase().getMetaData().getIndex()
+										.getAllFields(mapper.create().getClass().getSimpleName());
 								for (Field f : fields)
 								{
 									if (f.getType() instanceof StringField || f.getType() instanceof TextField)
@@ -117,7 +133,7 @@ public class JDBCQueryGernatorUtil
 
 						// add to rules
 						where_clause.append("(");
-						where_clause.append(createWhereSql(mapper, true, false,
+						where_clause.append(createWhereSql(mapper, parameters, true, false,
 								searchRules.toArray(new QueryRule[searchRules.size()])));
 						where_clause.append(")");
 
@@ -146,7 +162,7 @@ public class JDBCQueryGernatorUtil
 								where_clause.append("NOT");
 							}
 							where_clause.append("(");
-							where_clause.append(createWhereSql(mapper, true, false, nestedrules));
+							where_clause.append(createWhereSql(mapper, parameters, true, false, nestedrules));
 							where_clause.append(")");
 						}
 					}
@@ -201,18 +217,26 @@ public class JDBCQueryGernatorUtil
 								values = (Object[]) rule.getValue();
 							}
 
-							for (int i = 0; i < values.length; i++)
+							if (parameters != null)
 							{
-								if (i > 0) where_clause.append(",");
-								if (mapper != null && omitQuotes(mapper.getFieldType(rule.getField())))
-								{
-									// where_clause.append(values[i]
-									// .toString());
-									where_clause.append("" + escapeSql(values[i]) + "");
-								}
-								else
+								appendInParameters(where_clause, parameters, values,
+										mapper != null ? mapper.getFieldType(rule.getField()) : null);
+							}
+							else
+							{
+								for (int i = 0; i < values.length; i++)
 								{
-									where_clause.append("'" + escapeSql(values[i]) + "'");
+									if (i > 0) where_clause.append(",");
+									if (mapper != null && omitQuotes(mapper.getFieldType(rule.getField())))
+									{
+										// where_clause.append(values[i]
+										// .toString());
+										where_clause.append("" + escapeSql(values[i]) + "");
+									}
+									else
+									{
+										where_clause.append("'" + escapeSql(values[i]) + "'");
+									}
 								}
 							}
 							where_clause.append(") ");
@@ -265,7 +289,9 @@ public class JDBCQueryGernatorUtil
 						}
 						if (Boolean.TRUE.equals(rule.getValue())) rule.setValue("1");
 						if (Boolean.FALSE.equals(rule.getValue())) rule.setValue("0");
-						Object value = rule.getValue() == null ? "NULL" : escapeSql(rule.getValue());
+						Object value = rule.getValue() == null ? "NULL" : (parameters != null
+								&& !rule.getOperator().equals(Operator.JOIN) ? rule.getValue().toString()
+								: escapeSql(rule.getValue()));
 
 						if (!value.equals("NULL") && rule.getOperator() == Operator.LIKE
 								&& (mapper == null || !omitQuotes(mapper.getFieldType(rule.getField()))))
@@ -299,6 +325,12 @@ public class JDBCQueryGernatorUtil
 							{
 								where_clause.append(rule.getField() + " IS NOT NULL");
 							}
+							else if (parameters != null)
+							{
+								where_clause.append(rule.getField() + " " + operator + " ?");
+								parameters.add(toParameter(value, mapper != null ? mapper.getFieldType(rule.getField())
+										: null));
+							}
 							else
 							{
 								where_clause.append(rule.getField() + " " + operator + " '" + value + "'");
@@ -417,6 +449,81 @@ public class JDBCQueryGernatorUtil
 		return "";
 	}
 
+	/** largest IN list bucket that grows in powers of two */
+	private static final int MAX_POWER_OF_TWO_BUCKET = 1024;
+
+	/**
+	 * Returns the number of placeholders to use for an IN list of the given
+	 * size. Sizes are rounded up to a power of two, or to a multiple of 1024
+	 * for very large lists, so that the statements can be reused.
+	 * 
+	 * @param size
+	 *            number of values in the IN list
+	 * @return bucket size >= size
+	 */
+	public static int getInListBucketSize(int size)
+	{
+		if (size <= MAX_POWER_OF_TWO_BUCKET)
+		{
+			int bucketSize = 1;
+			while (bucketSize < size)
+				bucketSize <<= 1;
+			return bucketSize;
+		}
+		return ((size + MAX_POWER_OF_TWO_BUCKET - 1) / MAX_POWER_OF_TWO_BUCKET) * MAX_POWER_OF_TWO_BUCKET;
+	}
+
+	/**
+	 * Appends the '?' placeholders for an IN list and adds the values to the
+	 * parameters. The list is padded to its bucket size by repeating the last
+	 * value, which does not change the result of the IN clause.
+	 * 
+	 * @param sql
+	 * @param parameters
+	 * @param values
+	 *            non-empty array of values
+	 * @param type
+	 *            field type used to convert the values (optional)
+	 */
+	public static void appendInParameters(StringBuilder sql, List<Object> parameters, Object[] values, FieldType type)
+	{
+		if (values.length == 0) return;
+		int bucketSize = getInListBucketSize(values.length);
+		for (int i = 0; i < bucketSize; i++)
+		{
+			if (i > 0) sql.append(',');
+			sql.append('?');
+			Object value = values[Math.min(i, values.length - 1)];
+			parameters.add(value != null ? toParameter(value.toString(), type) : null);
+		}
+	}
+
+	/**
+	 * Converts a value to the object to bind to a statement: numeric fields
+	 * are bound as numbers, all other values as strings like the inlined sql
+	 * would.
+	 * 
+	 * @param value
+	 * @param type
+	 *            field type (optional)
+	 * @return value to bind
+	 */
+	public static Object toParameter(Object value, FieldType type)
+	{
+		if (value != null && omitQuotes(type))
+		{
+			try
+			{
+				return type.getTypedValue(value.toString());
+			}
+			catch (Exception e)
+			{
+				// not a number, let the database decide
+			}
+		}
+		return value;
+	}
+
 	/**
 	 * Helper method for creating an escaped sql string for a value.
 	 * <p>
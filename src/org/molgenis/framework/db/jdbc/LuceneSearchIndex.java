@@ -0,0 +1,344 @@
+package org.molgenis.framework.db.jdbc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.TermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.molgenis.framework.db.DatabaseException;
+import org.molgenis.util.Entity;
+
+/**
+ * {@link SearchIndex} stored in a local Lucene directory, either in memory or
+ * on disk. Field values are tokenized by the {@link StandardAnalyzer} (without
+ * stop words) and each search term matches as a prefix of a token, e.g.
+ * 'glob' matches 'Globin gene'. Searches see changes right away, changes are
+ * only written to the directory on {@link #commit()} or {@link #close()}.
+ */
+public class LuceneSearchIndex implements SearchIndex, Closeable
+{
+	private static final Logger logger = Logger.getLogger(LuceneSearchIndex.class);
+
+	/** system fields, not valid as molgenis field names */
+	private static final String KEY_FIELD = "#key";
+	private static final String ID_FIELD = "#id";
+	private static final String TYPE_FIELD = "#type";
+	private static final String INDEXED_FIELD = "#indexed";
+
+	private final Directory directory;
+	private final Analyzer analyzer;
+	private final IndexWriter writer;
+
+	/**
+	 * Creates an index in memory, which has to be rebuilt after each restart
+	 *
+	 * @throws DatabaseException
+	 */
+	public LuceneSearchIndex() throws DatabaseException
+	{
+		this(new RAMDirectory());
+	}
+
+	/**
+	 * Creates or opens an index in a directory on disk
+	 *
+	 * @param dir
+	 * @throws DatabaseException
+	 */
+	public LuceneSearchIndex(File dir) throws DatabaseException
+	{
+		this(openDirectory(dir));
+	}
+
+	public LuceneSearchIndex(Directory directory) throws DatabaseException
+	{
+		this.directory = directory;
+		this.analyzer = new StandardAnalyzer(Version.LUCENE_30, Collections.emptySet());
+		try
+		{
+			this.writer = new IndexWriter(directory, analyzer, IndexWriter.MaxFieldLength.UNLIMITED);
+		}
+		catch (IOException e)
+		{
+			throw new DatabaseException(e);
+		}
+	}
+
+	@Override
+	public synchronized void update(Class<? extends Entity> entityClass, Map<String, Map<String, String>> documents)
+			throws DatabaseException
+	{
+		if (documents.isEmpty()) return;
+		try
+		{
+			IndexReader reader = writer.getReader();
+			try
+			{
+				for (Map.Entry<String, Map<String, String>> entry : documents.entrySet())
+				{
+					Term key = createKey(entityClass, entry.getKey());
+
+					// keep the types and values of the existing document
+					Document document = new Document();
+					Set<String> types = new LinkedHashSet<String>(getTypes(entityClass));
+					Document existing = findDocument(reader, key);
+					if (existing != null)
+					{
+						types.addAll(Arrays.asList(existing.getValues(TYPE_FIELD)));
+						for (Fieldable field : existing.getFields())
+						{
+							if (field.name().startsWith("#") || entry.getValue().containsKey(field.name())) continue;
+							document.add(new Field(field.name(), field.stringValue(), Field.Store.YES,
+									Field.Index.ANALYZED));
+						}
+					}
+
+					document.add(new Field(KEY_FIELD, key.text(), Field.Store.YES, Field.Index.NOT_ANALYZED));
+					document.add(new Field(ID_FIELD, entry.getKey(), Field.Store.YES, Field.Index.NO));
+					for (String type : types)
+						document.add(new Field(TYPE_FIELD, type, Field.Store.YES, Field.Index.NOT_ANALYZED));
+					for (Map.Entry<String, String> value : entry.getValue().entrySet())
+					{
+						if (value.getValue() == null) continue;
+						document.add(new Field(value.getKey(), value.getValue(), Field.Store.YES,
+								Field.Index.ANALYZED));
+					}
+					writer.updateDocument(key, document);
+				}
+			}
+			finally
+			{
+				reader.close();
+			}
+			logger.debug("indexed " + documents.size() + " " + entityClass.getSimpleName() + " documents");
+		}
+		catch (IOException e)
+		{
+			throw new DatabaseException(e);
+		}
+	}
+
+	@Override
+	public synchronized void remove(Class<? extends Entity> entityClass, Collection<String> ids)
+			throws DatabaseException
+	{
+		if (ids.isEmpty()) return;
+		try
+		{
+			Term[] keys = new Term[ids.size()];
+			int i = 0;
+			for (String id : ids)
+				keys[i++] = createKey(entityClass, id);
+			writer.deleteDocuments(keys);
+		}
+		catch (IOException e)
+		{
+			throw new DatabaseException(e);
+		}
+	}
+
+	@Override
+	public synchronized void commit() throws DatabaseException
+	{
+		try
+		{
+			writer.commit();
+		}
+		catch (IOException e)
+		{
+			throw new DatabaseException(e);
+		}
+	}
+
+	@Override
+	public synchronized void clear() throws DatabaseException
+	{
+		try
+		{
+			writer.deleteAll();
+		}
+		catch (IOException e)
+		{
+			throw new DatabaseException(e);
+		}
+	}
+
+	@Override
+	public synchronized void markIndexed(Class<? extends Entity> entityClass) throws DatabaseException
+	{
+		try
+		{
+			Document document = new Document();
+			document.add(new Field(INDEXED_FIELD, entityClass.getName(), Field.Store.YES, Field.Index.NOT_ANALYZED));
+			writer.updateDocument(new Term(INDEXED_FIELD, entityClass.getName()), document);
+		}
+		catch (IOException e)
+		{
+			throw new DatabaseException(e);
+		}
+	}
+
+	@Override
+	public synchronized boolean isIndexed(Class<? extends Entity> entityClass) throws DatabaseException
+	{
+		try
+		{
+			IndexReader reader = writer.getReader();
+			try
+			{
+				return reader.docFreq(new Term(INDEXED_FIELD, entityClass.getName())) > 0;
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new DatabaseException(e);
+		}
+	}
+
+	@Override
+	public synchronized List<String> search(Class<? extends Entity> entityClass, List<String> fields,
+			String searchString, int maxHits) throws DatabaseException
+	{
+		try
+		{
+			// each term must match one of the fields
+			BooleanQuery query = new BooleanQuery();
+			query.add(new TermQuery(new Term(TYPE_FIELD, entityClass.getName())), Occur.MUST);
+			List<String> terms = tokenize(searchString);
+			if (terms.isEmpty() || fields.isEmpty()) return null;
+			for (String term : terms)
+			{
+				BooleanQuery termQuery = new BooleanQuery();
+				for (String field : fields)
+					termQuery.add(new PrefixQuery(new Term(field, term)), Occur.SHOULD);
+				query.add(termQuery, Occur.MUST);
+			}
+
+			IndexReader reader = writer.getReader();
+			IndexSearcher searcher = new IndexSearcher(reader);
+			try
+			{
+				TopDocs topDocs = searcher.search(query, maxHits + 1);
+				if (topDocs.totalHits > maxHits) return null;
+				List<String> ids = new ArrayList<String>(topDocs.totalHits);
+				for (ScoreDoc scoreDoc : topDocs.scoreDocs)
+					ids.add(searcher.doc(scoreDoc.doc).get(ID_FIELD));
+				return ids;
+			}
+			finally
+			{
+				searcher.close();
+				reader.close();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new DatabaseException(e);
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		writer.close();
+		directory.close();
+	}
+
+	private List<String> tokenize(String searchString) throws IOException
+	{
+		List<String> terms = new ArrayList<String>();
+		if (searchString == null) return terms;
+		TokenStream tokenStream = analyzer.tokenStream(null, new StringReader(searchString));
+		TermAttribute termAttribute = tokenStream.addAttribute(TermAttribute.class);
+		while (tokenStream.incrementToken())
+			terms.add(termAttribute.term());
+		tokenStream.close();
+		return terms;
+	}
+
+	private static Document findDocument(IndexReader reader, Term key) throws IOException
+	{
+		TermDocs termDocs = reader.termDocs(key);
+		try
+		{
+			return termDocs.next() ? reader.document(termDocs.doc()) : null;
+		}
+		finally
+		{
+			termDocs.close();
+		}
+	}
+
+	/**
+	 * Documents are keyed on the root of the class hierarchy and the id
+	 */
+	private static Term createKey(Class<? extends Entity> entityClass, String id)
+	{
+		List<String> types = getTypes(entityClass);
+		return new Term(KEY_FIELD, types.get(types.size() - 1) + '\u0000' + id);
+	}
+
+	/**
+	 * Returns the entity class and its superclasses, ending with the root of
+	 * the hierarchy
+	 */
+	private static List<String> getTypes(Class<? extends Entity> entityClass)
+	{
+		List<String> types = new ArrayList<String>();
+		Class<?> type = entityClass;
+		while (type != null && Entity.class.isAssignableFrom(type) && !Modifier.isAbstract(type.getModifiers()))
+		{
+			types.add(type.getName());
+			type = type.getSuperclass();
+		}
+		return types;
+	}
+
+	private static Directory openDirectory(File dir) throws DatabaseException
+	{
+		try
+		{
+			return FSDirectory.open(dir);
+		}
+		catch (IOException e)
+		{
+			throw new DatabaseException(e);
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package org.molgenis.framework.db.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Least recently used cache of PreparedStatements for one connection, keyed on
+ * the sql. Statements are taken out of the cache while in use so that two
+ * open result sets never share a statement, and are released back into the
+ * cache afterwards. Evicted statements are closed.
+ */
+public class PreparedStatementCache
+{
+	private static final Logger logger = Logger.getLogger(PreparedStatementCache.class);
+
+	/** default number of statements to keep per connection */
+	public static final int DEFAULT_MAX_SIZE = 100;
+
+	private final Connection connection;
+	private final Map<String, PreparedStatement> statements;
+	private final Set<PreparedStatement> checkedOut;
+
+	private boolean closed = false;
+	private long hits = 0;
+	private long misses = 0;
+
+	public PreparedStatementCache(Connection connection)
+	{
+		this(connection, DEFAULT_MAX_SIZE);
+	}
+
+	public PreparedStatementCache(Connection connection, final int maxSize)
+	{
+		if (connection == null) throw new IllegalArgumentException("connection is null");
+		if (maxSize < 1) throw new IllegalArgumentException("maxSize must be larger than zero");
+		this.connection = connection;
+		this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest)
+			{
+				if (size() > maxSize)
+				{
+					JDBCDatabase.closeStatement(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+		this.checkedOut = Collections.newSetFromMap(new IdentityHashMap<PreparedStatement, Boolean>());
+	}
+
+	/**
+	 * Connection the statements of this cache belong to
+	 */
+	public Connection getConnection()
+	{
+		return connection;
+	}
+
+	/**
+	 * Takes the statement for this sql from the cache or prepares a new one.
+	 * The statement must be given back using
+	 * {@link #release(String, PreparedStatement)}.
+	 * 
+	 * @param sql
+	 * @return prepared statement
+	 * @throws SQLException
+	 */
+	public synchronized PreparedStatement take(String sql) throws SQLException
+	{
+		if (closed) throw new SQLException("statement cache is closed");
+		PreparedStatement stmt = statements.remove(sql);
+		if (stmt != null)
+		{
+			hits++;
+		}
+		else
+		{
+			misses++;
+			stmt = connection.prepareStatement(sql);
+		}
+		checkedOut.add(stmt);
+		return stmt;
+	}
+
+	/**
+	 * Gives a statement back to the cache. Statements that were not taken from
+	 * this cache, or that are not needed anymore, are closed.
+	 * 
+	 * @param sql
+	 * @param stmt
+	 */
+	public synchronized void release(String sql, PreparedStatement stmt)
+	{
+		if (!checkedOut.remove(stmt))
+		{
+			// released twice: keep the cached statement open
+			if (statements.get(sql) != stmt) JDBCDatabase.closeStatement(stmt);
+			return;
+		}
+		if (closed || statements.containsKey(sql))
+		{
+			JDBCDatabase.closeStatement(stmt);
+			return;
+		}
+		try
+		{
+			stmt.clearParameters();
+			statements.put(sql, stmt);
+		}
+		catch (SQLException e)
+		{
+			logger.warn("release(): " + e.getMessage());
+			JDBCDatabase.closeStatement(stmt);
+		}
+	}
+
+	/**
+	 * Closes all cached statements. Statements that are still in use are
+	 * closed when they are released.
+	 */
+	public synchronized void close()
+	{
+		closed = true;
+		List<PreparedStatement> toClose = new ArrayList<PreparedStatement>(statements.values());
+		statements.clear();
+		for (PreparedStatement stmt : toClose)
+			JDBCDatabase.closeStatement(stmt);
+	}
+
+	public synchronized int size()
+	{
+		return statements.size();
+	}
+
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+}
@@ -0,0 +1,147 @@
+package org.molgenis.framework.db.jdbc;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.log4j.Logger;
+import org.molgenis.framework.db.DatabaseException;
+import org.molgenis.framework.db.TupleIterator;
+import org.molgenis.util.tuple.CaseInsensitiveValueIndexTuple;
+import org.molgenis.util.tuple.Tuple;
+
+/**
+ * {@link TupleIterator} over a JDBC ResultSet. The column labels are read once
+ * and shared by all rows. When labels occur more than once (case insensitive)
+ * the value of the last column with that label is returned. The ResultSet and its Statement are closed when the
+ * last row has been read or when close is called.
+ */
+public class ResultSetTupleIterator implements TupleIterator
+{
+	private static final Logger logger = Logger.getLogger(ResultSetTupleIterator.class);
+
+	private final Statement stmt;
+	private final ResultSet rs;
+	private final Map<String, Integer> colNamesMap;
+	private final int nrCols;
+
+	private Tuple next;
+	private boolean closed;
+
+	/**
+	 * @param stmt
+	 *            statement that produced the result set, closed together with
+	 *            the result set (optional)
+	 * @param rs
+	 *            result set to iterate
+	 * @throws DatabaseException
+	 */
+	public ResultSetTupleIterator(Statement stmt, ResultSet rs) throws DatabaseException
+	{
+		if (rs == null) throw new IllegalArgumentException("result set is null");
+		this.stmt = stmt;
+		this.rs = rs;
+		try
+		{
+			ResultSetMetaData metadata = rs.getMetaData();
+			this.nrCols = metadata.getColumnCount();
+			Map<String, Integer> colNamesMap = new LinkedHashMap<String, Integer>();
+			for (int i = 1; i <= nrCols; i++)
+			{
+				// last occurrence of a duplicate label wins, like the key value
+				// tuples sql() used to return
+				colNamesMap.put(metadata.getColumnLabel(i).toLowerCase(), i - 1);
+			}
+			this.colNamesMap = Collections.unmodifiableMap(colNamesMap);
+		}
+		catch (SQLException e)
+		{
+			closeQuietly();
+			throw new DatabaseException(e);
+		}
+	}
+
+	@Override
+	public Iterable<String> getColNames()
+	{
+		return colNamesMap.keySet();
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		if (next != null) return true;
+		if (closed) return false;
+		try
+		{
+			if (rs.next())
+			{
+				Object[] values = new Object[nrCols];
+				for (int i = 0; i < nrCols; i++)
+					values[i] = rs.getObject(i + 1);
+				next = new CaseInsensitiveValueIndexTuple(colNamesMap, Arrays.asList(values));
+				return true;
+			}
+			closeQuietly();
+			return false;
+		}
+		catch (SQLException e)
+		{
+			closeQuietly();
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public Tuple next()
+	{
+		if (!hasNext()) throw new NoSuchElementException();
+		Tuple tuple = next;
+		next = null;
+		return tuple;
+	}
+
+	@Override
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if (closed) return;
+		closed = true;
+		try
+		{
+			rs.close();
+		}
+		catch (SQLException e)
+		{
+			throw new IOException(e);
+		}
+		finally
+		{
+			JDBCDatabase.closeStatement(stmt);
+		}
+	}
+
+	private void closeQuietly()
+	{
+		try
+		{
+			close();
+		}
+		catch (IOException e)
+		{
+			logger.warn("failed to close result set: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package org.molgenis.framework.db.jdbc;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.molgenis.framework.db.DatabaseException;
+import org.molgenis.util.Entity;
+
+/**
+ * Full-text index used by {@link AbstractJDBCMapper} to answer
+ * {@link org.molgenis.framework.db.QueryRule.Operator#SEARCH} rules with an
+ * index lookup instead of 'LIKE' on all string fields. An entity has one
+ * document per id which is shared by its superclasses, so that searching a
+ * superclass also finds the entities of its subclasses.
+ * <p>
+ * The index is maintained by the mappers on add, update and remove and can
+ * be rebuilt using {@link JDBCDatabase#index()}. Until an entity class is
+ * marked as indexed, searches on it are not answered by the index. Changes
+ * are searchable right away, {@link JDBCDatabase} commits them once per
+ * bulk operation or transaction.
+ * <p>
+ * Note that a search term matches the start of a word in the index (e.g.
+ * 'glob' finds 'Globin gene'), while the 'LIKE' translation used without
+ * index, or for searches with more than
+ * {@link AbstractJDBCMapper#getMaxSearchHits()} hits, matches anywhere in a
+ * field value (e.g. 'lobin' only finds 'Globin gene' without index).
+ *
+ * @see LuceneSearchIndex
+ */
+public interface SearchIndex
+{
+	/**
+	 * Adds or updates documents. Values of fields that are not given are kept.
+	 *
+	 * @param entityClass
+	 * @param documents
+	 *            maps the id of each entity to its (field name, value) pairs
+	 * @throws DatabaseException
+	 */
+	public void update(Class<? extends Entity> entityClass, Map<String, Map<String, String>> documents)
+			throws DatabaseException;
+
+	/**
+	 * Removes the documents of the entities with the given ids
+	 *
+	 * @param entityClass
+	 * @param ids
+	 * @throws DatabaseException
+	 */
+	public void remove(Class<? extends Entity> entityClass, Collection<String> ids) throws DatabaseException;
+
+	/**
+	 * Makes the changes since the last commit durable
+	 *
+	 * @throws DatabaseException
+	 */
+	public void commit() throws DatabaseException;
+
+	/**
+	 * Removes all documents and indexed marks
+	 *
+	 * @throws DatabaseException
+	 */
+	public void clear() throws DatabaseException;
+
+	/**
+	 * Marks that all entities of the class have been indexed
+	 *
+	 * @param entityClass
+	 * @throws DatabaseException
+	 */
+	public void markIndexed(Class<? extends Entity> entityClass) throws DatabaseException;
+
+	/**
+	 * @param entityClass
+	 * @return true if all entities of the class have been indexed
+	 * @throws DatabaseException
+	 */
+	public boolean isIndexed(Class<? extends Entity> entityClass) throws DatabaseException;
+
+	/**
+	 * Finds the entities of which for each term of the search string one of
+	 * the fields matches.
+	 *
+	 * @param entityClass
+	 * @param fields
+	 *            fields to search
+	 * @param searchString
+	 * @param maxHits
+	 *            maximum number of ids to return
+	 * @return the ids of the matching entities, or null if there are more than
+	 *         maxHits matches or the search string has no terms
+	 * @throws DatabaseException
+	 */
+	public List<String> search(Class<? extends Entity> entityClass, List<String> fields, String searchString,
+			int maxHits) throws DatabaseException;
+}
@@ -3,11 +3,14 @@ package org.molgenis.framework.db.jpa;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.text.ParseException;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.persistence.EntityManager;
 import javax.persistence.TypedQuery;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
 import org.molgenis.fieldtypes.FieldType;
 import org.molgenis.framework.db.AbstractMapper;
 import org.molgenis.framework.db.Database;
@@ -15,12 +18,21 @@ import org.molgenis.framework.db.DatabaseException;
 import org.molgenis.framework.db.QueryRule;
 import org.molgenis.io.TupleWriter;
 import org.molgenis.util.Entity;
+import org.molgenis.util.tuple.EntityTuple;
 
 /**
  * JPA implementation of the Mapper interface.
  */
 public abstract class AbstractJpaMapper<E extends Entity> extends AbstractMapper<E>
 {
+	/** log messages */
+	private static final Logger logger = Logger.getLogger(AbstractJpaMapper.class);
+
+	/** default number of rows fetched per round trip when streaming */
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+
+	private int fetchSize = DEFAULT_FETCH_SIZE;
+
 	public AbstractJpaMapper(Database database)
 	{
 		super(database);
@@ -93,10 +105,85 @@ public abstract class AbstractJpaMapper<E extends Entity> extends AbstractMapper
 		// automatically done by JPA
 	}
 
+	public int getFetchSize()
+	{
+		return fetchSize;
+	}
+
+	public void setFetchSize(int fetchSize)
+	{
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * Streams the result of a query to a TupleWriter. Entities are read from a
+	 * forward-only cursor using {@link JpaFramework#scroll(TypedQuery, int)}
+	 * and detached from the persistence context after they are written, so
+	 * memory use does not depend on the size of the result. Outside a
+	 * transaction the persistence context is cleared every
+	 * {@link #BATCH_SIZE} entities to also release referenced entities.
+	 * <p>
+	 * Note: MySQL only streams when the fetch size is Integer.MIN_VALUE or
+	 * 'useCursorFetch=true' is set on the connection url.
+	 */
 	@Override
 	public void find(TupleWriter writer, List<String> fieldsToExport, QueryRule[] rules) throws DatabaseException
 	{
-		throw new UnsupportedOperationException("not implemented");
+		EntityManager em = getEntityManager();
+		ScrollIterator<E> it = null;
+		try
+		{
+			TypedQuery<E> query = JPAQueryGeneratorUtil.createQuery(getDatabase(), getEntityClass(), this, em, rules);
+			it = JpaFrameworkFactory.createFramework().scroll(query, fetchSize);
+
+			int count = write(it, em, writer, fieldsToExport);
+
+			if (logger.isDebugEnabled()) logger.debug("find(" + getEntityClass().getSimpleName() + ", TupleWriter, "
+					+ (rules != null ? Arrays.asList(rules) : "") + "): wrote " + count + " lines.");
+		}
+		catch (Exception e)
+		{
+			throw new DatabaseException(e);
+		}
+		finally
+		{
+			IOUtils.closeQuietly(it);
+		}
 	}
 
+	/**
+	 * Writes the entities of a scroll iterator one by one, keeping the
+	 * persistence context bounded as described in
+	 * {@link #find(TupleWriter, List, QueryRule[])}.
+	 * 
+	 * @return number of entities written
+	 */
+	int write(ScrollIterator<E> it, EntityManager em, TupleWriter writer, List<String> fieldsToExport)
+			throws IOException
+	{
+		if (fieldsToExport != null) writer.writeColNames(fieldsToExport);
+		else
+			writer.writeColNames(new EntityTuple(create()).getColNames());
+
+		boolean clear = !getDatabase().inTx();
+		int count = 0;
+		while (it.hasNext())
+		{
+			E entity = it.next();
+			writer.write(new EntityTuple(entity));
+			count++;
+
+			// keep the persistence context bounded
+			if (clear)
+			{
+				if (count % BATCH_SIZE == 0) em.clear();
+			}
+			else
+			{
+				em.detach(entity);
+			}
+		}
+		writer.close();
+		return count;
+	}
 }
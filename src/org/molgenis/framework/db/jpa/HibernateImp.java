@@ -3,10 +3,16 @@ package org.molgenis.framework.db.jpa;
 import java.sql.Connection;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
 
+import org.hibernate.CacheMode;
 import org.hibernate.Criteria;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.criterion.Example;
 import org.hibernate.ejb.Ejb3Configuration;
@@ -32,6 +38,59 @@ class HibernateImp implements JpaFramework
 		return list;
 	}
 
+	@Override
+	public <E> ScrollIterator<E> scroll(TypedQuery<E> query, int fetchSize)
+	{
+		Query hibernateQuery = query.unwrap(Query.class);
+		final ScrollableResults results = hibernateQuery.setFetchSize(fetchSize).setReadOnly(true)
+				.setCacheMode(CacheMode.IGNORE).scroll(ScrollMode.FORWARD_ONLY);
+
+		return new ScrollIterator<E>()
+		{
+			private boolean fetched = false;
+			private boolean hasNext = false;
+			private boolean closed = false;
+
+			@Override
+			public boolean hasNext()
+			{
+				if (!fetched && !closed)
+				{
+					hasNext = results.next();
+					fetched = true;
+					if (!hasNext) close();
+				}
+				return hasNext;
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public E next()
+			{
+				if (!hasNext()) throw new NoSuchElementException();
+				fetched = false;
+				return (E) results.get(0);
+			}
+
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public void close()
+			{
+				if (!closed)
+				{
+					closed = true;
+					hasNext = false;
+					results.close();
+				}
+			}
+		};
+	}
+
 	@Override
 	public void createTables(final String persistenceUnitName, final Map<String, Object> configOverwrites)
 	{
@@ -160,6 +160,10 @@ public class JpaDatabase extends AbstractDatabase
 		{
 			throw new DatabaseException(e);
 		}
+		finally
+		{
+			invalidateTxCaches();
+		}
 	}
 
 	@Override
@@ -167,6 +171,7 @@ public class JpaDatabase extends AbstractDatabase
 	{
 		try
 		{
+			clearImportCache();
 			if (em.getTransaction().isActive())
 			{
 				em.getTransaction().rollback();
@@ -176,6 +181,10 @@ public class JpaDatabase extends AbstractDatabase
 		{
 			throw new DatabaseException(e);
 		}
+		finally
+		{
+			invalidateTxCaches();
+		}
 	}
 
 	@Override
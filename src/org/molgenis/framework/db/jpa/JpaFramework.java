@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.Map;
 
 import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
 
 import org.molgenis.util.Entity;
 
@@ -17,6 +18,16 @@ public interface JpaFramework
 
 	public <E extends Entity> List<E> findByExample(EntityManager em, E example);
 
+	/**
+	 * Scrolls forward-only through the results of a query, fetching fetchSize
+	 * rows per round trip instead of loading the whole result list.
+	 * 
+	 * @param query
+	 * @param fetchSize
+	 * @return iterator that must be closed after use
+	 */
+	public <E> ScrollIterator<E> scroll(TypedQuery<E> query, int fetchSize);
+
 	/**
 	 * Create tables based on annotations.
 	 * 
@@ -0,0 +1,14 @@
+package org.molgenis.framework.db.jpa;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Forward-only iterator over the results of a query that holds an open
+ * database cursor. Must be closed when not iterated to the end.
+ * 
+ * @see JpaFramework#scroll(javax.persistence.TypedQuery, int)
+ */
+public interface ScrollIterator<E> extends Iterator<E>, Closeable
+{
+}
@@ -19,6 +19,7 @@ import org.molgenis.util.Entity;
  * This works perfectly for small data sets. However, this becomes expensive if
  * one has large datasets with large offsets because then much data has to be
  * "thrown away" until the offset of desired data is reached.
+ * {@link PrimaryKeyPager} does not have this problem.
  * 
  * @param <E>
  */
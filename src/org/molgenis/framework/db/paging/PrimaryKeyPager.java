@@ -2,6 +2,8 @@ package org.molgenis.framework.db.paging;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 
 import org.apache.log4j.Logger;
@@ -9,20 +11,31 @@ import org.molgenis.framework.db.Database;
 import org.molgenis.framework.db.DatabaseException;
 import org.molgenis.framework.db.QueryRule;
 import org.molgenis.framework.db.QueryRule.Operator;
+import org.molgenis.model.elements.Field;
 import org.molgenis.util.Entity;
 
 /**
- * Page a database using the primary key.
- * 
- * This pager was added to allow paging through large datasets which is much
- * faster than OFFSET, given that it uses indexes of the primary key. The
- * benefits depend on the implementation of Database.
- * 
- * WARNING only faster when sorted by indexed fields!!
- * 
+ * Page a database using keyset ('seek') pagination on the order by field and
+ * the primary key.
+ *
+ * Instead of skipping 'offset' rows, next and previous pages are retrieved by
+ * filtering on the (orderByField, primaryKey) tuple of the first or last row
+ * of the current page, e.g. for next in ascending order:
+ *
+ * <pre>
+ * orderByField &gt; last.orderByField OR (orderByField = last.orderByField AND primaryKey &gt; last.primaryKey)
+ * </pre>
+ *
+ * This keeps deep pages as fast as the first page, given that orderByField and
+ * the primary key are indexed. The first rows of previous pages are kept on a
+ * bookmark stack for 'prev'. Offset is only used for random page jumps
+ * ({@link #setOffset(int)} to a non-adjacent page), for pages of which the
+ * bookmark value is null or not comparable, and as a fallback when a seek
+ * returns less rows than expected (e.g. because of null values in
+ * orderByField).
+ *
  * @param <E>
  */
-@Deprecated
 public class PrimaryKeyPager<E extends Entity> extends AbstractPager<E>
 {
 	private static final long serialVersionUID = 1707494068232123242L;
@@ -30,8 +43,26 @@ public class PrimaryKeyPager<E extends Entity> extends AbstractPager<E>
 	private static final Logger logger = Logger.getLogger(PrimaryKeyPager.class);
 
 	/**
-	 * Constructor.
-	 * 
+	 * Secondary sorting field that makes the ordering unique. Typically this is
+	 * the primary key of the entity.
+	 */
+	private String primaryKeyField;
+
+	/** (orderByField, primaryKey) of the first rows of the previous pages */
+	private List<Object[]> bookmarks = new ArrayList<Object[]>();
+
+	/** (orderByField, primaryKey) of the first row of the current page */
+	private Object[] firstKey;
+
+	/** (orderByField, primaryKey) of the last row of the current page */
+	private Object[] lastKey;
+
+	/** whether entities of subclasses (with another __Type) are excluded */
+	private boolean subclassesExcluded = true;
+
+	/**
+	 * Constructor for paging ordered by primary key.
+	 *
 	 * @param entityClass
 	 *            class of the entity to be paged
 	 * @param primaryKeyField
@@ -40,28 +71,33 @@ public class PrimaryKeyPager<E extends Entity> extends AbstractPager<E>
 	 */
 	public PrimaryKeyPager(Class<E> entityClass, String primaryKeyField) throws DatabaseException
 	{
-		super(entityClass, primaryKeyField);
-		this.primaryKeyField = primaryKeyField;
-		this.setPagingState(State.FIRST);
-		// this.refresh();
+		this(entityClass, primaryKeyField, primaryKeyField);
 	}
 
 	/**
-	 * Secondary sorting field. This is necessary if orderByField is not an
-	 * indexed field. Typically this is the primary key of the entity.
+	 * Constructor.
+	 *
+	 * @param entityClass
+	 *            class of the entity to be paged
+	 * @param defaultOrderByField
+	 *            name of field that will be used to order database entities by
+	 * @param primaryKeyField
+	 *            the primary key of the entity (must be unique and indexed)
+	 * @throws DatabaseException
 	 */
-	private String primaryKeyField;
-
-	/** remember index thresholds */
-	private Object nextOrderByThreshold;
-	private Object prevOrderByThreshold;
-	private Object nextPKeyThreshold;
-	private Object prevPKeyThreshold;
+	public PrimaryKeyPager(Class<E> entityClass, String defaultOrderByField, String primaryKeyField)
+			throws DatabaseException
+	{
+		super(entityClass, defaultOrderByField);
+		if (primaryKeyField == null || primaryKeyField.equals("")) throw new DatabaseException(
+				"primaryKeyField cannot be null");
+		this.primaryKeyField = primaryKeyField;
+		this.setPagingState(State.FIRST);
+	}
 
 	/**
-	 * {@inheritDoc}. Implemented using 'primary key' QueryRules. This means
-	 * that at least the primary key is used to sort the data in the database
-	 * underlying the paging.
+	 * {@inheritDoc}. Implemented using (orderByField, primaryKey) QueryRules,
+	 * using 'offset' only when no bookmark is available.
 	 */
 	@Override
 	public void refresh(Database db) throws DatabaseException
@@ -70,141 +106,331 @@ public class PrimaryKeyPager<E extends Entity> extends AbstractPager<E>
 		// endless loops
 		if (this.pagingState == State.UPTODATE) return;
 
-		// get the rules
-		List<QueryRule> rules = new ArrayList<QueryRule>();
-		rules.addAll(Arrays.asList(this.getFilters()));
-
 		logger.debug("refresh started with state '" + pagingState + "'");
-		reloadCount(db, rules.toArray(new QueryRule[rules.size()]));
+		List<QueryRule> filters = createFilterRules();
+		reloadCount(db, filters.toArray(new QueryRule[filters.size()]));
 
-		// first: add sorting of order by field
-		if (getOrderByField() != null || "".equals(getOrderByField()))
+		if (count == 0)
 		{
-			logger.debug("adding order by on " + getOrderByField());
-			if (getOrderByOperator().equals(Operator.SORTASC)) rules.add(new QueryRule(Operator.SORTASC,
-					getOrderByField()));
-			else
-				rules.add(new QueryRule(Operator.SORTDESC, getOrderByField()));
+			offset = 0;
+			clearBookmarks();
+			setPage(new ArrayList<E>());
+			pagingState = State.UPTODATE;
+			return;
 		}
 
-		// second: add sorting by primary key (ensuring predictable ordering)
-		if (!getOrderByField().equals(primaryKeyField))
+		// correct current offset to be in line with limit (with limit > 0)
+		if (offset % limit != 0)
 		{
-			logger.debug("adding order by on " + primaryKeyField);
-			if (getOrderByOperator().equals(Operator.SORTASC)) rules.add(new QueryRule(Operator.SORTASC,
-					primaryKeyField));
-			else
-				rules.add(new QueryRule(Operator.SORTDESC, primaryKeyField));
-
+			logger.warn("corrected offset from " + offset + " to " + (offset / limit * limit));
+			offset = offset / limit * limit;
+			clearBookmarks();
 		}
 
-		// based on the pagingState we add additional filterings
+		// based on the pagingState we seek from a bookmark or fall back to
+		// offset
 		switch (pagingState)
 		{
-			case REFRESH:
-				if (count > offset)
+			case NEXT:
+				if (offset + limit >= count)
 				{
-					rules.add(new QueryRule(Operator.LIMIT, limit));
-					rules.add(new QueryRule(getOrderByField(), Operator.GREATER_EQUAL, prevOrderByThreshold));
-					if (!getOrderByField().equals(primaryKeyField)) rules.add(new QueryRule(primaryKeyField,
-							Operator.GREATER_EQUAL, prevPKeyThreshold));
-					// FIXME how can we distinguish page when sort field is not
-					// unique!!
-					logger.debug("loaded filters for refresh. Added operator: limit=" + limit + ", offset=" + offset);
+					logger.debug("next, is already in 'last' range (offset=" + offset + "), refresh to last.");
+					loadLast(db, filters);
 					break;
 				}
+				offset = offset + limit;
+				if (lastKey != null)
+				{
+					bookmarks.add(firstKey);
+					logger.debug("next, seek after " + Arrays.toString(lastKey) + ", offset: " + offset);
+					loadPage(db, filters, createSeekRule(lastKey, true, false), true);
+				}
 				else
 				{
-					logger.debug("refresh is delegated to 'last' operation because count < offset (maybe cause of deletes)");
-					pagingState = State.LAST;
-					this.refresh(db);
-					return;
+					loadPage(db, filters, null, true);
 				}
-			case NEXT:
-				if (limit + offset < count)
+				break;
+			case PREV:
+				if (offset - limit < 0)
 				{
-					offset = limit + offset;
-					rules.add(new QueryRule(Operator.LIMIT, Math.min(limit, count - offset)));
-					rules.add(new QueryRule(getOrderByField(), Operator.GREATER, nextOrderByThreshold));
-					if (!getOrderByField().equals(primaryKeyField)) rules.add(new QueryRule(primaryKeyField,
-							Operator.GREATER, nextPKeyThreshold));
-					// FIXME how can we distinguish page when sort field is not
-					// unique!!
-
-					// get first from next threshold (exclusive)
-					logger.debug("loaded filters for next. Added operator: " + getOrderByField() + " > "
-							+ nextOrderByThreshold + ". Offset is: " + offset + ") and " + primaryKeyField
-							+ " greater than: " + nextPKeyThreshold);
+					logger.debug("prev, is already in 'first' range (offset=" + offset + "), refresh to first");
+					loadFirst(db, filters);
 					break;
 				}
+				offset = offset - limit;
+				if (!bookmarks.isEmpty() && bookmarks.get(bookmarks.size() - 1) != null)
+				{
+					Object[] bookmark = bookmarks.remove(bookmarks.size() - 1);
+					logger.debug("prev, seek from bookmark " + Arrays.toString(bookmark) + ", offset: " + offset);
+					loadPage(db, filters, createSeekRule(bookmark, true, true), true);
+				}
+				else if (firstKey != null)
+				{
+					bookmarks.clear();
+					logger.debug("prev, seek before " + Arrays.toString(firstKey) + ", offset: " + offset);
+					loadPage(db, filters, createSeekRule(firstKey, false, false), false);
+				}
 				else
-				// page in 'last' range, go last
 				{
-					pagingState = State.LAST;
-					logger.debug("next, is already in 'last' range (offset=" + offset + "), refresh to last.");
-					this.refresh(db);
-					return;
+					clearBookmarks();
+					loadPage(db, filters, null, true);
 				}
+				break;
 			case LAST:
-				// get last, limit to remaining from count
-				if (count % limit != 0) rules.add(new QueryRule(Operator.LIMIT, count % limit));
-				else
-					rules.add(new QueryRule(Operator.LIMIT, limit));
-				if (count > limit) offset = (int) Math.round(Math.floor((count - 1) / limit) * limit);
-				else
-					offset = 0;
-				rules.add(new QueryRule(Operator.LAST));
-				logger.debug("loaded filters for last. Added operator: 'last'. Offset is: " + offset);
+				loadLast(db, filters);
 				break;
-			case PREV:
-				// get last before prev threshold (exclusive)
-				// set it to be the previous valid offset
-				if (offset - limit >= 0)
+			case REFRESH:
+				if (offset >= count)
 				{
-					offset = offset - limit;
-					rules.add(new QueryRule(Operator.LIMIT, limit));
-					rules.add(new QueryRule(Operator.LAST));
-					rules.add(new QueryRule(getOrderByField(), Operator.LESS, prevOrderByThreshold));
-					if (!getOrderByField().equals(primaryKeyField)) rules.add(new QueryRule(primaryKeyField,
-							Operator.LESS, prevPKeyThreshold));
-					// FIXME how can we distinguish page when sort field is not
-					// unique!!
-					logger.debug("prev, offset: " + offset + ", " + getOrderByField() + " < " + prevOrderByThreshold
-							+ " and " + primaryKeyField + " greater than: " + prevPKeyThreshold);
-					break;
+					logger.debug("refresh is delegated to 'last' operation because count < offset (maybe cause of deletes)");
+					loadLast(db, filters);
+				}
+				else if (firstKey != null)
+				{
+					loadPage(db, filters, createSeekRule(firstKey, true, true), true);
 				}
 				else
-				{ // delegate to first
-					logger.debug("prev, is already in 'first' range (offset=" + offset + "), refresh to first");
-					pagingState = State.FIRST;
-					this.refresh(db);
-					return;
+				{
+					loadPage(db, filters, null, true);
 				}
+				break;
 			case FIRST:
-				// get first, no additional filtering needed
-				offset = 0;
-				rules.add(new QueryRule(Operator.LIMIT, limit));
-				logger.debug("loaded filters for first: no filters needed");
+			default:
+				loadFirst(db, filters);
 				break;
 		}
 
+		// don't forget!
+		pagingState = State.UPTODATE;
+	}
+
+	/**
+	 * {@inheritDoc}. Moving to the adjacent page is translated into next() or
+	 * prev() so that these can seek instead of using offset.
+	 */
+	@Override
+	public void setOffset(int offset)
+	{
+		if (offset == this.offset + limit && this.pagingState == State.UPTODATE) this.pagingState = State.NEXT;
+		else if (offset == this.offset - limit && this.pagingState == State.UPTODATE) this.pagingState = State.PREV;
+		else
+		{
+			if (offset != this.offset) clearBookmarks();
+			this.offset = offset;
+			this.pagingState = State.REFRESH;
+		}
+		logger.debug("changed offset to: " + offset);
+	}
+
+	@Override
+	public void setLimit(int limit) throws DatabaseException
+	{
+		if (limit != this.limit) clearBookmarks();
+		super.setLimit(limit);
+	}
+
+	@Override
+	public void setOrderByField(String orderByField) throws DatabaseException
+	{
+		if (orderByField != null && !orderByField.equals(getOrderByField())) invalidate();
+		super.setOrderByField(orderByField);
+	}
+
+	@Override
+	public void setOrderByOperator(Operator orderByOperator) throws DatabaseException
+	{
+		if (orderByOperator != null && !orderByOperator.equals(getOrderByOperator())) invalidate();
+		super.setOrderByOperator(orderByOperator);
+	}
+
+	@Override
+	public void addFilter(QueryRule filter) throws DatabaseException
+	{
+		if (filter != null) invalidate();
+		super.addFilter(filter);
+	}
+
+	@Override
+	public void removeFilter(int index) throws DatabaseException
+	{
+		invalidate();
+		super.removeFilter(index);
+	}
+
+	@Override
+	public void resetFilters(List<QueryRule> filters)
+	{
+		// filters are reset on every request, so only invalidate on change
+		if (!Arrays.asList(getFilters()).equals(filters)) invalidate();
+		super.resetFilters(filters);
+	}
+
+	public String getPrimaryKeyField()
+	{
+		return primaryKeyField;
+	}
+
+	public boolean isSubclassesExcluded()
+	{
+		return subclassesExcluded;
+	}
+
+	/**
+	 * Whether to only page entities of which the __Type equals the entity
+	 * class, which is the default.
+	 */
+	public void setSubclassesExcluded(boolean subclassesExcluded)
+	{
+		if (subclassesExcluded != this.subclassesExcluded) invalidate();
+		this.subclassesExcluded = subclassesExcluded;
+	}
+
+	// PRIVATE HELPERS
+
+	/** bookmarks of the current ordering and filters can no longer be used */
+	private void invalidate()
+	{
+		clearBookmarks();
+		if (this.pagingState == State.UPTODATE) this.pagingState = State.REFRESH;
+	}
+
+	private void clearBookmarks()
+	{
+		bookmarks.clear();
+		firstKey = null;
+		lastKey = null;
+	}
+
+	private List<QueryRule> createFilterRules()
+	{
+		List<QueryRule> rules = new ArrayList<QueryRule>();
+		rules.addAll(Arrays.asList(this.getFilters()));
+		if (!subclassesExcluded) return rules;
+		try
+		{
+			for (String fieldName : this.getEntityClass().newInstance().getFields())
+			{
+				if (fieldName.equals(Field.TYPE_FIELD)) rules.add(new QueryRule(Field.TYPE_FIELD, Operator.EQUALS,
+						this.getEntityClass().getSimpleName()));
+			}
+		}
+		catch (InstantiationException e)
+		{
+			e.printStackTrace();
+		}
+		catch (IllegalAccessException e)
+		{
+			e.printStackTrace();
+		}
+		return rules;
+	}
+
+	private void loadFirst(Database db, List<QueryRule> filters) throws DatabaseException
+	{
+		offset = 0;
+		clearBookmarks();
+		loadPage(db, filters, null, true);
+	}
+
+	private void loadLast(Database db, List<QueryRule> filters) throws DatabaseException
+	{
+		offset = count > limit ? (count - 1) / limit * limit : 0;
+		clearBookmarks();
+		// retrieve the last rows in reverse order instead of using offset
+		loadPage(db, filters, null, false);
+	}
+
+	/**
+	 * Loads the page at the current offset
+	 *
+	 * @param seekRule
+	 *            rule to seek from a bookmark, if null offset is used
+	 * @param forward
+	 *            if false, rows are retrieved in reverse order (before the
+	 *            bookmark or from the end) and then reversed
+	 */
+	private void loadPage(Database db, List<QueryRule> filters, QueryRule seekRule, boolean forward)
+			throws DatabaseException
+	{
+		int expected = Math.min(limit, count - offset);
+
+		List<QueryRule> rules = new ArrayList<QueryRule>(filters);
+		if (seekRule != null) rules.add(seekRule);
+		addSortRules(rules, forward);
+		rules.add(new QueryRule(Operator.LIMIT, forward ? limit : expected));
+		if (seekRule == null && forward && offset > 0) rules.add(new QueryRule(Operator.OFFSET, offset));
 		reloadPage(db, rules.toArray(new QueryRule[rules.size()]));
 
-		// remember prevThresholds and nextThresholds for next time (only for
-		// prev/next)
+		if (seekRule != null && page.size() != expected)
+		{
+			// e.g. null values in the order by field cannot be seeked
+			logger.debug("seek returned " + page.size() + " instead of " + expected + " rows, falling back to offset");
+			clearBookmarks();
+			loadPage(db, filters, null, true);
+			return;
+		}
+		if (!forward) Collections.reverse(page);
+
 		if (page.size() > 0)
 		{
-			prevOrderByThreshold = page.get(0).get(getOrderByField());
-			prevPKeyThreshold = page.get(0).get(primaryKeyField);
-			nextOrderByThreshold = page.get(page.size() - 1).get(getOrderByField());
-			nextPKeyThreshold = page.get(page.size() - 1).get(this.primaryKeyField);
+			firstKey = createKey(page.get(0));
+			lastKey = createKey(page.get(page.size() - 1));
 		}
 		else
 		{
 			logger.error("should never happen unless the db was changed between count and find");
+			firstKey = null;
+			lastKey = null;
 		}
+	}
 
-		// don't forget!
-		pagingState = State.UPTODATE;
+	private void addSortRules(List<QueryRule> rules, boolean forward)
+	{
+		boolean asc = getOrderByOperator().equals(Operator.SORTASC) == forward;
+		Operator sort = asc ? Operator.SORTASC : Operator.SORTDESC;
+		rules.add(new QueryRule(sort, getOrderByField()));
+		// add sorting by primary key (ensuring predictable ordering)
+		if (!getOrderByField().equals(primaryKeyField)) rules.add(new QueryRule(sort, primaryKeyField));
+	}
+
+	/**
+	 * Creates the rule selecting the rows after (or before) a bookmark in the
+	 * current ordering
+	 *
+	 * @param key
+	 *            (orderByField, primaryKey) bookmark
+	 * @param forward
+	 *            rows after (true) or before (false) the bookmark
+	 * @param inclusive
+	 *            whether the bookmarked row itself is included
+	 */
+	private QueryRule createSeekRule(Object[] key, boolean forward, boolean inclusive)
+	{
+		boolean greater = getOrderByOperator().equals(Operator.SORTASC) == forward;
+		Operator exclusiveOperator = greater ? Operator.GREATER : Operator.LESS;
+		Operator keyOperator = exclusiveOperator;
+		if (inclusive) keyOperator = greater ? Operator.GREATER_EQUAL : Operator.LESS_EQUAL;
+
+		if (getOrderByField().equals(primaryKeyField)) return new QueryRule(primaryKeyField, keyOperator, key[1]);
+		return new QueryRule(new QueryRule(getOrderByField(), exclusiveOperator, key[0]), new QueryRule(Operator.OR),
+				new QueryRule(new QueryRule(getOrderByField(), Operator.EQUALS, key[0]), new QueryRule(primaryKeyField,
+						keyOperator, key[1])));
+	}
+
+	/**
+	 * @return (orderByField, primaryKey) of the entity or null if it cannot be
+	 *         used as a bookmark
+	 */
+	private Object[] createKey(E entity)
+	{
+		Object id = entity.get(primaryKeyField);
+		if (id == null) return null;
+		if (getOrderByField().equals(primaryKeyField)) return new Object[]
+		{ id, id };
+
+		Object value = entity.get(getOrderByField());
+		if (value instanceof String || value instanceof Number || value instanceof Date || value instanceof Boolean) return new Object[]
+		{ value, id };
+		return null;
 	}
 }
@@ -0,0 +1,246 @@
+package org.molgenis.framework.security;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.molgenis.framework.db.AbstractDatabase;
+import org.molgenis.framework.db.Database;
+import org.molgenis.framework.db.DatabaseException;
+import org.molgenis.framework.db.QueryRule;
+import org.molgenis.util.Entity;
+
+/**
+ * Memoises the permissions and row level security filters of a {@link Login}
+ * per entity class. Used by the generated security decorators of the mappers,
+ * which otherwise ask the login for permissions and look up the groups of the
+ * user to build the row level security filters on each find, count, add,
+ * update and remove.
+ * <p>
+ * Entries of a login are dropped when the login changes user (login, logout)
+ * and all entries are dropped when one of the tables that define permissions
+ * is written, see {@link #invalidate(Database)}. Writes that bypass the
+ * mappers are not seen, therefore entries also expire after
+ * {@link #getMaxAge()} milliseconds. Logins are weakly referenced, so that
+ * entries disappear with the session of the login.
+ */
+public class PermissionCache
+{
+	/** default maximum age of the permissions of a login in milliseconds */
+	public static final long DEFAULT_MAX_AGE = 60000;
+
+	private static final PermissionCache instance = new PermissionCache();
+
+	/** cached permissions per login */
+	private final Map<Login, Entry> entries = new WeakHashMap<Login, Entry>();
+
+	/** version that is incremented on each write to a permission table */
+	private long version = 0;
+
+	private long maxAge = DEFAULT_MAX_AGE;
+
+	/**
+	 * @return the cache shared by all databases
+	 */
+	public static PermissionCache getInstance()
+	{
+		return instance;
+	}
+
+	/**
+	 * Returns {@link Login#canRead(Class)}, from the cache if known
+	 */
+	public boolean canRead(Login login, Class<? extends Entity> entityClass) throws DatabaseException
+	{
+		String key = "read:" + entityClass.getName();
+		Boolean permission = getPermission(login, key);
+		if (permission == null)
+		{
+			long version = getVersion();
+			permission = login.canRead(entityClass);
+			putPermission(login, key, version, permission);
+		}
+		return permission;
+	}
+
+	/**
+	 * Returns {@link Login#canWrite(Class)}, from the cache if known
+	 */
+	public boolean canWrite(Login login, Class<? extends Entity> entityClass) throws DatabaseException
+	{
+		String key = "write:" + entityClass.getName();
+		Boolean permission = getPermission(login, key);
+		if (permission == null)
+		{
+			long version = getVersion();
+			permission = login.canWrite(entityClass);
+			putPermission(login, key, version, permission);
+		}
+		return permission;
+	}
+
+	/**
+	 * Returns copies of the cached row level security filters of the login,
+	 * entity class and permission, or null if unknown. An empty array means
+	 * that no filter applies.
+	 */
+	public synchronized QueryRule[] getRowLevelFilters(Login login, Class<? extends Entity> entityClass,
+			String permission)
+	{
+		Entry entry = getEntry(login);
+		if (entry == null) return null;
+		QueryRule[] filters = entry.filters.get(permission + ":" + entityClass.getName());
+		if (filters == null) return null;
+		// mappers may rewrite the rules they get
+		QueryRule[] copies = new QueryRule[filters.length];
+		for (int i = 0; i < filters.length; i++)
+			copies[i] = new QueryRule(filters[i]);
+		return copies;
+	}
+
+	/**
+	 * Stores the row level security filters of the login, entity class and
+	 * permission
+	 *
+	 * @param version
+	 *            result of {@link #getVersion()} before the filters were
+	 *            created
+	 */
+	public synchronized void putRowLevelFilters(Login login, Class<? extends Entity> entityClass, String permission,
+			long version, QueryRule... filters)
+	{
+		Entry entry = createEntry(login, version);
+		if (entry == null) return;
+		QueryRule[] copies = new QueryRule[filters.length];
+		for (int i = 0; i < filters.length; i++)
+			copies[i] = new QueryRule(filters[i]);
+		entry.filters.put(permission + ":" + entityClass.getName(), copies);
+	}
+
+	/**
+	 * Returns the version permissions must be retrieved at. Must be retrieved
+	 * before the permissions are and passed to the put methods, so that a
+	 * write to the permission tables in the meantime is not missed.
+	 */
+	public synchronized long getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * Drops all cached permissions. Called on each add, update and remove of
+	 * an entity that defines permissions, e.g. MolgenisPermission. In a
+	 * transaction the permissions are dropped again on commit and rollback,
+	 * because other connections may cache the old permissions until then.
+	 */
+	public void invalidate(Database db)
+	{
+		invalidate();
+		if (db instanceof AbstractDatabase) ((AbstractDatabase) db).invalidatePermissionsOnTxEnd();
+	}
+
+	/**
+	 * Drops all cached permissions, see {@link #invalidate(Database)}
+	 */
+	public synchronized void invalidate()
+	{
+		version++;
+		entries.clear();
+	}
+
+	/**
+	 * Drops the cached permissions of one login, e.g. after
+	 * {@link Login#reload(org.molgenis.framework.db.Database)}
+	 */
+	public synchronized void invalidate(Login login)
+	{
+		entries.remove(login);
+	}
+
+	public synchronized long getMaxAge()
+	{
+		return maxAge;
+	}
+
+	/**
+	 * @param maxAge
+	 *            maximum age of the permissions of a login in milliseconds
+	 */
+	public synchronized void setMaxAge(long maxAge)
+	{
+		if (maxAge < 0) throw new IllegalArgumentException("maxAge must not be negative");
+		this.maxAge = maxAge;
+	}
+
+	private synchronized Boolean getPermission(Login login, String key)
+	{
+		Entry entry = getEntry(login);
+		return entry != null ? entry.permissions.get(key) : null;
+	}
+
+	private synchronized void putPermission(Login login, String key, long version, boolean permission)
+	{
+		Entry entry = createEntry(login, version);
+		if (entry != null) entry.permissions.put(key, permission);
+	}
+
+	/**
+	 * Returns the entry of the login, or null if unknown, expired or if the
+	 * login changed user
+	 */
+	private Entry getEntry(Login login)
+	{
+		Entry entry = entries.get(login);
+		if (entry != null && (!entry.isOf(login) || System.currentTimeMillis() - entry.created > maxAge))
+		{
+			entries.remove(login);
+			entry = null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Returns the entry to store permissions retrieved at the version in, or
+	 * null if permissions were written since
+	 */
+	private Entry createEntry(Login login, long version)
+	{
+		if (version != this.version) return null;
+		Entry entry = getEntry(login);
+		if (entry == null)
+		{
+			entry = new Entry(login);
+			entries.put(login, entry);
+		}
+		return entry;
+	}
+
+	/** permissions of the user of a login */
+	private static class Entry
+	{
+		final boolean authenticated;
+		final Integer userId;
+		final String userName;
+		final long created = System.currentTimeMillis();
+		final Map<String, Boolean> permissions = new HashMap<String, Boolean>();
+		final Map<String, QueryRule[]> filters = new HashMap<String, QueryRule[]>();
+
+		Entry(Login login)
+		{
+			this.authenticated = login.isAuthenticated();
+			this.userId = login.getUserId();
+			this.userName = login.getUserName();
+		}
+
+		boolean isOf(Login login)
+		{
+			return authenticated == login.isAuthenticated() && equals(userId, login.getUserId())
+					&& equals(userName, login.getUserName());
+		}
+
+		private static boolean equals(Object o1, Object o2)
+		{
+			return o1 == null ? o2 == null : o1.equals(o2);
+		}
+	}
+}
@@ -4,22 +4,29 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 
 import org.apache.log4j.Logger;
-import org.json.JSONObject;
 import org.molgenis.framework.db.Database;
 import org.molgenis.framework.db.DatabaseException;
-import org.molgenis.framework.db.Query;
+import org.molgenis.framework.db.QueryRule;
+import org.molgenis.framework.db.QueryRule.Operator;
+import org.molgenis.framework.db.paging.PrimaryKeyPager;
 import org.molgenis.framework.server.MolgenisContext;
 import org.molgenis.framework.server.MolgenisRequest;
 import org.molgenis.framework.server.MolgenisResponse;
 import org.molgenis.framework.server.MolgenisService;
+import org.molgenis.io.TupleWriter;
+import org.molgenis.io.processor.AbstractCellProcessor;
+import org.molgenis.io.processor.CellProcessor;
 import org.molgenis.util.Entity;
+import org.molgenis.util.tuple.EntityTuple;
+import org.molgenis.util.tuple.Tuple;
+
+import com.google.gson.stream.JsonWriter;
 
 /** Service to serve entities for datatable */
 public class MolgenisDataTableService implements MolgenisService
@@ -58,6 +65,7 @@ public class MolgenisDataTableService implements MolgenisService
 
 			// get parameters
 			Class<? extends Entity> entityClass = req.getDatabase().getClassForName(req.getString("entity"));
+			List<String> entityFields = entityClass.newInstance().getFields();
 
 			// iDisplayLenght = limit
 			int iDisplayLength = 10;
@@ -73,63 +81,107 @@ public class MolgenisDataTableService implements MolgenisService
 				iDisplayStart = req.getInt("iDisplayStart");
 			}
 
-			// create a query on entity
+			// columns: mDataProp_n = field name of column n
+			List<String> columns = new ArrayList<String>();
+			int iColumns = req.isNull("iColumns") ? 0 : req.getInt("iColumns");
+			for (int i = 0; i < iColumns; i++)
+			{
+				columns.add(req.isNull("mDataProp_" + i) ? null : req.getString("mDataProp_" + i));
+			}
+
+			// only fields of the entity are queried, other columns are empty
+			List<String> fields = new ArrayList<String>();
+			for (String column : columns)
+			{
+				if (column != null && entityFields.contains(column) && !fields.contains(column)) fields.add(column);
+			}
+			if (fields.isEmpty())
+			{
+				columns = entityFields;
+				fields = entityFields;
+			}
+
 			Database db = req.getDatabase();
-			Query<?> q = db.query(entityClass);
 
 			// sorting
 			// iSortCol_0 = sort column number
 			// resolve using mDataProp_1='name'
-			String sortField = req.getString("mDataProp_" + req.getString("iSortCol_0"));
+			String sortField = req.isNull("iSortCol_0") ? null : req.getString("mDataProp_" + req.getString("iSortCol_0"));
+			if (!entityFields.contains(sortField)) sortField = null;
 			boolean asc = "asc".equals(req.getString("sSortDir_0")) ? true : false;
-			if (asc) q.sortASC(sortField);
-			else
-				q.sortDESC(sortField);
 
 			// iTotalRecords is unfiltered count!
-			int count = q.count();
+			int count = db.count(entityClass);
 
 			// sSearch = filtering string
-			if (!"".equals(req.getString("sSearch")))
+			List<QueryRule> filters = new ArrayList<QueryRule>();
+			if (!req.isNull("sSearch") && !"".equals(req.getString("sSearch")))
 			{
-				q.search(req.getString("sSearch"));
+				filters.add(new QueryRule(Operator.SEARCH, req.getString("sSearch")));
 			}
 
-			// filtered count
-			int filteredCount = q.count();
+			// sSearch_n = filtering string of column n
+			for (int i = 0; i < columns.size() && i < iColumns; i++)
+			{
+				String field = columns.get(i);
+				if (field == null || !entityFields.contains(field) || "false".equals(req.getString("bSearchable_" + i))
+						|| req.isNull("sSearch_" + i) || "".equals(req.getString("sSearch_" + i))) continue;
+				filters.add(new QueryRule(field, Operator.LIKE, req.getString("sSearch_" + i)));
+			}
 
 			// iTotalDisplayRecords is filtered count
-			// todo: implement filters
-			q.offset(iDisplayStart);
-			q.limit(iDisplayLength);
-			List<? extends Entity> result = q.find();
-
-			JSONObject jsonObject = new JSONObject();
-			jsonObject.put("sEcho", req.getString("sEcho"));
-			jsonObject.put("iTotalRecords", count);
-			jsonObject.put("iTotalDisplayRecords", filteredCount);
-
-			List<Map<String, Object>> aaData = new ArrayList<Map<String, Object>>();
-			for (Entity e : result)
+			PrintWriter out = response.getWriter();
+			JsonWriter json = new JsonWriter(out);
+			json.beginObject();
+			json.name("sEcho").value(req.getString("sEcho"));
+			json.name("iTotalRecords").value(count);
+
+			// aaData = one object per row with the requested columns
+			DataTableWriter aaData = new DataTableWriter(json, columns);
+			if (iDisplayLength > 0 && iDisplayStart % iDisplayLength == 0)
 			{
-				Map<String, Object> values = new LinkedHashMap<String, Object>();
-				for (String field : e.getFields())
+				// page using a keyset pager kept in the session, so that
+				// moving to the next or previous page does not use offset
+				PrimaryKeyPager<? extends Entity> pager = getPager(req, entityClass);
+				synchronized (pager)
 				{
-					if (e.get(field) != null) values.put(field, e.get(field).toString());
+					pager.resetFilters(filters);
+					if (sortField != null)
+					{
+						pager.setOrderByField(sortField);
+						pager.setOrderByOperator(asc ? Operator.SORTASC : Operator.SORTDESC);
+					}
 					else
-						values.put(field, "");
+					{
+						pager.resetOrderBy();
+					}
+					pager.setLimit(iDisplayLength);
+					pager.setOffset(iDisplayStart);
+					List<? extends Entity> page = pager.getPage(db);
+
+					json.name("iTotalDisplayRecords").value(pager.getCount());
+					aaData.writeColNames(fields);
+					for (Entity e : page)
+					{
+						aaData.write(new EntityTuple(e));
+					}
+					aaData.close();
 				}
-				aaData.add(values);
 			}
+			else
+			{
+				List<QueryRule> rules = new ArrayList<QueryRule>(filters);
+				json.name("iTotalDisplayRecords").value(
+						filters.isEmpty() ? count : db.count(entityClass, rules.toArray(new QueryRule[rules.size()])));
+				if (sortField != null) rules.add(new QueryRule(asc ? Operator.SORTASC : Operator.SORTDESC, sortField));
+				if (iDisplayStart > 0) rules.add(new QueryRule(Operator.OFFSET, iDisplayStart));
+				if (iDisplayLength > 0) rules.add(new QueryRule(Operator.LIMIT, iDisplayLength));
 
-			jsonObject.put("aaData", aaData);
-			String json = jsonObject.toString();
-			logger.debug(json);
-
-			// write out
-			PrintWriter out = response.getWriter();
-			System.out.println("json\n" + json);
-			out.print(json);
+				// stream the requested fields only
+				db.find(entityClass, aaData, fields, rules.toArray(new QueryRule[rules.size()]));
+			}
+			json.endObject();
+			json.flush();
 			out.close();
 		}
 		catch (Exception e)
@@ -141,4 +193,91 @@ public class MolgenisDataTableService implements MolgenisService
 			throw new DatabaseException(e);
 		}
 	}
+
+	/**
+	 * Writes tuples as the aaData array of a DataTables response, one object
+	 * per row with a string value for each column. The array is ended on
+	 * close, the response itself is not closed. Cell processors are applied to
+	 * the values, the column names are the keys the DataTables columns are
+	 * configured with and are left as they are.
+	 */
+	private static class DataTableWriter implements TupleWriter
+	{
+		private final JsonWriter json;
+		private final List<String> columns;
+
+		/** process cells before writing */
+		private List<CellProcessor> cellProcessors;
+
+		public DataTableWriter(JsonWriter json, List<String> columns)
+		{
+			this.json = json;
+			this.columns = columns;
+		}
+
+		@Override
+		public void writeColNames(Iterable<String> colNames) throws IOException
+		{
+			json.name("aaData");
+			json.beginArray();
+		}
+
+		@Override
+		public void write(Tuple tuple) throws IOException
+		{
+			json.beginObject();
+			for (String column : columns)
+			{
+				if (column == null) continue;
+				Object value = tuple.get(column);
+				String processedValue = AbstractCellProcessor.processCell(value != null ? value.toString() : null,
+						false, cellProcessors);
+				json.name(column).value(processedValue != null ? processedValue : "");
+			}
+			json.endObject();
+		}
+
+		@Override
+		public void addCellProcessor(CellProcessor cellProcessor)
+		{
+			if (cellProcessors == null) cellProcessors = new ArrayList<CellProcessor>();
+			cellProcessors.add(cellProcessor);
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			json.endArray();
+		}
+	}
+
+	/**
+	 * Returns the pager of the entity for the current session
+	 */
+	@SuppressWarnings("unchecked")
+	private PrimaryKeyPager<? extends Entity> getPager(MolgenisRequest req, Class<? extends Entity> entityClass)
+			throws Exception
+	{
+		HttpSession session = req.getRequest().getSession();
+		String attributeName = MolgenisDataTableService.class.getName() + "." + entityClass.getName();
+		synchronized (session)
+		{
+			PrimaryKeyPager<? extends Entity> pager = (PrimaryKeyPager<? extends Entity>) session
+					.getAttribute(attributeName);
+			if (pager == null)
+			{
+				pager = createPager(entityClass);
+				session.setAttribute(attributeName, pager);
+			}
+			return pager;
+		}
+	}
+
+	private static <E extends Entity> PrimaryKeyPager<E> createPager(Class<E> entityClass) throws Exception
+	{
+		String idField = entityClass.newInstance().getIdField();
+		PrimaryKeyPager<E> pager = new PrimaryKeyPager<E>(entityClass, idField, idField);
+		pager.setSubclassesExcluded(false);
+		return pager;
+	}
 }
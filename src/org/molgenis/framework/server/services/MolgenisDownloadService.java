@@ -16,7 +16,6 @@ import org.molgenis.framework.server.MolgenisRequest;
 import org.molgenis.framework.server.MolgenisResponse;
 import org.molgenis.framework.server.MolgenisService;
 import org.molgenis.framework.server.MolgenisServiceAuthenticationHelper;
-import org.molgenis.io.TupleWriter;
 import org.molgenis.io.csv.CsvWriter;
 import org.molgenis.util.Entity;
 
@@ -279,7 +278,9 @@ public class MolgenisDownloadService implements MolgenisService
 		List<QueryRule> rulesList = createQueryRules(req, klazz);
 
 		// execute query
-		TupleWriter csvWriter = new CsvWriter(out);
+		CsvWriter csvWriter = new CsvWriter(out);
+		csvWriter.setQuoteAll(false);
+		csvWriter.setFlushInterval(CsvWriter.DEFAULT_EXPORT_FLUSH_INTERVAL);
 		try
 		{
 			db.find(klazz, csvWriter, rulesList.toArray(new QueryRule[rulesList.size()]));
@@ -2,11 +2,14 @@ package org.molgenis.framework.server.services;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.lang.reflect.Type;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -15,28 +18,75 @@ import java.util.Map.Entry;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
-import org.json.JSONException;
+import org.molgenis.fieldtypes.MrefField;
+import org.molgenis.fieldtypes.XrefField;
+import org.molgenis.framework.db.AbstractDatabase;
 import org.molgenis.framework.db.Database;
 import org.molgenis.framework.db.DatabaseException;
+import org.molgenis.framework.db.Mapper;
+import org.molgenis.framework.db.MapperDecorator;
 import org.molgenis.framework.db.Query;
 import org.molgenis.framework.db.QueryRule;
+import org.molgenis.framework.db.QueryRule.Operator;
+import org.molgenis.framework.security.Login;
 import org.molgenis.framework.server.MolgenisContext;
 import org.molgenis.framework.server.MolgenisRequest;
 import org.molgenis.framework.server.MolgenisResponse;
 import org.molgenis.framework.server.MolgenisService;
 import org.molgenis.framework.ui.html.AbstractRefInput;
+import org.molgenis.io.TupleWriter;
+import org.molgenis.io.processor.CellProcessor;
+import org.molgenis.model.MolgenisModelException;
+import org.molgenis.model.elements.Model;
 import org.molgenis.util.Entity;
+import org.molgenis.util.tuple.Tuple;
 
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
 
 public class MolgenisXrefService implements MolgenisService
 {
+	private static final Logger logger = Logger.getLogger(MolgenisXrefService.class);
+
+	/** maximum number of options returned */
+	static final int MAX_RESULTS = 100;
+
+	/** default maximum number of records of an entity kept in a label index */
+	public static final int DEFAULT_MAX_INDEX_SIZE = 500000;
+
+	/**
+	 * maximum number of label index hits that is combined with the filters in
+	 * one query, searches with more hits use 'LIKE' instead
+	 */
+	static final int MAX_FILTER_CANDIDATES = 1000;
+
+	/** maximum number of label indexes kept */
+	static final int MAX_INDEXES = 32;
+
+	/** maximum number of responses kept */
+	static final int MAX_RESPONSES = 256;
+
+	/** default number of seconds a browser may reuse a response */
+	public static final int DEFAULT_MAX_AGE = 10;
+
 	// private MolgenisContext mc;
 
+	/**
+	 * label indexes on (entity, xref field, labels), holding all records:
+	 * row-level security is applied when the candidates are read
+	 */
+	private final Map<String, XrefLabelIndex> indexes = createLruMap(MAX_INDEXES);
+
+	/** json responses on (user, entity, xref field, labels, filters, term) */
+	private final Map<String, CachedResponse> responses = createLruMap(MAX_RESPONSES);
+
+	private int maxIndexSize = DEFAULT_MAX_INDEX_SIZE;
+
+	private int maxAge = DEFAULT_MAX_AGE;
+
 	public MolgenisXrefService(MolgenisContext mc)
 	{
 		// this.mc = mc;
@@ -62,13 +112,51 @@ public class MolgenisXrefService implements MolgenisService
 	public void handleRequest(final MolgenisRequest req, final MolgenisResponse res) throws ParseException,
 			DatabaseException, IOException
 	{
-		handleXrefRequest(req.getDatabase(), req, res);
+		handleXref(req.getDatabase(), req, res);
 	}
 
+	/**
+	 * Handles an xref request without the label index and response cache of a
+	 * service instance
+	 */
 	public static void handleXrefRequest(final Database db, final MolgenisRequest req, final MolgenisResponse res)
 			throws DatabaseException
 	{
-		final Logger logger = Logger.getLogger(MolgenisXrefService.class);
+		new MolgenisXrefService(null).handleXref(db, req, res);
+	}
+
+	/**
+	 * Maximum number of records of an entity for which a label index is built,
+	 * larger entities are searched with 'LIKE'
+	 */
+	public int getMaxIndexSize()
+	{
+		return maxIndexSize;
+	}
+
+	public void setMaxIndexSize(int maxIndexSize)
+	{
+		this.maxIndexSize = maxIndexSize;
+	}
+
+	/**
+	 * Number of seconds a browser may reuse a response without revalidating
+	 * its ETag
+	 */
+	public int getMaxAge()
+	{
+		return maxAge;
+	}
+
+	public void setMaxAge(int maxAge)
+	{
+		if (maxAge < 0) throw new IllegalArgumentException("maxAge must not be negative");
+		this.maxAge = maxAge;
+	}
+
+	private void handleXref(final Database db, final MolgenisRequest req, final MolgenisResponse res)
+			throws DatabaseException
+	{
 		try
 		{
 			logger.debug("handling XREF request " + req);
@@ -106,28 +194,43 @@ public class MolgenisXrefService implements MolgenisService
 				xref_labels.add(label.toString());
 			}
 
-			final HttpServletResponse response = res.getResponse();
-			response.setHeader("Cache-Control", "max-age=0"); // disable cache
-																// so every
-																// request is
-																// new
-			response.setContentType("application/json");
-
-			final List<? extends Entity> records = getRecords(db, searchTerm, xrefEntity, filters, xref_labels);
+			// cached data is only valid for the entity version it was read for
+			final String indexKey = createKey(xrefEntity.getName(), xrefField, xrefLabel);
+			final long indexVersion = getDataVersion(db, xrefEntity, xref_labels, null);
+			final String responseKey = createKey(getUserName(db), indexKey, xref_filters, String.valueOf(nillable),
+					searchTerm);
+			final long responseVersion = getDataVersion(db, xrefEntity, xref_labels, filters);
 
-			final String json = toJSon(xrefField, xref_labels, records, nillable);
+			String json = getResponse(responseKey, responseVersion);
+			if (json == null)
+			{
+				List<? extends Entity> records = null;
+				if (indexVersion != -1) records = findIndexedRecords(db, indexKey, indexVersion, searchTerm,
+						xrefEntity, xrefField, filters, xref_labels);
+				if (records == null) records = findRecords(db, searchTerm, xrefEntity, filters, xref_labels);
 
+				json = toJSon(xrefField, xref_labels, records, nillable);
+				putResponse(responseKey, responseVersion, json);
+			}
 			logger.debug(json);
 
+			final HttpServletResponse response = res.getResponse();
+			final String etag = '"' + Integer.toHexString(json.hashCode()) + '"';
+			response.setHeader("ETag", etag);
+			// without data versions browsers have to revalidate every time
+			response.setHeader("Cache-Control", responseVersion != -1 ? "private, max-age=" + maxAge : "no-cache");
+			if (etag.equals(req.getRequest().getHeader("If-None-Match")))
+			{
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
+			response.setContentType("application/json");
+
 			// write out
 			PrintWriter out = response.getWriter();
 			out.print(json);
 			out.close();
 		}
-		catch (JSONException e)
-		{
-			logger.warn(e);
-		}
 		catch (ClassNotFoundException e)
 		{
 			logger.warn(e);
@@ -136,12 +239,248 @@ public class MolgenisXrefService implements MolgenisService
 		{
 			logger.warn(e);
 		}
+		finally
+		{
+			IOUtils.closeQuietly(db);
+		}
+	}
+
+	/**
+	 * Finds the records using the label index of the entity. The candidates
+	 * are read with an 'IN' query, which applies the filters and the
+	 * row-level security of the user.
+	 * 
+	 * @return the records ordered on relevance, or null if the label index
+	 *         cannot be used
+	 */
+	private List<? extends Entity> findIndexedRecords(final Database db, final String indexKey, final long version,
+			final String searchTerm, final Class<? extends Entity> xrefEntity, final String xrefField,
+			final Collection<QueryRule> filters, final List<String> labels) throws DatabaseException
+	{
+		XrefLabelIndex index = getIndex(db, indexKey, version, xrefEntity, xrefField, labels);
+		if (index == null) return null;
+
+		// with filters the matches are filtered by the database
+		final boolean hasFilters = filters != null && !filters.isEmpty();
+		List<Object> values = index.find(searchTerm, hasFilters ? MAX_FILTER_CANDIDATES + 1 : MAX_RESULTS);
+		List<Entity> records = findCandidates(db, xrefEntity, xrefField, filters, values);
+		if (records != null && records.size() < MAX_RESULTS && values.size() == MAX_RESULTS)
+		{
+			// rows the user may not read were dropped, look further
+			values = index.find(searchTerm, MAX_FILTER_CANDIDATES + 1);
+			records = findCandidates(db, xrefEntity, xrefField, filters, values);
+		}
+		if (records == null) return null;
+
+		// restore the order of the index
+		final Map<Object, Integer> ranks = new HashMap<Object, Integer>();
+		for (int i = 0; i < values.size(); i++)
+			ranks.put(values.get(i), i);
+		Collections.sort(records, new Comparator<Entity>()
+		{
+			@Override
+			public int compare(Entity e1, Entity e2)
+			{
+				return getRank(e1) - getRank(e2);
+			}
+
+			private int getRank(Entity entity)
+			{
+				Integer rank = ranks.get(entity.get(xrefField));
+				return rank != null ? rank : Integer.MAX_VALUE;
+			}
+		});
+		return records.size() > MAX_RESULTS ? records.subList(0, MAX_RESULTS) : records;
 	}
 
-	static final String JSON_KEY_VALUE = "{\"value\":\"%s\", \"text\":\"%s\"}";
+	/**
+	 * Reads the candidate records through the mapper of the entity
+	 * 
+	 * @return the records, or null if there are too many candidates
+	 */
+	private static List<Entity> findCandidates(final Database db, final Class<? extends Entity> xrefEntity,
+			final String xrefField, final Collection<QueryRule> filters, final List<Object> values)
+			throws DatabaseException
+	{
+		if (values.size() > MAX_FILTER_CANDIDATES) return null;
+		if (values.isEmpty()) return new ArrayList<Entity>();
+
+		final List<QueryRule> rules = new ArrayList<QueryRule>();
+		if (filters != null) rules.addAll(filters);
+		rules.add(new QueryRule(xrefField, Operator.IN, values));
+		return new ArrayList<Entity>(db.find(xrefEntity, rules.toArray(new QueryRule[rules.size()])));
+	}
+
+	/**
+	 * Returns the label index for the data version, building it if needed.
+	 * The index is shared by all users, so it is read without the decorators
+	 * (and so the row-level security) of the mapper.
+	 * 
+	 * @return the index, or null if the entity has too many records
+	 */
+	private XrefLabelIndex getIndex(final Database db, final String indexKey, final long version,
+			final Class<? extends Entity> xrefEntity, final String xrefField, final List<String> labels)
+			throws DatabaseException
+	{
+		synchronized (indexes)
+		{
+			XrefLabelIndex index = indexes.get(indexKey);
+			if (index != null && index.getVersion() == version) return index;
+		}
+		final Mapper<? extends Entity> mapper = getUndecoratedMapper(db, xrefEntity);
+		if (mapper.count() > maxIndexSize) return null;
+
+		// read the xref field and labels of all records
+		final List<String> fields = new ArrayList<String>();
+		fields.add(xrefField);
+		fields.addAll(labels);
+		final List<Object[]> records = new ArrayList<Object[]>();
+		mapper.find(new TupleWriter()
+		{
+			@Override
+			public void writeColNames(Iterable<String> colNames) throws IOException
+			{
+			}
+
+			@Override
+			public void write(Tuple tuple) throws IOException
+			{
+				Object[] record = new Object[fields.size()];
+				for (int i = 0; i < record.length; i++)
+					record[i] = tuple.get(fields.get(i));
+				records.add(record);
+			}
+
+			@Override
+			public void addCellProcessor(CellProcessor cellProcessor)
+			{
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public void close() throws IOException
+			{
+			}
+		}, fields, new QueryRule[0]);
+
+		XrefLabelIndex index = new XrefLabelIndex(version, records);
+		logger.debug("built xref label index of " + index.size() + " " + xrefEntity.getSimpleName() + " records");
+		synchronized (indexes)
+		{
+			indexes.put(indexKey, index);
+		}
+		return index;
+	}
+
+	private String getResponse(String responseKey, long version)
+	{
+		if (version == -1) return null;
+		synchronized (responses)
+		{
+			CachedResponse response = responses.get(responseKey);
+			return response != null && response.version == version ? response.json : null;
+		}
+	}
+
+	private void putResponse(String responseKey, long version, String json)
+	{
+		if (version == -1) return;
+		synchronized (responses)
+		{
+			responses.put(responseKey, new CachedResponse(version, json));
+		}
+	}
+
+	/**
+	 * Returns the data version of the entity, see
+	 * {@link AbstractDatabase#getDataVersion(Class, boolean)}. The version
+	 * also depends on other entities if the labels or filters use fields that
+	 * are not stored in the entity hierarchy (e.g. xref labels).
+	 * 
+	 * @return the version or -1 if unknown
+	 */
+	private static long getDataVersion(Database db, Class<? extends Entity> xrefEntity, List<String> labels,
+			Collection<QueryRule> filters) throws DatabaseException
+	{
+		if (!(db instanceof AbstractDatabase)) return -1;
+		List<String> fields = new ArrayList<String>(labels);
+		if (filters != null) for (QueryRule filter : filters)
+		{
+			if (filter.getOperator() == Operator.NESTED || filter.getOperator() == Operator.SEARCH) fields.add(null);
+			else if (filter.getField() != null) fields.add(filter.getField());
+		}
+
+		boolean local = true;
+		try
+		{
+			Model model = db.getMetaData();
+			org.molgenis.model.elements.Entity entity = model != null ? model.getEntity(xrefEntity.getSimpleName())
+					: null;
+			for (String field : fields)
+			{
+				org.molgenis.model.elements.Field f = entity != null && field != null ? entity.getAllField(field)
+						: null;
+				if (f == null || f.getType() instanceof XrefField || f.getType() instanceof MrefField) local = false;
+			}
+		}
+		catch (MolgenisModelException e)
+		{
+			throw new DatabaseException(e);
+		}
+		return ((AbstractDatabase) db).getDataVersion(xrefEntity, local);
+	}
+
+	private static Mapper<? extends Entity> getUndecoratedMapper(Database db, Class<? extends Entity> xrefEntity)
+			throws DatabaseException
+	{
+		Mapper<? extends Entity> mapper = db.getMapperFor(xrefEntity);
+		while (mapper instanceof MapperDecorator<?>)
+			mapper = ((MapperDecorator<? extends Entity>) mapper).getMapper();
+		return mapper;
+	}
+
+	private static String getUserName(Database db)
+	{
+		Login login = db.getLogin();
+		return login != null && login.getUserName() != null ? login.getUserName() : "";
+	}
+
+	private static String createKey(String... parts)
+	{
+		StringBuilder key = new StringBuilder();
+		for (String part : parts)
+			key.append(part).append('\u0000');
+		return key.toString();
+	}
+
+	private static <V> Map<String, V> createLruMap(final int maxSize)
+	{
+		return new LinkedHashMap<String, V>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, V> eldest)
+			{
+				return size() > maxSize;
+			}
+		};
+	}
+
+	private static class CachedResponse
+	{
+		final long version;
+		final String json;
+
+		CachedResponse(long version, String json)
+		{
+			this.version = version;
+			this.json = json;
+		}
+	}
 
 	private static String toJSon(final String xrefField, final List<String> xref_labels,
-			final List<? extends Entity> records, boolean nillable) throws JSONException
+			final List<? extends Entity> records, boolean nillable) throws IOException
 	{
 		// transform in JSON (JavaScript Object Notation)
 		// linkedHashMap preserves order of insert!
@@ -165,15 +504,20 @@ public class MolgenisXrefService implements MolgenisService
 			values.put(key, valueBuilder.toString());
 		}
 
-		// make JSON object string
-		final List<String> keyValuePairs = new ArrayList<String>();
+		// make JSON array of value/text objects
+		final StringWriter out = new StringWriter();
+		final JsonWriter json = new JsonWriter(out);
+		json.beginArray();
 		for (final Entry<String, String> entry : values.entrySet())
 		{
-			keyValuePairs.add(String.format(JSON_KEY_VALUE, StringEscapeUtils.escapeJavaScript(entry.getKey()),
-					StringEscapeUtils.escapeJavaScript(entry.getValue()).replaceAll("\\\\'", "\\'")));
+			json.beginObject();
+			json.name("value").value(entry.getKey());
+			json.name("text").value(entry.getValue());
+			json.endObject();
 		}
-		final String json = String.format("[%s]", StringUtils.join(keyValuePairs, ","));
-		return json;
+		json.endArray();
+		json.close();
+		return out.toString();
 	}
 
 	@SuppressWarnings("finally")
@@ -182,6 +526,21 @@ public class MolgenisXrefService implements MolgenisService
 			throws DatabaseException
 	{
 		List<? extends Entity> result = Collections.emptyList();
+		try
+		{
+			result = findRecords(db, searchTerm, xrefEntity, filters, searchFields);
+		}
+		finally
+		{
+			IOUtils.closeQuietly(db);
+			return result;
+		}
+	}
+
+	private static List<? extends Entity> findRecords(final Database db, final String searchTerm,
+			final Class<? extends Entity> xrefEntity, Collection<QueryRule> filters, final List<String> searchFields)
+			throws DatabaseException
+	{
 		try
 		{
 			// Login login = molgenis.getApplicationController().getLogin();
@@ -203,18 +562,13 @@ public class MolgenisXrefService implements MolgenisService
 				q.sortASC(xref_label);
 			}
 
-			q.limit(100);
-			result = q.find();
+			q.limit(MAX_RESULTS);
+			return q.find();
 		}
 		catch (Exception ex)
 		{
 			throw new DatabaseException(ex);
 		}
-		finally
-		{
-			IOUtils.closeQuietly(db);
-			return result;
-		}
 	}
 
 	@SuppressWarnings("unchecked")
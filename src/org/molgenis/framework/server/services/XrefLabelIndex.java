@@ -0,0 +1,266 @@
+package org.molgenis.framework.server.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory index of the xref labels of one entity, used by
+ * {@link MolgenisXrefService} to find autocomplete candidates without a
+ * 'LIKE' query per keystroke. Label values are kept lower case in a sorted
+ * array for prefix lookups, and trigram postings are used for infix lookups.
+ * <p>
+ * The index is immutable, rebuild it when the data version it was built for
+ * changes.
+ */
+class XrefLabelIndex
+{
+	static final int NGRAM_SIZE = 3;
+
+	/** separates the labels of a record, does not occur in search terms */
+	private static final char LABEL_SEPARATOR = '\u0000';
+
+	private final long version;
+
+	/** xref values of the records, sorted on the first label */
+	private final Object[] values;
+
+	/** lower case labels of each record, separated by LABEL_SEPARATOR */
+	private final String[] texts;
+
+	/** lower case label values, sorted */
+	private final String[] labels;
+
+	/** record of each label value */
+	private final int[] labelRecords;
+
+	/** records containing each ngram, ascending */
+	private final Map<String, int[]> ngrams;
+
+	/**
+	 * @param version
+	 *            data version the records were read for
+	 * @param records
+	 *            the xref value of each record followed by its label values
+	 */
+	XrefLabelIndex(long version, List<Object[]> records)
+	{
+		this.version = version;
+
+		// sort records on their labels so that matches come out in order
+		final String[] recordTexts = new String[records.size()];
+		Integer[] recordOrder = new Integer[records.size()];
+		int nrLabels = 0;
+		for (int i = 0; i < recordTexts.length; i++)
+		{
+			recordTexts[i] = toText(records.get(i));
+			recordOrder[i] = i;
+			nrLabels += records.get(i).length - 1;
+		}
+		Arrays.sort(recordOrder, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer i1, Integer i2)
+			{
+				return recordTexts[i1].compareTo(recordTexts[i2]);
+			}
+		});
+
+		// label values for prefix lookups
+		this.values = new Object[recordTexts.length];
+		this.texts = new String[recordTexts.length];
+		final String[] labelValues = new String[nrLabels];
+		int[] labelValueRecords = new int[nrLabels];
+		Integer[] labelOrder = new Integer[nrLabels];
+		int n = 0;
+		for (int i = 0; i < recordOrder.length; i++)
+		{
+			Object[] record = records.get(recordOrder[i]);
+			values[i] = record[0];
+			texts[i] = recordTexts[recordOrder[i]];
+			for (int j = 1; j < record.length; j++)
+			{
+				labelValues[n] = toLowerCase(record[j]);
+				labelValueRecords[n] = i;
+				labelOrder[n] = n;
+				n++;
+			}
+		}
+		Arrays.sort(labelOrder, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer i1, Integer i2)
+			{
+				return labelValues[i1].compareTo(labelValues[i2]);
+			}
+		});
+		this.labels = new String[nrLabels];
+		this.labelRecords = new int[nrLabels];
+		for (int i = 0; i < nrLabels; i++)
+		{
+			labels[i] = labelValues[labelOrder[i]];
+			labelRecords[i] = labelValueRecords[labelOrder[i]];
+		}
+
+		// trigram postings for infix lookups
+		Map<String, List<Integer>> postings = new HashMap<String, List<Integer>>();
+		for (int i = 0; i < texts.length; i++)
+		{
+			for (String ngram : getNgrams(texts[i]))
+			{
+				List<Integer> posting = postings.get(ngram);
+				if (posting == null)
+				{
+					posting = new ArrayList<Integer>();
+					postings.put(ngram, posting);
+				}
+				posting.add(i);
+			}
+		}
+		this.ngrams = new HashMap<String, int[]>(postings.size() * 4 / 3 + 1);
+		for (Map.Entry<String, List<Integer>> posting : postings.entrySet())
+		{
+			int[] recordNrs = new int[posting.getValue().size()];
+			for (int i = 0; i < recordNrs.length; i++)
+				recordNrs[i] = posting.getValue().get(i);
+			ngrams.put(posting.getKey(), recordNrs);
+		}
+	}
+
+	long getVersion()
+	{
+		return version;
+	}
+
+	int size()
+	{
+		return values.length;
+	}
+
+	/**
+	 * Finds the records of which a label contains the term, ignoring case.
+	 * Records with a label starting with the term come first, both groups are
+	 * ordered on the labels.
+	 *
+	 * @param term
+	 *            search term, all records match an empty term
+	 * @param max
+	 *            maximum number of values to return
+	 * @return the xref values of the matching records
+	 */
+	List<Object> find(String term, int max)
+	{
+		String lowerTerm = term != null ? term.toLowerCase() : "";
+		if (lowerTerm.isEmpty()) return new ArrayList<Object>(Arrays.asList(values).subList(0,
+				Math.min(max, values.length)));
+		Set<Integer> matches = new LinkedHashSet<Integer>();
+
+		// prefix matches
+		int from = Arrays.binarySearch(labels, lowerTerm);
+		if (from < 0) from = -from - 1;
+		for (int i = from; i < labels.length && matches.size() < max && labels[i].startsWith(lowerTerm); i++)
+			matches.add(labelRecords[i]);
+
+		// infix matches
+		if (matches.size() < max)
+		{
+			int[] candidates = getCandidates(lowerTerm);
+			for (int i = 0; i < candidates.length && matches.size() < max; i++)
+			{
+				if (texts[candidates[i]].contains(lowerTerm)) matches.add(candidates[i]);
+			}
+		}
+
+		List<Object> result = new ArrayList<Object>(matches.size());
+		for (Integer match : matches)
+			result.add(values[match]);
+		return result;
+	}
+
+	/**
+	 * Returns the records that may contain the term, i.e. that contain all its
+	 * ngrams
+	 */
+	private int[] getCandidates(String term)
+	{
+		if (term.length() < NGRAM_SIZE)
+		{
+			int[] all = new int[texts.length];
+			for (int i = 0; i < all.length; i++)
+				all[i] = i;
+			return all;
+		}
+
+		// intersect the postings, starting with the shortest
+		List<int[]> postings = new ArrayList<int[]>();
+		for (String ngram : getNgrams(term))
+		{
+			int[] posting = ngrams.get(ngram);
+			if (posting == null) return new int[0];
+			postings.add(posting);
+		}
+		Collections.sort(postings, new Comparator<int[]>()
+		{
+			@Override
+			public int compare(int[] p1, int[] p2)
+			{
+				return p1.length - p2.length;
+			}
+		});
+		int[] result = postings.get(0);
+		for (int i = 1; i < postings.size() && result.length > 0; i++)
+			result = intersect(result, postings.get(i));
+		return result;
+	}
+
+	private static int[] intersect(int[] p1, int[] p2)
+	{
+		int[] result = new int[Math.min(p1.length, p2.length)];
+		int i = 0, j = 0, n = 0;
+		while (i < p1.length && j < p2.length)
+		{
+			if (p1[i] < p2[j]) i++;
+			else if (p1[i] > p2[j]) j++;
+			else
+			{
+				result[n++] = p1[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	private static Set<String> getNgrams(String text)
+	{
+		Set<String> result = new LinkedHashSet<String>();
+		for (int i = 0; i + NGRAM_SIZE <= text.length(); i++)
+		{
+			String ngram = text.substring(i, i + NGRAM_SIZE);
+			if (ngram.indexOf(LABEL_SEPARATOR) == -1) result.add(ngram);
+		}
+		return result;
+	}
+
+	private static String toText(Object[] record)
+	{
+		StringBuilder text = new StringBuilder();
+		for (int i = 1; i < record.length; i++)
+		{
+			if (i > 1) text.append(LABEL_SEPARATOR);
+			text.append(toLowerCase(record[i]));
+		}
+		return text.toString();
+	}
+
+	private static String toLowerCase(Object value)
+	{
+		return value != null ? value.toString().toLowerCase() : "";
+	}
+}
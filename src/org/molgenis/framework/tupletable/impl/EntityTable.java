@@ -8,9 +8,12 @@ import org.molgenis.framework.db.Database;
 import org.molgenis.framework.db.DatabaseException;
 import org.molgenis.framework.db.Query;
 import org.molgenis.framework.db.QueryRule;
+import org.molgenis.framework.db.QueryRule.Operator;
+import org.molgenis.framework.db.paging.PrimaryKeyPager;
 import org.molgenis.framework.tupletable.AbstractFilterableTupleTable;
 import org.molgenis.framework.tupletable.TableException;
 import org.molgenis.model.elements.Field;
+import org.molgenis.model.elements.ModelIndex;
 import org.molgenis.util.Entity;
 import org.molgenis.util.tuple.EntityTuple;
 import org.molgenis.util.tuple.Tuple;
@@ -26,6 +29,9 @@ public class EntityTable extends AbstractFilterableTupleTable
 	// copy of the fields from meta database
 	private List<Field> columns;
 
+	// keyset pager, used when paging through the rows page by page
+	private PrimaryKeyPager<? extends Entity> pager;
+
 	/**
 	 * Constructor
 	 * 
@@ -55,7 +61,10 @@ public class EntityTable extends AbstractFilterableTupleTable
 
 		try
 		{
-			columns = getDb().getMetaData().getEntity(entityClass.getSimpleName()).getAllFields();
+			String simpleName = entityClass.getSimpleName();
+			ModelIndex index = getDb().getMetaData().getIndex();
+			if (index.getEntity(simpleName) == null) throw new TableException("unknown entity " + simpleName);
+			columns = new ArrayList<Field>(index.getAllFields(simpleName));
 			return columns;
 		}
 		catch (Exception e)
@@ -69,20 +78,28 @@ public class EntityTable extends AbstractFilterableTupleTable
 	{
 		try
 		{
-			Query<? extends Entity> q = getDb().query(entityClass);
-			if (this.getLimit() > 0)
-			{
-				q.limit(this.getLimit());
-			}
-			if (this.getOffset() > 0)
+			List<? extends Entity> entities;
+			if (this.getLimit() > 0 && this.getOffset() % this.getLimit() == 0)
 			{
-				q.offset(this.getOffset());
+				entities = getPage();
 			}
-			if (getFilters().size() > 0)
+			else
 			{
-				q.addRules(getFilters().toArray(new QueryRule[getFilters().size()]));
+				Query<? extends Entity> q = getDb().query(entityClass);
+				if (this.getLimit() > 0)
+				{
+					q.limit(this.getLimit());
+				}
+				if (this.getOffset() > 0)
+				{
+					q.offset(this.getOffset());
+				}
+				if (getFilters().size() > 0)
+				{
+					q.addRules(getFilters().toArray(new QueryRule[getFilters().size()]));
+				}
+				entities = q.find();
 			}
-			List<? extends Entity> entities = q.find();
 
 			List<Tuple> result = new ArrayList<Tuple>();
 			for (Entity entity : entities)
@@ -97,6 +114,45 @@ public class EntityTable extends AbstractFilterableTupleTable
 		}
 	}
 
+	/**
+	 * Retrieves the page at limit/offset using a keyset pager, so that moving to
+	 * the next or previous page seeks from the current page instead of using
+	 * offset
+	 */
+	private List<? extends Entity> getPage() throws Exception
+	{
+		if (pager == null) pager = createPager(entityClass);
+
+		List<QueryRule> rules = new ArrayList<QueryRule>();
+		for (QueryRule rule : getFilters())
+		{
+			if (rule.getOperator() != Operator.SORTASC && rule.getOperator() != Operator.SORTDESC) rules.add(rule);
+		}
+		pager.resetFilters(rules);
+
+		QueryRule sortRule = getSortRule();
+		if (sortRule != null)
+		{
+			pager.setOrderByField(sortRule.getValue().toString());
+			pager.setOrderByOperator(sortRule.getOperator());
+		}
+		else
+		{
+			pager.resetOrderBy();
+		}
+		pager.setLimit(this.getLimit());
+		pager.setOffset(this.getOffset());
+		return pager.getPage(getDb());
+	}
+
+	private static <E extends Entity> PrimaryKeyPager<E> createPager(Class<E> entityClass) throws Exception
+	{
+		String idField = entityClass.newInstance().getIdField();
+		PrimaryKeyPager<E> pager = new PrimaryKeyPager<E>(entityClass, idField, idField);
+		pager.setSubclassesExcluded(false);
+		return pager;
+	}
+
 	@Override
 	public Iterator<Tuple> iterator()
 	{
@@ -22,15 +22,30 @@ import com.google.common.collect.Iterables;
  */
 public class ExcelExporter extends AbstractExporter
 {
+	private final boolean streaming;
+
 	public ExcelExporter(TupleTable tableTable)
+	{
+		this(tableTable, false);
+	}
+
+	/**
+	 * @param tableTable
+	 * @param streaming
+	 *            export to a streaming Excel 2007 workbook that does not keep
+	 *            all rows in memory instead of an Excel 97 workbook
+	 */
+	public ExcelExporter(TupleTable tableTable, boolean streaming)
 	{
 		super(tableTable);
+		this.streaming = streaming;
 	}
 
 	@Override
 	public void export(OutputStream os) throws TableException
 	{
-		ExcelWriter excelWriter = new ExcelWriter(os);
+		ExcelWriter excelWriter = streaming ? new ExcelWriter(os, ExcelWriter.DEFAULT_ROW_ACCESS_WINDOW, true)
+				: new ExcelWriter(os);
 		try
 		{
 			// save table state
@@ -78,8 +78,10 @@ public class Renderers
 		public void export(MolgenisRequest request, String fileName, TupleTable tupleTable, int totalPages,
 				int currentPage) throws TableException, IOException
 		{
-			HeaderHelper.setHeader(request.getResponse(), "application/ms-excel", fileName + ".xlsx");
-			final ExcelExporter excelExport = new ExcelExporter(tupleTable);
+			HeaderHelper.setHeader(request.getResponse(),
+					"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", fileName + ".xlsx");
+			// the exporter writes all rows of the table, stream them
+			final ExcelExporter excelExport = new ExcelExporter(tupleTable, true);
 			excelExport.export(request.getResponse().getOutputStream());
 		}
 	}
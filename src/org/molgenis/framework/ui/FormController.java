@@ -16,7 +16,6 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Vector;
 
@@ -27,7 +26,7 @@ import org.molgenis.framework.db.DatabaseException;
 import org.molgenis.framework.db.QueryRule;
 import org.molgenis.framework.db.QueryRule.Operator;
 import org.molgenis.framework.db.paging.DatabasePager;
-import org.molgenis.framework.db.paging.LimitOffsetPager;
+import org.molgenis.framework.db.paging.PrimaryKeyPager;
 import org.molgenis.framework.server.MolgenisRequest;
 import org.molgenis.framework.ui.FormModel.Mode;
 import org.molgenis.framework.ui.ScreenModel.Show;
@@ -73,7 +72,9 @@ public abstract class FormController<E extends Entity> extends SimpleScreenContr
 		// FIXME: this assumes first column is sortable...
 		try
 		{
-			this.pager = new LimitOffsetPager<E>(getEntityClass(), model.create().getFields().firstElement());
+			// keyset paging on (sort field, id) so deep pages stay fast
+			E entity = model.create();
+			this.pager = new PrimaryKeyPager<E>(getEntityClass(), entity.getFields().firstElement(), entity.getIdField());
 
 			// copy default sort from view
 			pager.setOrderByField(model.getSort());
@@ -333,15 +334,13 @@ public abstract class FormController<E extends Entity> extends SimpleScreenContr
 	 * @throws DatabaseException
 	 * @throws MolgenisModelException
 	 */
-	private Vector<Field> getAllFields(Database db) throws DatabaseException, MolgenisModelException
+	private List<Field> getAllFields(Database db) throws DatabaseException, MolgenisModelException
 	{
 		String simpleName = this.getEntityClass().getSimpleName();
-		org.molgenis.model.elements.Entity entity = db.getMetaData().getEntity(simpleName);
-		Vector<Field> allFields = entity.getAllFields();
-		for (Iterator<Field> it = entity.getAllFields().iterator(); it.hasNext();)
+		List<Field> allFields = new ArrayList<Field>();
+		for (Field field : db.getMetaData().getIndex().getAllFields(simpleName))
 		{
-			Field field = it.next();
-			if (field.isSystem() || field.isHidden()) it.remove();
+			if (!field.isSystem() && !field.isHidden()) allFields.add(field);
 		}
 		return allFields;
 	}
@@ -200,6 +200,8 @@ public class CsvEntityExporter
 			int count = query.count();
 			if(count > 0){
 				CsvWriter ${name(entity)}Writer = new CsvWriter(f);
+				${name(entity)}Writer.setQuoteAll(false);
+				${name(entity)}Writer.setFlushInterval(0);
 				try
 				{
 					query.find(${name(entity)}Writer, fieldsToExport);
@@ -235,6 +237,8 @@ public class CsvEntityExporter
 			
 			//write
 			CsvWriter ${name(entity)}Writer = new CsvWriter(file);
+			${name(entity)}Writer.setQuoteAll(false);
+			${name(entity)}Writer.setFlushInterval(0);
 			try
 			{
 				${name(entity)}Writer.writeColNames(notNulls);
@@ -57,6 +57,8 @@ public class CsvEntityImporterImpl implements CsvEntityImporter
 		if (entityImporter == null) throw new IllegalArgumentException("unknown entity: " + entityName);
 
 		CsvReader csvReader = new CsvReader(reader);
+		// rows are converted to entities one at a time
+		csvReader.setReuseTuples(true);
 		int nrImportedEntities = 0;
 
 		boolean doTx = !db.inTx();
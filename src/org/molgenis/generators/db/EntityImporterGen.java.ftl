@@ -37,6 +37,7 @@ import org.molgenis.framework.db.DatabaseException;
 import org.molgenis.framework.db.Database.DatabaseAction;
 import org.molgenis.framework.db.EntityImporter;
 import org.molgenis.framework.db.EntityImportReport;
+import org.molgenis.framework.db.ForeignKeyCache;
 import org.molgenis.framework.db.Query;
 import org.molgenis.io.processor.CellProcessor;
 import org.molgenis.io.processor.LowerCaseProcessor;
@@ -80,6 +81,8 @@ public class ${JavaName(entity)}EntityImporter implements EntityImporter
 		reader.addCellProcessor(new LowerCaseProcessor(true, false));
 		//wrapper to count
 		final AtomicInteger total = new AtomicInteger(0);
+		//resolve each xref label only once for all batches
+		db.beginImportCache();
 	try {
 		//cache for entities of which xrefs couldn't be resolved (e.g. if there is a self-refence)
 		//these entities can be updated with their xrefs in a second round when all entities are in the database
@@ -171,6 +174,10 @@ public class ${JavaName(entity)}EntityImporter implements EntityImporter
 		logger.info("imported " + total.get() + " ${name(entity)} from CSV");
 
 		} catch(Exception e) {throw new IOException(e);}
+		finally
+		{
+			db.endImportCache();
+		}
 		return total.get();
 	}	
 	
@@ -194,11 +201,16 @@ public class ${JavaName(entity)}EntityImporter implements EntityImporter
 	{
 		//keep a list of ${entity.name} instances that miss a reference which might be resolvable later
 		List<${JavaName(entity)}> ${name(entity)}sMissingRefs = new ArrayList<${JavaName(entity)}>();
+		<#if has_xrefs>
+		//ids resolved in earlier batches of this import, null if called outside importEntity
+		final ForeignKeyCache foreignKeyCache = db.getImportCache();
+		</#if>
 	
 		<#list allFields(entity) as f><#if (f.type == 'xref' || f.type == 'mref') && f.getXrefLabelNames()[0] != f.xrefFieldName>
 		<#if f.xrefLabels?size &gt; 1>
 		//resolve <#if f.type="mref">mref<#else>xref</#if> '${name(f)}' from composite key ${name(f.getXrefEntityName())}.[${csv(f.getXrefLabelNames())}] -> ${name(f.getXrefEntityName())}.${name(f.getXrefFieldName())})
 		Query<${JavaName(f.getXrefEntityName())}> ${name(f)}Query = db.query(${JavaName(f.getXrefEntityName())}.class);
+		int ${name(f)}NrUncached = 0;
 		for(${JavaName(entity)} o: ${name(entity)}List)
 		{
 			if(<#list f.xrefLabelNames as label>o.get${JavaName(f)}_${JavaName(label)}() != null<#if label_has_next> || </#if></#list>)
@@ -211,6 +223,20 @@ public class ${JavaName(entity)}EntityImporter implements EntityImporter
 				</#list>
 				for(int i = 0; i < listSize; i++)
 				{
+					String key = "";
+					<#list f.xrefLabelNames as label>
+					key = key + "|" +(o.get${JavaName(f)}_${JavaName(label)}() != null && i < o.get${JavaName(f)}_${JavaName(label)}().size() ? o.get${JavaName(f)}_${JavaName(label)}().get(i) : "null");
+					</#list>
+					Object cachedId = foreignKeyCache != null ? foreignKeyCache.get(${JavaName(f.xrefEntity)}.class, "${csv(f.xrefLabelNames)}", key) : null;
+					if(cachedId != null)
+					{
+						${name(f)}Keymap.put(key, (${JavaType(f.xrefField)}) cachedId);
+						continue;
+					}
+					//query each combination of labels only once
+					if(${name(f)}Keymap.containsKey(key)) continue;
+					${name(f)}Keymap.put(key, null);
+					${name(f)}NrUncached++;
 					//check if list != null, i < size, otherwise 'null'
 					<#list f.xrefLabelNames as label>
 					${name(f)}Query.eq("${label}", o.get${JavaName(f)}_${JavaName(label)}() != null && i < o.get${JavaName(f)}_${JavaName(label)}().size() ? o.get${JavaName(f)}_${JavaName(label)}().get(i) : null);
@@ -221,6 +247,20 @@ public class ${JavaName(entity)}EntityImporter implements EntityImporter
 				}				
 				<#else>
 				//xref: 
+				String key = "";
+				<#list f.xrefLabelNames as label>
+				key += "|" + o.get${JavaName(f)}_${JavaName(label)}();
+				</#list>
+				Object cachedId = foreignKeyCache != null ? foreignKeyCache.get(${JavaName(f.xrefEntity)}.class, "${csv(f.xrefLabelNames)}", key) : null;
+				if(cachedId != null)
+				{
+					${name(f)}Keymap.put(key, (${JavaType(f.xrefField)}) cachedId);
+					continue;
+				}
+				//query each combination of labels only once
+				if(${name(f)}Keymap.containsKey(key)) continue;
+				${name(f)}Keymap.put(key, null);
+				${name(f)}NrUncached++;
 				<#list f.xrefLabelNames as label>
 				${name(f)}Query.eq("${label}", o.get${JavaName(f)}_${JavaName(label)}());
 				<#if label_has_next>
@@ -231,16 +271,21 @@ public class ${JavaName(entity)}EntityImporter implements EntityImporter
 				
 			}
 		}
-		List<${JavaName(f.xrefEntity)}> ${name(f)}List = ${name(f)}Query.find();
-		for(${JavaName(f.xrefEntity)} xref :  ${name(f)}List)
+		//only query the labels that were not resolved in earlier batches
+		if(${name(f)}NrUncached > 0)
 		{
-			String key = "";
-			<#list f.xrefLabelNames as label>
-			//key.put("${label}", xref.get${JavaName(label)}());
-			key += "|" + xref.get${JavaName(label)}();
-			</#list>
-			${name(f)}Keymap.put(key, xref.get${JavaName(f.getXrefFieldName())}());
-		}		
+			List<${JavaName(f.xrefEntity)}> ${name(f)}List = ${name(f)}Query.find();
+			for(${JavaName(f.xrefEntity)} xref :  ${name(f)}List)
+			{
+				String key = "";
+				<#list f.xrefLabelNames as label>
+				//key.put("${label}", xref.get${JavaName(label)}());
+				key += "|" + xref.get${JavaName(label)}();
+				</#list>
+				${name(f)}Keymap.put(key, xref.get${JavaName(f.getXrefFieldName())}());
+				if(foreignKeyCache != null) foreignKeyCache.put(${JavaName(f.xrefEntity)}.class, "${csv(f.xrefLabelNames)}", key, xref.get${JavaName(f.getXrefFieldName())}());
+			}
+		}
 		<#else>
 		//resolve xref '${name(f)}' from ${name(f.getXrefEntityName())}.${csv(f.getXrefLabelNames())} -> ${name(f.getXrefEntityName())}.${name(f.getXrefFieldName())}
 		for(${JavaName(entity)} o: ${name(entity)}List) <#if f.type == "mref">for(${JavaType(f.xrefLabels[0])} xref_label: o.get${JavaName(f)}_${JavaName(f.getXrefLabelNames()[0])}())</#if>
@@ -249,12 +294,22 @@ public class ${JavaName(entity)}EntityImporter implements EntityImporter
 				${name(f)}Keymap.put(<#if f.type == "mref">xref_label<#else>o.get${JavaName(f)}_${JavaName(f.getXrefLabelNames()[0])}()</#if>, null);
 		}
 		
-		if(${name(f)}Keymap.size() > 0) 
+		//only query the labels that were not resolved in earlier batches
+		List<Object> ${name(f)}Uncached = new ArrayList<Object>();
+		for(Map.Entry<${type(f.xrefLabels[0])},${JavaType(f.xrefField)}> entry: ${name(f)}Keymap.entrySet())
+		{
+			Object cachedId = foreignKeyCache != null ? foreignKeyCache.get(${JavaName(f.xrefEntity)}.class, "${csv(f.xrefLabelNames)}", ""+entry.getKey()) : null;
+			if(cachedId != null) entry.setValue((${JavaType(f.xrefField)}) cachedId);
+			else ${name(f)}Uncached.add(entry.getKey());
+		}
+		
+		if(${name(f)}Uncached.size() > 0) 
 		{
-			List<${JavaName(f.xrefEntity)}> ${name(f)}List = db.query(${JavaName(f.getXrefEntityName())}.class).in("${f.getXrefLabelNames()[0]}",new ArrayList<Object>(${name(f)}Keymap.keySet())).find();
+			List<${JavaName(f.xrefEntity)}> ${name(f)}List = db.query(${JavaName(f.getXrefEntityName())}.class).in("${f.getXrefLabelNames()[0]}",${name(f)}Uncached).find();
 			for(${JavaName(f.xrefEntity)} xref :  ${name(f)}List)
 			{
 				${name(f)}Keymap.put(xref.get${JavaName(f.getXrefLabelNames()[0])}(), xref.get${JavaName(f.getXrefFieldName())}());
+				if(foreignKeyCache != null) foreignKeyCache.put(${JavaName(f.xrefEntity)}.class, "${csv(f.xrefLabelNames)}", ""+xref.get${JavaName(f.getXrefLabelNames()[0])}(), xref.get${JavaName(f.getXrefFieldName())}());
 			}
 		}
 		</#if>
@@ -65,6 +65,7 @@ public class JDBCDatabaseGen extends Generator
 		templateArgs.put("auth_loginclass", options.auth_loginclass);
 		templateArgs.put("decorator_overriders", options.decorator_overriders);
 		templateArgs.put("disable_decorators", options.disable_decorators);
+		templateArgs.put("search_index", options.search_index);
 		OutputStream targetOut = new FileOutputStream(target);
 		template.process(templateArgs, new OutputStreamWriter(targetOut, Charset.forName("UTF-8")));
 		targetOut.close();
@@ -40,7 +40,8 @@ import org.apache.commons.dbcp.BasicDataSource;
 
 public class JDBCDatabase extends org.molgenis.framework.db.jdbc.JDBCDatabase
 {
-	private JDBCMetaDatabase metaData = null;
+	/** metadata of the model, shared by all databases: it is not changed after construction */
+	private static volatile JDBCMetaDatabase metaData = null;
 	<#if decorator_overriders != ''>private Logger logger = Logger.getLogger(JDBCDatabase.class.getSimpleName());</#if>
 
 	public JDBCDatabase(Connection conn) throws DatabaseException
@@ -48,6 +49,7 @@ public class JDBCDatabase extends org.molgenis.framework.db.jdbc.JDBCDatabase
 		super(conn);
 		this.setup();
 		<#if decorator_overriders != ''>this.overrideDecorators();</#if>
+		<#if search_index != ''>this.initSearchIndex("${search_index?j_string}");</#if>
 	}
 
 	public JDBCDatabase(DataSource data_src, File file_source) throws DatabaseException
@@ -60,6 +62,7 @@ public class JDBCDatabase extends org.molgenis.framework.db.jdbc.JDBCDatabase
 		super(data_src, file_src);
 		this.setup();
 		<#if decorator_overriders != ''>this.overrideDecorators();</#if>
+		<#if search_index != ''>this.initSearchIndex("${search_index?j_string}");</#if>
 	}
 
 	public JDBCDatabase(Properties p) throws DatabaseException
@@ -67,6 +70,7 @@ public class JDBCDatabase extends org.molgenis.framework.db.jdbc.JDBCDatabase
 		super(p);
 		this.setup();
 		<#if decorator_overriders != ''>this.overrideDecorators();</#if>
+		<#if search_index != ''>this.initSearchIndex("${search_index?j_string}");</#if>
 	}
 	
 	public JDBCDatabase(MolgenisOptions options) throws DatabaseException
@@ -74,6 +78,7 @@ public class JDBCDatabase extends org.molgenis.framework.db.jdbc.JDBCDatabase
 		super(options);
 		this.setup();
 		<#if decorator_overriders != ''>this.overrideDecorators();</#if>
+		<#if search_index != ''>this.initSearchIndex("${search_index?j_string}");</#if>
 	}
 	
 	@Deprecated
@@ -82,6 +87,7 @@ public class JDBCDatabase extends org.molgenis.framework.db.jdbc.JDBCDatabase
 		super((DataSource)JDBCDatabase.createDataSource(), new File("${db_filepath}"));
 		this.setup();
 		<#if decorator_overriders != ''>this.overrideDecorators();</#if>
+		<#if search_index != ''>this.initSearchIndex("${search_index?j_string}");</#if>
 	}
 
 	@Deprecated
@@ -101,6 +107,7 @@ public class JDBCDatabase extends org.molgenis.framework.db.jdbc.JDBCDatabase
 		super(propertiesFilePath);
 		this.setup();
 		<#if decorator_overriders != ''>this.overrideDecorators();</#if>
+		<#if search_index != ''>this.initSearchIndex("${search_index?j_string}");</#if>
 	}
 	
 	private void setup()
@@ -204,12 +211,14 @@ public class JDBCDatabase extends org.molgenis.framework.db.jdbc.JDBCDatabase
 	@Override
 	public Model getMetaData() throws DatabaseException
 	{
-		//load on demand.
-		//nb: the JDBCMetaDatabase must be made much faster which is done in the generator
-		//because now it is still validating which it shouldn't
-		if(metaData == null)
-			metaData = new JDBCMetaDatabase();
-		return metaData;
+		//load on demand, once: concurrent first calls may both build it, which does no harm
+		JDBCMetaDatabase result = metaData;
+		if(result == null)
+		{
+			result = new JDBCMetaDatabase();
+			metaData = result;
+		}
+		return result;
 	}
 	
 <#--	@Override
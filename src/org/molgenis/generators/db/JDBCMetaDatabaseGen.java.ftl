@@ -35,6 +35,7 @@ import org.molgenis.framework.db.DatabaseException;
 import org.molgenis.MolgenisFieldTypes;
 import org.molgenis.model.elements.Entity;
 import org.molgenis.model.elements.Model;
+import org.molgenis.model.elements.ModelIndex;
 import org.molgenis.model.elements.Field;
 import org.molgenis.model.MolgenisModelException;
 import org.molgenis.model.MolgenisModelValidator;
@@ -59,6 +60,9 @@ public class JDBCMetaDatabase extends Model
 			Entity ${name(entity)}_entity = new Entity("${entity.name}",this.getDatabase());
 			${name(entity)}_entity.setSystem(<#if entity.isSystem()>true<#else>false</#if>);
 			${name(entity)}_entity.setAbstract(<#if entity.isAbstract()>true<#else>false</#if>);
+					<#if entity.isCached()>
+			${name(entity)}_entity.setCacheSize(${entity.cacheSize?c});
+					</#if>
 					<#if entity.hasImplements()>
 			${name(entity)}_entity.setImplements(new String[]{${csv(entity.implements)}});
 					</#if>
@@ -108,6 +112,9 @@ public class JDBCMetaDatabase extends Model
 			//new MolgenisModelValidator();
 			//MolgenisModelValidator.validate(this, new MolgenisOptions());
 
+			//lookup index for the runtime, the model is complete
+			this.setIndex(new ModelIndex(this));
+
 		} catch (MolgenisModelException e)
 		{
 			throw new DatabaseException(e);
@@ -27,9 +27,13 @@
 		//create foreign key map for field '${name(f)}' to ${name(f.xrefEntity)}.${name(f.xrefField)} using ${csv(f.xrefLabelNames)})	
 		//we will use a hash of the values to ensure that entities are only queried once	
 		final java.util.Map<String, org.molgenis.framework.db.QueryRule> ${name(f)}Rules = new java.util.LinkedHashMap<String, org.molgenis.framework.db.QueryRule>();
+		final java.util.Map<String,${JavaType(f.xrefField)}> ${name(f)}_Labels_to_IdMap = new java.util.TreeMap<String,${JavaType(f.xrefField)}>();
 	</#if>
 </#list>	
-<#if has_xrefs>		
+<#if has_xrefs>
+		//labels resolved in earlier batches of the same bulk add/update are not queried again
+		final org.molgenis.framework.db.ForeignKeyCache foreignKeyCache = getForeignKeyCache();
+
 		//create all query rules	
 		for(${entity.namespace}.${JavaName(entity)} object: entities)
 		{
@@ -54,10 +58,15 @@
 				{
 					<#list f.xrefLabelNames as label>
 					rules.add(new org.molgenis.framework.db.QueryRule("${label}", org.molgenis.framework.db.QueryRule.Operator.EQUALS, label));	
-					key += 	label;
+					key += "|" + label;
 					</#list>			
 					org.molgenis.framework.db.QueryRule complexRule = new org.molgenis.framework.db.QueryRule(rules);
-					if(!${name(f)}Rules.containsKey(key))
+					Object cachedId = foreignKeyCache.get(${f.xrefEntity.namespace}.${JavaName(f.xrefEntity)}.class, "${csv(f.xrefLabelNames)}", key);
+					if(cachedId != null)
+					{
+						${name(f)}_Labels_to_IdMap.put(key, (${JavaType(f.xrefField)}) cachedId);
+					}
+					else if(!${name(f)}Rules.containsKey(key))
 					{
 						${name(f)}Rules.put(key, complexRule);
 						${name(f)}Rules.put(key+"_OR_", new org.molgenis.framework.db.QueryRule(org.molgenis.framework.db.QueryRule.Operator.OR));
@@ -79,8 +88,13 @@
 				</#if>
 				{
 					org.molgenis.framework.db.QueryRule xrefFilter = new org.molgenis.framework.db.QueryRule("${f.xrefLabelNames[0]}", org.molgenis.framework.db.QueryRule.Operator.EQUALS, label);
-					
-					if(label != null && !${name(f)}Rules.containsKey(label))
+					Object cachedId = label != null ? foreignKeyCache.get(${f.xrefEntity.namespace}.${JavaName(f.xrefEntity)}.class, "${csv(f.xrefLabelNames)}", ""+label) : null;
+
+					if(cachedId != null)
+					{
+						${name(f)}_Labels_to_IdMap.put(""+label, (${JavaType(f.xrefField)}) cachedId);
+					}
+					else if(label != null && !${name(f)}Rules.containsKey(""+label))
 					{
 						${name(f)}Rules.put(""+label, xrefFilter);
 						${name(f)}Rules.put(""+label+"_OR_", new org.molgenis.framework.db.QueryRule(org.molgenis.framework.db.QueryRule.Operator.OR));
@@ -95,14 +109,23 @@
 <#list allFields(entity) as f>
 <#if (f.type == 'xref' || f.type == 'mref') && f.xrefLabelNames[0] != f.xrefFieldName>
 		//resolve foreign key field '${name(f)}' to ${name(f.xrefEntity)}.${name(f.xrefField)} using ${csv(f.xrefLabelNames)})
-		final java.util.Map<String,${JavaType(f.xrefField)}> ${name(f)}_Labels_to_IdMap = new java.util.TreeMap<String,${JavaType(f.xrefField)}>();
 		if(${name(f)}Rules.size() > 0)
 		{		
 		
 			java.util.List<${f.xrefEntity.namespace}.${JavaName(f.xrefEntity)}> ${name(f)}List = null;
 			try
 			{
+<#if f.xrefLabelNames?size == 1>
+				//single label: query all labels at once using IN instead of OR-ing them
+				java.util.List<Object> labels = new java.util.ArrayList<Object>();
+				for(org.molgenis.framework.db.QueryRule rule: ${name(f)}Rules.values())
+				{
+					if(rule.getOperator() == org.molgenis.framework.db.QueryRule.Operator.EQUALS) labels.add(rule.getValue());
+				}
+				${name(f)}List = getDatabase().find(${f.xrefEntity.namespace}.${JavaName(f.xrefEntity)}.class, new org.molgenis.framework.db.QueryRule("${f.xrefLabelNames[0]}", org.molgenis.framework.db.QueryRule.Operator.IN, labels));
+<#else>
 				${name(f)}List = getDatabase().find(${f.xrefEntity.namespace}.${JavaName(f.xrefEntity)}.class, ${name(f)}Rules.values().toArray(new org.molgenis.framework.db.QueryRule[${name(f)}Rules.values().size()]));
+</#if>
 			}
 			catch(Exception e)
 			{
@@ -116,10 +139,11 @@
 			{
 				String key = "";
 				<#list f.xrefLabelNames as label>
-				key += 	xref.get${JavaName(label)}();
+				key += <#if f.xrefLabelNames?size &gt; 1>"|" + </#if>xref.get${JavaName(label)}();
 				</#list>	
 				
 				${name(f)}_Labels_to_IdMap.put(key, xref.get${JavaName(f.xrefField)}());
+				foreignKeyCache.put(${f.xrefEntity.namespace}.${JavaName(f.xrefEntity)}.class, "${csv(f.xrefLabelNames)}", key, xref.get${JavaName(f.xrefField)}());
 			}
 		}
 </#if>
@@ -142,7 +166,7 @@
 					String key = "";
 					<#list f.xrefLabelNames as label>
 					if(object.get${JavaName(f)}_${JavaName(label)}()<#if f.type=='mref'>.get(j)</#if> != null)
-						key += 	object.get${JavaName(f)}_${JavaName(label)}()<#if f.type=='mref'>.get(j)</#if>;
+						key += <#if f.xrefLabelNames?size &gt; 1>"|" + </#if>object.get${JavaName(f)}_${JavaName(label)}()<#if f.type=='mref'>.get(j)</#if>;
 					</#list>
 					
 					if(!"".equals(key) && ${name(f)}_Labels_to_IdMap.get(key) == null) 
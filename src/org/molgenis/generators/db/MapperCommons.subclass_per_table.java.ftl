@@ -12,7 +12,16 @@
 			+", </#if></#list>"<#list viewFields(entity,"xref") as f><#list f.getXrefLabelTree(false).getAllChildren(true) as path><#if path.value.type != "xref">
 			//parent is ${path.getParent()}
 			+", xref_${path.getParent().name}.${SqlName(path.value.name)} AS ${SqlName(path.name)}"</#if></#list></#list>
-			+" FROM ${SqlName(entity)} "<#list superclasses(entity)?reverse as superclass><#if name(superclass) != name(entity)>
+			+ createFromSql();
+	}
+
+	/**
+	 * Returns the FROM clause of createFindSql and createCountSql, joining the
+	 * superclass tables and the tables of the xref labels
+	 */
+	public String createFromSql()
+	{
+		return " FROM ${SqlName(entity)} "<#list superclasses(entity)?reverse as superclass><#if name(superclass) != name(entity)>
 			+" INNER JOIN ${SqlName(superclass)} ON (${SqlName(entity)}.${SqlName(pkey(entity))} = ${SqlName(superclass)}.${SqlName(pkey(entity))})"</#if></#list>
 <#--this piece of dark magic that attaches all xref_label possibilities -->
 
@@ -40,39 +49,16 @@
 			+" ON xref_${SqlName(path.getParent().name)}.${SqlName(path.getParent().value)} = xref_${SqlName(path.getParent().parent.name)}.${SqlName(pkey(path.value.entity))}"			
 </#if></#if></#list>
 </#list>;
+	}
 
-	}	
+	public String getTableName()
+	{
+		return "${SqlName(entity)}";
+	}
 
 	public String createCountSql(QueryRule ... rules) throws DatabaseException
 	{	
-		return "select count(*) as num_rows " 
-			  +" FROM ${SqlName(entity)} "<#list superclasses(entity)?reverse as superclass><#if name(superclass) != name(entity)>
-			  +" INNER JOIN ${SqlName(superclass)} ON (${SqlName(entity)}.${SqlName(pkey(entity))} = ${SqlName(superclass)}.${SqlName(pkey(entity))})"</#if></#list>
-<#--this piece of dark magic that attaches all xref_label possibilities -->
-<#list viewFields(entity,"xref") as f>
-			
-			//label for ${f.name}=${csv(f.xrefLabelNames)}
-<#assign pathlist = []/>			
-<#list f.xrefLabelTree.getAllChildren(true) as path>
-//${path.name}
-<#if path.value.type != "xref" && !pathlist?seq_contains(path.getParent().name)>
-<#assign pathlist = pathlist + [path.getParent().name]/>
-<#if !path.getParent().parent?exists>
-		   	+" LEFT JOIN ${SqlName(path.value.entity)} AS xref_${path.getParent().name} " 
-			+" ON xref_${SqlName(path.getParent().name)}.${SqlName(pkey(path.value.entity))} = ${SqlName(f.entity)}.${SqlName(f.name)}"
-<#elseif path.value.entity == path.getParent().value.xrefEntity>
-			//linked via ${path.getParent().value.entity.name}.${path.getParent().value.name}
-			+" LEFT JOIN ${SqlName(path.value.entity)} AS xref_${path.getParent().name} " 
-			+" ON xref_${SqlName(path.getParent().name)}.${SqlName(pkey(path.value.entity))} = xref_${SqlName(path.getParent().parent.name)}.${SqlName(path.getParent().value.name)}"
-<#else>
-			//linked ${path.value.entity.name}.${path.value.name} via superclass	
-			+" LEFT JOIN ${SqlName(path.value.entity)} AS xref_${path.name}"
-			+" ON xref_${SqlName(path.name)}.${SqlName(path.value.name)} = xref_${path.name}.${SqlName(pkey(path.value.entity))}"
-		   	+" LEFT JOIN ${SqlName(path.value.entity)} AS xref_${path.getParent().name} " 					
-			+" ON xref_${SqlName(path.getParent().name)}.${SqlName(path.getParent().value)} = xref_${SqlName(path.getParent().parent.name)}.${SqlName(pkey(path.value.entity))}"			
-</#if></#if></#list>
-</#list>;		  	  
-			  
+		return "select count(*) as num_rows" + createFromSql();
 	}
 	
 	@Override
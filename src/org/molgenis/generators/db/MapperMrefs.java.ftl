@@ -3,7 +3,8 @@ Common parts for saving multiplicative references (mrefs) to an entity.
 -->	
 	/** 
 	 * This method queries the link tables to load mref fields. For performance reasons this is done for the whole batch.
-	 * As a consequence the number of queries equals the number of mref fields. This may be memory hungry.
+	 * For each mref field only the local id, remote id and label columns are selected, with one query per 
+	 * BATCH_SIZE ${name(entity)} ids, and these are collected per id without creating link table entities.
 	 */
 	public void mapMrefs( List<${JavaName(entity)}> entities ) throws DatabaseException			
 	{
@@ -21,21 +22,51 @@ Common parts for saving multiplicative references (mrefs) to an entity.
 <#assign mref_entity = f.mrefName>
 <#assign mref_remote_field = f.mrefRemoteid/>
 <#assign mref_local_field = f.mrefLocalid/>			
-			//map the ${f.name} mrefs
-			List<${JavaName(mref_entity)}> ${name(f)}_mrefs = this.getDatabase().query(${JavaName(mref_entity)}.class).in("${f.mrefLocalid}", ${name(entity)}Ids).sortASC("${pkey(model.getEntity(mref_entity)).name}").find();
-			Map<${pkeyJavaType(entity)},List<${pkeyJavaType(f.xrefEntity)}>> ${name(f)}_${name(mref_remote_field)}_map = new LinkedHashMap<${pkeyJavaType(entity)},List<${pkeyJavaType(f.xrefEntity)}>>();
+			//map the ${f.name} mrefs, selecting (${mref_local_field}, ${mref_remote_field}<#if f.xrefLabelNames[0] != f.xrefFieldName><#list f.xrefLabelNames as label>, ${label}</#list></#if>) from ${mref_entity} only
+			Map<${pkeyJavaType(entity)},List<${pkeyJavaType(f.xrefEntity)}>> ${name(f)}_${name(mref_remote_field)}_map = new HashMap<${pkeyJavaType(entity)},List<${pkeyJavaType(f.xrefEntity)}>>();
 			<#if f.xrefLabelNames[0] != f.xrefFieldName><#list f.xrefLabelNames as label>
-			Map<${pkeyJavaType(entity)},List<${JavaType(f.xrefLabels[label_index])}>> ${name(f)}_${label}_map = new LinkedHashMap<${pkeyJavaType(entity)},List<${JavaType(f.xrefLabels[label_index])}>>();
+			Map<${pkeyJavaType(entity)},List<${JavaType(f.xrefLabels[label_index])}>> ${name(f)}_${label}_map = new HashMap<${pkeyJavaType(entity)},List<${JavaType(f.xrefLabels[label_index])}>>();
 			</#list></#if>
 			
-			for(${JavaName(mref_entity)} ref: ${name(f)}_mrefs)
+			AbstractJDBCMapper<${JavaName(mref_entity)}> ${name(f)}_mapper = new ${model.getEntity(mref_entity).namespace}.db.${JavaName(mref_entity)}Mapper((JDBCDatabase) this.getDatabase());
+			String ${name(f)}_sql = "SELECT " + ${name(f)}_mapper.getTableFieldName("${mref_local_field}") 
+				+ ", " + ${name(f)}_mapper.getTableFieldName("${mref_remote_field}")<#if f.xrefLabelNames[0] != f.xrefFieldName><#list f.xrefLabelNames as label> 
+				+ ", " + ${name(f)}_mapper.getTableFieldName("${mref_remote_field}_${label}")</#list></#if>
+				+ ${name(f)}_mapper.createFromSql();
+			for(int i = 0; i < ${name(entity)}Ids.size(); i += BATCH_SIZE)
 			{
-				if(${name(f)}_${name(mref_remote_field)}_map.get(ref.get${JavaName(mref_local_field)}_${JavaName(f.xrefField)}()) == null) ${name(f)}_${name(mref_remote_field)}_map.put(ref.get${JavaName(mref_local_field)}_${JavaName(pkey(f.xrefEntity))}(),new ArrayList<${pkeyJavaType(f.xrefEntity)}>()); 
-				${name(f)}_${name(mref_remote_field)}_map.get(ref.get${JavaName(mref_local_field)}_${JavaName(f.xrefField)}()).add(ref.get${JavaName(mref_remote_field)}_${JavaName(pkey(f.xrefEntity))}());
-				<#if f.xrefLabelNames[0] != f.xrefFieldName><#list f.xrefLabelNames as label>
-				if(${name(f)}_${label}_map.get(ref.get${JavaName(mref_local_field)}_${JavaName(f.xrefField)}()) == null)	${name(f)}_${label}_map.put(ref.get${JavaName(mref_local_field)}_${JavaName(pkey(f.xrefEntity))}(),new ArrayList<${JavaType(f.xrefLabels[label_index])}>());
-				${name(f)}_${label}_map.get(ref.get${JavaName(mref_local_field)}_${JavaName(f.xrefField)}()).add(ref.get${JavaName(mref_remote_field)}_${JavaName(label)}());
-				</#list></#if>
+				List<${pkeyJavaType(entity)}> chunk = ${name(entity)}Ids.subList(i, Math.min(i + BATCH_SIZE, ${name(entity)}Ids.size()));
+				List<Object> parameters = new ArrayList<Object>();
+				String sql = ${name(f)}_sql + ${name(f)}_mapper.createWhereSql(parameters, false, false, new QueryRule("${mref_local_field}", Operator.IN, new ArrayList<${pkeyJavaType(entity)}>(chunk)), new QueryRule(Operator.SORTASC, "${pkey(model.getEntity(mref_entity)).name}"));
+				org.molgenis.framework.db.TupleIterator rows = this.getDatabase().sqlIterator(sql, parameters);
+				try
+				{
+					while(rows.hasNext())
+					{
+						org.molgenis.util.tuple.Tuple row = rows.next();
+						${pkeyJavaType(entity)} id = row.get${settertype(pkey(entity))}(0);
+						List<${pkeyJavaType(f.xrefEntity)}> remoteIds = ${name(f)}_${name(mref_remote_field)}_map.get(id);
+						if(remoteIds == null)
+						{
+							remoteIds = new ArrayList<${pkeyJavaType(f.xrefEntity)}>();
+							${name(f)}_${name(mref_remote_field)}_map.put(id, remoteIds);
+						}
+						remoteIds.add(row.get${settertype(pkey(f.xrefEntity))}(1));
+						<#if f.xrefLabelNames[0] != f.xrefFieldName><#list f.xrefLabelNames as label>
+						List<${JavaType(f.xrefLabels[label_index])}> ${label}_labels = ${name(f)}_${label}_map.get(id);
+						if(${label}_labels == null)
+						{
+							${label}_labels = new ArrayList<${JavaType(f.xrefLabels[label_index])}>();
+							${name(f)}_${label}_map.put(id, ${label}_labels);
+						}
+						${label}_labels.add(row.get${settertype(f.xrefLabels[label_index])}(${label_index + 2}));
+						</#list></#if>
+					}
+				}
+				finally
+				{
+					rows.close();
+				}
 			}
 </#list>
 			
@@ -68,7 +99,8 @@ Common parts for saving multiplicative references (mrefs) to an entity.
 	}		
 	
 	/**
-	 * This method updates the mref entity tables. It deletes existing and adds the new (this to ensure ordering).
+	 * This method updates the mref entity tables. The existing links are compared with the new ids per entity. Links 
+	 * that are still in the same order are kept; the others are deleted and the remaining ids are added (this to ensure ordering).
 	 */		
 	public void storeMrefs( List<${JavaName(entity)}> entities ) throws DatabaseException, IOException, ParseException	
 	{
@@ -84,13 +116,48 @@ Common parts for saving multiplicative references (mrefs) to an entity.
 <#assign mref_entity = f.mrefName>
 <#assign mref_remote_field = f.mrefRemoteid/>
 <#assign mref_local_field = f.mrefLocalid/>	
-		//delete existing mrefs
-		getDatabase().remove(getDatabase().query( ${JavaName(mref_entity)}.class).in("${mref_local_field}", entityIds).find());
+<#assign link_entity = model.getEntity(mref_entity)/>
+		//load existing ${mref_entity} links in the order they were added
+		Map<${pkeyJavaType(entity)},List<${JavaName(mref_entity)}>> ${name(mref_entity)}Existing = new HashMap<${pkeyJavaType(entity)},List<${JavaName(mref_entity)}>>();
+		AbstractJDBCMapper<${JavaName(mref_entity)}> ${name(mref_entity)}Mapper = new ${link_entity.namespace}.db.${JavaName(mref_entity)}Mapper((JDBCDatabase) this.getDatabase());
+		for(int i = 0; i < entityIds.size(); i += BATCH_SIZE)
+		{
+			List<Object> parameters = new ArrayList<Object>();
+			String sql = "SELECT " + ${name(mref_entity)}Mapper.getTableFieldName("${pkey(link_entity).name}")
+				+ ", " + ${name(mref_entity)}Mapper.getTableFieldName("${mref_local_field}")
+				+ ", " + ${name(mref_entity)}Mapper.getTableFieldName("${mref_remote_field}")
+				+ " FROM ${SqlName(link_entity)}"
+				+ ${name(mref_entity)}Mapper.createWhereSql(parameters, false, false, new QueryRule("${mref_local_field}", Operator.IN, new ArrayList<${pkeyJavaType(entity)}>(entityIds.subList(i, Math.min(i + BATCH_SIZE, entityIds.size())))), new QueryRule(Operator.SORTASC, "${pkey(link_entity).name}"));
+			org.molgenis.framework.db.TupleIterator rows = this.getDatabase().sqlIterator(sql, parameters);
+			try
+			{
+				while(rows.hasNext())
+				{
+					org.molgenis.util.tuple.Tuple row = rows.next();
+					${JavaName(mref_entity)} mref = new ${JavaName(mref_entity)}();
+					mref.set${JavaName(pkey(link_entity))}(row.get${settertype(pkey(link_entity))}(0));
+					mref.set${JavaName(mref_local_field)}(row.get${settertype(pkey(entity))}(1));
+					mref.set${JavaName(mref_remote_field)}(row.get${settertype(pkey(f.xrefEntity))}(2));
+					List<${JavaName(mref_entity)}> links = ${name(mref_entity)}Existing.get(mref.get${JavaName(mref_local_field)}_${JavaName(pkey(entity))}());
+					if(links == null)
+					{
+						links = new ArrayList<${JavaName(mref_entity)}>();
+						${name(mref_entity)}Existing.put(mref.get${JavaName(mref_local_field)}_${JavaName(pkey(entity))}(), links);
+					}
+					links.add(mref);
+				}
+			}
+			finally
+			{
+				rows.close();
+			}
+		}
+		List<${JavaName(mref_entity)}> ${name(mref_entity)}ToRemove = new ArrayList<${JavaName(mref_entity)}>();
 		List<${JavaName(mref_entity)}> ${name(mref_entity)}ToAdd = new ArrayList<${JavaName(mref_entity)}>();
 
 </#if></#list>	
 
-		//check for each mref what needs to be added
+		//check for each mref what needs to be removed and added
 		for(${JavaName(entity)} entity: entities)
 		{
 <#list entity.getAllFields() as f><#if f.type.toString() == "mref" >	
@@ -99,12 +166,34 @@ Common parts for saving multiplicative references (mrefs) to an entity.
 <#assign mref_local_field = f.mrefLocalid/>		
 			//remove duplicates using Set
 			entity.set${JavaName(f)}_${JavaName(f.xrefField)}(new ArrayList(new LinkedHashSet(entity.get${JavaName(f)}_${JavaName(f.xrefField)}())));
-			for(${pkeyJavaType(f.xrefEntity)} id: entity.get${JavaName(f)}_${JavaName(pkey(f.xrefEntity))}())
 			{
-				${JavaName(mref_entity)} new_mref = new ${JavaName(mref_entity)}();
-				new_mref.set${JavaName(mref_local_field )}( entity.get${JavaName(pkey(entity))}() );
-				new_mref.set${JavaName(mref_remote_field)}( id );
-				${name(mref_entity)}ToAdd.add(new_mref);
+				List<${pkeyJavaType(f.xrefEntity)}> ids = entity.get${JavaName(f)}_${JavaName(pkey(f.xrefEntity))}();
+				LinkedHashSet<${pkeyJavaType(f.xrefEntity)}> idSet = new LinkedHashSet<${pkeyJavaType(f.xrefEntity)}>(ids);
+				//keep existing links as long as they are in the same order as the new ids, remove the others
+				int kept = 0;
+				boolean inOrder = true;
+				List<${JavaName(mref_entity)}> links = ${name(mref_entity)}Existing.get(entity.get${JavaName(pkey(entity))}());
+				if(links != null) for(${JavaName(mref_entity)} link: links)
+				{
+					${pkeyJavaType(f.xrefEntity)} linkedId = link.get${JavaName(mref_remote_field)}_${JavaName(pkey(f.xrefEntity))}();
+					if(inOrder && idSet.contains(linkedId) && kept < ids.size() && ids.get(kept).equals(linkedId))
+					{
+						kept++;
+					}
+					else
+					{
+						//links after a reordered one are re-added to keep the ordering
+						if(idSet.contains(linkedId)) inOrder = false;
+						${name(mref_entity)}ToRemove.add(link);
+					}
+				}
+				for(${pkeyJavaType(f.xrefEntity)} id: ids.subList(kept, ids.size()))
+				{
+					${JavaName(mref_entity)} new_mref = new ${JavaName(mref_entity)}();
+					new_mref.set${JavaName(mref_local_field )}( entity.get${JavaName(pkey(entity))}() );
+					new_mref.set${JavaName(mref_remote_field)}( id );
+					${name(mref_entity)}ToAdd.add(new_mref);
+				}
 			}
 			
 </#if></#list>
@@ -115,7 +204,8 @@ Common parts for saving multiplicative references (mrefs) to an entity.
 <#assign mref_remote_field = f.mrefRemoteid/>
 <#assign mref_local_field = f.mrefLocalid/>			
 		//process changes to ${mref_entity}
-		getDatabase().add( ${name(mref_entity)}ToAdd );
+		if(${name(mref_entity)}ToRemove.size() > 0) getDatabase().remove( ${name(mref_entity)}ToRemove );
+		if(${name(mref_entity)}ToAdd.size() > 0) getDatabase().add( ${name(mref_entity)}ToAdd );
 </#if></#list>
 </#if>
 	}
@@ -6,6 +6,8 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import org.molgenis.MolgenisOptions;
@@ -18,6 +20,10 @@ import freemarker.template.Template;
 
 public class MapperSecurityDecoratorGen extends ForEachEntityGenerator
 {
+	/** entities of the auth module that define the permissions of users */
+	private static final List<String> PERMISSION_ENTITIES = Arrays.asList("MolgenisRole", "MolgenisGroup",
+			"MolgenisUser", "MolgenisRoleGroupLink", "MolgenisPermission", "MolgenisEntity");
+
 	@Override
 	public String getDescription()
 	{
@@ -76,6 +82,10 @@ public class MapperSecurityDecoratorGen extends ForEachEntityGenerator
 			templateArgs.put("databaseImp",
 					options.mapper_implementation.equals(MolgenisOptions.MapperImplementation.JPA) ? "jpa" : "jdbc");
 
+			// writes to these entities change permissions
+			templateArgs.remove("permissionEntity");
+			if (PERMISSION_ENTITIES.contains(entity.getName())) templateArgs.put("permissionEntity", true);
+
 			templateArgs.remove("authorizable");
 			for (Entity e : entity.getAllImplements())
 			{
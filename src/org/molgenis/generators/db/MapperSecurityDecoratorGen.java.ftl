@@ -24,6 +24,8 @@ import java.text.ParseException;
 
 import org.molgenis.auth.MolgenisUser;
 import org.molgenis.auth.service.MolgenisUserService;
+import org.molgenis.framework.security.Login;
+import org.molgenis.framework.security.PermissionCache;
 import org.molgenis.framework.security.SimpleLogin;
 
 import org.molgenis.framework.db.MapperDecorator;
@@ -40,7 +42,7 @@ public class ${clazzName}<E extends ${entityClass}> extends MapperDecorator<E>
 	{
 		if (this.getDatabase().getLogin() != null && !(this.getDatabase().getLogin() instanceof SimpleLogin))
 		{
-			if (!this.getDatabase().getLogin().canWrite(${entityClass}.class))
+			if (!PermissionCache.getInstance().canWrite(this.getDatabase().getLogin(), ${entityClass}.class))
 				throw new DatabaseException("No write permission on ${entityClass}");
 
 <#if authorizable??>
@@ -48,7 +50,19 @@ public class ${clazzName}<E extends ${entityClass}> extends MapperDecorator<E>
 </#if>
 			//TODO: Add column level security filters
 		}
+<#if permissionEntity??>
+		try
+		{
+			return super.add(entities);
+		}
+		finally
+		{
+			// ${entityClass} defines permissions
+			PermissionCache.getInstance().invalidate(this.getDatabase());
+		}
+<#else>
 		return super.add(entities);
+</#if>
 	}
 
 	@Override
@@ -56,7 +70,7 @@ public class ${clazzName}<E extends ${entityClass}> extends MapperDecorator<E>
 	{
 		if (this.getDatabase().getLogin() != null && !(this.getDatabase().getLogin() instanceof SimpleLogin))
 		{
-			if (!this.getDatabase().getLogin().canWrite(${entityClass}.class))
+			if (!PermissionCache.getInstance().canWrite(this.getDatabase().getLogin(), ${entityClass}.class))
 				throw new DatabaseException("No write permission on ${entityClass}");
 
 <#if authorizable??>
@@ -64,7 +78,19 @@ public class ${clazzName}<E extends ${entityClass}> extends MapperDecorator<E>
 </#if>
 			//TODO: Add column level security filters
 		}
+<#if permissionEntity??>
+		try
+		{
+			return super.update(entities);
+		}
+		finally
+		{
+			// ${entityClass} defines permissions
+			PermissionCache.getInstance().invalidate(this.getDatabase());
+		}
+<#else>
 		return super.update(entities);
+</#if>
 	}
 
 	@Override
@@ -72,14 +98,26 @@ public class ${clazzName}<E extends ${entityClass}> extends MapperDecorator<E>
 	{
 		if (this.getDatabase().getLogin() != null && !(this.getDatabase().getLogin() instanceof SimpleLogin))
 		{
-			if (!this.getDatabase().getLogin().canWrite(${entityClass}.class))
+			if (!PermissionCache.getInstance().canWrite(this.getDatabase().getLogin(), ${entityClass}.class))
 				throw new DatabaseException("No write permission on ${entityClass}");
 				
 <#if authorizable??>
 			this.addRowLevelSecurityFilters(entities);
 </#if>
 		}
+<#if permissionEntity??>
+		try
+		{
+			return super.remove(entities);
+		}
+		finally
+		{
+			// ${entityClass} defines permissions
+			PermissionCache.getInstance().invalidate(this.getDatabase());
+		}
+<#else>
 		return super.remove(entities);
+</#if>
 	}
 
 	@Override
@@ -87,12 +125,24 @@ public class ${clazzName}<E extends ${entityClass}> extends MapperDecorator<E>
 	{
 		if (this.getDatabase().getLogin() != null && !(this.getDatabase().getLogin() instanceof SimpleLogin))
 		{
-			if (!this.getDatabase().getLogin().canWrite(${entityClass}.class))
+			if (!PermissionCache.getInstance().canWrite(this.getDatabase().getLogin(), ${entityClass}.class))
 				throw new DatabaseException("No write permission on ${entityClass}");
 
 			//TODO: Add column level security filters
 		}
+<#if permissionEntity??>
+		try
+		{
+			return super.add(reader, writer);
+		}
+		finally
+		{
+			// ${entityClass} defines permissions
+			PermissionCache.getInstance().invalidate(this.getDatabase());
+		}
+<#else>
 		return super.add(reader, writer);
+</#if>
 	}
 
 	@Override
@@ -100,7 +150,7 @@ public class ${clazzName}<E extends ${entityClass}> extends MapperDecorator<E>
 	{
 		if (this.getDatabase().getLogin() != null && !(this.getDatabase().getLogin() instanceof SimpleLogin))
 		{
-			if (!this.getDatabase().getLogin().canRead(${entityClass}.class))
+			if (!PermissionCache.getInstance().canRead(this.getDatabase().getLogin(), ${entityClass}.class))
 				return 0;
 
 <#if authorizable??>
@@ -115,7 +165,7 @@ public class ${clazzName}<E extends ${entityClass}> extends MapperDecorator<E>
 	{
 		if (this.getDatabase().getLogin() != null && !(this.getDatabase().getLogin() instanceof SimpleLogin))
 		{
-			if (!this.getDatabase().getLogin().canRead(${entityClass}.class))
+			if (!PermissionCache.getInstance().canRead(this.getDatabase().getLogin(), ${entityClass}.class))
 				return new ArrayList<E>();
 
 <#if authorizable??>
@@ -135,7 +185,7 @@ public class ${clazzName}<E extends ${entityClass}> extends MapperDecorator<E>
 	{
 		if (this.getDatabase().getLogin() != null && !(this.getDatabase().getLogin() instanceof SimpleLogin))
 		{
-			if (!this.getDatabase().getLogin().canRead(${entityClass}.class))
+			if (!PermissionCache.getInstance().canRead(this.getDatabase().getLogin(), ${entityClass}.class))
 				return;
 
 <#if authorizable??>
@@ -152,12 +202,24 @@ public class ${clazzName}<E extends ${entityClass}> extends MapperDecorator<E>
 	{
 		if (this.getDatabase().getLogin() != null && !(this.getDatabase().getLogin() instanceof SimpleLogin))
 		{
-			if (!this.getDatabase().getLogin().canWrite(${entityClass}.class))
+			if (!PermissionCache.getInstance().canWrite(this.getDatabase().getLogin(), ${entityClass}.class))
 				throw new DatabaseException("No write permission on ${entityClass}");
 
 			//TODO: Add row level security filters
 		}
+<#if permissionEntity??>
+		try
+		{
+			return super.remove(reader);
+		}
+		finally
+		{
+			// ${entityClass} defines permissions
+			PermissionCache.getInstance().invalidate(this.getDatabase());
+		}
+<#else>
 		return super.remove(reader);
+</#if>
 	}
 
 	@Override
@@ -165,13 +227,25 @@ public class ${clazzName}<E extends ${entityClass}> extends MapperDecorator<E>
 	{
 		if (this.getDatabase().getLogin() != null && !(this.getDatabase().getLogin() instanceof SimpleLogin))
 		{
-			if (!this.getDatabase().getLogin().canWrite(${entityClass}.class))
+			if (!PermissionCache.getInstance().canWrite(this.getDatabase().getLogin(), ${entityClass}.class))
 				throw new DatabaseException("No write permission on ${entityClass}");
 
 			//TODO: Add row level security filters
 			//TODO: Add column level security filters
 		}
+<#if permissionEntity??>
+		try
+		{
+			return super.update(reader);
+		}
+		finally
+		{
+			// ${entityClass} defines permissions
+			PermissionCache.getInstance().invalidate(this.getDatabase());
+		}
+<#else>
 		return super.update(reader);
+</#if>
 	}
 
 	@Override
@@ -179,7 +253,7 @@ public class ${clazzName}<E extends ${entityClass}> extends MapperDecorator<E>
 	{
 		if (this.getDatabase().getLogin() != null && !(this.getDatabase().getLogin() instanceof SimpleLogin))
 		{
-			if (!this.getDatabase().getLogin().canRead(${entityClass}.class))
+			if (!PermissionCache.getInstance().canRead(this.getDatabase().getLogin(), ${entityClass}.class))
 				return;
 
 <#if authorizable??>
@@ -194,9 +268,36 @@ public class ${clazzName}<E extends ${entityClass}> extends MapperDecorator<E>
 <#if authorizable??>
 	//TODO: Move this to Login interface
 	private QueryRule[] addRowLevelSecurityFilters(String permission, QueryRule ...rules) throws DatabaseException
+	{
+		// the filters only depend on the user, so they are created once per login
+		Login login = this.getDatabase().getLogin();
+		PermissionCache cache = PermissionCache.getInstance();
+		QueryRule[] filters = cache.getRowLevelFilters(login, ${entityClass}.class, permission);
+		if (filters == null)
+		{
+			long version = cache.getVersion();
+			filters = this.createRowLevelSecurityFilters(permission);
+			if (filters == null) return rules;
+			cache.putRowLevelFilters(login, ${entityClass}.class, permission, version, filters);
+		}
+		if (filters.length == 0) return rules;
+
+		List<QueryRule> rulesList = new ArrayList<QueryRule>();
+		org.apache.commons.collections.CollectionUtils.addAll(rulesList, rules);
+		org.apache.commons.collections.CollectionUtils.addAll(rulesList, filters);
+		return rulesList.toArray(new QueryRule[0]);
+	}
+
+	/**
+	 * Creates the row level security filters of the current user, or returns
+	 * null if the groups of the user cannot be retrieved
+	 */
+	private QueryRule[] createRowLevelSecurityFilters(String permission) throws DatabaseException
 	{
 		if (this.getDatabase().getLogin().isAuthenticated() && this.getDatabase().getLogin().getUserName().equals("admin"))
-			return rules;
+			return new QueryRule[0];
+		if (!permission.equals(${entityClass}.CANREAD))
+			return new QueryRule[0];
 
 		MolgenisUserService service = MolgenisUserService.getInstance(this.getDatabase());
 		MolgenisUser user           = service.findById(this.getDatabase().getLogin().getUserId());
@@ -208,20 +309,14 @@ public class ${clazzName}<E extends ${entityClass}> extends MapperDecorator<E>
 		}
 		catch (ParseException e)
 		{
-			return rules;
+			return null;
 		}
 
-		List<QueryRule> rulesList = new ArrayList<QueryRule>();
-		org.apache.commons.collections.CollectionUtils.addAll(rulesList, rules);
-		if (permission.equals(${entityClass}.CANREAD))
-		{
-			QueryRule rule1 = new QueryRule(${entityClass}.CANWRITE, org.molgenis.framework.db.QueryRule.Operator.IN, roleIdList);
-			QueryRule rule2 = new QueryRule(${entityClass}.CANREAD, org.molgenis.framework.db.QueryRule.Operator.IN, roleIdList);
-			QueryRule rule4 = new QueryRule(${entityClass}.OWNS, org.molgenis.framework.db.QueryRule.Operator.IN, roleIdList);
-			QueryRule rule3 = new QueryRule(org.molgenis.framework.db.QueryRule.Operator.OR);
-			rulesList.add(new QueryRule(rule1, rule3, rule2, rule3, rule4));
-		}
-		return rulesList.toArray(new QueryRule[0]);
+		QueryRule rule1 = new QueryRule(${entityClass}.CANWRITE, org.molgenis.framework.db.QueryRule.Operator.IN, roleIdList);
+		QueryRule rule2 = new QueryRule(${entityClass}.CANREAD, org.molgenis.framework.db.QueryRule.Operator.IN, roleIdList);
+		QueryRule rule4 = new QueryRule(${entityClass}.OWNS, org.molgenis.framework.db.QueryRule.Operator.IN, roleIdList);
+		QueryRule rule3 = new QueryRule(org.molgenis.framework.db.QueryRule.Operator.OR);
+		return new QueryRule[]{ new QueryRule(rule1, rule3, rule2, rule3, rule4) };
 	}
 	
 	private void addRowLevelSecurityFilters(List<E> entities) throws DatabaseException
@@ -49,6 +49,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -112,6 +113,8 @@ public class ${JavaName(entity)}Mapper extends AbstractJDBCMapper<${JavaName(ent
 
 <#include "MapperCommons.subclass_per_table.java.ftl">	
 	
+<#assign autoKeys = []>
+<#list dbFields(entity) as f><#if f.auto && f.type="int"><#assign autoKeys = autoKeys + [f]></#if></#list>
 	@Override
 	public int executeAdd(List<? extends ${JavaName(entity)}> entities) throws DatabaseException
 	{	
@@ -124,9 +127,11 @@ public class ${JavaName(entity)}Mapper extends AbstractJDBCMapper<${JavaName(ent
 		PreparedStatement pstmt = null;
 		try
 		{
+<#if db_driver == "org.hsqldb.jdbcDriver" && autoKeys?size &gt; 0>
 			pstmt = conn.prepareStatement("INSERT INTO ${name(entity)} (<#list addFields(entity) as f>${name(f)}<#if f_has_next>,</#if></#list>) VALUES (<#list addFields(entity) as f>?<#if f_has_next>,</#if></#list>)");
 			int updatedRows = 0;
 			
+			//hsqldb 1.8 only returns the last autogenerated key, so rows are added one by one
 			for( ${JavaName(entity)} e : entities )	
 			{	
 <#list addFields(entity) as f>	
@@ -139,20 +144,46 @@ public class ${JavaName(entity)}Mapper extends AbstractJDBCMapper<${JavaName(ent
 				updatedRows += pstmt.executeUpdate();
 				
 				//retrieve autogenerated keys
-<#list dbFields(entity) as f><#if f.auto && f.type="int">
-<#if db_driver == "org.hsqldb.jdbcDriver">
+<#list autoKeys as f>
 				Statement keyStmt = conn.createStatement();
 				ResultSet rs = keyStmt.executeQuery("CALL IDENTITY()");
 				rs.next();
 				e.set${JavaName(f)}(rs.getInt(1));
 				rs.close();
 				JDBCDatabase.closeStatement(keyStmt);
+</#list>						
+			}					
+		
+			return updatedRows;
 <#else>
-				getGeneratedKeys(entities, pstmt, 0);
-</#if></#if></#list>						
+			pstmt = conn.prepareStatement("INSERT INTO ${name(entity)} (<#list addFields(entity) as f>${name(f)}<#if f_has_next>,</#if></#list>) VALUES (<#list addFields(entity) as f>?<#if f_has_next>,</#if></#list>)"<#if autoKeys?size &gt; 0>, Statement.RETURN_GENERATED_KEYS</#if>);
+			int updatedRows = 0;
+			int fromIndex = 0;
+			
+			for(int i = 0; i < entities.size(); i++)
+			{	
+				${JavaName(entity)} e = entities.get(i);
+<#list addFields(entity) as f>	
+				//${f}
+				//if(e.get${JavaName(f)}() == null) pstmt.setNull(${f_index + 1},Types.${SqlType(model,f)});	
+				if(e.get${JavaName(f)}<#if f.type="xref" || f.type="mref">_${JavaName(f.xrefField)}</#if>() == null) pstmt.setNull(${f_index + 1},Types.OTHER);
+				else pstmt.${pstmtSetter(f)}(${f_index + 1},${convertToJdbc(f)});
+</#list>
+				pstmt.addBatch();
+	
+				if(i - fromIndex + 1 == getStatementBatchSize() || i == entities.size() - 1)
+				{
+					updatedRows += executeBatch(pstmt);
+<#if autoKeys?size &gt; 0>
+					//retrieve autogenerated keys
+					getGeneratedKeys(entities, pstmt, fromIndex);
+</#if>
+					fromIndex = i + 1;
+				}
 			}					
 		
 			return updatedRows;
+</#if>
 		} catch (SQLException sqlEx) {
                     throw new DatabaseException(sqlEx);
                 }
@@ -176,6 +207,7 @@ public class ${JavaName(entity)}Mapper extends AbstractJDBCMapper<${JavaName(ent
 		{
 			pstmt = conn.prepareStatement("UPDATE ${name(entity)} SET <#list updateFields(entity) as f>${name(f)}=?<#if f_has_next>,</#if></#list> WHERE <#list keyFields(entity) as f>${f.name}=?<#if f_has_next> AND </#if></#list>");
 			int updatedRows = 0;	
+			int batchCount = 0;
 			
 			for( ${JavaName(entity)} e : entities )	
 			{	
@@ -194,8 +226,14 @@ public class ${JavaName(entity)}Mapper extends AbstractJDBCMapper<${JavaName(ent
 				else pstmt.${pstmtSetter(f)}(${index},${convertToJdbc(f)});			
 <#assign index = index+1>				
 </#list>	
-				updatedRows += pstmt.executeUpdate();
+				pstmt.addBatch();
+				if(++batchCount == getStatementBatchSize())
+				{
+					updatedRows += executeBatch(pstmt);
+					batchCount = 0;
+				}
 			}					
+			if(batchCount > 0) updatedRows += executeBatch(pstmt);
 	
 			return updatedRows;
 		} catch (SQLException sqlEx) {
@@ -213,6 +251,7 @@ public class ${JavaName(entity)}Mapper extends AbstractJDBCMapper<${JavaName(ent
 		Connection conn = getDatabase().getConnection();
 		PreparedStatement pstmt = null;
 		int updatedRows = 0;
+		int batchCount = 0;
 		try
 		{
 			pstmt = conn.prepareStatement("DELETE FROM ${name(entity)} WHERE <#list keyFields(entity) as f>${name(f)}=?<#if f_has_next> AND </#if></#list>");
@@ -225,8 +264,14 @@ public class ${JavaName(entity)}Mapper extends AbstractJDBCMapper<${JavaName(ent
 				if(e.get${JavaName(f)}<#if f.type="xref" || f.type="mref">_${JavaName(f.xrefField)}</#if>() == null) pstmt.setNull(${f_index + 1},Types.OTHER);
 				else pstmt.${pstmtSetter(f)}(${f_index + 1},${convertToJdbc(f)});
 </#list>	
-				updatedRows += pstmt.executeUpdate();
+				pstmt.addBatch();
+				if(++batchCount == getStatementBatchSize())
+				{
+					updatedRows += executeBatch(pstmt);
+					batchCount = 0;
+				}
 			}
+			if(batchCount > 0) updatedRows += executeBatch(pstmt);
 		} 
 		catch (SQLException sqlEx) 
 		{
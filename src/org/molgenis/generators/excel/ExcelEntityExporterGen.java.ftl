@@ -16,31 +16,24 @@
 package ${package};
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
-
-import jxl.Workbook;
-import jxl.WorkbookSettings;
-import jxl.write.Label;
-import jxl.write.WritableCellFormat;
-import jxl.write.WritableFont;
-import jxl.write.WritableSheet;
-import jxl.write.WritableWorkbook;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
 import org.molgenis.framework.db.Database;
 import org.molgenis.framework.db.QueryRule;
+import org.molgenis.io.TupleWriter;
 import org.molgenis.io.csv.CsvReader;
+import org.molgenis.io.excel.ExcelWriter;
 import org.molgenis.util.tuple.Tuple;
 
 public class ExcelEntityExporter
 {
 	static Logger logger = Logger.getLogger(ExcelEntityExporter.class);
 	
-	protected int sheetIndex = 0;
-	
 	/**
 	 * Default export all using a target file and a database to export
 	 * @param directory
@@ -77,7 +70,9 @@ public class ExcelEntityExporter
 	}
 	
 	/**
-	 * Export all with both a boolean skipAutoId and a set of QueryRules to specify both the skipping of auto id, and applying of a filter
+	 * Export all with both a boolean skipAutoId and a set of QueryRules to specify both the skipping of auto id, and applying of a filter.
+	 * A target file ending with .xlsx is written as a streaming Excel 2007 workbook that does not keep all rows in memory,
+	 * other files are written as Excel 97 workbook.
 	 * @param directory
 	 * @param db
 	 * @param skipAutoId
@@ -99,89 +94,77 @@ public class ExcelEntityExporter
 		File directory = new File(System.getProperty("java.io.tmpdir") + File.separator + "molgenis_export"+System.currentTimeMillis());
 		directory.mkdir();
 		
-		// Export CSV to this directory
-		CsvEntityExporter entityExporter = new CsvEntityExporter();
-		entityExporter.exportAll(directory, db, skipAutoId, rules);
-			
-		// Create new Excel workbook
-		WorkbookSettings ws = new WorkbookSettings();
-		ws.setLocale(new Locale("en", "EN"));
-		WritableWorkbook workbook = Workbook.createWorkbook(excelFile,
-				ws);
-
-		// Format the fonts
-	    WritableFont headerFont = new WritableFont(WritableFont.ARIAL, 
-	      10, WritableFont.BOLD);
-	    WritableCellFormat headerFormat = new WritableCellFormat(headerFont);
-	    headerFormat.setWrap(false);
-	    WritableFont cellFont = new WritableFont(WritableFont.ARIAL, 
-	  	      10, WritableFont.NO_BOLD);
-	  	   WritableCellFormat cellFormat = new WritableCellFormat(cellFont);
-	  	    cellFormat.setWrap(false);
-		
-	  	// Variable: copy file contents to the workbook sheets
-	  	<#list entities as entity><#if !entity.abstract && entity.system==false>
-		copyCsvToWorkbook("${entity.name}", new File(directory+"/${entity.name?lower_case}.txt"), workbook, headerFormat, cellFormat);		
-		</#if></#list>
-
-	  	// Close workbook
-		workbook.write();
-	    workbook.close();
-	    
-	    // Remove temporary directory
-		FileUtils.deleteDirectory(directory);
+		try
+		{
+			// Export CSV to this directory
+			CsvEntityExporter entityExporter = new CsvEntityExporter();
+			entityExporter.exportAll(directory, db, skipAutoId, rules);
+				
+			// Create new Excel workbook
+			ExcelWriter excelWriter;
+			if(excelFile.getName().toLowerCase().endsWith(".xlsx"))
+				excelWriter = new ExcelWriter(excelFile, ExcelWriter.DEFAULT_ROW_ACCESS_WINDOW, true);
+			else
+				excelWriter = new ExcelWriter(excelFile, ExcelWriter.FileFormat.XLS);
+			try
+			{
+			  	// Variable: copy file contents to the workbook sheets
+			  	<#list entities as entity><#if !entity.abstract && entity.system==false>
+				copyCsvToWorkbook("${entity.name}", new File(directory+"/${entity.name?lower_case}.txt"), excelWriter);
+				</#if></#list>
+			}
+			finally
+			{
+				excelWriter.close();
+			}
+		}
+		finally
+		{
+			// Remove temporary directory
+			FileUtils.deleteDirectory(directory);
+		}
 	}
 
 	/**
-	 * Convert a CSV to an Excel sheet inside a workbook
-	 * @throws Exception 
+	 * Convert a CSV to an Excel sheet inside a workbook, the rows are copied one at a time
+	 * @throws IOException 
 	 */
-	public void copyCsvToWorkbook(String sheetName, File file, WritableWorkbook workbook, WritableCellFormat headerFormat, WritableCellFormat cellFormat) throws Exception
+	public void copyCsvToWorkbook(String sheetName, File file, ExcelWriter excelWriter) throws IOException
 	{
 		if(file.exists())
 		{
-			// Create sheet
-			WritableSheet sheet = workbook.createSheet(sheetName, sheetIndex);
-			
-			// Parse CSV file to tuples TODO: batch this
-			final List<Tuple> tuples = new ArrayList<Tuple>();
 			CsvReader csvReader = new CsvReader(file);
 			try
 			{
-				for (Tuple tuple : csvReader)
+				csvReader.setReuseTuples(true);
+				
+				// Create sheet
+				TupleWriter sheetWriter = excelWriter.createTupleWriter(sheetName);
+				try
+				{
+					// Add headers
+					Iterator<String> colNamesIt = csvReader.colNamesIterator();
+					if(colNamesIt != null)
+					{
+						List<String> colNames = new ArrayList<String>();
+						while(colNamesIt.hasNext())
+							colNames.add(colNamesIt.next());
+						sheetWriter.writeColNames(colNames);
+					}
+					
+					// Add cells
+					for (Tuple tuple : csvReader)
+						sheetWriter.write(tuple);
+				}
+				finally
 				{
-					tuples.add(tuple);
+					sheetWriter.close();
 				}
 			}
 			finally
 			{
 				csvReader.close();
 			}
-			
-			// Add and store headers
-			int j = 0;
-			List<String> tupleFields = new ArrayList<String>();
-			for(String colName : tuples.get(0).getColNames()) {
-				tupleFields.add(colName);
-				Label l = new Label(j, 0, colName, headerFormat);
-				sheet.addCell(l);
-			}
-			
-			// Add cells
-			int rowIndex = 1;
-			for(Tuple t : tuples){
-				for(int i = 0; i < tupleFields.size(); i++){
-					if(!(t.get(tupleFields.get(i)) == null)){
-						Label l = new Label(i, rowIndex, t.get(tupleFields.get(i)).toString(), cellFormat);
-						sheet.addCell(l);
-					}else{
-						sheet.addCell(new Label(i, rowIndex, "", cellFormat));
-					}
-					
-				}
-				rowIndex++;
-			}
-		    sheetIndex++;
 		}
 	}
 }
\ No newline at end of file
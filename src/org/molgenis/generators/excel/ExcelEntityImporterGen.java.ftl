@@ -17,7 +17,6 @@
 package ${package};
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
@@ -29,8 +28,10 @@ import org.molgenis.framework.db.Database.DatabaseAction;
 import org.molgenis.framework.db.DatabaseException;
 import org.molgenis.framework.db.EntityImportReport;
 import org.molgenis.framework.db.EntityImporter;
+import org.molgenis.io.TableReader;
+import org.molgenis.io.TupleReader;
 import org.molgenis.io.excel.ExcelReader;
-import org.molgenis.io.excel.ExcelSheetReader;
+import org.molgenis.io.excel.StreamingExcelReader;
 
 <#list entities as entity><#if !entity.abstract>
 import ${entity.namespace}.db.${JavaName(entity)}EntityImporter;
@@ -58,15 +59,23 @@ public class ExcelEntityImporter
 	
 	public EntityImportReport importData(File file, DatabaseAction dbAction) throws IOException, DatabaseException
 	{
-		return importData(new FileInputStream(file), dbAction);
+		// stream the rows of .xlsx files instead of loading the whole workbook
+		TableReader reader = file.getName().endsWith(".xlsx") ? new StreamingExcelReader(file) : new ExcelReader(file);
+		return importData(reader, dbAction);
 	}
 	
 	public EntityImportReport importData(InputStream is, DatabaseAction dbAction) throws IOException, DatabaseException
+	{
+		return importData(new ExcelReader(is), dbAction);
+	}
+	
+	private EntityImportReport importData(TableReader reader, DatabaseAction dbAction) throws IOException, DatabaseException
 	{
 		if(dbAction == DatabaseAction.REMOVE || dbAction == DatabaseAction.REMOVE_IGNORE_MISSING)
+		{
+			reader.close();
 			throw new IllegalArgumentException("remove action not allowed: " + dbAction);
-		
-		ExcelReader reader = new ExcelReader(is);
+		}
 
 		EntityImportReport importReport = new EntityImportReport();
 		boolean doTx = !db.inTx();
@@ -75,18 +84,17 @@ public class ExcelEntityImporter
 			if (doTx) db.beginTx();
 
 			// map sheet names to sheets
-			Map<String, ExcelSheetReader> sheetMap = new HashMap<String, ExcelSheetReader>();
-			for (ExcelSheetReader sheet : reader)
+			Map<String, TupleReader> sheetMap = new HashMap<String, TupleReader>();
+			for (String sheetName : reader.getTableNames())
 			{
-				String sheetName = sheet.getName();
-				ExcelSheetReader previousValue = sheetMap.put(sheetName.toLowerCase(), sheet);
+				TupleReader previousValue = sheetMap.put(sheetName.toLowerCase(), reader.getTupleReader(sheetName));
 				if (previousValue != null) throw new IOException("duplicate sheet names not allowed: " + sheetName);
 			}
 
 			// import sheets in order defined by entities map
 			for (Map.Entry<String, EntityImporter> entry : ENTITIES_IMPORTABLE.entrySet())
 			{
-				ExcelSheetReader sheet = sheetMap.get(entry.getKey());
+				TupleReader sheet = sheetMap.get(entry.getKey());
 				if (sheet != null)
 				{
 					EntityImporter entityImporter = entry.getValue();
@@ -29,8 +29,10 @@ import java.util.Map.Entry;
 
 import org.molgenis.framework.db.Database;
 import org.molgenis.framework.db.DatabaseException;
+import org.molgenis.io.TableReader;
+import org.molgenis.io.TupleReader;
 import org.molgenis.io.excel.ExcelReader;
-import org.molgenis.io.excel.ExcelSheetReader;
+import org.molgenis.io.excel.StreamingExcelReader;
 import org.molgenis.model.MolgenisModelException;
 import org.molgenis.model.elements.Field;
 <#list model.entities as entity><#if !entity.abstract>
@@ -60,15 +62,16 @@ public class ImportWizardExcelPrognosis {
 	private List<String> importOrder = new ArrayList<String>();
 
 	public ImportWizardExcelPrognosis(Database db, File excelFile) throws Exception {
-		ExcelReader excelReader = new ExcelReader(excelFile);
+		// stream .xlsx files instead of loading the whole workbook
+		TableReader excelReader = excelFile.getName().endsWith(".xlsx") ? new StreamingExcelReader(excelFile)
+				: new ExcelReader(excelFile);
 		
 		ArrayList<String> lowercasedSheetNames = new ArrayList<String>();
 		Map<String, String> lowerToOriginalName = new LinkedHashMap<String, String>();
 
 		try {
 
-			for (int i = 0; i < excelReader.getNumberOfSheets(); i++) {
-				String sheetName = excelReader.getSheetName(i);
+			for (String sheetName : excelReader.getTableNames()) {
 				lowercasedSheetNames.add(sheetName.toLowerCase());
 				lowerToOriginalName.put(sheetName.toLowerCase(), sheetName);
 			}
@@ -76,7 +79,7 @@ public class ImportWizardExcelPrognosis {
 			<#list entities as entity><#if !entity.abstract>
 			if (lowercasedSheetNames.contains("${entity.name?lower_case}")) {
 				String originalSheetname = lowerToOriginalName.get("${entity.name?lower_case}");
-				ExcelSheetReader sheetReader = excelReader.getSheet(originalSheetname);
+				TupleReader sheetReader = excelReader.getTupleReader(originalSheetname);
 				List<String> colNames = Lists.newArrayList(sheetReader.colNamesIterator());
 				List<Field> entityFields = db.getMetaData().getEntity(${JavaName(entity)}.class.getSimpleName()).getAllFields();
 				headersToMaps(originalSheetname, colNames, entityFields);
@@ -32,11 +32,6 @@
 </#list>
 <#-- Alter the tables to contain the contraining keys we can do so now because the other tables exists -->
 <#list entities as entity>
-<#--
-<#list entity.getIndices() as i>
-	CREATE INDEX ${SqlName(i)} ON ${SqlName(entity)} (${csv(i.fields)})
-</#list>
--->
 <#if !entity.isAbstract()>
 	<#list dbFields(entity) as f>
 	<#if f.type == "xref">
@@ -48,5 +43,16 @@
 	</#if>
 </#if>
 </#list>
+<#-- Create the indexes of the index plan -->
+<#list entities as entity>
+<#if !entity.isAbstract()>
+	<#list indexPlan.getIndexes(entity) as index>
+	/* ${index.name}: <#list index.queryShapes as shape>${shape}<#if shape_has_next>, </#if></#list><#if !index.created> - served by ${index.servedBy}</#if> */
+	<#if index.created>
+		CREATE INDEX ${index.name} ON ${SqlName(entity)} (${index.columnList});
+	</#if>
+	</#list>
+</#if>
+</#list>
 <#--need innodb to support transactions. Do not change! If you need MyISAM, we can make this an generator option-->
 <#--http://www.mysql.org/doc/refman/5.1/en/multiple-tablespaces.html for one file per table innodb-->
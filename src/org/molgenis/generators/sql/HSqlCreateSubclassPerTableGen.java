@@ -61,6 +61,7 @@ public class HSqlCreateSubclassPerTableGen extends Generator
 
 		// create arguments
 		templateArgs.put("entities", sortedlist);
+		templateArgs.put("indexPlan", new IndexPlan(sortedlist));
 		templateArgs.put("model", model);
 
 		// generate
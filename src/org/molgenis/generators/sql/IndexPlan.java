@@ -0,0 +1,283 @@
+package org.molgenis.generators.sql;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.molgenis.fieldtypes.BoolField;
+import org.molgenis.fieldtypes.FreemarkerField;
+import org.molgenis.fieldtypes.MrefField;
+import org.molgenis.fieldtypes.RichtextField;
+import org.molgenis.fieldtypes.TextField;
+import org.molgenis.fieldtypes.XrefField;
+import org.molgenis.model.MolgenisModelException;
+import org.molgenis.model.elements.Entity;
+import org.molgenis.model.elements.Field;
+import org.molgenis.model.elements.Index;
+import org.molgenis.model.elements.Unique;
+
+/**
+ * Physical index plan for the 'subclass per table' create scripts, derived
+ * from the model and the queries the generated mappers run:
+ * <ul>
+ * <li>indexes declared in the model with &lt;index fields="..."/&gt;,
+ * &lt;indices&gt; or index="true" on a field
+ * <li>xref columns, used in joins, filters and foreign key checks. For mref
+ * link tables these are the 'IN (...)' lookups of the mrefs of a set of
+ * entities
+ * <li>xref_label columns of the referenced entity, used to resolve foreign
+ * keys by label
+ * <li>the type column of a class hierarchy, used to filter on subclass
+ * </ul>
+ * Indexes of which the columns are a leading part of a key or of another
+ * index are not created, but are listed with the index that serves them.
+ */
+public class IndexPlan
+{
+	/** maximum length of an index name (PostgreSQL allows 63) */
+	static final int MAX_NAME_LENGTH = 60;
+
+	private final Map<String, List<PlannedIndex>> indexes = new LinkedHashMap<String, List<PlannedIndex>>();
+
+	/**
+	 * @param entities
+	 *            all entities of the model
+	 * @throws MolgenisModelException
+	 */
+	public IndexPlan(List<Entity> entities) throws MolgenisModelException
+	{
+		for (Entity entity : entities)
+		{
+			if (entity.isAbstract()) continue;
+			List<PlannedIndex> tableIndexes = new ArrayList<PlannedIndex>();
+			indexes.put(entity.getName(), tableIndexes);
+
+			// declared
+			for (Index index : entity.getIndices())
+				add(tableIndexes, entity, index.getFields(), "declared index '" + index.getName() + "'");
+
+			// xref columns
+			for (Field f : getColumns(entity))
+			{
+				if (!(f.getType() instanceof XrefField)) continue;
+				List<String> columns = new ArrayList<String>();
+				columns.add(f.getName());
+				if (entity.isAssociation()) add(tableIndexes, entity, columns, "mref lookup: " + f.getName()
+						+ " IN (...)");
+				else
+					add(tableIndexes, entity, columns, "xref filter/join: " + f.getName() + " = ? and delete checks of "
+							+ f.getXrefEntityName());
+			}
+
+			// type column of class hierarchies
+			if (entity.hasDescendants() && !entity.hasAncestor() && hasColumn(entity, Field.TYPE_FIELD))
+			{
+				List<String> columns = new ArrayList<String>();
+				columns.add(Field.TYPE_FIELD);
+				add(tableIndexes, entity, columns, "subclass filter: " + Field.TYPE_FIELD + " IN (...)");
+			}
+		}
+
+		// labels of xref and mref fields
+		for (Entity entity : entities)
+		{
+			for (Field f : entity.getFields())
+			{
+				if (!(f.getType() instanceof XrefField || f.getType() instanceof MrefField)) continue;
+				List<String> labels = f.getXrefLabelNames();
+				Entity table = getLabelTable(f.getXrefEntity(), labels);
+				if (table != null) add(indexes.get(table.getName()), table, labels, "xref label lookup: "
+						+ join(labels, " = ? AND ") + " = ? for " + entity.getName() + "." + f.getName());
+			}
+		}
+
+		// mark indexes that are served by a key or a longer index
+		for (Entity entity : entities)
+		{
+			if (entity.isAbstract()) continue;
+			List<PlannedIndex> tableIndexes = indexes.get(entity.getName());
+			for (PlannedIndex index : tableIndexes)
+			{
+				for (Unique key : entity.getKeys())
+				{
+					List<String> keyColumns = new ArrayList<String>();
+					for (Field f : key.getFields())
+						keyColumns.add(f.getName());
+					if (key.isSubclass()) keyColumns.add(Field.TYPE_FIELD);
+					if (startsWith(keyColumns, index.columns))
+					{
+						index.servedBy = "key (" + join(keyColumns, ",") + ")";
+						break;
+					}
+				}
+				if (index.servedBy != null) continue;
+				for (PlannedIndex other : tableIndexes)
+				{
+					if (other != index && other.columns.size() > index.columns.size()
+							&& startsWith(other.columns, index.columns))
+					{
+						index.servedBy = "index " + other.getName();
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the planned indexes of the table of a (concrete) entity,
+	 * including the ones that are served by a key or other index
+	 */
+	public List<PlannedIndex> getIndexes(Entity entity)
+	{
+		List<PlannedIndex> result = indexes.get(entity.getName());
+		return result != null ? result : new ArrayList<PlannedIndex>();
+	}
+
+	/**
+	 * Adds an index or, if an index on the same columns is planned, adds the
+	 * query shape to that index
+	 */
+	private static void add(List<PlannedIndex> tableIndexes, Entity entity, List<String> columns, String queryShape)
+	{
+		for (PlannedIndex index : tableIndexes)
+		{
+			if (index.columns.equals(columns))
+			{
+				if (!index.queryShapes.contains(queryShape)) index.queryShapes.add(queryShape);
+				return;
+			}
+		}
+		tableIndexes.add(new PlannedIndex(entity.getName(), columns, queryShape));
+	}
+
+	/**
+	 * Returns the table that stores all labels, or null if they are not
+	 * stored in one table or cannot be indexed
+	 */
+	private static Entity getLabelTable(Entity xrefEntity, List<String> labels) throws MolgenisModelException
+	{
+		if (labels == null || labels.isEmpty()) return null;
+		Entity table = null;
+		for (String label : labels)
+		{
+			// labels of xref fields of the xref entity are stored elsewhere
+			Field f = xrefEntity.getAllField(label);
+			if (f == null || f.getType() instanceof XrefField || f.getType() instanceof MrefField
+					|| f.getType() instanceof TextField || f.getType() instanceof RichtextField
+					|| f.getType() instanceof FreemarkerField || f.getType() instanceof BoolField) return null;
+
+			// with subclass per table the column is in the first concrete
+			// ancestor declaring it
+			Entity labelTable = null;
+			for (Entity e = xrefEntity; e != null && labelTable == null; e = e.getAncestor())
+				if (!e.isAbstract() && hasColumn(e, label)) labelTable = e;
+			if (labelTable == null || (table != null && table != labelTable)) return null;
+			table = labelTable;
+		}
+		return table;
+	}
+
+	/**
+	 * Returns the fields stored in the table of the entity
+	 */
+	private static List<Field> getColumns(Entity entity) throws MolgenisModelException
+	{
+		List<Field> columns = new ArrayList<Field>();
+		for (Field f : entity.getImplementedFields())
+			if (!(f.getType() instanceof MrefField)) columns.add(f);
+		return columns;
+	}
+
+	private static boolean hasColumn(Entity entity, String name) throws MolgenisModelException
+	{
+		for (Field f : getColumns(entity))
+			if (f.getName().equalsIgnoreCase(name)) return true;
+		return false;
+	}
+
+	private static boolean startsWith(List<String> columns, List<String> prefix)
+	{
+		if (prefix.size() > columns.size()) return false;
+		for (int i = 0; i < prefix.size(); i++)
+			if (!columns.get(i).equalsIgnoreCase(prefix.get(i))) return false;
+		return true;
+	}
+
+	private static String join(List<String> items, String separator)
+	{
+		StringBuilder result = new StringBuilder();
+		for (String item : items)
+		{
+			if (result.length() > 0) result.append(separator);
+			result.append(item);
+		}
+		return result.toString();
+	}
+
+	/**
+	 * An index on one table and the query shapes it serves
+	 */
+	public static class PlannedIndex
+	{
+		private final String table;
+		private final List<String> columns;
+		private final List<String> queryShapes = new ArrayList<String>();
+		private String servedBy;
+
+		PlannedIndex(String table, List<String> columns, String queryShape)
+		{
+			this.table = table;
+			this.columns = new ArrayList<String>(columns);
+			this.queryShapes.add(queryShape);
+		}
+
+		/**
+		 * Name of the index: idx_[table]_[columns], shortened with a hash
+		 * if too long
+		 */
+		public String getName()
+		{
+			String name = "idx_" + table + "_" + join(columns, "_");
+			if (name.length() <= MAX_NAME_LENGTH) return name;
+			String hash = Integer.toHexString(name.hashCode());
+			return name.substring(0, MAX_NAME_LENGTH - hash.length() - 1) + "_" + hash;
+		}
+
+		public String getTable()
+		{
+			return table;
+		}
+
+		public List<String> getColumns()
+		{
+			return columns;
+		}
+
+		/** comma separated columns */
+		public String getColumnList()
+		{
+			return join(columns, ",");
+		}
+
+		public List<String> getQueryShapes()
+		{
+			return queryShapes;
+		}
+
+		/**
+		 * Returns the key or index that already serves the queries of this
+		 * index, or null if the index has to be created
+		 */
+		public String getServedBy()
+		{
+			return servedBy;
+		}
+
+		public boolean isCreated()
+		{
+			return servedBy == null;
+		}
+	}
+}
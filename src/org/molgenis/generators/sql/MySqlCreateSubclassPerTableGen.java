@@ -47,6 +47,7 @@ public class MySqlCreateSubclassPerTableGen extends Generator
 
 		templateArgs.put("model", model);
 		templateArgs.put("entities", entityList);
+		templateArgs.put("indexPlan", new IndexPlan(entityList));
 		OutputStream targetOut = new FileOutputStream(target);
 		template.process(templateArgs, new OutputStreamWriter(targetOut, Charset.forName("UTF-8")));
 		targetOut.close();
@@ -54,9 +54,6 @@ CREATE TABLE ${SqlName(entity)} (
 	, UNIQUE <#list key.fields as f><#if f_index &gt; 0>_</#if>${f.name}</#list>(${csv(key.fields)}<#if key.subclass>,${typefield()}</#if>)
 --></#if>
 </#list>
-<#list entity.getIndices() as i>
-	, INDEX (<#list i.fields as f>${SqlName(f)}<#if f_has_next>,</#if></#list>)
-</#list>
 ) CHARACTER SET utf8 COLLATE utf8_unicode_ci ENGINE=InnoDB;
 <#--need innodb to support transactions. Do not change! If you need MyISAM, we can make this an generator option-->
 <#--http://www.mysql.org/doc/refman/5.1/en/multiple-tablespaces.html for one file per table innodb-->
@@ -72,6 +69,16 @@ ALTER TABLE ${SqlName(entity)} ADD UNIQUE <#list key.fields as f><#if f_index &g
 </#if>
 </#list></#if></#list>
 
+/**********CREATE INDEXES**********/
+<#list entities as entity><#if !entity.isAbstract()>
+<#list indexPlan.getIndexes(entity) as index>
+/* ${index.name}: <#list index.queryShapes as shape>${shape}<#if shape_has_next>, </#if></#list><#if !index.created> - served by ${index.servedBy}</#if> */
+<#if index.created>
+CREATE INDEX ${index.name} ON ${SqlName(entity)} (${index.columnList});
+</#if>
+</#list>
+</#if></#list>
+
 /**********ADD FOREIGN KEYS**********/
 <#-- Generate a table for each concrete class (so, not abstract) -->
 <#list entities as entity><#if !entity.isAbstract() && entity.hasAncestor()>
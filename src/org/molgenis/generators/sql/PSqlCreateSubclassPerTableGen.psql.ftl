@@ -75,14 +75,21 @@ CREATE TABLE ${SqlName(entity)} (
 	, UNIQUE(${csv(key.fields)}<#if key.subclass>,${typefield()}</#if>)
 </#if>
 </#list>
-<#list entity.getIndices() as i>
-	, INDEX (${csv(i.fields)})
-</#list>
 );
 </#if>
 </#list>
 COMMIT;
 
+/**********CREATE INDEXES**********/
+<#list entities as entity><#if !entity.isAbstract()>
+<#list indexPlan.getIndexes(entity) as index>
+/* ${index.name}: <#list index.queryShapes as shape>${shape}<#if shape_has_next>, </#if></#list><#if !index.created> - served by ${index.servedBy}</#if> */
+<#if index.created>
+CREATE INDEX ${index.name} ON ${SqlName(entity)} (${index.columnList});
+</#if>
+</#list>
+</#if></#list>
+
 /**********ADD FOREIGN KEYS**********/
 <#-- Generate a table for each concrete class (so, not abstract) -->
 <#list entities as entity><#if !entity.isAbstract()>
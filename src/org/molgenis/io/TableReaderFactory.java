@@ -14,6 +14,7 @@ import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 import org.molgenis.io.csv.CsvReader;
 import org.molgenis.io.excel.ExcelReader;
+import org.molgenis.io.excel.StreamingExcelReader;
 
 public class TableReaderFactory
 {
@@ -54,10 +55,14 @@ public class TableReaderFactory
 			String tableName = FilenameUtils.getBaseName(name);
 			return new SingleTableReader(new CsvReader(file, '\t'), tableName);
 		}
-		else if (name.endsWith(".xls") || name.endsWith(".xlsx"))
+		else if (name.endsWith(".xls"))
 		{
 			return new ExcelReader(file);
 		}
+		else if (name.endsWith(".xlsx"))
+		{
+			return new StreamingExcelReader(file);
+		}
 		else if (name.endsWith(".zip"))
 		{
 			return new ZipTableReader(new ZipFile(file));
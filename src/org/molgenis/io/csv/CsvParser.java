@@ -0,0 +1,251 @@
+package org.molgenis.io.csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the records of a character-separated values stream into a reusable
+ * record buffer. Scans a large character buffer with a quote-aware state
+ * machine, so that no objects are created per record or per cell until the
+ * cells are asked for.
+ * <p>
+ * Follows RFC 4180 and is lenient where opencsv was: records may end with
+ * \n, \r\n or \r, quoted cells may contain separators, line breaks and
+ * escaped quotes ("") and characters that follow a closing quote are appended
+ * to the cell. An empty line is a record with one empty cell.
+ *
+ * @see <a href="http://tools.ietf.org/html/rfc4180">RFC 4180</a>
+ */
+class CsvParser implements Closeable
+{
+	private static final int BUFFER_SIZE = 65536;
+
+	private static final int CELL_START = 0;
+	private static final int UNQUOTED = 1;
+	private static final int QUOTED = 2;
+	private static final int QUOTE_IN_QUOTED = 3;
+
+	private final Reader reader;
+	private final char separator;
+
+	/** characters read from the reader */
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private int pos = 0;
+	private int limit = 0;
+	/** previous record ended with \r, skip the \n of a \r\n */
+	private boolean skipLineFeed = false;
+
+	/** unescaped characters of the cells of the current record */
+	private char[] chars = new char[1024];
+	private int length = 0;
+	/** end offset in chars of each cell of the current record */
+	private int[] cellEnds = new int[64];
+	private int nrCells = 0;
+
+	CsvParser(Reader reader, char separator)
+	{
+		if (reader == null) throw new IllegalArgumentException("reader is null");
+		if (separator == '"' || separator == '\n' || separator == '\r') throw new IllegalArgumentException(
+				"invalid separator: " + separator);
+		this.reader = reader;
+		this.separator = separator;
+	}
+
+	/**
+	 * Reads the next record. The cells of the previous record are no longer
+	 * available afterwards.
+	 *
+	 * @return false if the end of the stream was reached
+	 * @throws IOException
+	 */
+	boolean next() throws IOException
+	{
+		nrCells = 0;
+		length = 0;
+
+		final char[] buffer = this.buffer;
+		final char separator = this.separator;
+		int state = CELL_START;
+		boolean inRecord = false;
+		while (true)
+		{
+			if (pos == limit && !fill())
+			{
+				if (!inRecord) return false;
+				endCell();
+				return true;
+			}
+			if (skipLineFeed)
+			{
+				skipLineFeed = false;
+				if (buffer[pos] == '\n')
+				{
+					++pos;
+					continue;
+				}
+			}
+			inRecord = true;
+
+			switch (state)
+			{
+				case QUOTED:
+				{
+					int start = pos;
+					while (pos < limit && buffer[pos] != '"')
+						++pos;
+					append(buffer, start, pos - start);
+					if (pos < limit)
+					{
+						++pos;
+						state = QUOTE_IN_QUOTED;
+					}
+					break;
+				}
+				case QUOTE_IN_QUOTED:
+				{
+					char c = buffer[pos++];
+					if (c == '"')
+					{
+						// escaped quote
+						append(buffer, pos - 1, 1);
+						state = QUOTED;
+					}
+					else if (c == separator)
+					{
+						endCell();
+						state = CELL_START;
+					}
+					else if (c == '\n' || c == '\r')
+					{
+						skipLineFeed = c == '\r';
+						endCell();
+						return true;
+					}
+					else
+					{
+						append(buffer, pos - 1, 1);
+						state = UNQUOTED;
+					}
+					break;
+				}
+				default:
+				{
+					if (state == CELL_START && buffer[pos] == '"')
+					{
+						++pos;
+						state = QUOTED;
+						break;
+					}
+					int start = pos;
+					char c = 0;
+					while (pos < limit)
+					{
+						c = buffer[pos];
+						if (c == separator || c == '\n' || c == '\r') break;
+						++pos;
+					}
+					append(buffer, start, pos - start);
+					if (pos < limit)
+					{
+						++pos;
+						if (c == separator)
+						{
+							endCell();
+							state = CELL_START;
+						}
+						else
+						{
+							skipLineFeed = c == '\r';
+							endCell();
+							return true;
+						}
+					}
+					else
+					{
+						state = UNQUOTED;
+					}
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return number of cells of the current record
+	 */
+	int getNrCells()
+	{
+		return nrCells;
+	}
+
+	/**
+	 * @return true if the cell of the current record has no characters
+	 */
+	boolean isEmpty(int cell)
+	{
+		return getStart(cell) == getEnd(cell);
+	}
+
+	/**
+	 * @return the cell of the current record, or null if it is empty
+	 */
+	String getCell(int cell)
+	{
+		int start = getStart(cell);
+		int end = getEnd(cell);
+		return start != end ? new String(chars, start, end - start) : null;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		reader.close();
+	}
+
+	private int getStart(int cell)
+	{
+		if (cell < 0 || cell >= nrCells) throw new IndexOutOfBoundsException("Index: " + cell + ", Size: " + nrCells);
+		return cell == 0 ? 0 : cellEnds[cell - 1];
+	}
+
+	private int getEnd(int cell)
+	{
+		return cellEnds[cell];
+	}
+
+	private boolean fill() throws IOException
+	{
+		int n;
+		do
+			n = reader.read(buffer, 0, buffer.length);
+		while (n == 0);
+		pos = 0;
+		limit = n > 0 ? n : 0;
+		return n > 0;
+	}
+
+	private void append(char[] src, int offset, int len)
+	{
+		if (len == 0) return;
+		if (length + len > chars.length)
+		{
+			char[] newChars = new char[Math.max(chars.length * 2, length + len)];
+			System.arraycopy(chars, 0, newChars, 0, length);
+			chars = newChars;
+		}
+		System.arraycopy(src, offset, chars, length, len);
+		length += len;
+	}
+
+	private void endCell()
+	{
+		if (nrCells == cellEnds.length)
+		{
+			int[] newCellEnds = new int[cellEnds.length * 2];
+			System.arraycopy(cellEnds, 0, newCellEnds, 0, nrCells);
+			cellEnds = newCellEnds;
+		}
+		cellEnds[nrCells++] = length;
+	}
+}
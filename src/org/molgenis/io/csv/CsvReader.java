@@ -8,8 +8,6 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -19,11 +17,14 @@ import org.molgenis.io.TupleReader;
 import org.molgenis.io.processor.AbstractCellProcessor;
 import org.molgenis.io.processor.CellProcessor;
 import org.molgenis.util.tuple.Tuple;
-import org.molgenis.util.tuple.ValueIndexTuple;
-import org.molgenis.util.tuple.ValueTuple;
 
 /**
  * Comma-Separated Values reader
+ * <p>
+ * Parses with {@link CsvParser}. By default each row is returned as a new
+ * tuple. Callers that handle one row at a time can have the reader return the
+ * same {@link CsvRowTuple} for every row with {@link #setReuseTuples(boolean)},
+ * which avoids creating objects for cells that are not read.
  * 
  * @see <a href="http://tools.ietf.org/html/rfc4180">RFC 4180</a>
  */
@@ -33,13 +34,15 @@ public class CsvReader implements TupleReader
 
 	public static final char DEFAULT_SEPARATOR = ',';
 
-	private final au.com.bytecode.opencsv.CSVReader csvReader;
+	private final CsvParser csvParser;
 	private final boolean hasHeader;
 
 	/** process cells after reading */
-	private List<CellProcessor> cellProcessors;
+	private final List<CellProcessor> cellProcessors = new ArrayList<CellProcessor>();
 	/** column names index */
 	private Map<String, Integer> colNamesMap;
+	/** return the same tuple for each row */
+	private boolean reuseTuples = false;
 
 	public CsvReader(Reader reader)
 	{
@@ -54,7 +57,7 @@ public class CsvReader implements TupleReader
 	public CsvReader(Reader reader, char separator, boolean hasHeader)
 	{
 		if (reader == null) throw new IllegalArgumentException("reader is null");
-		this.csvReader = new au.com.bytecode.opencsv.CSVReader(reader, separator);
+		this.csvParser = new CsvParser(reader, separator);
 		this.hasHeader = hasHeader;
 	}
 
@@ -73,6 +76,17 @@ public class CsvReader implements TupleReader
 		this(new InputStreamReader(new FileInputStream(file), CHARSET_UTF8), separator, hasHeader);
 	}
 
+	/**
+	 * Whether the iterator returns one {@link CsvRowTuple} that changes with
+	 * each row instead of a new tuple per row. Only enable this if tuples are
+	 * not kept after moving to the next row, or are kept with
+	 * {@link CsvRowTuple#copy()}.
+	 */
+	public void setReuseTuples(boolean reuseTuples)
+	{
+		this.reuseTuples = reuseTuples;
+	}
+
 	@Override
 	public boolean hasColNames()
 	{
@@ -84,7 +98,7 @@ public class CsvReader implements TupleReader
 	{
 		if (!hasHeader) return null;
 
-		if (colNamesMap == null) colNamesMap = toColNamesMap(csvReader.readNext());
+		if (colNamesMap == null) colNamesMap = readColNamesMap();
 		return colNamesMap != null ? colNamesMap.keySet().iterator() : null;
 	}
 
@@ -94,8 +108,10 @@ public class CsvReader implements TupleReader
 		try
 		{
 			// create column header index once and reuse
-			final Map<String, Integer> colNamesMap = hasHeader ? (this.colNamesMap == null ? toColNamesMap(csvReader
-					.readNext()) : this.colNamesMap) : null;
+			final Map<String, Integer> colNamesMap = hasHeader ? (this.colNamesMap == null ? readColNamesMap()
+					: this.colNamesMap) : null;
+			final CsvRowTuple row = new CsvRowTuple(csvParser, colNamesMap, cellProcessors);
+			final boolean reuseTuples = this.reuseTuples;
 
 			return new Iterator<Tuple>()
 			{
@@ -122,27 +138,16 @@ public class CsvReader implements TupleReader
 					{
 						try
 						{
-
-							String[] values = csvReader.readNext();
-							if (values != null)
+							if (csvParser.next())
 							{
-								for (int i = 0; i < values.length; ++i)
-								{
-									// subsequent separators indicate null
-									// values instead of empty strings
-									String value = values[i].isEmpty() ? null : values[i];
-									values[i] = processCell(value, false);
-								}
-								if (colNamesMap != null) next = new ValueIndexTuple(colNamesMap, Arrays.asList(values));
-								else
-									next = new ValueTuple(Arrays.asList(values));
+								row.nextRow();
+								next = reuseTuples ? row : row.copy();
 							}
 							else
 							{
 								next = null;
 							}
 							getNext = false;
-
 						}
 						catch (IOException e)
 						{
@@ -165,16 +170,18 @@ public class CsvReader implements TupleReader
 		}
 	}
 
-	private Map<String, Integer> toColNamesMap(String[] headers)
+	private Map<String, Integer> readColNamesMap() throws IOException
 	{
-		if (headers == null) return null;
-		if (headers.length == 0) return Collections.emptyMap();
+		if (!csvParser.next()) return null;
 
-		int capacity = (int) (headers.length / 0.75) + 1;
+		int nrHeaders = csvParser.getNrCells();
+		int capacity = (int) (nrHeaders / 0.75) + 1;
 		Map<String, Integer> columnIdx = new LinkedHashMap<String, Integer>(capacity);
-		for (int i = 0; i < headers.length; ++i)
+		for (int i = 0; i < nrHeaders; ++i)
 		{
-			String header = processCell(headers[i], true);
+			// empty headers are empty strings, not null
+			String header = csvParser.getCell(i);
+			header = processCell(header != null ? header : "", true);
 			columnIdx.put(header, i);
 		}
 		return columnIdx;
@@ -188,13 +195,12 @@ public class CsvReader implements TupleReader
 	@Override
 	public void addCellProcessor(CellProcessor cellProcessor)
 	{
-		if (cellProcessors == null) cellProcessors = new ArrayList<CellProcessor>();
 		cellProcessors.add(cellProcessor);
 	}
 
 	@Override
 	public void close() throws IOException
 	{
-		csvReader.close();
+		csvParser.close();
 	}
 }
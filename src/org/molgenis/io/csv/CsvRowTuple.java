@@ -0,0 +1,125 @@
+package org.molgenis.io.csv;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.molgenis.io.processor.AbstractCellProcessor;
+import org.molgenis.io.processor.CellProcessor;
+import org.molgenis.util.tuple.AbstractTuple;
+import org.molgenis.util.tuple.Tuple;
+import org.molgenis.util.tuple.ValueIndexTuple;
+import org.molgenis.util.tuple.ValueTuple;
+
+/**
+ * Mutable tuple that is a view on the current record of a {@link CsvReader}.
+ * All rows of a reader share one instance and one column names index. Cells
+ * are converted to strings and run through the cell processors on first
+ * access, so columns that are never read cost nothing.
+ * <p>
+ * The values change when the reader moves to the next row; use {@link #copy()}
+ * to keep a row.
+ *
+ * @see CsvReader#setReuseTuples(boolean)
+ */
+public class CsvRowTuple extends AbstractTuple
+{
+	private static final long serialVersionUID = 1L;
+
+	private final transient CsvParser parser;
+	/** column names index, null if the reader has no header */
+	private final transient Map<String, Integer> colNamesMap;
+	private final transient List<CellProcessor> cellProcessors;
+
+	/** processed values of the current row */
+	private transient String[] values = new String[0];
+	/** row number at which each value was processed */
+	private transient int[] valueRowNrs = new int[0];
+	private transient int rowNr = 0;
+
+	CsvRowTuple(CsvParser parser, Map<String, Integer> colNamesMap, List<CellProcessor> cellProcessors)
+	{
+		this.parser = parser;
+		this.colNamesMap = colNamesMap;
+		this.cellProcessors = cellProcessors;
+	}
+
+	/**
+	 * Called by the reader after the parser moved to the next record
+	 */
+	void nextRow()
+	{
+		++rowNr;
+		int nrCols = parser.getNrCells();
+		if (nrCols > values.length)
+		{
+			values = new String[nrCols];
+			valueRowNrs = new int[nrCols];
+		}
+	}
+
+	@Override
+	public int getNrCols()
+	{
+		return parser.getNrCells();
+	}
+
+	@Override
+	public boolean hasColNames()
+	{
+		return colNamesMap != null;
+	}
+
+	@Override
+	public Iterable<String> getColNames()
+	{
+		if (colNamesMap == null) throw new UnsupportedOperationException();
+		return Collections.unmodifiableSet(colNamesMap.keySet());
+	}
+
+	@Override
+	public Object get(String colName)
+	{
+		if (colNamesMap == null) throw new UnsupportedOperationException();
+		Integer pos = colNamesMap.get(colName);
+		if (pos == null) return null;
+		if (pos >= parser.getNrCells()) throw new IndexOutOfBoundsException("missing required value for column "
+				+ colName);
+		return get(pos.intValue());
+	}
+
+	@Override
+	public Object get(int col)
+	{
+		if (col < 0 || col >= parser.getNrCells()) throw new IndexOutOfBoundsException("Index: " + col + ", Size: "
+				+ parser.getNrCells());
+		if (valueRowNrs[col] != rowNr)
+		{
+			values[col] = AbstractCellProcessor.processCell(parser.getCell(col), false, cellProcessors);
+			valueRowNrs[col] = rowNr;
+		}
+		return values[col];
+	}
+
+	/**
+	 * Returns an immutable copy of the current row with all cells processed
+	 */
+	public Tuple copy()
+	{
+		int nrCols = parser.getNrCells();
+		String[] copy = new String[nrCols];
+		for (int i = 0; i < nrCols; ++i)
+			copy[i] = (String) get(i);
+		List<String> copyValues = Arrays.asList(copy);
+		return colNamesMap != null ? new ValueIndexTuple(colNamesMap, copyValues) : new ValueTuple(copyValues);
+	}
+
+	/**
+	 * Serializes a copy, the parser this tuple reads from is not serializable
+	 */
+	private Object writeReplace()
+	{
+		return copy();
+	}
+}
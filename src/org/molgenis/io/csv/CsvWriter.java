@@ -6,6 +6,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.io.Writer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
@@ -17,17 +18,49 @@ import org.molgenis.io.processor.CellProcessor;
 import org.molgenis.util.ListEscapeUtils;
 import org.molgenis.util.tuple.Tuple;
 
+/**
+ * Comma-Separated Values writer
+ * <p>
+ * Rows are written to a reusable buffer that is flushed to the underlying
+ * writer every {@link #setFlushInterval(int) flush interval} rows, when it is
+ * full and on {@link #close()}. By default every cell is quoted and every row
+ * is flushed. Large exports should disable both with
+ * {@link #setQuoteAll(boolean)} and {@link #setFlushInterval(int)}, so that
+ * only cells that contain a separator, quote or line break are quoted and
+ * the writer is not flushed after each row, which on servlet output streams
+ * means a chunked write per row.
+ * 
+ * @see <a href="http://tools.ietf.org/html/rfc4180">RFC 4180</a>
+ */
 public class CsvWriter implements TupleWriter
 {
 	private static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
 
 	public static final char DEFAULT_SEPARATOR = ',';
 
-	private final au.com.bytecode.opencsv.CSVWriter csvWriter;
+	/** flush interval for large exports */
+	public static final int DEFAULT_EXPORT_FLUSH_INTERVAL = 1000;
+
+	private static final int BUFFER_SIZE = 65536;
+
+	private final Writer writer;
+	private final char separator;
+	/** characters of the rows that are not yet written */
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private int pos = 0;
+
+	/** quote all cells instead of only the cells that need quotes */
+	private boolean quoteAll = true;
+	/** number of rows after which the writer is flushed, 0 is never */
+	private int flushInterval = 1;
+	private int nrUnflushedRows = 0;
+
 	/** process cells before writing */
 	private List<CellProcessor> cellProcessors;
 
 	private List<String> cachedColNames;
+	/** values of the row that is written */
+	private String[] values = new String[0];
 
 	public CsvWriter(Writer writer)
 	{
@@ -37,7 +70,8 @@ public class CsvWriter implements TupleWriter
 	public CsvWriter(Writer writer, char separator)
 	{
 		if (writer == null) throw new IllegalArgumentException("writer is null");
-		this.csvWriter = new au.com.bytecode.opencsv.CSVWriter(writer, separator);
+		this.writer = writer;
+		this.separator = separator;
 	}
 
 	public CsvWriter(OutputStream os)
@@ -60,6 +94,26 @@ public class CsvWriter implements TupleWriter
 		this(new OutputStreamWriter(new FileOutputStream(file), DEFAULT_CHARSET), separator);
 	}
 
+	/**
+	 * Whether all cells are quoted (default) or only the cells that contain a
+	 * separator, quote or line break
+	 */
+	public void setQuoteAll(boolean quoteAll)
+	{
+		this.quoteAll = quoteAll;
+	}
+
+	/**
+	 * Number of rows after which the written rows are flushed and checked for
+	 * errors, default 1. With 0 rows are only flushed when the buffer is full
+	 * and on close.
+	 */
+	public void setFlushInterval(int flushInterval)
+	{
+		if (flushInterval < 0) throw new IllegalArgumentException("flushInterval must not be negative");
+		this.flushInterval = flushInterval;
+	}
+
 	@Override
 	public void writeColNames(Iterable<String> colNames) throws IOException
 	{
@@ -74,8 +128,7 @@ public class CsvWriter implements TupleWriter
 			}
 
 			// write column names
-			this.csvWriter.writeNext(processedColNames.toArray(new String[0]));
-			if (this.csvWriter.checkError()) throw new IOException();
+			writeRow(processedColNames.toArray(new String[0]), processedColNames.size());
 
 			// store filtered column names
 			cachedColNames = processedColNames;
@@ -85,24 +138,25 @@ public class CsvWriter implements TupleWriter
 	@Override
 	public void write(Tuple tuple) throws IOException
 	{
-		String[] values;
+		int nrValues;
 		if (cachedColNames != null)
 		{
 			if (!tuple.hasColNames()) throw new IllegalArgumentException("tuple has no column names");
+			nrValues = cachedColNames.size();
+			if (values.length < nrValues) values = new String[nrValues];
 			int i = 0;
-			values = new String[cachedColNames.size()];
 			for (String colName : cachedColNames)
 				values[i++] = toValue(tuple.get(colName));
 		}
 		else
 		{
-			values = new String[tuple.getNrCols()];
-			for (int i = 0; i < tuple.getNrCols(); ++i)
+			nrValues = tuple.getNrCols();
+			if (values.length < nrValues) values = new String[nrValues];
+			for (int i = 0; i < nrValues; ++i)
 				values[i] = toValue(tuple.get(i));
 		}
 
-		this.csvWriter.writeNext(values);
-		if (this.csvWriter.checkError()) throw new IOException();
+		writeRow(values, nrValues);
 	}
 
 	@Override
@@ -112,10 +166,131 @@ public class CsvWriter implements TupleWriter
 		cellProcessors.add(cellProcessor);
 	}
 
+	/**
+	 * Writes the buffered rows to the underlying writer and flushes it
+	 * 
+	 * @throws IOException
+	 */
+	public void flush() throws IOException
+	{
+		writeBuffer();
+		writer.flush();
+		checkError();
+		nrUnflushedRows = 0;
+	}
+
 	@Override
 	public void close() throws IOException
 	{
-		this.csvWriter.close();
+		try
+		{
+			writeBuffer();
+		}
+		finally
+		{
+			writer.close();
+		}
+		checkError();
+	}
+
+	private void writeRow(String[] values, int nrValues) throws IOException
+	{
+		for (int i = 0; i < nrValues; ++i)
+		{
+			if (i > 0) append(separator);
+			// null values are written as empty cells
+			if (values[i] != null) writeCell(values[i]);
+		}
+		append('\n');
+
+		if (flushInterval > 0 && ++nrUnflushedRows >= flushInterval) flush();
+	}
+
+	private void writeCell(String value) throws IOException
+	{
+		boolean hasQuotes = value.indexOf('"') != -1;
+		if (!quoteAll && !hasQuotes && !needsQuotes(value))
+		{
+			append(value);
+		}
+		else
+		{
+			append('"');
+			if (hasQuotes) appendEscaped(value);
+			else
+				append(value);
+			append('"');
+		}
+	}
+
+	private boolean needsQuotes(String value)
+	{
+		for (int i = 0; i < value.length(); ++i)
+		{
+			char c = value.charAt(i);
+			if (c == separator || c == '\n' || c == '\r') return true;
+		}
+		return false;
+	}
+
+	private void append(char c) throws IOException
+	{
+		if (pos == buffer.length) writeBuffer();
+		buffer[pos++] = c;
+	}
+
+	private void append(String str) throws IOException
+	{
+		append(str, 0, str.length());
+	}
+
+	private void append(String str, int start, int end) throws IOException
+	{
+		int length = end - start;
+		if (length > buffer.length - pos)
+		{
+			writeBuffer();
+			if (length > buffer.length)
+			{
+				writer.write(str, start, length);
+				return;
+			}
+		}
+		str.getChars(start, end, buffer, pos);
+		pos += length;
+	}
+
+	/**
+	 * Appends the value with its quotes doubled
+	 */
+	private void appendEscaped(String value) throws IOException
+	{
+		int start = 0;
+		for (int end = value.indexOf('"'); end != -1; end = value.indexOf('"', end + 1))
+		{
+			append(value, start, end + 1);
+			append('"');
+			start = end + 1;
+		}
+		append(value, start, value.length());
+	}
+
+	private void writeBuffer() throws IOException
+	{
+		if (pos > 0)
+		{
+			writer.write(buffer, 0, pos);
+			pos = 0;
+		}
+	}
+
+	/**
+	 * PrintWriters, e.g. of servlet responses, do not throw exceptions
+	 */
+	private void checkError() throws IOException
+	{
+		if (writer instanceof PrintWriter && ((PrintWriter) writer).checkError()) throw new IOException(
+				"error writing csv");
 	}
 
 	private String toValue(Object obj)
@@ -0,0 +1,664 @@
+package org.molgenis.io.csv;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.molgenis.io.TupleReader;
+import org.molgenis.io.processor.AbstractCellProcessor;
+import org.molgenis.io.processor.CellProcessor;
+import org.molgenis.util.tuple.Tuple;
+
+/**
+ * Comma-Separated Values reader that parses a UTF-8 file on multiple threads.
+ * <p>
+ * One thread scans the bytes of the file for record boundaries, with the same
+ * quote-aware state machine as {@link CsvParser} so that line breaks in quoted
+ * cells are skipped, and splits the file into chunks of about
+ * {@link #setChunkSize(int)} bytes. A pool of worker threads parses the chunks
+ * into batches of tuples and hands them to the consumer through a bounded
+ * queue, so parsing runs ahead of the consumer but not further than
+ * {@link #setQueueSize(int)} batches. Batches are delivered in file order
+ * unless {@link #setOrdered(boolean)} is disabled.
+ * <p>
+ * Batches can be taken with {@link #nextBatch()}, also from several consumer
+ * threads, or one tuple at a time with {@link #iterator()}. Cell processors
+ * are applied on the worker threads and must therefore be thread-safe.
+ */
+public class ParallelCsvReader implements TupleReader
+{
+	private static final Logger logger = Logger.getLogger(ParallelCsvReader.class);
+
+	private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
+
+	public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+	/** marks the end of the chunks and the batches */
+	private static final Chunk LAST_CHUNK = new Chunk(-1, -1, -1);
+	private static final Batch LAST_BATCH = new Batch(-1, null, null);
+
+	private final File file;
+	private final char separator;
+	private final boolean hasHeader;
+	private final int nrThreads;
+
+	private boolean ordered = true;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private int queueSize;
+
+	/** process cells after reading */
+	private final List<CellProcessor> cellProcessors = new ArrayList<CellProcessor>();
+	/** column names index, null if the file has no header or is empty */
+	private Map<String, Integer> colNamesMap;
+	/** offset of the first data record */
+	private long dataStart = -1;
+
+	private ExecutorService executor;
+	private BlockingQueue<Batch> batches;
+	/** index of the chunk whose batch is queued next in ordered mode */
+	private int nextBatchIndex = 0;
+	private final Object batchLock = new Object();
+	private volatile boolean closed = false;
+
+	public ParallelCsvReader(File file)
+	{
+		this(file, CsvReader.DEFAULT_SEPARATOR);
+	}
+
+	public ParallelCsvReader(File file, char separator)
+	{
+		this(file, separator, true);
+	}
+
+	public ParallelCsvReader(File file, char separator, boolean hasHeader)
+	{
+		this(file, separator, hasHeader, Runtime.getRuntime().availableProcessors());
+	}
+
+	public ParallelCsvReader(File file, char separator, boolean hasHeader, int nrThreads)
+	{
+		if (file == null) throw new IllegalArgumentException("file is null");
+		if (separator >= 0x80 || separator == '"' || separator == '\n' || separator == '\r') throw new IllegalArgumentException(
+				"invalid separator: " + separator);
+		if (nrThreads < 1) throw new IllegalArgumentException("nrThreads must be larger than zero");
+		this.file = file;
+		this.separator = separator;
+		this.hasHeader = hasHeader;
+		this.nrThreads = nrThreads;
+		this.queueSize = 2 * nrThreads;
+	}
+
+	/**
+	 * Whether batches are delivered in file order (default) or as soon as they
+	 * are parsed. Must be set before reading.
+	 */
+	public void setOrdered(boolean ordered)
+	{
+		checkNotStarted();
+		this.ordered = ordered;
+	}
+
+	/**
+	 * Number of bytes after which a chunk ends at the next record boundary.
+	 * Must be set before reading.
+	 */
+	public void setChunkSize(int chunkSize)
+	{
+		checkNotStarted();
+		if (chunkSize < 1) throw new IllegalArgumentException("chunkSize must be larger than zero");
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Maximum number of parsed batches waiting for the consumer. Must be set
+	 * before reading.
+	 */
+	public void setQueueSize(int queueSize)
+	{
+		checkNotStarted();
+		if (queueSize < 1) throw new IllegalArgumentException("queueSize must be larger than zero");
+		this.queueSize = queueSize;
+	}
+
+	@Override
+	public boolean hasColNames()
+	{
+		return hasHeader;
+	}
+
+	@Override
+	public synchronized Iterator<String> colNamesIterator() throws IOException
+	{
+		if (!hasHeader) return null;
+
+		readHeader();
+		return colNamesMap != null ? colNamesMap.keySet().iterator() : null;
+	}
+
+	@Override
+	public synchronized void addCellProcessor(CellProcessor cellProcessor)
+	{
+		checkNotStarted();
+		cellProcessors.add(cellProcessor);
+	}
+
+	/**
+	 * Returns the next batch of tuples, waiting for it to be parsed. Can be
+	 * called from several threads.
+	 *
+	 * @return the tuples of the next chunk, or null after the last chunk
+	 * @throws IOException
+	 *             if reading the file failed
+	 */
+	public List<Tuple> nextBatch() throws IOException
+	{
+		BlockingQueue<Batch> batches = start();
+		Batch batch;
+		try
+		{
+			batch = batches.take();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for tuples");
+		}
+		if (batch == LAST_BATCH)
+		{
+			// leave the end marker for the other consumers
+			batches.offer(LAST_BATCH);
+			return null;
+		}
+		if (batch.exception != null) throw new IOException(batch.exception.getMessage(), batch.exception);
+		return batch.tuples;
+	}
+
+	@Override
+	public Iterator<Tuple> iterator()
+	{
+		return new Iterator<Tuple>()
+		{
+			private Iterator<Tuple> batchIt = Collections.<Tuple> emptyList().iterator();
+			private boolean done = false;
+
+			@Override
+			public boolean hasNext()
+			{
+				while (!done && !batchIt.hasNext())
+				{
+					try
+					{
+						List<Tuple> batch = nextBatch();
+						if (batch != null) batchIt = batch.iterator();
+						else
+							done = true;
+					}
+					catch (IOException e)
+					{
+						throw new RuntimeException(e);
+					}
+				}
+				return !done;
+			}
+
+			@Override
+			public Tuple next()
+			{
+				if (!hasNext()) throw new NoSuchElementException();
+				return batchIt.next();
+			}
+
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Stops the worker threads
+	 */
+	@Override
+	public synchronized void close() throws IOException
+	{
+		closed = true;
+		if (executor != null)
+		{
+			executor.shutdownNow();
+			// wake up waiting consumers
+			batches.clear();
+			batches.offer(LAST_BATCH);
+		}
+	}
+
+	private void checkNotStarted()
+	{
+		if (executor != null) throw new IllegalStateException("reader already started");
+	}
+
+	/**
+	 * Reads the header and starts scanning and parsing on first use
+	 */
+	private synchronized BlockingQueue<Batch> start() throws IOException
+	{
+		if (closed) throw new IOException("reader is closed");
+		if (executor != null) return batches;
+
+		readHeader();
+
+		final BlockingQueue<Chunk> chunks = new LinkedBlockingQueue<Chunk>();
+		batches = new ArrayBlockingQueue<Batch>(queueSize);
+		executor = Executors.newFixedThreadPool(nrThreads + 1, new ThreadFactory()
+		{
+			private final AtomicInteger threadNr = new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "ParallelCsvReader-" + file.getName() + "-"
+						+ threadNr.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				scan(chunks);
+			}
+		});
+		final AtomicInteger nrRunningWorkers = new AtomicInteger(nrThreads);
+		for (int i = 0; i < nrThreads; ++i)
+		{
+			executor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						parseChunks(chunks);
+					}
+					catch (InterruptedException e)
+					{
+						// reader closed
+					}
+					finally
+					{
+						// the last worker ends the batches, also if it failed
+						if (nrRunningWorkers.decrementAndGet() == 0) putLastBatch();
+					}
+				}
+			});
+		}
+		return batches;
+	}
+
+	private void readHeader() throws IOException
+	{
+		if (dataStart != -1) return;
+		if (!hasHeader)
+		{
+			dataStart = 0;
+			return;
+		}
+
+		RecordScanner scanner = new RecordScanner(file, 0, separator);
+		try
+		{
+			dataStart = scanner.nextBoundary(0);
+		}
+		finally
+		{
+			scanner.close();
+		}
+
+		CsvParser parser = new CsvParser(new InputStreamReader(new ByteArrayInputStream(read(file, 0, dataStart)),
+				CHARSET_UTF8), separator);
+		if (parser.next())
+		{
+			int nrHeaders = parser.getNrCells();
+			Map<String, Integer> columnIdx = new LinkedHashMap<String, Integer>((int) (nrHeaders / 0.75) + 1);
+			for (int i = 0; i < nrHeaders; ++i)
+			{
+				// empty headers are empty strings, not null
+				String header = parser.getCell(i);
+				header = AbstractCellProcessor.processCell(header != null ? header : "", true, cellProcessors);
+				columnIdx.put(header, i);
+			}
+			colNamesMap = columnIdx;
+		}
+	}
+
+	/**
+	 * Splits the data records into chunks, runs on its own thread
+	 */
+	private void scan(BlockingQueue<Chunk> chunks)
+	{
+		int index = 0;
+		try
+		{
+			RecordScanner scanner = new RecordScanner(file, dataStart, separator);
+			try
+			{
+				long length = file.length();
+				long start = dataStart;
+				while (start < length && !closed)
+				{
+					long end = scanner.nextBoundary(start + chunkSize);
+					chunks.put(new Chunk(index++, start, end));
+					start = end;
+				}
+			}
+			finally
+			{
+				scanner.close();
+			}
+		}
+		catch (IOException e)
+		{
+			logger.error("scanning " + file.getName() + " failed: " + e.getMessage());
+			chunks.offer(new Chunk(index, e));
+		}
+		catch (InterruptedException e)
+		{
+			// reader closed
+		}
+		chunks.offer(LAST_CHUNK);
+	}
+
+	/**
+	 * Parses chunks into batches until all chunks are parsed, runs on the
+	 * worker threads
+	 */
+	private void parseChunks(BlockingQueue<Chunk> chunks) throws InterruptedException
+	{
+		while (true)
+		{
+			Chunk chunk = chunks.take();
+			if (chunk == LAST_CHUNK)
+			{
+				// leave the end marker for the other workers
+				chunks.put(LAST_CHUNK);
+				return;
+			}
+
+			Batch batch;
+			if (chunk.exception != null)
+			{
+				batch = new Batch(chunk.index, null, chunk.exception);
+			}
+			else
+			{
+				try
+				{
+					batch = new Batch(chunk.index, parse(chunk), null);
+				}
+				catch (IOException e)
+				{
+					logger.error("parsing " + file.getName() + " failed: " + e.getMessage());
+					batch = new Batch(chunk.index, null, e);
+				}
+				catch (RuntimeException e)
+				{
+					// e.g. thrown by a cell processor, the batch must still be
+					// queued or ordered workers and consumers wait forever
+					logger.error("parsing " + file.getName() + " failed: " + e.getMessage());
+					batch = new Batch(chunk.index, null, new IOException(e.getMessage(), e));
+				}
+			}
+			queue(batch);
+		}
+	}
+
+	/**
+	 * Queues the end marker after all batches, unless the reader is closed
+	 */
+	private void putLastBatch()
+	{
+		if (closed) return;
+		try
+		{
+			batches.put(LAST_BATCH);
+		}
+		catch (InterruptedException e)
+		{
+			// reader closed
+		}
+	}
+
+	private List<Tuple> parse(Chunk chunk) throws IOException
+	{
+		CsvParser parser = new CsvParser(new InputStreamReader(new ByteArrayInputStream(read(file, chunk.start,
+				chunk.end)), CHARSET_UTF8), separator);
+		CsvRowTuple row = new CsvRowTuple(parser, colNamesMap, cellProcessors);
+		List<Tuple> tuples = new ArrayList<Tuple>();
+		while (parser.next())
+		{
+			row.nextRow();
+			tuples.add(row.copy());
+		}
+		return tuples;
+	}
+
+	/**
+	 * Queues a batch, in ordered mode after the batches of the preceding
+	 * chunks. Chunks are taken in order, so the chunk the others wait for is
+	 * always being parsed.
+	 */
+	private void queue(Batch batch) throws InterruptedException
+	{
+		if (!ordered)
+		{
+			batches.put(batch);
+			return;
+		}
+		synchronized (batchLock)
+		{
+			while (nextBatchIndex != batch.index)
+				batchLock.wait();
+		}
+		batches.put(batch);
+		synchronized (batchLock)
+		{
+			++nextBatchIndex;
+			batchLock.notifyAll();
+		}
+	}
+
+	private static byte[] read(File file, long start, long end) throws IOException
+	{
+		long length = end - start;
+		if (length > Integer.MAX_VALUE) throw new IOException("record too large at offset " + start);
+		byte[] bytes = new byte[(int) length];
+		FileInputStream in = new FileInputStream(file);
+		try
+		{
+			FileChannel channel = in.getChannel();
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			while (buffer.hasRemaining())
+			{
+				if (channel.read(buffer, start + buffer.position()) < 0) throw new IOException(
+						"unexpected end of file at offset " + (start + buffer.position()));
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		return bytes;
+	}
+
+	/** byte range of a file that contains whole records */
+	private static class Chunk
+	{
+		final int index;
+		final long start;
+		final long end;
+		final IOException exception;
+
+		Chunk(int index, long start, long end)
+		{
+			this.index = index;
+			this.start = start;
+			this.end = end;
+			this.exception = null;
+		}
+
+		Chunk(int index, IOException exception)
+		{
+			this.index = index;
+			this.start = -1;
+			this.end = -1;
+			this.exception = exception;
+		}
+	}
+
+	/** parsed tuples of a chunk */
+	private static class Batch
+	{
+		final int index;
+		final List<Tuple> tuples;
+		final IOException exception;
+
+		Batch(int index, List<Tuple> tuples, IOException exception)
+		{
+			this.index = index;
+			this.tuples = tuples;
+			this.exception = exception;
+		}
+	}
+
+	/**
+	 * Finds record boundaries in the bytes of a file. Tracks quoted cells like
+	 * {@link CsvParser} does, which is safe on UTF-8 bytes because quotes,
+	 * line breaks and ASCII separators never occur inside multi-byte
+	 * characters.
+	 */
+	static class RecordScanner
+	{
+		private static final int CELL_START = 0;
+		private static final int UNQUOTED = 1;
+		private static final int QUOTED = 2;
+		private static final int QUOTE_IN_QUOTED = 3;
+
+		private final FileInputStream in;
+		private final byte separator;
+		private final byte[] buffer = new byte[1024 * 1024];
+		private int pos = 0;
+		private int limit = 0;
+		/** file offset of buffer[0] */
+		private long bufferOffset;
+		private int state = CELL_START;
+
+		RecordScanner(File file, long offset, char separator) throws IOException
+		{
+			this.in = new FileInputStream(file);
+			this.in.getChannel().position(offset);
+			this.bufferOffset = offset;
+			this.separator = (byte) separator;
+		}
+
+		/**
+		 * Returns the offset after the first record that ends at or after the
+		 * given offset, or the file length if no record ends there
+		 */
+		long nextBoundary(long offset) throws IOException
+		{
+			final byte[] buffer = this.buffer;
+			final byte separator = this.separator;
+			boolean carriageReturn = false;
+			while (true)
+			{
+				if (pos == limit && !fill()) return bufferOffset + pos;
+				if (carriageReturn)
+				{
+					// \r\n or \r
+					if (buffer[pos] == '\n') ++pos;
+					return bufferOffset + pos;
+				}
+
+				byte b = buffer[pos++];
+				switch (state)
+				{
+					case QUOTED:
+						// skip to the closing or escaping quote
+						while (b != '"' && pos < limit)
+							b = buffer[pos++];
+						if (b == '"') state = QUOTE_IN_QUOTED;
+						continue;
+					case UNQUOTED:
+						while (b != separator && b != '\n' && b != '\r' && pos < limit)
+							b = buffer[pos++];
+						break;
+					default:
+						// opening quote or escaped quote
+						if (b == '"')
+						{
+							state = QUOTED;
+							continue;
+						}
+						break;
+				}
+
+				if (b == separator)
+				{
+					state = CELL_START;
+				}
+				else if (b == '\n' || b == '\r')
+				{
+					state = CELL_START;
+					if (bufferOffset + pos > offset)
+					{
+						if (b == '\n') return bufferOffset + pos;
+						carriageReturn = true;
+					}
+				}
+				else
+				{
+					state = UNQUOTED;
+				}
+			}
+		}
+
+		void close() throws IOException
+		{
+			in.close();
+		}
+
+		private boolean fill() throws IOException
+		{
+			bufferOffset += limit;
+			pos = 0;
+			int n;
+			do
+				n = in.read(buffer);
+			while (n == 0);
+			limit = n > 0 ? n : 0;
+			return n > 0;
+		}
+	}
+}
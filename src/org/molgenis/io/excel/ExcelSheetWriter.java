@@ -5,15 +5,23 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
 import org.molgenis.io.TupleWriter;
 import org.molgenis.io.processor.AbstractCellProcessor;
 import org.molgenis.io.processor.CellProcessor;
 import org.molgenis.util.ListEscapeUtils;
 import org.molgenis.util.tuple.Tuple;
 
+/**
+ * Writes tuples to the rows of a sheet. Any number of tuples can be written up
+ * to the maximum number of rows of the workbook format, a sheet of a streaming
+ * {@link ExcelWriter} only keeps the last rows in memory.
+ */
 public class ExcelSheetWriter implements TupleWriter
 {
 	private final org.apache.poi.ss.usermodel.Sheet sheet;
+	private final CellStyle headerStyle;
+	private final int maxRows;
 	private int row;
 
 	/** process cells after reading */
@@ -21,11 +29,14 @@ public class ExcelSheetWriter implements TupleWriter
 
 	private List<String> cachedColNames;
 
-	ExcelSheetWriter(org.apache.poi.ss.usermodel.Sheet sheet, List<CellProcessor> cellProcessors)
+	ExcelSheetWriter(org.apache.poi.ss.usermodel.Sheet sheet, List<CellProcessor> cellProcessors,
+			CellStyle headerStyle, int maxRows)
 	{
 		if (sheet == null) throw new IllegalArgumentException("sheet is null");
 		this.sheet = sheet;
 		this.cellProcessors = cellProcessors;
+		this.headerStyle = headerStyle;
+		this.maxRows = maxRows;
 		this.row = 0;
 	}
 
@@ -34,7 +45,7 @@ public class ExcelSheetWriter implements TupleWriter
 	{
 		if (cachedColNames == null)
 		{
-			org.apache.poi.ss.usermodel.Row poiRow = sheet.createRow(row++);
+			org.apache.poi.ss.usermodel.Row poiRow = createRow();
 
 			// write header
 			int i = 0;
@@ -44,6 +55,7 @@ public class ExcelSheetWriter implements TupleWriter
 				// process column name
 				Cell cell = poiRow.createCell(i++, Cell.CELL_TYPE_STRING);
 				cell.setCellValue(AbstractCellProcessor.processCell(colName, true, this.cellProcessors));
+				if (headerStyle != null) cell.setCellStyle(headerStyle);
 				processedColNames.add(colName);
 			}
 
@@ -55,7 +67,7 @@ public class ExcelSheetWriter implements TupleWriter
 	@Override
 	public void write(Tuple tuple) throws IOException
 	{
-		org.apache.poi.ss.usermodel.Row poiRow = sheet.createRow(row++);
+		org.apache.poi.ss.usermodel.Row poiRow = createRow();
 
 		if (cachedColNames != null)
 		{
@@ -92,6 +104,13 @@ public class ExcelSheetWriter implements TupleWriter
 		// noop
 	}
 
+	private org.apache.poi.ss.usermodel.Row createRow() throws IOException
+	{
+		if (row >= maxRows) throw new IOException("sheet '" + sheet.getSheetName() + "' exceeds the maximum of "
+				+ maxRows + " rows");
+		return sheet.createRow(row++);
+	}
+
 	private String toValue(Object obj)
 	{
 		String value;
@@ -5,23 +5,48 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.log4j.Logger;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.streaming.SheetDataWriter;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.molgenis.io.TableWriter;
 import org.molgenis.io.TupleWriter;
 import org.molgenis.io.processor.CellProcessor;
 
+/**
+ * Writes tables to the sheets of an Excel workbook. By default the whole
+ * workbook is kept in memory until the writer is closed. A streaming writer (
+ * {@link #ExcelWriter(OutputStream, int, boolean)}) writes Excel 2007 files
+ * and keeps only the last rows of each sheet in memory, rows before the row
+ * access window are flushed to temporary files, which are deleted on
+ * {@link #close()}. Use it for large exports.
+ */
 public class ExcelWriter implements TableWriter
 {
+	private static final Logger logger = Logger.getLogger(ExcelWriter.class);
+
+	/** number of rows per sheet a streaming writer keeps in memory */
+	public static final int DEFAULT_ROW_ACCESS_WINDOW = SXSSFWorkbook.DEFAULT_WINDOW_SIZE;
+
 	private final Workbook workbook;
 	private final OutputStream os;
+	private final int maxRows;
 
 	/** process cells after reading */
 	private List<CellProcessor> cellProcessors;
+	/** style shared by the header cells of all sheets */
+	private CellStyle headerStyle;
 
 	public enum FileFormat
 	{
@@ -38,7 +63,36 @@ public class ExcelWriter implements TableWriter
 		if (os == null) throw new IllegalArgumentException("output stream is null");
 		if (format == null) throw new IllegalArgumentException("format is null");
 		this.os = os;
-		this.workbook = format == FileFormat.XLS ? new HSSFWorkbook() : new XSSFWorkbook();
+		if (format == FileFormat.XLS)
+		{
+			this.workbook = new HSSFWorkbook();
+			this.maxRows = SpreadsheetVersion.EXCEL97.getMaxRows();
+		}
+		else
+		{
+			this.workbook = new XSSFWorkbook();
+			this.maxRows = SpreadsheetVersion.EXCEL2007.getMaxRows();
+		}
+	}
+
+	/**
+	 * Creates a streaming Excel 2007 writer
+	 * 
+	 * @param os
+	 * @param rowAccessWindow
+	 *            number of rows per sheet kept in memory
+	 * @param compressTempFiles
+	 *            whether to gzip the temporary files of flushed rows
+	 */
+	public ExcelWriter(OutputStream os, int rowAccessWindow, boolean compressTempFiles)
+	{
+		if (os == null) throw new IllegalArgumentException("output stream is null");
+		if (rowAccessWindow < 1) throw new IllegalArgumentException("row access window must be positive");
+		this.os = os;
+		SXSSFWorkbook sxssfWorkbook = new SXSSFWorkbook(rowAccessWindow);
+		sxssfWorkbook.setCompressTempFiles(compressTempFiles);
+		this.workbook = sxssfWorkbook;
+		this.maxRows = SpreadsheetVersion.EXCEL2007.getMaxRows();
 	}
 
 	public ExcelWriter(File file) throws FileNotFoundException
@@ -51,11 +105,16 @@ public class ExcelWriter implements TableWriter
 		this(new FileOutputStream(file), format);
 	}
 
+	public ExcelWriter(File file, int rowAccessWindow, boolean compressTempFiles) throws FileNotFoundException
+	{
+		this(new FileOutputStream(file), rowAccessWindow, compressTempFiles);
+	}
+
 	@Override
 	public TupleWriter createTupleWriter(String tableName) throws IOException
 	{
 		org.apache.poi.ss.usermodel.Sheet poiSheet = this.workbook.createSheet(tableName);
-		return new ExcelSheetWriter(poiSheet, cellProcessors);
+		return new ExcelSheetWriter(poiSheet, cellProcessors, getHeaderStyle(), maxRows);
 	}
 
 	public void addCellProcessor(CellProcessor cellProcessor)
@@ -73,7 +132,61 @@ public class ExcelWriter implements TableWriter
 		}
 		finally
 		{
-			this.os.close();
+			try
+			{
+				this.os.close();
+			}
+			finally
+			{
+				deleteTempFiles();
+			}
+		}
+	}
+
+	/**
+	 * Deletes the temporary files of the sheets of a streaming writer, as
+	 * SXSSFWorkbook.dispose() of later POI versions does. POI 3.8 creates them
+	 * in java.io.tmpdir and only deletes them on exit of the JVM or when the
+	 * sheet is garbage collected. The sheet data writers and their files are
+	 * not accessible in POI 3.8, so they are looked up through reflection.
+	 */
+	private void deleteTempFiles()
+	{
+		if (!(workbook instanceof SXSSFWorkbook)) return;
+		for (int i = 0; i < workbook.getNumberOfSheets(); i++)
+		{
+			try
+			{
+				Sheet sheet = workbook.getSheetAt(i);
+				Field writerField = sheet.getClass().getDeclaredField("_writer");
+				writerField.setAccessible(true);
+				SheetDataWriter writer = (SheetDataWriter) writerField.get(sheet);
+				writer.close();
+				Method getTempFile = SheetDataWriter.class.getDeclaredMethod("getTempFile");
+				getTempFile.setAccessible(true);
+				File tempFile = (File) getTempFile.invoke(writer);
+				if (tempFile.exists() && !tempFile.delete()) logger.warn("failed to delete " + tempFile);
+			}
+			catch (Exception e)
+			{
+				logger.warn("failed to delete the temporary file of sheet " + i + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Returns the header cell style, created once per workbook because the
+	 * number of styles in a workbook is limited
+	 */
+	private CellStyle getHeaderStyle()
+	{
+		if (headerStyle == null)
+		{
+			Font font = workbook.createFont();
+			font.setBoldweight(Font.BOLDWEIGHT_BOLD);
+			headerStyle = workbook.createCellStyle();
+			headerStyle.setFont(font);
 		}
+		return headerStyle;
 	}
 }
@@ -0,0 +1,308 @@
+package org.molgenis.io.excel;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.molgenis.io.TableReader;
+import org.molgenis.io.TupleReader;
+import org.molgenis.io.processor.CellProcessor;
+import org.xml.sax.SAXException;
+
+/**
+ * Excel 2007 (.xlsx) reader that streams the rows of a sheet instead of
+ * loading the whole workbook like {@link ExcelReader}. The sheets are read
+ * with {@link XSSFReader} and parsed one row at a time, so memory use does not
+ * grow with the number of rows. Only the shared strings table and the cell
+ * styles are kept in memory.
+ * <p>
+ * Formula cells are read from the value Excel cached for them, they are not
+ * evaluated.
+ */
+public class StreamingExcelReader implements TableReader, Closeable
+{
+	private static final String RELATIONSHIPS_NAMESPACE = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+	private final OPCPackage pkg;
+	private final XSSFReader xssfReader;
+	private final boolean hasHeader;
+
+	private final ReadOnlySharedStringsTable sharedStrings;
+	/** per cell style whether it formats numbers as dates */
+	private final boolean[] dateStyles;
+	private final boolean date1904;
+	/** sheet names and relationship ids in workbook order */
+	private final List<String> sheetNames = new ArrayList<String>();
+	private final Map<String, String> sheetRelIds = new HashMap<String, String>();
+
+	/** process cells after reading */
+	private List<CellProcessor> cellProcessors;
+
+	public StreamingExcelReader(File file) throws IOException
+	{
+		this(file, true);
+	}
+
+	public StreamingExcelReader(File file, boolean hasHeader) throws IOException
+	{
+		if (file == null) throw new IllegalArgumentException("file is null");
+		this.hasHeader = hasHeader;
+		try
+		{
+			this.pkg = OPCPackage.open(file.getPath(), PackageAccess.READ);
+		}
+		catch (OpenXML4JException e)
+		{
+			throw new IOException(e);
+		}
+		try
+		{
+			this.xssfReader = new XSSFReader(pkg);
+			this.sharedStrings = new ReadOnlySharedStringsTable(pkg);
+			this.date1904 = readWorkbook();
+			this.dateStyles = readDateStyles();
+		}
+		catch (OpenXML4JException e)
+		{
+			pkg.revert();
+			throw new IOException(e);
+		}
+		catch (SAXException e)
+		{
+			pkg.revert();
+			throw new IOException(e);
+		}
+		catch (XMLStreamException e)
+		{
+			pkg.revert();
+			throw new IOException(e);
+		}
+		catch (IOException e)
+		{
+			pkg.revert();
+			throw e;
+		}
+	}
+
+	public int getNumberOfSheets()
+	{
+		return sheetNames.size();
+	}
+
+	public String getSheetName(int i)
+	{
+		return sheetNames.get(i);
+	}
+
+	public StreamingExcelSheetReader getSheet(int i)
+	{
+		return i >= 0 && i < sheetNames.size() ? getSheet(sheetNames.get(i)) : null;
+	}
+
+	public StreamingExcelSheetReader getSheet(String sheetName)
+	{
+		String relId = sheetRelIds.get(sheetName);
+		return relId != null ? new StreamingExcelSheetReader(this, sheetName, relId, hasHeader, cellProcessors) : null;
+	}
+
+	@Override
+	public Iterator<TupleReader> iterator()
+	{
+		return new Iterator<TupleReader>()
+		{
+			private int i = 0;
+
+			@Override
+			public boolean hasNext()
+			{
+				return i < getNumberOfSheets();
+			}
+
+			@Override
+			public TupleReader next()
+			{
+				return getSheet(i++);
+			}
+
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	public void addCellProcessor(CellProcessor cellProcessor)
+	{
+		if (cellProcessors == null) cellProcessors = new ArrayList<CellProcessor>();
+		cellProcessors.add(cellProcessor);
+	}
+
+	@Override
+	public TupleReader getTupleReader(String tableName) throws IOException
+	{
+		return getSheet(tableName);
+	}
+
+	@Override
+	public Iterable<String> getTableNames() throws IOException
+	{
+		return Collections.unmodifiableList(sheetNames);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		// read only, nothing to save
+		pkg.revert();
+	}
+
+	/**
+	 * Opens the xml of a sheet
+	 */
+	InputStream openSheet(String relId) throws IOException
+	{
+		try
+		{
+			return xssfReader.getSheet(relId);
+		}
+		catch (OpenXML4JException e)
+		{
+			throw new IOException(e);
+		}
+	}
+
+	String getSharedString(int idx)
+	{
+		return sharedStrings.getEntryAt(idx);
+	}
+
+	boolean isDateStyle(int styleIdx)
+	{
+		return styleIdx >= 0 && styleIdx < dateStyles.length && dateStyles[styleIdx];
+	}
+
+	boolean isDate1904()
+	{
+		return date1904;
+	}
+
+	static XMLStreamReader createXMLStreamReader(InputStream is) throws XMLStreamException
+	{
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		return factory.createXMLStreamReader(is);
+	}
+
+	/**
+	 * Reads the sheet names and the date system of the workbook
+	 *
+	 * @return true if dates are counted from 1904
+	 */
+	private boolean readWorkbook() throws IOException, OpenXML4JException, XMLStreamException
+	{
+		boolean date1904 = false;
+		InputStream is = xssfReader.getWorkbookData();
+		try
+		{
+			XMLStreamReader reader = createXMLStreamReader(is);
+			while (reader.hasNext())
+			{
+				if (reader.next() != XMLStreamConstants.START_ELEMENT) continue;
+				String name = reader.getLocalName();
+				if (name.equals("workbookPr"))
+				{
+					String value = reader.getAttributeValue(null, "date1904");
+					date1904 = "1".equals(value) || "true".equals(value);
+				}
+				else if (name.equals("sheet"))
+				{
+					String sheetName = reader.getAttributeValue(null, "name");
+					sheetNames.add(sheetName);
+					sheetRelIds.put(sheetName, reader.getAttributeValue(RELATIONSHIPS_NAMESPACE, "id"));
+				}
+			}
+			reader.close();
+		}
+		finally
+		{
+			is.close();
+		}
+		return date1904;
+	}
+
+	/**
+	 * Reads which cell styles format numbers as dates
+	 */
+	private boolean[] readDateStyles() throws IOException, OpenXML4JException, XMLStreamException
+	{
+		InputStream is = xssfReader.getStylesData();
+		if (is == null) return new boolean[0];
+
+		Map<Integer, String> formats = new HashMap<Integer, String>();
+		List<Boolean> dateStyles = new ArrayList<Boolean>();
+		try
+		{
+			XMLStreamReader reader = createXMLStreamReader(is);
+			boolean inCellXfs = false;
+			while (reader.hasNext())
+			{
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT)
+				{
+					String name = reader.getLocalName();
+					if (name.equals("numFmt"))
+					{
+						formats.put(Integer.valueOf(reader.getAttributeValue(null, "numFmtId")),
+								reader.getAttributeValue(null, "formatCode"));
+					}
+					else if (name.equals("cellXfs"))
+					{
+						inCellXfs = true;
+					}
+					else if (name.equals("xf") && inCellXfs)
+					{
+						String numFmtId = reader.getAttributeValue(null, "numFmtId");
+						int formatIdx = numFmtId != null ? Integer.parseInt(numFmtId) : 0;
+						String format = formats.get(formatIdx);
+						if (format == null) format = BuiltinFormats.getBuiltinFormat(formatIdx);
+						dateStyles.add(DateUtil.isADateFormat(formatIdx, format));
+					}
+				}
+				else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("cellXfs"))
+				{
+					inCellXfs = false;
+				}
+			}
+			reader.close();
+		}
+		finally
+		{
+			is.close();
+		}
+
+		boolean[] isDateStyle = new boolean[dateStyles.size()];
+		for (int i = 0; i < isDateStyle.length; ++i)
+			isDateStyle[i] = dateStyles.get(i);
+		return isDateStyle;
+	}
+}
@@ -0,0 +1,459 @@
+package org.molgenis.io.excel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.molgenis.io.TupleReader;
+import org.molgenis.io.processor.AbstractCellProcessor;
+import org.molgenis.io.processor.CellProcessor;
+import org.molgenis.util.tuple.AbstractTuple;
+import org.molgenis.util.tuple.Tuple;
+
+/**
+ * Reads the rows of a sheet of a {@link StreamingExcelReader} one at a time.
+ * Each iterator parses the sheet xml from the start. Cell values are converted
+ * like {@link ExcelSheetReader} does, cell processors are applied when a value
+ * is read from a tuple.
+ */
+public class StreamingExcelSheetReader implements TupleReader
+{
+	private final StreamingExcelReader excelReader;
+	private final String name;
+	private final String relId;
+	private final boolean hasHeader;
+
+	/** process cells after reading */
+	private List<CellProcessor> cellProcessors;
+	/** column names index */
+	private Map<String, Integer> colNamesMap;
+	/** sheet xml streams opened by iterators */
+	private final List<InputStream> openStreams = new ArrayList<InputStream>();
+
+	StreamingExcelSheetReader(StreamingExcelReader excelReader, String name, String relId, boolean hasHeader,
+			List<CellProcessor> cellProcessors)
+	{
+		if (excelReader == null) throw new IllegalArgumentException("excel reader is null");
+		this.excelReader = excelReader;
+		this.name = name;
+		this.relId = relId;
+		this.hasHeader = hasHeader;
+		this.cellProcessors = cellProcessors;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	@Override
+	public boolean hasColNames()
+	{
+		return hasHeader;
+	}
+
+	@Override
+	public Iterator<String> colNamesIterator() throws IOException
+	{
+		if (!hasHeader) return null;
+
+		if (colNamesMap == null)
+		{
+			RowIterator it = new RowIterator();
+			try
+			{
+				if (!it.hasNext()) return null;
+				colNamesMap = toColNamesMap(it.next());
+			}
+			finally
+			{
+				it.close();
+			}
+		}
+		return colNamesMap.keySet().iterator();
+	}
+
+	@Override
+	public Iterator<Tuple> iterator()
+	{
+		final RowIterator it = new RowIterator();
+		if (!it.hasNext()) return Collections.<Tuple> emptyList().iterator();
+
+		// create column header index once and reuse
+		final Map<String, Integer> colNamesMap;
+		if (hasHeader)
+		{
+			String[] headerRow = it.next();
+			colNamesMap = this.colNamesMap == null ? toColNamesMap(headerRow) : this.colNamesMap;
+		}
+		else
+			colNamesMap = null;
+
+		return new Iterator<Tuple>()
+		{
+			@Override
+			public boolean hasNext()
+			{
+				return it.hasNext();
+			}
+
+			@Override
+			public Tuple next()
+			{
+				if (colNamesMap == null) return new RowTuple(it.next(), cellProcessors);
+				else
+					return new RowIndexTuple(it.next(), colNamesMap, cellProcessors);
+			}
+
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	@Override
+	public void addCellProcessor(CellProcessor cellProcessor)
+	{
+		if (cellProcessors == null) cellProcessors = new ArrayList<CellProcessor>();
+		cellProcessors.add(cellProcessor);
+	}
+
+	/**
+	 * Closes the sheet streams of unfinished iterators
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		synchronized (openStreams)
+		{
+			for (InputStream is : openStreams)
+				is.close();
+			openStreams.clear();
+		}
+	}
+
+	private Map<String, Integer> toColNamesMap(String[] headerRow)
+	{
+		Map<String, Integer> columnIdx = new LinkedHashMap<String, Integer>();
+		for (int i = 0; i < headerRow.length; ++i)
+		{
+			if (headerRow[i] == null) continue;
+			String header = AbstractCellProcessor.processCell(headerRow[i], true, cellProcessors);
+			columnIdx.put(header, i);
+		}
+		return columnIdx;
+	}
+
+	/**
+	 * Pulls the rows of the sheet xml, returns the cell values of a row by
+	 * column index
+	 */
+	private class RowIterator implements Iterator<String[]>
+	{
+		private final InputStream is;
+		private final XMLStreamReader reader;
+		private String[] next;
+		private boolean done = false;
+
+		RowIterator()
+		{
+			try
+			{
+				this.is = excelReader.openSheet(relId);
+				synchronized (openStreams)
+				{
+					openStreams.add(is);
+				}
+				this.reader = StreamingExcelReader.createXMLStreamReader(is);
+			}
+			catch (IOException e)
+			{
+				throw new RuntimeException(e);
+			}
+			catch (XMLStreamException e)
+			{
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			if (next == null && !done)
+			{
+				try
+				{
+					next = readRow();
+					if (next == null) close();
+				}
+				catch (XMLStreamException e)
+				{
+					throw new RuntimeException(e);
+				}
+				catch (IOException e)
+				{
+					throw new RuntimeException(e);
+				}
+			}
+			return next != null;
+		}
+
+		@Override
+		public String[] next()
+		{
+			if (!hasNext()) throw new NoSuchElementException();
+			String[] row = next;
+			next = null;
+			return row;
+		}
+
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		void close() throws IOException
+		{
+			done = true;
+			try
+			{
+				reader.close();
+			}
+			catch (XMLStreamException e)
+			{
+				throw new IOException(e);
+			}
+			finally
+			{
+				synchronized (openStreams)
+				{
+					openStreams.remove(is);
+				}
+				is.close();
+			}
+		}
+
+		/**
+		 * @return the next row, or null at the end of the sheet
+		 */
+		private String[] readRow() throws XMLStreamException
+		{
+			while (reader.hasNext())
+			{
+				if (reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("row")) return readCells();
+			}
+			return null;
+		}
+
+		private String[] readCells() throws XMLStreamException
+		{
+			String[] values = new String[16];
+			int nrCols = 0;
+			int col = -1;
+			while (reader.hasNext())
+			{
+				int event = reader.next();
+				if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("row")) break;
+				if (event != XMLStreamConstants.START_ELEMENT || !reader.getLocalName().equals("c")) continue;
+
+				String ref = reader.getAttributeValue(null, "r");
+				col = ref != null ? toColIdx(ref) : col + 1;
+				String value = readCell();
+				if (col >= values.length) values = Arrays.copyOf(values, Math.max(values.length * 2, col + 1));
+				values[col] = value;
+				nrCols = Math.max(nrCols, col + 1);
+			}
+			return Arrays.copyOf(values, nrCols);
+		}
+
+		/**
+		 * Reads the value of the current c element, null for a blank cell
+		 */
+		private String readCell() throws XMLStreamException
+		{
+			String type = reader.getAttributeValue(null, "t");
+			String style = reader.getAttributeValue(null, "s");
+			String ref = reader.getAttributeValue(null, "r");
+
+			String rawValue = null;
+			StringBuilder inlineValue = null;
+			int depth = 1;
+			boolean inPhonetic = false;
+			while (depth > 0)
+			{
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT)
+				{
+					++depth;
+					String name = reader.getLocalName();
+					if (name.equals("v"))
+					{
+						rawValue = reader.getElementText();
+						--depth;
+					}
+					else if (name.equals("is"))
+					{
+						inlineValue = new StringBuilder();
+					}
+					else if (name.equals("rPh"))
+					{
+						inPhonetic = true;
+					}
+					else if (name.equals("t") && inlineValue != null)
+					{
+						String text = reader.getElementText();
+						--depth;
+						if (!inPhonetic) inlineValue.append(text);
+					}
+				}
+				else if (event == XMLStreamConstants.END_ELEMENT)
+				{
+					--depth;
+					if (reader.getLocalName().equals("rPh")) inPhonetic = false;
+				}
+			}
+
+			if ("inlineStr".equals(type)) return inlineValue != null ? inlineValue.toString() : null;
+			if (rawValue == null) return null;
+			if (type == null || type.equals("n"))
+			{
+				double x = Double.parseDouble(rawValue);
+				if (style != null && excelReader.isDateStyle(Integer.parseInt(style))) return DateUtil.getJavaDate(x,
+						excelReader.isDate1904()).toString();
+				// excel stores integer values as double values
+				// read an integer if the double value equals the
+				// integer value
+				if (x == Math.rint(x) && !Double.isNaN(x) && !Double.isInfinite(x)) return String.valueOf((int) x);
+				return String.valueOf(x);
+			}
+			if (type.equals("s")) return excelReader.getSharedString(Integer.parseInt(rawValue));
+			if (type.equals("str")) return rawValue;
+			if (type.equals("b")) return String.valueOf(rawValue.equals("1"));
+			throw new RuntimeException("unsupported cell type: " + type + " in cell " + ref + " of sheet " + name);
+		}
+	}
+
+	/**
+	 * Converts a cell reference such as AB12 to a zero-based column index
+	 */
+	static int toColIdx(String ref)
+	{
+		int col = 0;
+		for (int i = 0; i < ref.length(); ++i)
+		{
+			char c = ref.charAt(i);
+			if (c < 'A' || c > 'Z') break;
+			col = col * 26 + (c - 'A' + 1);
+		}
+		return col - 1;
+	}
+
+	private static class RowTuple extends AbstractTuple
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final String[] values;
+		private final List<CellProcessor> cellProcessors;
+
+		public RowTuple(String[] values, List<CellProcessor> cellProcessors)
+		{
+			if (values == null) throw new IllegalArgumentException("values is null");
+			this.values = values;
+			this.cellProcessors = cellProcessors;
+		}
+
+		@Override
+		public int getNrCols()
+		{
+			return values.length;
+		}
+
+		@Override
+		public boolean hasColNames()
+		{
+			return false;
+		}
+
+		@Override
+		public Iterable<String> getColNames()
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Object get(String colName)
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Object get(int col)
+		{
+			return col < values.length ? AbstractCellProcessor.processCell(values[col], false, cellProcessors) : null;
+		}
+	}
+
+	private static class RowIndexTuple extends AbstractTuple
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final String[] values;
+		private final Map<String, Integer> colNamesMap;
+		private final List<CellProcessor> cellProcessors;
+
+		public RowIndexTuple(String[] values, Map<String, Integer> colNamesMap, List<CellProcessor> cellProcessors)
+		{
+			if (values == null) throw new IllegalArgumentException("values is null");
+			if (colNamesMap == null) throw new IllegalArgumentException("column names map is null");
+			this.values = values;
+			this.colNamesMap = colNamesMap;
+			this.cellProcessors = cellProcessors;
+		}
+
+		@Override
+		public int getNrCols()
+		{
+			return colNamesMap.size();
+		}
+
+		@Override
+		public boolean hasColNames()
+		{
+			return true;
+		}
+
+		@Override
+		public Iterable<String> getColNames()
+		{
+			return Collections.unmodifiableSet(colNamesMap.keySet());
+		}
+
+		@Override
+		public Object get(String colName)
+		{
+			Integer col = colNamesMap.get(colName);
+			return col != null ? get(col) : null;
+		}
+
+		@Override
+		public Object get(int col)
+		{
+			return col < values.length ? AbstractCellProcessor.processCell(values[col], false, cellProcessors) : null;
+		}
+	}
+}
@@ -70,7 +70,7 @@ public class MolgenisModelParser
 		// check for illegal words
 		String[] keywords = new String[]
 		{ "name", "label", "extends", "implements", "abstract", "description", "system", "decorator", "xref_label",
-				"allocationSize" };
+				"allocationSize", "cache", "cacheSize" };
 		List<String> key_words = new ArrayList<String>(Arrays.asList(keywords));
 		for (int i = 0; i < element.getAttributes().getLength(); i++)
 		{
@@ -136,6 +136,30 @@ public class MolgenisModelParser
 			entity.setXrefLabels(null);
 		}
 
+		// CACHE
+		if (Boolean.parseBoolean(element.getAttribute("cache")))
+		{
+			int cacheSize = Entity.DEFAULT_CACHE_SIZE;
+			if (element.hasAttribute("cacheSize"))
+			{
+				try
+				{
+					cacheSize = Integer.parseInt(element.getAttribute("cacheSize").trim());
+				}
+				catch (NumberFormatException e)
+				{
+					cacheSize = 0;
+				}
+				if (cacheSize < 1) throw new MolgenisModelException("cacheSize of entity " + entity.getName()
+						+ " must be a number larger than zero");
+			}
+			entity.setCacheSize(cacheSize);
+		}
+		else if (element.hasAttribute("cacheSize"))
+		{
+			throw new MolgenisModelException("cacheSize of entity " + entity.getName() + " requires cache=\"true\"");
+		}
+
 		// TRIGGER
 		if (element.hasAttribute("decorator"))
 		{
@@ -287,6 +311,50 @@ public class MolgenisModelParser
 			// return null;
 			throw new MolgenisModelException("Multiple indices elements");
 		}
+
+		// INDEX shorthand <index name="..." fields="field1[,field2,..]"/>
+		NodeList children = element.getChildNodes();
+		for (int j = 0; j < children.getLength(); j++)
+		{
+			if (!(children.item(j) instanceof Element)) continue;
+			Element elem = (Element) children.item(j);
+			if (!elem.getTagName().equals("index")) continue;
+			if (!elem.hasAttribute("fields") || elem.getAttribute("fields").trim().isEmpty())
+			{
+				throw new MolgenisModelException("missing fields on index of '" + entity.getName()
+						+ "'. Expected <index fields=\"field1[,field2,..]\" name=\"...\"/>");
+			}
+
+			List<String> fields = new ArrayList<String>();
+			for (String name : elem.getAttribute("fields").split(","))
+			{
+				name = name.trim();
+				if (entity.getField(name) == null)
+				{
+					throw new MolgenisModelException("Missing index field '" + name + "' in entity '"
+							+ entity.getName() + "'");
+				}
+				fields.add(name);
+			}
+
+			String name = elem.getAttribute("name").trim();
+			if (name.isEmpty())
+			{
+				for (String field : fields)
+					name += (name.isEmpty() ? "" : "_") + field;
+			}
+			Index index = new Index(name);
+			try
+			{
+				for (String field : fields)
+					index.addField(field);
+			}
+			catch (Exception e)
+			{
+				throw new MolgenisModelException(e.getMessage());
+			}
+			entity.addIndex(index);
+		}
 		// done
 
 		// Todo: change if(molgenisOptions.jpa_use_sequence &&
@@ -20,6 +20,7 @@ import org.molgenis.framework.db.DatabaseException;
 import org.molgenis.model.elements.Entity;
 import org.molgenis.model.elements.Field;
 import org.molgenis.model.elements.Model;
+import org.molgenis.model.elements.ModelIndex;
 import org.molgenis.model.elements.Module;
 import org.molgenis.model.elements.UISchema;
 import org.molgenis.model.elements.Unique;
@@ -33,6 +34,7 @@ public class MolgenisModelValidator
 	public static void validate(Model model, MolgenisOptions options) throws MolgenisModelException, DatabaseException
 	{
 		logger.debug("validating model and adding defaults:");
+		model.setIndex(null);
 
 		// validate the model
 		validateNamesAndReservedWords(model, options);
@@ -69,6 +71,8 @@ public class MolgenisModelValidator
 
 		validateNameSize(model, options);
 
+		// the model is complete
+		model.setIndex(new ModelIndex(model));
 	}
 
 	/**
@@ -1550,4 +1550,32 @@ public class Entity extends DBSchema implements Record
 	{
 		return this.allocationSize;
 	}
+
+	/** default number of entities cached when cache="true" */
+	public static final int DEFAULT_CACHE_SIZE = 1000;
+
+	/** number of entities cached by the JDBC mappers, 0 if not cached */
+	private int cacheSize = 0;
+
+	/**
+	 * Returns whether the JDBC mappers cache this entity by primary and unique
+	 * keys
+	 */
+	public boolean isCached()
+	{
+		return cacheSize > 0;
+	}
+
+	/**
+	 * @return maximum number of entities cached, 0 if not cached
+	 */
+	public int getCacheSize()
+	{
+		return cacheSize;
+	}
+
+	public void setCacheSize(int cacheSize)
+	{
+		this.cacheSize = cacheSize;
+	}
 }
@@ -275,6 +275,13 @@ public class Model implements Serializable
 	 */
 	public Entity getEntity(String name)
 	{
+		// entities added after the index was built are found by the scan below
+		ModelIndex modelIndex = this.index;
+		if (modelIndex != null)
+		{
+			Entity entity = modelIndex.getEntity(name);
+			if (entity != null) return entity;
+		}
 		for (DBSchema element : database.getAllChildren())
 		{
 			if (element.getClass().equals(Entity.class) && element.getName().equalsIgnoreCase(name))
@@ -290,6 +297,36 @@ public class Model implements Serializable
 		return null;
 	}
 
+	/**
+	 * Returns the lookup index of this model. The index is set by the
+	 * validator, or built on first use if the model was not validated.
+	 * 
+	 * @see ModelIndex
+	 * @throws MolgenisModelException
+	 */
+	public ModelIndex getIndex() throws MolgenisModelException
+	{
+		// the index is immutable, building it twice does no harm
+		ModelIndex modelIndex = this.index;
+		if (modelIndex == null)
+		{
+			modelIndex = new ModelIndex(this);
+			this.index = modelIndex;
+		}
+		return modelIndex;
+	}
+
+	/**
+	 * Sets the lookup index, to be called when the model is complete.
+	 * 
+	 * @param index
+	 *            index of this model, or null to drop the index after a change
+	 */
+	public void setIndex(ModelIndex index)
+	{
+		this.index = index;
+	}
+
 	/**
 	 * 
 	 */
@@ -515,6 +552,9 @@ public class Model implements Serializable
 	/** */
 	private String processing_description;
 
+	/** lookup index, built after validation (not serialized) */
+	private transient ModelIndex index;
+
 	public Field findField(String f) throws MolgenisModelException
 	{
 		// pattern {entity}.{field}
@@ -0,0 +1,153 @@
+package org.molgenis.model.elements;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.molgenis.model.MolgenisModel;
+import org.molgenis.model.MolgenisModelException;
+
+/**
+ * Immutable lookup index of the entities and fields of a {@link Model}.
+ * Entity.getAllFields(), getImplementedFields() and getAllAncestors() walk the
+ * class hierarchy and copy fields on each call, and Model.getEntity() scans
+ * the schema tree. This index computes these once so that they can be looked
+ * up in constant time. Names are case insensitive.
+ * <p>
+ * The index is a snapshot: build it after the model is complete, i.e. after
+ * {@link org.molgenis.model.MolgenisModelValidator} ran. It is not changed
+ * afterwards, so it can be shared between threads without synchronization.
+ *
+ * @see Model#getIndex()
+ */
+public class ModelIndex
+{
+	private final List<Entity> entities;
+	private final List<Entity> dependencyOrder;
+	private final Map<String, EntityEntry> entries;
+
+	public ModelIndex(Model model) throws MolgenisModelException
+	{
+		List<Entity> modelEntities = model.getEntities();
+		Map<String, EntityEntry> entityEntries = new HashMap<String, EntityEntry>(modelEntities.size() * 4 / 3 + 1);
+		for (Entity entity : modelEntities)
+			entityEntries.put(entity.getName().toLowerCase(), new EntityEntry(entity));
+		this.entities = Collections.unmodifiableList(new ArrayList<Entity>(modelEntities));
+		this.entries = Collections.unmodifiableMap(entityEntries);
+		this.dependencyOrder = Collections.unmodifiableList(MolgenisModel.sortEntitiesByDependency(
+				new ArrayList<Entity>(modelEntities), model));
+	}
+
+	/**
+	 * @return the entity with this name, or null if unknown
+	 */
+	public Entity getEntity(String name)
+	{
+		EntityEntry entry = getEntry(name);
+		return entry != null ? entry.entity : null;
+	}
+
+	/** All entities, in the order of the model */
+	public List<Entity> getEntities()
+	{
+		return entities;
+	}
+
+	/**
+	 * All entities, ordered such that entities come after the entities they
+	 * refer to with xrefs and mrefs
+	 */
+	public List<Entity> getDependencyOrder()
+	{
+		return dependencyOrder;
+	}
+
+	/**
+	 * Fields of the entity, including inherited fields, as
+	 * {@link Entity#getAllFields()}. Empty if the entity is unknown.
+	 */
+	public List<Field> getAllFields(String entityName)
+	{
+		EntityEntry entry = getEntry(entityName);
+		return entry != null ? entry.allFields : Collections.<Field> emptyList();
+	}
+
+	/**
+	 * Fields stored in the table of the entity, as
+	 * {@link Entity#getImplementedFields()}. Empty if the entity is unknown.
+	 */
+	public List<Field> getImplementedFields(String entityName)
+	{
+		EntityEntry entry = getEntry(entityName);
+		return entry != null ? entry.implementedFields : Collections.<Field> emptyList();
+	}
+
+	/**
+	 * Field of the entity or one of its ancestors, as
+	 * {@link Entity#getAllField(String)}
+	 *
+	 * @return the field, or null if the entity or field is unknown
+	 */
+	public Field getField(String entityName, String fieldName)
+	{
+		EntityEntry entry = getEntry(entityName);
+		return entry != null && fieldName != null ? entry.fieldsByName.get(fieldName.toLowerCase()) : null;
+	}
+
+	/**
+	 * Superclasses of the entity, root first, as
+	 * {@link Entity#getAllAncestors()}. Empty if the entity is unknown.
+	 */
+	public List<Entity> getAncestors(String entityName)
+	{
+		EntityEntry entry = getEntry(entityName);
+		return entry != null ? entry.ancestors : Collections.<Entity> emptyList();
+	}
+
+	/**
+	 * Subclasses of the entity, as {@link Entity#getAllDescendants()}. Empty
+	 * if the entity is unknown.
+	 */
+	public List<Entity> getDescendants(String entityName)
+	{
+		EntityEntry entry = getEntry(entityName);
+		return entry != null ? entry.descendants : Collections.<Entity> emptyList();
+	}
+
+	private EntityEntry getEntry(String entityName)
+	{
+		return entityName != null ? entries.get(entityName.toLowerCase()) : null;
+	}
+
+	/**
+	 * Precomputed lookups of one entity
+	 */
+	private static class EntityEntry
+	{
+		private final Entity entity;
+		private final List<Field> allFields;
+		private final List<Field> implementedFields;
+		private final Map<String, Field> fieldsByName;
+		private final List<Entity> ancestors;
+		private final List<Entity> descendants;
+
+		EntityEntry(Entity entity) throws MolgenisModelException
+		{
+			this.entity = entity;
+			List<Field> fields = entity.getAllFields();
+			this.allFields = Collections.unmodifiableList(Arrays.asList(fields.toArray(new Field[fields.size()])));
+			List<Field> implemented = entity.getImplementedFields();
+			this.implementedFields = Collections.unmodifiableList(Arrays.asList(implemented
+					.toArray(new Field[implemented.size()])));
+			Map<String, Field> byName = new HashMap<String, Field>(allFields.size() * 4 / 3 + 1);
+			for (Field field : allFields)
+				byName.put(field.getName().toLowerCase(), field);
+			this.fieldsByName = Collections.unmodifiableMap(byName);
+			this.ancestors = Collections.unmodifiableList(new ArrayList<Entity>(entity.getAllAncestors()));
+			this.descendants = Collections.unmodifiableList(new ArrayList<Entity>(entity.getAllDescendants()));
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package org.molgenis.util.tuple;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ValueIndexTuple} with case insensitive column names. The column names
+ * map is expected to contain lower case column names so that it can be shared
+ * by all rows of a result.
+ */
+public class CaseInsensitiveValueIndexTuple extends ValueIndexTuple
+{
+	private static final long serialVersionUID = 1L;
+
+	public CaseInsensitiveValueIndexTuple(Map<String, Integer> colNamesMap, List<? extends Object> values)
+	{
+		super(colNamesMap, values);
+	}
+
+	@Override
+	public Object get(String colName)
+	{
+		return super.get(colName.toLowerCase());
+	}
+}
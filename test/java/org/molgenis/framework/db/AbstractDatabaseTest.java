@@ -0,0 +1,234 @@
+package org.molgenis.framework.db;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.molgenis.model.elements.Field;
+import org.molgenis.util.AbstractEntity;
+import org.molgenis.util.Entity;
+import org.molgenis.util.tuple.Tuple;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class AbstractDatabaseTest
+{
+	private AbstractDatabase db;
+	private Map<Object, Entity> subEntities;
+	private int nrQueries;
+
+	@BeforeMethod
+	public void setUp() throws DatabaseException
+	{
+		subEntities = new LinkedHashMap<Object, Entity>();
+		nrQueries = 0;
+
+		db = mock(AbstractDatabase.class);
+		doCallRealMethod().when(db).load(eq(BaseEntity.class), anyListOf(BaseEntity.class));
+		doCallRealMethod().when(db).setLoadBatchSize(anyInt());
+		doReturn(SubEntity.class).when(db).getClassForName("SubEntity");
+		doReturn(OtherSubEntity.class).when(db).getClassForName("OtherSubEntity");
+
+		// returns the requested subclass entities in reverse order
+		when(db.find(Matchers.<Class<Entity>> any(), any(QueryRule.class))).thenAnswer(new Answer<List<Entity>>()
+		{
+			@Override
+			public List<Entity> answer(InvocationOnMock invocation) throws Throwable
+			{
+				nrQueries++;
+				Class<?> klazz = (Class<?>) invocation.getArguments()[0];
+				QueryRule rule = (QueryRule) invocation.getArguments()[1];
+				assertEquals(rule.getField(), "id");
+				assertEquals(rule.getOperator(), QueryRule.Operator.IN);
+
+				List<Entity> result = new ArrayList<Entity>();
+				for (Object id : (List<?>) rule.getValue())
+				{
+					Entity e = subEntities.get(id);
+					if (e != null && klazz.isInstance(e)) result.add(e);
+				}
+				Collections.reverse(result);
+				return result;
+			}
+		});
+		db.setLoadBatchSize(2);
+	}
+
+	@Test
+	public void loadRetainsOrder() throws DatabaseException
+	{
+		List<BaseEntity> entities = new ArrayList<BaseEntity>();
+		for (int i = 0; i < 7; i++)
+		{
+			String type = i % 3 == 0 ? "BaseEntity" : i % 3 == 1 ? "SubEntity" : "OtherSubEntity";
+			entities.add(entity(BaseEntity.class, i, type));
+			if (i % 3 == 1) subEntities.put(i, entity(SubEntity.class, i, type));
+			if (i % 3 == 2) subEntities.put(i, entity(OtherSubEntity.class, i, type));
+		}
+
+		List<? extends Entity> result = db.load(BaseEntity.class, entities);
+
+		assertEquals(result.size(), entities.size());
+		for (int i = 0; i < entities.size(); i++)
+		{
+			if (i % 3 == 0) assertSame(result.get(i), entities.get(i));
+			else
+				assertSame(result.get(i), subEntities.get(i));
+		}
+		// ids 1,4 of SubEntity and 2,5 of OtherSubEntity fit in one query each
+		assertEquals(nrQueries, 2);
+	}
+
+	@Test
+	public void loadInChunks() throws DatabaseException
+	{
+		List<BaseEntity> entities = new ArrayList<BaseEntity>();
+		for (int i = 0; i < 5; i++)
+		{
+			entities.add(entity(BaseEntity.class, i, "SubEntity"));
+			subEntities.put(i, entity(SubEntity.class, i, "SubEntity"));
+		}
+
+		List<? extends Entity> result = db.load(BaseEntity.class, entities);
+
+		for (int i = 0; i < entities.size(); i++)
+			assertSame(result.get(i), subEntities.get(i));
+		assertEquals(nrQueries, 3);
+	}
+
+	@Test
+	public void loadNotFound() throws DatabaseException
+	{
+		List<BaseEntity> entities = Arrays.asList(entity(BaseEntity.class, 1, "SubEntity"),
+				entity(BaseEntity.class, 2, "SubEntity"));
+		subEntities.put(2, entity(SubEntity.class, 2, "SubEntity"));
+
+		List<? extends Entity> result = db.load(BaseEntity.class, entities);
+
+		assertNull(result.get(0));
+		assertSame(result.get(1), subEntities.get(2));
+	}
+
+	private static <E extends MapEntity> E entity(Class<E> klazz, int id, String type)
+	{
+		try
+		{
+			E entity = klazz.newInstance();
+			entity.values.put("id", id);
+			entity.values.put(Field.TYPE_FIELD, type);
+			return entity;
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static class BaseEntity extends MapEntity
+	{
+		private static final long serialVersionUID = 1L;
+	}
+
+	public static class SubEntity extends BaseEntity
+	{
+		private static final long serialVersionUID = 1L;
+	}
+
+	public static class OtherSubEntity extends BaseEntity
+	{
+		private static final long serialVersionUID = 1L;
+	}
+
+	public static abstract class MapEntity extends AbstractEntity
+	{
+		private static final long serialVersionUID = 1L;
+
+		final Map<String, Object> values = new LinkedHashMap<String, Object>();
+
+		@Override
+		public void set(Tuple tuple, boolean strict) throws Exception
+		{
+			for (String colName : tuple.getColNames())
+				values.put(colName, tuple.get(colName));
+		}
+
+		@Override
+		public Object get(String columnName)
+		{
+			return values.get(columnName);
+		}
+
+		@Override
+		public String getIdField()
+		{
+			return "id";
+		}
+
+		@Override
+		public Object getIdValue()
+		{
+			return values.get("id");
+		}
+
+		@Override
+		public List<String> getLabelFields()
+		{
+			return new Vector<String>();
+		}
+
+		@Override
+		public Vector<String> getFields()
+		{
+			return new Vector<String>(values.keySet());
+		}
+
+		@Override
+		public Vector<String> getFields(boolean skipAutoIds)
+		{
+			return getFields();
+		}
+
+		@Deprecated
+		@Override
+		public String getFields(String sep)
+		{
+			return "";
+		}
+
+		@Override
+		public void validate() throws Exception
+		{
+		}
+
+		@Override
+		public Entity create(Tuple tuple) throws Exception
+		{
+			return null;
+		}
+
+		@Override
+		public String getXrefIdFieldName(String fieldName)
+		{
+			return null;
+		}
+	}
+}
@@ -0,0 +1,341 @@
+package org.molgenis.framework.db;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+import org.molgenis.fieldtypes.FieldType;
+import org.molgenis.io.TupleWriter;
+import org.molgenis.mock.MockDatabase;
+import org.molgenis.util.AbstractEntity;
+import org.molgenis.util.Entity;
+import org.molgenis.util.tuple.Tuple;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class AbstractMapperTest
+{
+	private MockDatabase db;
+	private AnimalMapper animalMapper;
+	private SpeciesMapper speciesMapper;
+
+	@BeforeMethod
+	public void setUp()
+	{
+		db = new MockDatabase();
+		animalMapper = new AnimalMapper(db);
+		speciesMapper = new SpeciesMapper(db);
+	}
+
+	@Test
+	public void resolveForeignKeysOncePerImport() throws DatabaseException
+	{
+		db.beginImportCache();
+		try
+		{
+			animalMapper.add(createAnimals("human", "mouse"));
+			animalMapper.add(createAnimals("mouse", "human", "rat"));
+		}
+		finally
+		{
+			db.endImportCache();
+		}
+		// first batch looks up human and mouse, the second only rat
+		assertEquals(animalMapper.nrLookups, 2);
+		assertEquals(animalMapper.nrLookedUpLabels, 3);
+	}
+
+	@Test
+	public void resolveForeignKeysOncePerBatchWithoutImport() throws DatabaseException
+	{
+		animalMapper.add(createAnimals("human", "mouse"));
+		animalMapper.add(createAnimals("mouse", "human", "rat"));
+		assertEquals(animalMapper.nrLookups, 2);
+		assertEquals(animalMapper.nrLookedUpLabels, 5);
+	}
+
+	@Test
+	public void resolveForeignKeysAfterUpdateOfReferencedEntity() throws DatabaseException
+	{
+		db.beginImportCache();
+		try
+		{
+			animalMapper.add(createAnimals("human", "mouse"));
+			speciesMapper.update(new ArrayList<Species>(Arrays.asList(new Species())));
+			animalMapper.add(createAnimals("mouse"));
+		}
+		finally
+		{
+			db.endImportCache();
+		}
+		assertEquals(animalMapper.nrLookups, 2);
+		assertEquals(animalMapper.nrLookedUpLabels, 3);
+	}
+
+	private static List<Animal> createAnimals(String... species)
+	{
+		List<Animal> animals = new ArrayList<Animal>();
+		for (String label : species)
+		{
+			Animal animal = new Animal();
+			animal.species_name = label;
+			animals.add(animal);
+		}
+		return animals;
+	}
+
+	/**
+	 * Resolves Animal.species from the species name like the generated mappers,
+	 * counting the lookups
+	 */
+	private static class AnimalMapper extends StubMapper<Animal>
+	{
+		int nrLookups = 0;
+		int nrLookedUpLabels = 0;
+
+		public AnimalMapper(Database database)
+		{
+			super(database);
+		}
+
+		@Override
+		public Animal create()
+		{
+			return new Animal();
+		}
+
+		@Override
+		public void resolveForeignKeys(List<Animal> entities) throws DatabaseException, ParseException
+		{
+			ForeignKeyCache foreignKeyCache = getForeignKeyCache();
+			List<String> labels = new ArrayList<String>();
+			for (Animal animal : entities)
+			{
+				Object cachedId = foreignKeyCache.get(Species.class, "name", animal.species_name);
+				if (cachedId != null) animal.species = (Integer) cachedId;
+				else if (!labels.contains(animal.species_name)) labels.add(animal.species_name);
+			}
+			if (labels.isEmpty()) return;
+
+			// simulates 'find Species where name IN (labels)'
+			nrLookups++;
+			nrLookedUpLabels += labels.size();
+			for (String label : labels)
+				foreignKeyCache.put(Species.class, "name", label, label.hashCode());
+			for (Animal animal : entities)
+				if (animal.species == null) animal.species = (Integer) foreignKeyCache.get(Species.class, "name",
+						animal.species_name);
+		}
+	}
+
+	private static class SpeciesMapper extends StubMapper<Species>
+	{
+		public SpeciesMapper(Database database)
+		{
+			super(database);
+		}
+
+		@Override
+		public Species create()
+		{
+			return new Species();
+		}
+
+		@Override
+		public void resolveForeignKeys(List<Species> entities) throws DatabaseException, ParseException
+		{
+		}
+	}
+
+	private static abstract class StubMapper<E extends Entity> extends AbstractMapper<E>
+	{
+		public StubMapper(Database database)
+		{
+			super(database);
+		}
+
+		@Override
+		public List<E> createList(int size)
+		{
+			return new ArrayList<E>(size);
+		}
+
+		@Override
+		protected void prepareFileAttachements(List<E> entities, File dir) throws IOException
+		{
+		}
+
+		@Override
+		protected boolean saveFileAttachements(List<E> entities, File dir) throws IOException
+		{
+			return false;
+		}
+
+		@Override
+		public int executeAdd(List<? extends E> entities) throws DatabaseException
+		{
+			return entities.size();
+		}
+
+		@Override
+		public int executeUpdate(List<? extends E> entities) throws DatabaseException
+		{
+			return entities.size();
+		}
+
+		@Override
+		public int executeRemove(List<? extends E> entities) throws DatabaseException
+		{
+			return entities.size();
+		}
+
+		@Override
+		public void storeMrefs(List<E> entities) throws DatabaseException, IOException, ParseException
+		{
+		}
+
+		@Override
+		public void removeMrefs(List<E> entities) throws SQLException, IOException, DatabaseException,
+				ParseException
+		{
+		}
+
+		@Override
+		public int count(QueryRule... rules) throws DatabaseException
+		{
+			return 0;
+		}
+
+		@Override
+		public List<E> find(QueryRule... rules) throws DatabaseException
+		{
+			return createList(0);
+		}
+
+		@Override
+		public void find(TupleWriter writer, List<String> fieldsToExport, QueryRule[] rules)
+				throws DatabaseException
+		{
+		}
+
+		@Override
+		public String getTableFieldName(String field)
+		{
+			return field;
+		}
+
+		@Override
+		public FieldType getFieldType(String field)
+		{
+			return null;
+		}
+
+		@Override
+		public String createFindSqlInclRules(QueryRule[] rules) throws DatabaseException
+		{
+			return null;
+		}
+
+		@Override
+		public E findById(Object id) throws DatabaseException
+		{
+			return null;
+		}
+
+		@Override
+		public List<E> findByExample(E example) throws DatabaseException
+		{
+			return createList(0);
+		}
+	}
+
+	public static class Species extends StubEntity
+	{
+		private static final long serialVersionUID = 1L;
+	}
+
+	public static class Animal extends StubEntity
+	{
+		private static final long serialVersionUID = 1L;
+
+		String species_name;
+		Integer species;
+	}
+
+	private static abstract class StubEntity extends AbstractEntity
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void set(Tuple values, boolean strict) throws Exception
+		{
+		}
+
+		@Override
+		public Object get(String columnName)
+		{
+			return null;
+		}
+
+		@Override
+		public String getIdField()
+		{
+			return "id";
+		}
+
+		@Override
+		public Object getIdValue()
+		{
+			return null;
+		}
+
+		@Override
+		public List<String> getLabelFields()
+		{
+			return new Vector<String>();
+		}
+
+		@Override
+		public Vector<String> getFields()
+		{
+			return new Vector<String>();
+		}
+
+		@Override
+		public Vector<String> getFields(boolean skipAutoIds)
+		{
+			return getFields();
+		}
+
+		@Deprecated
+		@Override
+		public String getFields(String sep)
+		{
+			return "";
+		}
+
+		@Override
+		public void validate() throws Exception
+		{
+		}
+
+		@Override
+		public Entity create(Tuple tuple) throws Exception
+		{
+			return null;
+		}
+
+		@Override
+		public String getXrefIdFieldName(String fieldName)
+		{
+			return null;
+		}
+	}
+}
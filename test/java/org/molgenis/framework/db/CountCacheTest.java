@@ -0,0 +1,186 @@
+package org.molgenis.framework.db;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.List;
+import java.util.Vector;
+
+import org.molgenis.framework.db.QueryRule.Operator;
+import org.molgenis.util.AbstractEntity;
+import org.molgenis.util.Entity;
+import org.molgenis.util.tuple.Tuple;
+import org.testng.annotations.Test;
+
+public class CountCacheTest
+{
+	@Test
+	public void getPut()
+	{
+		CountCache cache = new CountCache();
+		QueryRule rule = new QueryRule("name", Operator.EQUALS, "x");
+		cache.put(BaseEntity.class, true, cache.getVersion(BaseEntity.class, true), 3, rule);
+		assertEquals(cache.get(BaseEntity.class, rule), Integer.valueOf(3));
+		assertNull(cache.get(BaseEntity.class));
+		assertNull(cache.get(SubEntity.class, rule));
+	}
+
+	@Test
+	public void normalisedRules()
+	{
+		CountCache cache = new CountCache();
+		QueryRule rule1 = new QueryRule("name", Operator.EQUALS, "x");
+		QueryRule rule2 = new QueryRule("id", Operator.GREATER, 1);
+		cache.put(BaseEntity.class, true, cache.getVersion(BaseEntity.class, true), 3, rule1, rule2,
+				new QueryRule(Operator.LIMIT, 10));
+		assertEquals(cache.get(BaseEntity.class, new QueryRule(Operator.SORTASC, "name"), rule2, rule1),
+				Integer.valueOf(3));
+		assertNull(cache.get(BaseEntity.class, rule1, new QueryRule(Operator.OR), rule2));
+	}
+
+	@Test
+	public void invalidateHierarchy()
+	{
+		CountCache cache = new CountCache();
+		cache.put(BaseEntity.class, true, cache.getVersion(BaseEntity.class, true), 3);
+		cache.put(OtherEntity.class, true, cache.getVersion(OtherEntity.class, true), 4);
+		cache.invalidate(SubEntity.class);
+		assertNull(cache.get(BaseEntity.class));
+		assertEquals(cache.get(OtherEntity.class), Integer.valueOf(4));
+	}
+
+	@Test
+	public void invalidateNonLocal()
+	{
+		CountCache cache = new CountCache();
+		QueryRule rule = new QueryRule("other_name", Operator.EQUALS, "x");
+		cache.put(BaseEntity.class, false, cache.getVersion(BaseEntity.class, false), 3, rule);
+		assertEquals(cache.get(BaseEntity.class, rule), Integer.valueOf(3));
+		cache.invalidate(OtherEntity.class);
+		assertNull(cache.get(BaseEntity.class, rule));
+	}
+
+	@Test
+	public void putAfterWriteIgnored()
+	{
+		CountCache cache = new CountCache();
+		long version = cache.getVersion(BaseEntity.class, true);
+		cache.invalidate(BaseEntity.class);
+		cache.put(BaseEntity.class, true, version, 3);
+		assertNull(cache.get(BaseEntity.class));
+	}
+
+	@Test
+	public void maxAge() throws InterruptedException
+	{
+		CountCache cache = new CountCache();
+		cache.setMaxAge(0);
+		cache.put(BaseEntity.class, true, cache.getVersion(BaseEntity.class, true), 3);
+		Thread.sleep(5);
+		assertNull(cache.get(BaseEntity.class));
+	}
+
+	@Test
+	public void evictLeastRecentlyUsed()
+	{
+		CountCache cache = new CountCache(2);
+		for (int i = 0; i < 3; i++)
+			cache.put(BaseEntity.class, true, 0, i, new QueryRule("id", Operator.EQUALS, i));
+		assertEquals(cache.size(), 2);
+		assertNull(cache.get(BaseEntity.class, new QueryRule("id", Operator.EQUALS, 0)));
+	}
+
+	@Test
+	public void isUnfiltered()
+	{
+		assertEquals(CountCache.isUnfiltered(), true);
+		assertEquals(CountCache.isUnfiltered(new QueryRule(Operator.SORTASC, "name"), new QueryRule(Operator.LIMIT,
+				10)), true);
+		assertEquals(CountCache.isUnfiltered(new QueryRule("name", Operator.EQUALS, "x")), false);
+	}
+
+	public static class BaseEntity extends StubEntity
+	{
+		private static final long serialVersionUID = 1L;
+	}
+
+	public static class SubEntity extends BaseEntity
+	{
+		private static final long serialVersionUID = 1L;
+	}
+
+	public static class OtherEntity extends StubEntity
+	{
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static abstract class StubEntity extends AbstractEntity
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void set(Tuple values, boolean strict) throws Exception
+		{
+		}
+
+		@Override
+		public Object get(String columnName)
+		{
+			return null;
+		}
+
+		@Override
+		public String getIdField()
+		{
+			return "id";
+		}
+
+		@Override
+		public Object getIdValue()
+		{
+			return null;
+		}
+
+		@Override
+		public List<String> getLabelFields()
+		{
+			return new Vector<String>();
+		}
+
+		@Override
+		public Vector<String> getFields()
+		{
+			return new Vector<String>();
+		}
+
+		@Override
+		public Vector<String> getFields(boolean skipAutoIds)
+		{
+			return getFields();
+		}
+
+		@Deprecated
+		@Override
+		public String getFields(String sep)
+		{
+			return "";
+		}
+
+		@Override
+		public void validate() throws Exception
+		{
+		}
+
+		@Override
+		public Entity create(Tuple tuple) throws Exception
+		{
+			return null;
+		}
+
+		@Override
+		public String getXrefIdFieldName(String fieldName)
+		{
+			return null;
+		}
+	}
+}
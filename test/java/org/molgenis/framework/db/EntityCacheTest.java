@@ -0,0 +1,250 @@
+package org.molgenis.framework.db;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.molgenis.util.AbstractEntity;
+import org.molgenis.util.Entity;
+import org.molgenis.util.tuple.Tuple;
+import org.testng.annotations.Test;
+
+public class EntityCacheTest
+{
+	private static final List<Class<? extends Entity>> NONE = Collections.emptyList();
+
+	@Test
+	public void getPut() throws DatabaseException
+	{
+		EntityCache cache = new EntityCache();
+		cache.register(BaseEntity.class, 10, NONE);
+		cache.put(BaseEntity.class, cache.getVersion(), entity(1, "a"), keys(1, "a"));
+
+		BaseEntity byId = cache.get(BaseEntity.class, idKey(1));
+		assertEquals(byId.get("name"), "a");
+		assertEquals(cache.get(BaseEntity.class, nameKey("a")).get("id"), 1);
+		assertNull(cache.get(BaseEntity.class, idKey(2)));
+		assertNull(cache.get(OtherEntity.class, idKey(1)));
+		assertEquals(cache.getHits(BaseEntity.class), 2);
+		assertEquals(cache.getMisses(BaseEntity.class), 1);
+	}
+
+	@Test
+	public void notRegistered() throws DatabaseException
+	{
+		EntityCache cache = new EntityCache();
+		cache.put(BaseEntity.class, cache.getVersion(), entity(1, "a"), keys(1, "a"));
+		assertNull(cache.get(BaseEntity.class, idKey(1)));
+		assertEquals(cache.size(BaseEntity.class), 0);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void copies() throws Exception
+	{
+		EntityCache cache = new EntityCache();
+		cache.register(BaseEntity.class, 10, NONE);
+		BaseEntity entity = entity(1, "a");
+		entity.set("tags", new ArrayList<String>(Arrays.asList("x")));
+		cache.put(BaseEntity.class, cache.getVersion(), entity, keys(1, "a"));
+		entity.set("name", "changed");
+
+		BaseEntity cached = cache.get(BaseEntity.class, idKey(1));
+		assertEquals(cached.get("name"), "a");
+		((List<String>) cached.get("tags")).add("y");
+		BaseEntity again = cache.get(BaseEntity.class, idKey(1));
+		assertNotSame(again, cached);
+		assertEquals(again.get("tags"), Arrays.asList("x"));
+	}
+
+	@Test
+	public void invalidateHierarchy() throws DatabaseException
+	{
+		EntityCache cache = new EntityCache();
+		cache.register(BaseEntity.class, 10, NONE);
+		cache.register(OtherEntity.class, 10, NONE);
+		cache.put(BaseEntity.class, cache.getVersion(), entity(1, "a"), keys(1, "a"));
+		cache.put(OtherEntity.class, cache.getVersion(), new OtherEntity(), Arrays.asList(idKey(1)));
+		cache.invalidate(SubEntity.class);
+		assertNull(cache.get(BaseEntity.class, idKey(1)));
+		assertNull(cache.get(BaseEntity.class, nameKey("a")));
+		assertEquals(cache.get(OtherEntity.class, idKey(1)).getClass(), OtherEntity.class);
+
+		// entries read after the write are valid
+		cache.put(BaseEntity.class, cache.getVersion(), entity(1, "b"), keys(1, "b"));
+		assertEquals(cache.get(BaseEntity.class, idKey(1)).get("name"), "b");
+	}
+
+	@Test
+	public void invalidateDependency() throws DatabaseException
+	{
+		EntityCache cache = new EntityCache();
+		List<Class<? extends Entity>> dependencies = new ArrayList<Class<? extends Entity>>();
+		dependencies.add(OtherEntity.class);
+		cache.register(BaseEntity.class, 10, dependencies);
+		cache.put(BaseEntity.class, cache.getVersion(), entity(1, "a"), keys(1, "a"));
+		cache.invalidate(OtherEntity.class);
+		assertNull(cache.get(BaseEntity.class, idKey(1)));
+	}
+
+	@Test
+	public void putAfterWriteIgnored() throws DatabaseException
+	{
+		EntityCache cache = new EntityCache();
+		cache.register(BaseEntity.class, 10, NONE);
+		long version = cache.getVersion();
+		cache.invalidate(BaseEntity.class);
+		cache.put(BaseEntity.class, version, entity(1, "a"), keys(1, "a"));
+		assertNull(cache.get(BaseEntity.class, idKey(1)));
+	}
+
+	@Test
+	public void invalidateAll() throws DatabaseException
+	{
+		EntityCache cache = new EntityCache();
+		cache.register(BaseEntity.class, 10, NONE);
+		cache.put(BaseEntity.class, cache.getVersion(), entity(1, "a"), keys(1, "a"));
+		cache.invalidateAll();
+		assertEquals(cache.size(BaseEntity.class), 0);
+	}
+
+	@Test
+	public void evictLeastRecentlyUsed() throws DatabaseException
+	{
+		EntityCache cache = new EntityCache();
+		cache.register(BaseEntity.class, 2, NONE);
+		for (int i = 0; i < 3; i++)
+			cache.put(BaseEntity.class, cache.getVersion(), entity(i, "n" + i), keys(i, "n" + i));
+		assertEquals(cache.size(BaseEntity.class), 4);
+		assertNull(cache.get(BaseEntity.class, idKey(0)));
+		assertEquals(cache.get(BaseEntity.class, idKey(2)).get("name"), "n2");
+	}
+
+	@Test
+	public void createKey()
+	{
+		assertNull(EntityCache.createKey(Arrays.asList("name", "species"), Arrays.asList("a", null)));
+		assertEquals(EntityCache.createKey(Arrays.asList("id"), Arrays.asList(1)),
+				EntityCache.createKey(Arrays.asList("id"), Arrays.asList("1")));
+	}
+
+	private static BaseEntity entity(int id, String name)
+	{
+		BaseEntity entity = new BaseEntity();
+		entity.values.put("id", id);
+		entity.values.put("name", name);
+		return entity;
+	}
+
+	private static List<String> keys(int id, String name)
+	{
+		return Arrays.asList(idKey(id), nameKey(name));
+	}
+
+	private static String idKey(Object id)
+	{
+		return EntityCache.createKey(Arrays.asList("id"), Arrays.asList(id));
+	}
+
+	private static String nameKey(String name)
+	{
+		return EntityCache.createKey(Arrays.asList("name"), Arrays.asList(name));
+	}
+
+	public static class BaseEntity extends MapEntity
+	{
+		private static final long serialVersionUID = 1L;
+	}
+
+	public static class SubEntity extends BaseEntity
+	{
+		private static final long serialVersionUID = 1L;
+	}
+
+	public static class OtherEntity extends MapEntity
+	{
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static abstract class MapEntity extends AbstractEntity
+	{
+		private static final long serialVersionUID = 1L;
+
+		final Map<String, Object> values = new LinkedHashMap<String, Object>();
+
+		@Override
+		public void set(Tuple tuple, boolean strict) throws Exception
+		{
+			for (String colName : tuple.getColNames())
+				values.put(colName, tuple.get(colName));
+		}
+
+		@Override
+		public Object get(String columnName)
+		{
+			return values.get(columnName);
+		}
+
+		@Override
+		public String getIdField()
+		{
+			return "id";
+		}
+
+		@Override
+		public Object getIdValue()
+		{
+			return values.get("id");
+		}
+
+		@Override
+		public List<String> getLabelFields()
+		{
+			return new Vector<String>();
+		}
+
+		@Override
+		public Vector<String> getFields()
+		{
+			return new Vector<String>(values.keySet());
+		}
+
+		@Override
+		public Vector<String> getFields(boolean skipAutoIds)
+		{
+			return getFields();
+		}
+
+		@Deprecated
+		@Override
+		public String getFields(String sep)
+		{
+			return "";
+		}
+
+		@Override
+		public void validate() throws Exception
+		{
+		}
+
+		@Override
+		public Entity create(Tuple tuple) throws Exception
+		{
+			return null;
+		}
+
+		@Override
+		public String getXrefIdFieldName(String fieldName)
+		{
+			return null;
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package org.molgenis.framework.db;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import org.testng.annotations.Test;
+
+public class ForeignKeyCacheTest
+{
+	private static class Species
+	{
+	}
+
+	private static class Animal
+	{
+	}
+
+	private static class Mammal extends Animal
+	{
+	}
+
+	@Test
+	public void getPut()
+	{
+		ForeignKeyCache cache = new ForeignKeyCache();
+		cache.put(Species.class, "name", "human", 1);
+		cache.put(Animal.class, "name", "human", 2);
+		cache.put(Animal.class, "code", "human", 3);
+		assertEquals(cache.get(Species.class, "name", "human"), 1);
+		assertEquals(cache.get(Animal.class, "name", "human"), 2);
+		assertEquals(cache.get(Animal.class, "code", "human"), 3);
+		assertNull(cache.get(Species.class, "name", "mouse"));
+	}
+
+	@Test
+	public void putNull()
+	{
+		ForeignKeyCache cache = new ForeignKeyCache();
+		cache.put(Species.class, "name", "human", null);
+		assertEquals(cache.size(), 0);
+	}
+
+	@Test
+	public void evictLeastRecentlyUsed()
+	{
+		ForeignKeyCache cache = new ForeignKeyCache(2);
+		cache.put(Species.class, "name", "human", 1);
+		cache.put(Species.class, "name", "mouse", 2);
+		cache.get(Species.class, "name", "human");
+		cache.put(Species.class, "name", "rat", 3);
+		assertEquals(cache.size(), 2);
+		assertEquals(cache.get(Species.class, "name", "human"), 1);
+		assertNull(cache.get(Species.class, "name", "mouse"));
+	}
+
+	@Test
+	public void invalidate()
+	{
+		ForeignKeyCache cache = new ForeignKeyCache();
+		cache.put(Species.class, "name", "human", 1);
+		cache.put(Animal.class, "name", "lassie", 2);
+		cache.invalidate(Species.class);
+		assertNull(cache.get(Species.class, "name", "human"));
+		assertEquals(cache.get(Animal.class, "name", "lassie"), 2);
+
+		// ids cached after invalidation are valid again
+		cache.put(Species.class, "name", "human", 3);
+		assertEquals(cache.get(Species.class, "name", "human"), 3);
+	}
+
+	@Test
+	public void invalidateSubclass()
+	{
+		ForeignKeyCache cache = new ForeignKeyCache();
+		cache.put(Animal.class, "name", "lassie", 1);
+		cache.invalidate(Mammal.class);
+		assertNull(cache.get(Animal.class, "name", "lassie"));
+	}
+
+	@Test
+	public void invalidateSuperclass()
+	{
+		ForeignKeyCache cache = new ForeignKeyCache();
+		cache.put(Mammal.class, "name", "lassie", 1);
+		cache.put(Species.class, "name", "dog", 2);
+		cache.invalidate(Animal.class);
+		assertNull(cache.get(Mammal.class, "name", "lassie"));
+		assertEquals(cache.get(Species.class, "name", "dog"), 2);
+	}
+}
@@ -0,0 +1,107 @@
+package org.molgenis.framework.db;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.molgenis.framework.db.QueryParameter.param;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import org.molgenis.framework.db.CountCacheTest.BaseEntity;
+import org.molgenis.framework.db.QueryRule.Operator;
+import org.testng.annotations.Test;
+
+public class PreparedQueryTest
+{
+	private static final QueryRule[] RULES = new QueryRule[]
+	{ new QueryRule("title", Operator.EQUALS, param("title")), new QueryRule(Operator.OR),
+			new QueryRule(new QueryRule("id", Operator.GREATER, param("min")), new QueryRule("extra", Operator.LIKE, "x")),
+			new QueryRule(Operator.LIMIT, 10) };
+
+	@Test
+	public void getNames()
+	{
+		assertEquals(QueryParameter.getNames(RULES), new LinkedHashSet<String>(Arrays.asList("title", "min")));
+		assertTrue(QueryParameter.hasParameters(RULES));
+		assertFalse(QueryParameter.hasParameters(new QueryRule("title", Operator.EQUALS, "a")));
+	}
+
+	@Test
+	public void bindAndToValues() throws Exception
+	{
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("title", "a");
+		values.put("min", 5);
+		QueryRule[] bound = QueryParameter.bind(values, RULES);
+
+		// parameters are kept, rules without parameters are not copied
+		assertEquals(bound[0].getValue(), param("title").bind("a"));
+		assertEquals(bound[2].getNestedRules()[0].getValue(), param("min").bind(5));
+		assertSame(bound[2].getNestedRules()[1], RULES[2].getNestedRules()[1]);
+		assertSame(bound[3], RULES[3]);
+		assertEquals(RULES[0].getValue(), param("title"));
+		assertEquals(QueryParameter.getValues(bound), values);
+
+		QueryRule[] plain = QueryParameter.toValues(bound);
+		assertEquals(plain[0], new QueryRule("title", Operator.EQUALS, "a"));
+		assertEquals(plain[2].getNestedRules()[0], new QueryRule("id", Operator.GREATER, 5));
+		assertFalse(QueryParameter.hasParameters(plain));
+	}
+
+	@Test(expectedExceptions = DatabaseException.class)
+	public void bindMissingValue() throws Exception
+	{
+		QueryParameter.bind(Collections.<String, Object> singletonMap("title", "a"), RULES);
+	}
+
+	@Test(expectedExceptions = DatabaseException.class)
+	public void toValuesUnbound() throws Exception
+	{
+		QueryParameter.toValues(RULES);
+	}
+
+	@Test
+	public void preparedQuery() throws Exception
+	{
+		Database db = mock(Database.class);
+		PreparedQuery<BaseEntity> query = new PreparedQueryImp<BaseEntity>(db, BaseEntity.class, true, RULES);
+		query.bind("title", "a").bind("min", 5).find();
+		query.bind("title", null).count();
+
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("title", "a");
+		values.put("min", 5);
+		verify(db).find(BaseEntity.class, QueryParameter.bind(values, RULES));
+		values.put("title", null);
+		verify(db).count(BaseEntity.class, QueryParameter.bind(values, RULES));
+	}
+
+	@Test
+	public void preparedQueryWithValues() throws Exception
+	{
+		Database db = mock(Database.class);
+		PreparedQuery<BaseEntity> query = new PreparedQueryImp<BaseEntity>(db, BaseEntity.class, false,
+				new QueryRule("title", Operator.EQUALS, param("title")));
+		query.bind("title", "a").find();
+		verify(db).find(BaseEntity.class, new QueryRule("title", Operator.EQUALS, "a"));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void bindUnknownParameter()
+	{
+		new PreparedQueryImp<BaseEntity>(mock(Database.class), BaseEntity.class, true, RULES).bind("unknown", 1);
+	}
+
+	@Test(expectedExceptions = DatabaseException.class)
+	public void findUnbound() throws Exception
+	{
+		new PreparedQueryImp<BaseEntity>(mock(Database.class), BaseEntity.class, true, RULES).bind("min", 1).find();
+	}
+}
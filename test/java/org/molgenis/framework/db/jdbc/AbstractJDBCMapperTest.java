@@ -0,0 +1,207 @@
+package org.molgenis.framework.db.jdbc;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.molgenis.fieldtypes.IntField;
+import org.molgenis.fieldtypes.StringField;
+import org.molgenis.framework.db.CountCacheTest.BaseEntity;
+import org.molgenis.framework.db.Database;
+import org.molgenis.framework.db.DatabaseException;
+import org.molgenis.framework.db.QueryRule;
+import org.molgenis.framework.db.QueryRule.Operator;
+import org.molgenis.model.elements.Field;
+import org.molgenis.model.elements.Model;
+import org.molgenis.model.elements.ModelIndex;
+import org.molgenis.util.Entity;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class AbstractJDBCMapperTest
+{
+	private AbstractJDBCMapper<Entity> mapper;
+	private Map<Entity, Integer> keys;
+
+	@SuppressWarnings("unchecked")
+	@BeforeMethod
+	public void setUp() throws DatabaseException
+	{
+		keys = new HashMap<Entity, Integer>();
+		mapper = mock(AbstractJDBCMapper.class);
+		doCallRealMethod().when(mapper).getGeneratedKeys(anyListOf(Entity.class), any(Statement.class), anyInt());
+		doAnswer(new Answer<Void>()
+		{
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				keys.put((Entity) invocation.getArguments()[1], (Integer) invocation.getArguments()[0]);
+				return null;
+			}
+		}).when(mapper).setAutogeneratedKey(anyInt(), any(Entity.class));
+	}
+
+	@Test
+	public void getGeneratedKeysAcrossBatches() throws SQLException, DatabaseException
+	{
+		// five rows added in batches of three, as the generated executeAdd does
+		List<Entity> entities = new ArrayList<Entity>();
+		for (int i = 0; i < 5; i++)
+			entities.add(mock(Entity.class));
+
+		mapper.getGeneratedKeys(entities, statement(101, 102, 103), 0);
+		mapper.getGeneratedKeys(entities, statement(104, 105), 3);
+
+		assertEquals(keys.size(), entities.size());
+		for (int i = 0; i < entities.size(); i++)
+			assertEquals(keys.get(entities.get(i)), Integer.valueOf(101 + i));
+	}
+
+	@Test
+	public void executeBatch() throws SQLException
+	{
+		PreparedStatement pstmt = mock(PreparedStatement.class);
+		when(pstmt.executeBatch()).thenReturn(new int[]
+		{ 1, Statement.SUCCESS_NO_INFO, 2 });
+		assertEquals(AbstractJDBCMapper.executeBatch(pstmt), 4);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void searchIndexMatchesWordPrefixesAndLikeMatchesSubstrings() throws Exception
+	{
+		AbstractJDBCMapper<BaseEntity> searchMapper = mock(AbstractJDBCMapper.class);
+		JDBCDatabase db = mock(JDBCDatabase.class);
+		LuceneSearchIndex index = new LuceneSearchIndex();
+		try
+		{
+			Map<String, Map<String, String>> documents = new LinkedHashMap<String, Map<String, String>>();
+			documents.put("1", Collections.singletonMap("title", "Globin gene"));
+			documents.put("2", Collections.singletonMap("title", "Gene of interest"));
+			index.update(BaseEntity.class, documents);
+			index.markIndexed(BaseEntity.class);
+
+			ModelIndex modelIndex = mock(ModelIndex.class);
+			when(modelIndex.getAllFields("BaseEntity")).thenReturn(
+					Arrays.asList(new Field(null, "title", new StringField())));
+			Model model = mock(Model.class);
+			when(model.getIndex()).thenReturn(modelIndex);
+			when(db.getMetaData()).thenReturn(model);
+			when(db.getSearchIndex()).thenReturn(index);
+
+			when(searchMapper.getDatabase()).thenReturn(db);
+			when(searchMapper.create()).thenReturn(new BaseEntity());
+			when(searchMapper.getSearchFields()).thenReturn(Arrays.asList("title"));
+			when(searchMapper.getFieldType("id")).thenReturn(new IntField());
+			when(searchMapper.getTableFieldName(anyString())).thenAnswer(new Answer<String>()
+			{
+				@Override
+				public String answer(InvocationOnMock invocation) throws Throwable
+				{
+					return (String) invocation.getArguments()[0];
+				}
+			});
+			when(searchMapper.rewriteMrefRule(any(Database.class), any(QueryRule.class))).thenAnswer(
+					new Answer<QueryRule>()
+					{
+						@Override
+						public QueryRule answer(InvocationOnMock invocation) throws Throwable
+						{
+							return (QueryRule) invocation.getArguments()[1];
+						}
+					});
+			doCallRealMethod().when(searchMapper).setMaxSearchHits(anyInt());
+			doCallRealMethod().when(searchMapper).rewriteRules(any(Database.class), anyListOf(QueryRule.class));
+			doCallRealMethod().when(searchMapper).createWhereSql(any(List.class), anyBoolean(), anyBoolean(),
+					Matchers.<QueryRule> anyVararg());
+			searchMapper.setMaxSearchHits(1);
+
+			// the index matches the start of words
+			QueryRule rule = search(searchMapper, db, "glob");
+			assertEquals(rule.getOperator(), Operator.IN);
+			assertEquals(rule.getValue(), Arrays.asList(1));
+			rule = search(searchMapper, db, "lobin");
+			assertEquals(rule.getOperator(), Operator.EQUALS);
+			assertNull(rule.getValue());
+
+			// more hits than maxSearchHits: 'LIKE' matches anywhere in a value
+			rule = search(searchMapper, db, "gene");
+			assertEquals(rule.getOperator(), Operator.SEARCH);
+			String sql = searchMapper.createWhereSql(null, false, false, rule);
+			assertTrue(sql.contains("lower(title) LIKE '%gene%'"), sql);
+
+			// without index 'LIKE' also finds 'lobin' in 'Globin'
+			index.clear();
+			rule = search(searchMapper, db, "lobin");
+			assertEquals(rule.getOperator(), Operator.SEARCH);
+			sql = searchMapper.createWhereSql(null, false, false, rule);
+			assertTrue(sql.contains("lower(title) LIKE '%lobin%'"), sql);
+		}
+		finally
+		{
+			index.close();
+		}
+	}
+
+	private static QueryRule search(AbstractJDBCMapper<BaseEntity> mapper, Database db, String searchString)
+			throws DatabaseException
+	{
+		List<QueryRule> rules = mapper.rewriteRules(db,
+				Arrays.asList(new QueryRule(Operator.SEARCH, searchString)));
+		assertEquals(rules.size(), 1);
+		return rules.get(0);
+	}
+
+	/**
+	 * Creates a statement that returns the given generated keys
+	 */
+	private static Statement statement(final int... generatedKeys) throws SQLException
+	{
+		ResultSet rs = mock(ResultSet.class);
+		final int[] row = new int[]
+		{ -1 };
+		when(rs.next()).thenAnswer(new Answer<Boolean>()
+		{
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws Throwable
+			{
+				return ++row[0] < generatedKeys.length;
+			}
+		});
+		when(rs.getInt(1)).thenAnswer(new Answer<Integer>()
+		{
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable
+			{
+				return generatedKeys[row[0]];
+			}
+		});
+		Statement stmt = mock(Statement.class);
+		when(stmt.getGeneratedKeys()).thenReturn(rs);
+		return stmt;
+	}
+}
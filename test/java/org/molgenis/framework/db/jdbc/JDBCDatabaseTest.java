@@ -0,0 +1,93 @@
+package org.molgenis.framework.db.jdbc;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.molgenis.framework.db.CountCacheTest.BaseEntity;
+import org.molgenis.framework.db.DatabaseException;
+import org.testng.annotations.Test;
+
+public class JDBCDatabaseTest
+{
+	@Test
+	public void sharedCachesOfConnectionDatabases() throws Exception
+	{
+		// the front controller creates a database with just a connection on
+		// each request
+		String url = "jdbc:hsqldb:mem:shared" + System.nanoTime();
+		JDBCDatabase db1 = new JDBCDatabase(createConnection(url, "sa"));
+		JDBCDatabase db2 = new JDBCDatabase(createConnection(url, "sa"));
+		JDBCDatabase other = new JDBCDatabase(createConnection(url, "other"));
+
+		assertNotNull(db1.getCountCache());
+		assertSame(db2.getCountCache(), db1.getCountCache());
+		assertNotSame(other.getCountCache(), db1.getCountCache());
+		assertNotNull(db1.getEntityCache());
+		assertSame(db2.getEntityCache(), db1.getEntityCache());
+		assertNotSame(other.getEntityCache(), db1.getEntityCache());
+
+		LuceneSearchIndex index = new LuceneSearchIndex();
+		try
+		{
+			db1.setSearchIndex(index);
+			assertSame(db2.getSearchIndex(), index);
+			assertNull(other.getSearchIndex());
+		}
+		finally
+		{
+			db1.setSearchIndex(null);
+			index.close();
+		}
+	}
+
+	@Test
+	public void dataVersionsOfConnectionDatabases() throws Exception
+	{
+		String url = "jdbc:hsqldb:mem:versions" + System.nanoTime();
+		JDBCDatabase db1 = new JDBCDatabase(createConnection(url, "sa"));
+		long version = db1.getDataVersion(BaseEntity.class, true);
+		assertEquals(version, 0);
+
+		// a write through another database changes the version
+		new JDBCDatabase(createConnection(url, "sa")).executeUpdate("delete from BaseEntity");
+		assertEquals(db1.getDataVersion(BaseEntity.class, true), version + 1);
+	}
+
+	@Test
+	public void noSharedCachesWithoutUrl() throws Exception
+	{
+		JDBCDatabase db = new JDBCDatabase(createConnection(null, "sa"));
+		assertNull(db.getCountCache());
+		assertNull(db.getEntityCache());
+		assertEquals(db.getDataVersion(BaseEntity.class, true), -1);
+	}
+
+	@Test
+	public void initSearchIndexWithoutUrl() throws DatabaseException, SQLException
+	{
+		JDBCDatabase db = new JDBCDatabase(createConnection(null, "sa"));
+		db.initSearchIndex("memory");
+		assertNull(db.getSearchIndex());
+	}
+
+	private static Connection createConnection(String url, String user) throws SQLException
+	{
+		DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+		when(metaData.getURL()).thenReturn(url);
+		when(metaData.getUserName()).thenReturn(user);
+		Connection connection = mock(Connection.class);
+		when(connection.getMetaData()).thenReturn(metaData);
+		when(connection.createStatement()).thenReturn(mock(Statement.class));
+		return connection;
+	}
+}
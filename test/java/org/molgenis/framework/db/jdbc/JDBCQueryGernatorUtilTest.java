@@ -0,0 +1,68 @@
+package org.molgenis.framework.db.jdbc;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.molgenis.fieldtypes.IntField;
+import org.molgenis.fieldtypes.StringField;
+import org.molgenis.framework.db.DatabaseException;
+import org.molgenis.framework.db.QueryRule;
+import org.molgenis.framework.db.QueryRule.Operator;
+import org.testng.annotations.Test;
+
+public class JDBCQueryGernatorUtilTest
+{
+	@Test
+	public void getInListBucketSize()
+	{
+		assertEquals(JDBCQueryGernatorUtil.getInListBucketSize(1), 1);
+		assertEquals(JDBCQueryGernatorUtil.getInListBucketSize(3), 4);
+		assertEquals(JDBCQueryGernatorUtil.getInListBucketSize(500), 512);
+		assertEquals(JDBCQueryGernatorUtil.getInListBucketSize(1024), 1024);
+		assertEquals(JDBCQueryGernatorUtil.getInListBucketSize(1025), 2048);
+		assertEquals(JDBCQueryGernatorUtil.getInListBucketSize(3000), 3072);
+	}
+
+	@Test
+	public void appendInParameters()
+	{
+		StringBuilder sql = new StringBuilder();
+		List<Object> parameters = new ArrayList<Object>();
+		JDBCQueryGernatorUtil.appendInParameters(sql, parameters, new Object[]
+		{ "1", "2", "3" }, new IntField());
+		assertEquals(sql.toString(), "?,?,?,?");
+		assertEquals(parameters, Arrays.<Object> asList(1, 2, 3, 3));
+	}
+
+	@Test
+	public void appendInParametersString()
+	{
+		StringBuilder sql = new StringBuilder();
+		List<Object> parameters = new ArrayList<Object>();
+		JDBCQueryGernatorUtil.appendInParameters(sql, parameters, new Object[]
+		{ "a'b" }, new StringField());
+		assertEquals(sql.toString(), "?");
+		assertEquals(parameters, Arrays.<Object> asList("a'b"));
+	}
+
+	@Test
+	public void createWhereSqlParameters() throws DatabaseException
+	{
+		List<Object> parameters = new ArrayList<Object>();
+		String sql = JDBCQueryGernatorUtil.createWhereSql(null, parameters, false, true, new QueryRule("name",
+				Operator.EQUALS, "a'b"), new QueryRule("id", Operator.IN, Arrays.asList(1, 2, 3)));
+		assertEquals(sql.trim(), "WHERE name = ? AND id IN(?,?,?,?)");
+		assertEquals(parameters, Arrays.<Object> asList("a'b", "1", "2", "3", "3"));
+	}
+
+	@Test
+	public void createWhereSqlInlined() throws DatabaseException
+	{
+		String sql = JDBCQueryGernatorUtil.createWhereSql(null, false, true, new QueryRule("name", Operator.EQUALS,
+				"a'b"));
+		assertEquals(sql.trim(), "WHERE name = 'a''b'");
+	}
+}
@@ -0,0 +1,155 @@
+package org.molgenis.framework.db.jdbc;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.molgenis.framework.db.CountCacheTest.BaseEntity;
+import org.molgenis.framework.db.CountCacheTest.OtherEntity;
+import org.molgenis.framework.db.CountCacheTest.SubEntity;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class LuceneSearchIndexTest
+{
+	private static final List<String> FIELDS = Arrays.asList("title", "extra");
+
+	private LuceneSearchIndex index;
+
+	@BeforeMethod
+	public void setUp() throws Exception
+	{
+		index = new LuceneSearchIndex();
+	}
+
+	@AfterMethod
+	public void tearDown() throws Exception
+	{
+		index.close();
+	}
+
+	@Test
+	public void search() throws Exception
+	{
+		Map<String, Map<String, String>> documents = new LinkedHashMap<String, Map<String, String>>();
+		documents.put("1", createDocument("title", "Globin gene"));
+		documents.put("2", createDocument("title", "Globular protein"));
+		documents.put("3", createDocument("title", "Gene of interest"));
+		index.update(BaseEntity.class, documents);
+
+		assertEquals(new HashSet<String>(index.search(BaseEntity.class, FIELDS, "glob", 10)), new HashSet<String>(
+				Arrays.asList("1", "2")));
+		assertEquals(new HashSet<String>(index.search(BaseEntity.class, FIELDS, "GENE", 10)), new HashSet<String>(
+				Arrays.asList("1", "3")));
+		assertEquals(index.search(BaseEntity.class, FIELDS, "globin gene", 10), Arrays.asList("1"));
+		assertEquals(index.search(BaseEntity.class, FIELDS, "unknown", 10), Collections.emptyList());
+		assertEquals(index.search(OtherEntity.class, FIELDS, "glob", 10), Collections.emptyList());
+	}
+
+	@Test
+	public void searchNoTermsOrTooManyHits() throws Exception
+	{
+		Map<String, Map<String, String>> documents = new LinkedHashMap<String, Map<String, String>>();
+		for (int i = 0; i < 5; i++)
+			documents.put(String.valueOf(i), createDocument("title", "gene " + i));
+		index.update(BaseEntity.class, documents);
+
+		assertNull(index.search(BaseEntity.class, FIELDS, " ", 10));
+		assertNull(index.search(BaseEntity.class, FIELDS, "gene", 4));
+		assertEquals(index.search(BaseEntity.class, FIELDS, "gene", 5).size(), 5);
+	}
+
+	@Test
+	public void updateSubclass() throws Exception
+	{
+		index.update(BaseEntity.class, Collections.singletonMap("1", createDocument("title", "base title")));
+		index.update(SubEntity.class, Collections.singletonMap("1", createDocument("extra", "sub extra")));
+
+		// the sub class document keeps the values of its super class
+		assertEquals(index.search(SubEntity.class, FIELDS, "title extra", 10), Arrays.asList("1"));
+		assertEquals(index.search(BaseEntity.class, FIELDS, "title", 10), Arrays.asList("1"));
+
+		index.update(BaseEntity.class, Collections.singletonMap("1", createDocument("title", "changed")));
+		assertEquals(index.search(SubEntity.class, FIELDS, "title", 10), Collections.emptyList());
+		assertEquals(index.search(SubEntity.class, FIELDS, "changed extra", 10), Arrays.asList("1"));
+	}
+
+	@Test
+	public void remove() throws Exception
+	{
+		Map<String, Map<String, String>> documents = new LinkedHashMap<String, Map<String, String>>();
+		documents.put("1", createDocument("title", "gene"));
+		documents.put("2", createDocument("title", "gene"));
+		index.update(SubEntity.class, documents);
+
+		index.remove(BaseEntity.class, Arrays.asList("1"));
+		assertEquals(index.search(SubEntity.class, FIELDS, "gene", 10), Arrays.asList("2"));
+	}
+
+	@Test
+	public void commit() throws Exception
+	{
+		RAMDirectory directory = new RAMDirectory();
+		LuceneSearchIndex directoryIndex = new LuceneSearchIndex(directory);
+		try
+		{
+			directoryIndex.update(BaseEntity.class, Collections.singletonMap("1", createDocument("title", "gene")));
+			directoryIndex.markIndexed(BaseEntity.class);
+
+			// searchable right away, written on commit
+			assertEquals(directoryIndex.search(BaseEntity.class, FIELDS, "gene", 10), Arrays.asList("1"));
+			assertEquals(numDocs(directory), 0);
+			directoryIndex.commit();
+			assertEquals(numDocs(directory), 2);
+		}
+		finally
+		{
+			directoryIndex.close();
+		}
+	}
+
+	@Test
+	public void markIndexed() throws Exception
+	{
+		assertFalse(index.isIndexed(BaseEntity.class));
+		index.markIndexed(BaseEntity.class);
+		assertTrue(index.isIndexed(BaseEntity.class));
+		assertFalse(index.isIndexed(SubEntity.class));
+		index.clear();
+		assertFalse(index.isIndexed(BaseEntity.class));
+	}
+
+	private static int numDocs(Directory directory) throws IOException
+	{
+		IndexReader reader = IndexReader.open(directory, true);
+		try
+		{
+			return reader.numDocs();
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	private static Map<String, String> createDocument(String field, String value)
+	{
+		Map<String, String> document = new HashMap<String, String>();
+		document.put(field, value);
+		return document;
+	}
+}
@@ -0,0 +1,197 @@
+package org.molgenis.framework.db.jdbc;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.molgenis.framework.db.DatabaseException;
+import org.molgenis.framework.db.QueryRule;
+import org.molgenis.framework.db.QueryRule.Operator;
+import org.molgenis.framework.db.TupleIterator;
+
+/**
+ * Compares the throughput of repeated queries that only differ in their filter
+ * values on an in-memory HSQLDB database:
+ * <ul>
+ * <li>values inlined as escaped sql, as the query generators did before</li>
+ * <li>values bound as parameters, preparing a new statement for each query</li>
+ * <li>values bound as parameters through {@link JDBCDatabase} and its
+ * {@link PreparedStatementCache}, as mapper find and count do</li>
+ * </ul>
+ * Equals queries and IN queries with 1 to 20 values are timed separately,
+ * because databases differ in how they plan IN lists of parameters (HSQLDB
+ * 1.8 does not use an index for them). Not a unit test, run with:
+ *
+ * <pre>
+ * java -cp ... org.molgenis.framework.db.jdbc.PreparedStatementBenchmark [nrRuns]
+ * </pre>
+ */
+public class PreparedStatementBenchmark
+{
+	private static final int NR_ROWS = 10000;
+	private static final int NR_QUERIES = 20000;
+	private static final String SELECT_SQL = "SELECT id, name, continent FROM Country";
+
+	public static void main(String[] args) throws Exception
+	{
+		int nrRuns = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+		Class.forName("org.hsqldb.jdbcDriver");
+		Connection conn = DriverManager.getConnection("jdbc:hsqldb:mem:PreparedStatementBenchmark", "sa", "");
+		try
+		{
+			createTable(conn);
+			JDBCDatabase db = new JDBCDatabase(conn);
+			for (boolean inQueries : new boolean[]
+			{ false, true })
+			{
+				List<QueryRule[]> queries = createQueries(inQueries);
+				System.out.println(NR_QUERIES + (inQueries ? " IN queries" : " equals queries"));
+				for (int run = 0; run < nrRuns; ++run)
+				{
+					long inlined = queryInlined(conn, queries);
+					long prepared = queryPrepared(conn, queries);
+					long cached = queryCached(db, queries);
+					System.out.println("run " + run + ": inlined " + inlined + " ms, prepared " + prepared
+							+ " ms, prepared and cached " + cached + " ms");
+				}
+			}
+		}
+		finally
+		{
+			Statement stmt = conn.createStatement();
+			stmt.execute("SHUTDOWN");
+			stmt.close();
+			conn.close();
+		}
+	}
+
+	private static void createTable(Connection conn) throws SQLException
+	{
+		Statement stmt = conn.createStatement();
+		try
+		{
+			stmt.execute("CREATE TABLE Country (id INTEGER PRIMARY KEY, name VARCHAR(255), continent VARCHAR(255))");
+			stmt.execute("CREATE INDEX Country_name ON Country (name)");
+		}
+		finally
+		{
+			stmt.close();
+		}
+
+		PreparedStatement pstmt = conn.prepareStatement("INSERT INTO Country (id, name, continent) VALUES (?, ?, ?)");
+		try
+		{
+			for (int i = 0; i < NR_ROWS; ++i)
+			{
+				pstmt.setInt(1, i);
+				pstmt.setString(2, "country" + i);
+				pstmt.setString(3, "continent" + i % 7);
+				pstmt.executeUpdate();
+			}
+		}
+		finally
+		{
+			pstmt.close();
+		}
+	}
+
+	/**
+	 * Creates equals queries or IN queries of 1 to 20 values
+	 */
+	private static List<QueryRule[]> createQueries(boolean inQueries)
+	{
+		Random random = new Random(NR_QUERIES);
+		List<QueryRule[]> queries = new ArrayList<QueryRule[]>(NR_QUERIES);
+		for (int i = 0; i < NR_QUERIES; ++i)
+		{
+			if (!inQueries)
+			{
+				queries.add(new QueryRule[]
+				{ new QueryRule("name", Operator.EQUALS, "country" + random.nextInt(NR_ROWS)) });
+			}
+			else
+			{
+				List<Object> names = new ArrayList<Object>();
+				for (int j = random.nextInt(20); j >= 0; --j)
+					names.add("country" + random.nextInt(NR_ROWS));
+				queries.add(new QueryRule[]
+				{ new QueryRule("name", Operator.IN, names) });
+			}
+		}
+		return queries;
+	}
+
+	/**
+	 * Queries the way the generators did before values were bound
+	 */
+	private static long queryInlined(Connection conn, List<QueryRule[]> queries) throws SQLException,
+			DatabaseException, IOException
+	{
+		long start = System.currentTimeMillis();
+		long nrRows = 0;
+		for (QueryRule[] rules : queries)
+		{
+			String sql = SELECT_SQL + JDBCQueryGernatorUtil.createWhereSql(null, false, true, rules);
+			Statement stmt = conn.createStatement();
+			ResultSet rs = stmt.executeQuery(sql);
+			nrRows += countRows(new ResultSetTupleIterator(stmt, rs));
+		}
+		if (nrRows == 0) throw new DatabaseException("no rows found");
+		return System.currentTimeMillis() - start;
+	}
+
+	private static long queryPrepared(Connection conn, List<QueryRule[]> queries) throws SQLException,
+			DatabaseException, IOException
+	{
+		long start = System.currentTimeMillis();
+		long nrRows = 0;
+		for (QueryRule[] rules : queries)
+		{
+			List<Object> parameters = new ArrayList<Object>();
+			String sql = SELECT_SQL + JDBCQueryGernatorUtil.createWhereSql(null, parameters, false, true, rules);
+			PreparedStatement pstmt = conn.prepareStatement(sql);
+			for (int i = 0; i < parameters.size(); ++i)
+				pstmt.setObject(i + 1, parameters.get(i));
+			nrRows += countRows(new ResultSetTupleIterator(pstmt, pstmt.executeQuery()));
+		}
+		if (nrRows == 0) throw new DatabaseException("no rows found");
+		return System.currentTimeMillis() - start;
+	}
+
+	private static long queryCached(JDBCDatabase db, List<QueryRule[]> queries) throws DatabaseException,
+			IOException
+	{
+		long start = System.currentTimeMillis();
+		long nrRows = 0;
+		for (QueryRule[] rules : queries)
+			nrRows += countRows(db.sqlIterator(SELECT_SQL, rules));
+		if (nrRows == 0) throw new DatabaseException("no rows found");
+		return System.currentTimeMillis() - start;
+	}
+
+	private static long countRows(TupleIterator it) throws IOException
+	{
+		long nrRows = 0;
+		try
+		{
+			while (it.hasNext())
+			{
+				it.next();
+				++nrRows;
+			}
+		}
+		finally
+		{
+			it.close();
+		}
+		return nrRows;
+	}
+}
@@ -0,0 +1,123 @@
+package org.molgenis.framework.db.jdbc;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class PreparedStatementCacheTest
+{
+	private Connection connection;
+	private PreparedStatement stmt1;
+	private PreparedStatement stmt2;
+	private PreparedStatement stmt3;
+
+	@BeforeMethod
+	public void setUp() throws SQLException
+	{
+		connection = mock(Connection.class);
+		stmt1 = mock(PreparedStatement.class);
+		stmt2 = mock(PreparedStatement.class);
+		stmt3 = mock(PreparedStatement.class);
+		when(connection.prepareStatement("sql1")).thenReturn(stmt1, stmt3);
+		when(connection.prepareStatement("sql2")).thenReturn(stmt2);
+	}
+
+	@Test
+	public void takeRelease() throws SQLException
+	{
+		PreparedStatementCache cache = new PreparedStatementCache(connection);
+		assertSame(cache.take("sql1"), stmt1);
+		cache.release("sql1", stmt1);
+		assertSame(cache.take("sql1"), stmt1);
+		cache.release("sql1", stmt1);
+
+		assertEquals(cache.getHits(), 1);
+		assertEquals(cache.getMisses(), 1);
+		assertEquals(cache.size(), 1);
+		verify(connection, times(1)).prepareStatement("sql1");
+		verify(stmt1, times(2)).clearParameters();
+		verify(stmt1, never()).close();
+	}
+
+	@Test
+	public void takeInUse() throws SQLException
+	{
+		PreparedStatementCache cache = new PreparedStatementCache(connection);
+		PreparedStatement first = cache.take("sql1");
+		PreparedStatement second = cache.take("sql1");
+		assertNotSame(first, second);
+
+		cache.release("sql1", first);
+		cache.release("sql1", second);
+		assertEquals(cache.size(), 1);
+		verify(stmt3).close();
+	}
+
+	@Test
+	public void evictLeastRecentlyUsed() throws SQLException
+	{
+		PreparedStatementCache cache = new PreparedStatementCache(connection, 1);
+		cache.release("sql1", cache.take("sql1"));
+		cache.release("sql2", cache.take("sql2"));
+
+		assertEquals(cache.size(), 1);
+		verify(stmt1).close();
+		verify(stmt2, never()).close();
+	}
+
+	@Test
+	public void close() throws SQLException
+	{
+		PreparedStatementCache cache = new PreparedStatementCache(connection);
+		cache.release("sql1", cache.take("sql1"));
+		PreparedStatement inUse = cache.take("sql2");
+		cache.close();
+		verify(stmt1).close();
+		verify(stmt2, never()).close();
+
+		cache.release("sql2", inUse);
+		verify(stmt2).close();
+		assertEquals(cache.size(), 0);
+	}
+
+	@Test(expectedExceptions = SQLException.class)
+	public void takeClosed() throws SQLException
+	{
+		PreparedStatementCache cache = new PreparedStatementCache(connection);
+		cache.close();
+		cache.take("sql1");
+	}
+
+	@Test
+	public void releaseUnknown() throws SQLException
+	{
+		PreparedStatementCache cache = new PreparedStatementCache(connection);
+		cache.release("sql1", stmt1);
+		assertEquals(cache.size(), 0);
+		verify(stmt1).close();
+	}
+
+	@Test
+	public void releaseTwice() throws SQLException
+	{
+		PreparedStatementCache cache = new PreparedStatementCache(connection);
+		PreparedStatement stmt = cache.take("sql1");
+		cache.release("sql1", stmt);
+		cache.release("sql1", stmt);
+		assertEquals(cache.size(), 1);
+		verify(stmt1, never()).close();
+		assertSame(cache.take("sql1"), stmt1);
+	}
+}
@@ -0,0 +1,116 @@
+package org.molgenis.framework.db.jdbc;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.molgenis.framework.db.DatabaseException;
+import org.molgenis.util.tuple.Tuple;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ResultSetTupleIteratorTest
+{
+	private Statement stmt;
+	private ResultSet rs;
+
+	@BeforeMethod
+	public void setUp() throws SQLException
+	{
+		ResultSetMetaData metadata = mock(ResultSetMetaData.class);
+		when(metadata.getColumnCount()).thenReturn(2);
+		when(metadata.getColumnLabel(1)).thenReturn("Name");
+		when(metadata.getColumnLabel(2)).thenReturn("Continent");
+
+		stmt = mock(Statement.class);
+		rs = mock(ResultSet.class);
+		when(rs.getMetaData()).thenReturn(metadata);
+		when(rs.next()).thenReturn(true, true, false);
+		when(rs.getObject(1)).thenReturn("Netherlands", "Kenya");
+		when(rs.getObject(2)).thenReturn("Europe", "Africa");
+	}
+
+	@Test
+	public void iterate() throws DatabaseException, SQLException
+	{
+		ResultSetTupleIterator it = new ResultSetTupleIterator(stmt, rs);
+
+		Iterator<String> colNames = it.getColNames().iterator();
+		assertEquals(colNames.next(), "name");
+		assertEquals(colNames.next(), "continent");
+
+		assertTrue(it.hasNext());
+		Tuple row0 = it.next();
+		assertEquals(row0.getString("Name"), "Netherlands");
+		assertEquals(row0.getString("CONTINENT"), "Europe");
+
+		assertTrue(it.hasNext());
+		Tuple row1 = it.next();
+		assertEquals(row1.getString("name"), "Kenya");
+		assertEquals(row1.getString(1), "Africa");
+
+		assertFalse(it.hasNext());
+		verify(rs, times(1)).close();
+		verify(stmt, times(1)).close();
+	}
+
+	@Test
+	public void iterate_duplicateLabels() throws DatabaseException, SQLException
+	{
+		ResultSetMetaData metadata = mock(ResultSetMetaData.class);
+		when(metadata.getColumnCount()).thenReturn(3);
+		when(metadata.getColumnLabel(1)).thenReturn("name");
+		when(metadata.getColumnLabel(2)).thenReturn("continent");
+		when(metadata.getColumnLabel(3)).thenReturn("NAME");
+		ResultSet rs = mock(ResultSet.class);
+		when(rs.getMetaData()).thenReturn(metadata);
+		when(rs.next()).thenReturn(true, false);
+		when(rs.getObject(1)).thenReturn("Netherlands");
+		when(rs.getObject(2)).thenReturn("Europe");
+		when(rs.getObject(3)).thenReturn("Holland");
+
+		ResultSetTupleIterator it = new ResultSetTupleIterator(stmt, rs);
+		Iterator<String> colNames = it.getColNames().iterator();
+		assertEquals(colNames.next(), "name");
+		assertEquals(colNames.next(), "continent");
+		assertFalse(colNames.hasNext());
+
+		Tuple row0 = it.next();
+		assertEquals(row0.getString("name"), "Holland");
+		assertEquals(row0.getString(0), "Netherlands");
+		assertEquals(row0.getString("continent"), "Europe");
+	}
+
+	@Test(expectedExceptions = NoSuchElementException.class)
+	public void nextAfterEnd() throws DatabaseException
+	{
+		ResultSetTupleIterator it = new ResultSetTupleIterator(stmt, rs);
+		it.next();
+		it.next();
+		it.next();
+	}
+
+	@Test
+	public void close() throws DatabaseException, SQLException, IOException
+	{
+		ResultSetTupleIterator it = new ResultSetTupleIterator(stmt, rs);
+		it.next();
+		it.close();
+		assertFalse(it.hasNext());
+		it.close();
+		verify(rs, times(1)).close();
+		verify(stmt, times(1)).close();
+	}
+}
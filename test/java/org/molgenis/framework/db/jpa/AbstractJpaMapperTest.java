@@ -0,0 +1,145 @@
+package org.molgenis.framework.db.jpa;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Vector;
+
+import javax.persistence.EntityManager;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.molgenis.framework.db.AbstractMapper;
+import org.molgenis.framework.db.Database;
+import org.molgenis.io.TupleWriter;
+import org.molgenis.util.Entity;
+import org.molgenis.util.tuple.Tuple;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class AbstractJpaMapperTest
+{
+	private static final int NR_ENTITIES = 2 * AbstractMapper.BATCH_SIZE + 1;
+
+	private AbstractJpaMapper<Entity> mapper;
+	private Database db;
+	private EntityManager em;
+	private TupleWriter writer;
+	private List<Object> written;
+
+	@SuppressWarnings("unchecked")
+	@BeforeMethod
+	public void setUp() throws IOException
+	{
+		db = mock(Database.class);
+		em = mock(EntityManager.class);
+		mapper = mock(AbstractJpaMapper.class);
+		when(mapper.getDatabase()).thenReturn(db);
+		doCallRealMethod().when(mapper).write(any(ScrollIterator.class), any(EntityManager.class),
+				any(TupleWriter.class), any(List.class));
+
+		written = new ArrayList<Object>();
+		writer = mock(TupleWriter.class);
+		doAnswer(new Answer<Void>()
+		{
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				written.add(((Tuple) invocation.getArguments()[0]).get("id"));
+				return null;
+			}
+		}).when(writer).write(any(Tuple.class));
+	}
+
+	@Test
+	public void writeStreamsAllEntities() throws IOException
+	{
+		EntityIterator it = new EntityIterator(NR_ENTITIES);
+		int count = mapper.write(it, em, writer, Arrays.asList("id"));
+
+		assertEquals(count, NR_ENTITIES);
+		assertEquals(written.size(), NR_ENTITIES);
+		for (int i = 0; i < NR_ENTITIES; i++)
+			assertEquals(written.get(i), i);
+		// each entity is written before the next one is read
+		assertEquals(it.maxUnwritten, 1);
+		verify(writer).writeColNames(Arrays.asList("id"));
+		verify(writer).close();
+	}
+
+	@Test
+	public void writeClearsPersistenceContextOutsideTx() throws IOException
+	{
+		when(db.inTx()).thenReturn(false);
+		mapper.write(new EntityIterator(NR_ENTITIES), em, writer, Arrays.asList("id"));
+		verify(em, times(NR_ENTITIES / AbstractMapper.BATCH_SIZE)).clear();
+		verify(em, never()).detach(any());
+	}
+
+	@Test
+	public void writeDetachesEntitiesInTx() throws IOException
+	{
+		when(db.inTx()).thenReturn(true);
+		mapper.write(new EntityIterator(NR_ENTITIES), em, writer, Arrays.asList("id"));
+		verify(em, never()).clear();
+		verify(em, times(NR_ENTITIES)).detach(any());
+	}
+
+	/**
+	 * Creates entities on demand, like a database cursor, and keeps track of
+	 * the number of entities read but not yet written
+	 */
+	private class EntityIterator implements ScrollIterator<Entity>
+	{
+		private final int size;
+		private int index = 0;
+		int maxUnwritten = 0;
+
+		EntityIterator(int size)
+		{
+			this.size = size;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return index < size;
+		}
+
+		@Override
+		public Entity next()
+		{
+			if (!hasNext()) throw new NoSuchElementException();
+			Entity entity = mock(Entity.class);
+			when(entity.getFields()).thenReturn(new Vector<String>(Arrays.asList("id")));
+			when(entity.get("id")).thenReturn(index++);
+			maxUnwritten = Math.max(maxUnwritten, index - written.size());
+			assertTrue(maxUnwritten <= 1, "entities are read ahead of writing");
+			return entity;
+		}
+
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+}
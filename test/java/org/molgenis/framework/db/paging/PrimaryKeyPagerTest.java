@@ -0,0 +1,363 @@
+package org.molgenis.framework.db.paging;
+
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.molgenis.framework.db.Database;
+import org.molgenis.framework.db.QueryRule;
+import org.molgenis.framework.db.QueryRule.Operator;
+import org.molgenis.util.AbstractEntity;
+import org.molgenis.util.Entity;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class PrimaryKeyPagerTest
+{
+	private static final int SIZE = 23;
+
+	private Database db;
+	private List<TestEntity> entities;
+	private List<QueryRule[]> findRules;
+
+	@BeforeMethod
+	public void setUp() throws Exception
+	{
+		entities = new ArrayList<TestEntity>();
+		for (int i = 0; i < SIZE; i++)
+			entities.add(new TestEntity(i, "n" + (i % 7)));
+		findRules = new ArrayList<QueryRule[]>();
+
+		db = mock(Database.class);
+		when(db.count(eq(TestEntity.class), (QueryRule[]) anyVararg())).thenAnswer(new Answer<Integer>()
+		{
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable
+			{
+				return find(getRules(invocation)).size();
+			}
+		});
+		when(db.find(eq(TestEntity.class), (QueryRule[]) anyVararg())).thenAnswer(new Answer<List<TestEntity>>()
+		{
+			@Override
+			public List<TestEntity> answer(InvocationOnMock invocation) throws Throwable
+			{
+				QueryRule[] rules = getRules(invocation);
+				findRules.add(rules);
+				return find(rules);
+			}
+		});
+	}
+
+	@Test
+	public void nextPrevAscending() throws Exception
+	{
+		assertPaging(Operator.SORTASC);
+	}
+
+	@Test
+	public void nextPrevDescending() throws Exception
+	{
+		assertPaging(Operator.SORTDESC);
+	}
+
+	@Test
+	public void nextUsesSeekInsteadOfOffset() throws Exception
+	{
+		PrimaryKeyPager<TestEntity> pager = createPager(Operator.SORTASC);
+		pager.first(db);
+		pager.next(db);
+		pager.next(db);
+		pager.prev(db);
+		for (QueryRule[] rules : findRules)
+			assertFalse(hasOperator(rules, Operator.OFFSET));
+		assertTrue(hasOperator(findRules.get(findRules.size() - 1), Operator.NESTED));
+	}
+
+	@Test
+	public void setOffsetToAdjacentPage() throws Exception
+	{
+		PrimaryKeyPager<TestEntity> pager = createPager(Operator.SORTASC);
+		pager.first(db);
+		pager.setOffset(5);
+		assertEquals(ids(pager.getPage(db)), ids(sorted(Operator.SORTASC).subList(5, 10)));
+		assertFalse(hasOperator(findRules.get(findRules.size() - 1), Operator.OFFSET));
+	}
+
+	@Test
+	public void setOffsetRandomJump() throws Exception
+	{
+		PrimaryKeyPager<TestEntity> pager = createPager(Operator.SORTASC);
+		pager.first(db);
+		pager.setOffset(15);
+		assertEquals(ids(pager.getPage(db)), ids(sorted(Operator.SORTASC).subList(15, 20)));
+		assertTrue(hasOperator(findRules.get(findRules.size() - 1), Operator.OFFSET));
+
+		// from there on seek again
+		pager.prev(db);
+		assertEquals(ids(pager.getPage(db)), ids(sorted(Operator.SORTASC).subList(10, 15)));
+		assertFalse(hasOperator(findRules.get(findRules.size() - 1), Operator.OFFSET));
+	}
+
+	@Test
+	public void last() throws Exception
+	{
+		PrimaryKeyPager<TestEntity> pager = createPager(Operator.SORTDESC);
+		List<TestEntity> page = pager.last(db);
+		assertEquals(pager.getOffset(), 20);
+		assertEquals(ids(page), ids(sorted(Operator.SORTDESC).subList(20, SIZE)));
+		assertFalse(hasOperator(findRules.get(findRules.size() - 1), Operator.OFFSET));
+	}
+
+	@Test
+	public void refreshAfterFilterChange() throws Exception
+	{
+		PrimaryKeyPager<TestEntity> pager = createPager(Operator.SORTASC);
+		pager.first(db);
+		pager.next(db);
+		pager.resetFilters(Arrays.asList(new QueryRule("name", Operator.EQUALS, "n1")));
+		assertEquals(pager.getCount(db), 4);
+		assertEquals(ids(pager.getPage(db)), Arrays.<Object> asList(1, 8, 15, 22));
+		assertEquals(pager.getOffset(), 0);
+	}
+
+	private void assertPaging(Operator operator) throws Exception
+	{
+		PrimaryKeyPager<TestEntity> pager = createPager(operator);
+		List<TestEntity> expected = sorted(operator);
+
+		List<Object> forward = new ArrayList<Object>();
+		forward.addAll(ids(pager.first(db)));
+		for (int i = 0; i < 4; i++)
+			forward.addAll(ids(pager.next(db)));
+		assertEquals(forward, ids(expected));
+		assertEquals(pager.getOffset(), 20);
+
+		for (int offset = 15; offset >= 0; offset -= 5)
+		{
+			assertEquals(ids(pager.prev(db)), ids(expected.subList(offset, offset + 5)));
+			assertEquals(pager.getOffset(), offset);
+		}
+	}
+
+	private PrimaryKeyPager<TestEntity> createPager(Operator operator) throws Exception
+	{
+		PrimaryKeyPager<TestEntity> pager = new PrimaryKeyPager<TestEntity>(TestEntity.class, "name", "id");
+		pager.setSubclassesExcluded(false);
+		pager.setLimit(5);
+		pager.setOrderByOperator(operator);
+		return pager;
+	}
+
+	private List<TestEntity> sorted(Operator operator)
+	{
+		return find(new QueryRule[]
+		{ new QueryRule(operator, "name"), new QueryRule(operator, "id") });
+	}
+
+	private static List<Object> ids(List<TestEntity> entities)
+	{
+		List<Object> ids = new ArrayList<Object>();
+		for (TestEntity entity : entities)
+			ids.add(entity.get("id"));
+		return ids;
+	}
+
+	private static boolean hasOperator(QueryRule[] rules, Operator operator)
+	{
+		for (QueryRule rule : rules)
+			if (rule.getOperator() == operator) return true;
+		return false;
+	}
+
+	private static QueryRule[] getRules(InvocationOnMock invocation)
+	{
+		List<QueryRule> rules = new ArrayList<QueryRule>();
+		for (Object arg : Arrays.asList(invocation.getArguments()).subList(1, invocation.getArguments().length))
+		{
+			if (arg instanceof QueryRule[]) rules.addAll(Arrays.asList((QueryRule[]) arg));
+			else if (arg != null) rules.add((QueryRule) arg);
+		}
+		return rules.toArray(new QueryRule[rules.size()]);
+	}
+
+	/** in memory evaluation of filter, sort, limit and offset rules */
+	private List<TestEntity> find(final QueryRule[] rules)
+	{
+		List<TestEntity> result = new ArrayList<TestEntity>();
+		for (TestEntity entity : entities)
+			if (matches(entity, rules)) result.add(entity);
+
+		Collections.sort(result, new Comparator<TestEntity>()
+		{
+			@Override
+			public int compare(TestEntity e1, TestEntity e2)
+			{
+				for (QueryRule rule : rules)
+				{
+					if (rule.getOperator() != Operator.SORTASC && rule.getOperator() != Operator.SORTDESC) continue;
+					int c = compareValues(e1.get(rule.getValue().toString()), e2.get(rule.getValue().toString()));
+					if (c != 0) return rule.getOperator() == Operator.SORTASC ? c : -c;
+				}
+				return 0;
+			}
+		});
+
+		int offset = 0;
+		int limit = Integer.MAX_VALUE;
+		for (QueryRule rule : rules)
+		{
+			if (rule.getOperator() == Operator.OFFSET) offset = (Integer) rule.getValue();
+			if (rule.getOperator() == Operator.LIMIT) limit = (Integer) rule.getValue();
+		}
+		return new ArrayList<TestEntity>(result.subList(Math.min(offset, result.size()),
+				(int) Math.min((long) offset + limit, result.size())));
+	}
+
+	private static boolean matches(Entity entity, QueryRule[] rules)
+	{
+		boolean result = true;
+		boolean or = false;
+		for (QueryRule rule : rules)
+		{
+			boolean value;
+			switch (rule.getOperator())
+			{
+				case OR:
+					or = true;
+					continue;
+				case NESTED:
+					value = matches(entity, rule.getNestedRules());
+					break;
+				case EQUALS:
+					value = compareValues(entity.get(rule.getField()), rule.getValue()) == 0;
+					break;
+				case GREATER:
+					value = compareValues(entity.get(rule.getField()), rule.getValue()) > 0;
+					break;
+				case GREATER_EQUAL:
+					value = compareValues(entity.get(rule.getField()), rule.getValue()) >= 0;
+					break;
+				case LESS:
+					value = compareValues(entity.get(rule.getField()), rule.getValue()) < 0;
+					break;
+				case LESS_EQUAL:
+					value = compareValues(entity.get(rule.getField()), rule.getValue()) <= 0;
+					break;
+				default:
+					continue;
+			}
+			result = or ? result || value : result && value;
+			or = false;
+		}
+		return result;
+	}
+
+	@SuppressWarnings(
+	{ "unchecked", "rawtypes" })
+	private static int compareValues(Object value1, Object value2)
+	{
+		return ((Comparable) value1).compareTo(value2);
+	}
+
+	public static class TestEntity extends AbstractEntity
+	{
+		private static final long serialVersionUID = 1L;
+
+		private Map<String, Object> map = new HashMap<String, Object>();
+
+		public TestEntity()
+		{
+		}
+
+		public TestEntity(Integer id, String name)
+		{
+			map.put("id", id);
+			map.put("name", name);
+		}
+
+		@Override
+		public void set(org.molgenis.util.tuple.Tuple values, boolean strict) throws Exception
+		{
+			for (String colName : values.getColNames())
+				map.put(colName, values.get(colName));
+		}
+
+		@Override
+		public Object get(String columnName)
+		{
+			return map.get(columnName);
+		}
+
+		@Override
+		public String getIdField()
+		{
+			return "id";
+		}
+
+		@Override
+		public Object getIdValue()
+		{
+			return map.get("id");
+		}
+
+		@Override
+		public List<String> getLabelFields()
+		{
+			return Arrays.asList("name");
+		}
+
+		@Override
+		public Vector<String> getFields()
+		{
+			return new Vector<String>(Arrays.asList("id", "name"));
+		}
+
+		@Override
+		public Vector<String> getFields(boolean skipAutoIds)
+		{
+			return getFields();
+		}
+
+		@Deprecated
+		@Override
+		public String getFields(String sep)
+		{
+			return "id" + sep + "name";
+		}
+
+		@Override
+		public void validate() throws Exception
+		{
+		}
+
+		@Override
+		public Entity create(org.molgenis.util.tuple.Tuple tuple) throws Exception
+		{
+			TestEntity entity = new TestEntity();
+			entity.set(tuple);
+			return entity;
+		}
+
+		@Override
+		public String getXrefIdFieldName(String fieldName)
+		{
+			return null;
+		}
+	}
+}
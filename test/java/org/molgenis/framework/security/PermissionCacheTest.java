@@ -0,0 +1,131 @@
+package org.molgenis.framework.security;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+
+import org.molgenis.framework.db.DatabaseException;
+import org.molgenis.framework.db.QueryRule;
+import org.molgenis.framework.db.QueryRule.Operator;
+import org.molgenis.framework.db.jdbc.JDBCDatabase;
+import org.molgenis.util.Entity;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class PermissionCacheTest
+{
+	private PermissionCache cache;
+	private Login login;
+
+	@BeforeMethod
+	public void setUp() throws DatabaseException
+	{
+		cache = new PermissionCache();
+		login = mock(Login.class);
+		when(login.isAuthenticated()).thenReturn(true);
+		when(login.getUserId()).thenReturn(1);
+		when(login.getUserName()).thenReturn("user");
+		when(login.canRead(Entity.class)).thenReturn(true);
+		when(login.canWrite(Entity.class)).thenReturn(false);
+	}
+
+	@Test
+	public void permissions() throws DatabaseException
+	{
+		assertTrue(cache.canRead(login, Entity.class));
+		assertTrue(cache.canRead(login, Entity.class));
+		assertFalse(cache.canWrite(login, Entity.class));
+		assertFalse(cache.canWrite(login, Entity.class));
+		verify(login, times(1)).canRead(Entity.class);
+		verify(login, times(1)).canWrite(Entity.class);
+	}
+
+	@Test
+	public void loginChanged() throws DatabaseException
+	{
+		cache.canRead(login, Entity.class);
+		when(login.getUserId()).thenReturn(2);
+		cache.canRead(login, Entity.class);
+		verify(login, times(2)).canRead(Entity.class);
+	}
+
+	@Test
+	public void invalidate() throws DatabaseException
+	{
+		cache.canRead(login, Entity.class);
+		cache.invalidate();
+		cache.canRead(login, Entity.class);
+		cache.invalidate(login);
+		cache.canRead(login, Entity.class);
+		verify(login, times(3)).canRead(Entity.class);
+	}
+
+	@Test
+	public void invalidateOnCommitAndRollback() throws Exception
+	{
+		Connection connection = mock(Connection.class);
+		when(connection.getMetaData()).thenReturn(mock(DatabaseMetaData.class));
+		JDBCDatabase db = new JDBCDatabase(connection);
+		PermissionCache instance = PermissionCache.getInstance();
+
+		db.beginTx();
+		instance.invalidate(db);
+		// another connection caches the old permission before the commit
+		instance.canRead(login, Entity.class);
+		db.commitTx();
+		instance.canRead(login, Entity.class);
+		verify(login, times(2)).canRead(Entity.class);
+
+		db.beginTx();
+		instance.invalidate(db);
+		instance.canRead(login, Entity.class);
+		db.rollbackTx();
+		instance.canRead(login, Entity.class);
+		verify(login, times(4)).canRead(Entity.class);
+	}
+
+	@Test
+	public void maxAge() throws Exception
+	{
+		cache.setMaxAge(0);
+		cache.canRead(login, Entity.class);
+		Thread.sleep(5);
+		cache.canRead(login, Entity.class);
+		verify(login, times(2)).canRead(Entity.class);
+	}
+
+	@Test
+	public void rowLevelFilters()
+	{
+		assertNull(cache.getRowLevelFilters(login, Entity.class, "canread"));
+		QueryRule filter = new QueryRule(new QueryRule[]
+		{ new QueryRule("canread", Operator.EQUALS, 1) });
+		cache.putRowLevelFilters(login, Entity.class, "canread", cache.getVersion(), filter);
+
+		QueryRule[] filters = cache.getRowLevelFilters(login, Entity.class, "canread");
+		assertEquals(filters.length, 1);
+		assertEquals(filters[0], filter);
+		// callers get copies, so that mappers can rewrite them
+		assertNotSame(filters[0], filter);
+		assertNotSame(filters[0].getNestedRules()[0], filter.getNestedRules()[0]);
+		assertNull(cache.getRowLevelFilters(login, Entity.class, "canwrite"));
+	}
+
+	@Test
+	public void putAfterInvalidateIgnored()
+	{
+		long version = cache.getVersion();
+		cache.invalidate();
+		cache.putRowLevelFilters(login, Entity.class, "canread", version);
+		assertNull(cache.getRowLevelFilters(login, Entity.class, "canread"));
+	}
+}
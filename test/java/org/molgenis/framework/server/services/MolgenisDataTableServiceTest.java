@@ -0,0 +1,129 @@
+package org.molgenis.framework.server.services;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.molgenis.framework.db.Database;
+import org.molgenis.framework.db.QueryRule;
+import org.molgenis.framework.db.QueryRule.Operator;
+import org.molgenis.framework.db.paging.PrimaryKeyPagerTest.TestEntity;
+import org.molgenis.framework.server.MolgenisContext;
+import org.molgenis.framework.server.MolgenisRequest;
+import org.molgenis.framework.server.MolgenisResponse;
+import org.molgenis.io.TupleWriter;
+import org.molgenis.util.tuple.EntityTuple;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class MolgenisDataTableServiceTest
+{
+	private Database db;
+	private List<String> fieldsToExport;
+	private List<QueryRule> rules;
+	private MockHttpServletRequest mockHttpServletRequest;
+	private MockHttpServletResponse mockHttpServletResponse;
+
+	@SuppressWarnings("unchecked")
+	@BeforeMethod
+	public void setUp() throws Exception
+	{
+		db = mock(Database.class);
+		doReturn(TestEntity.class).when(db).getClassForName("TestEntity");
+		when(db.count(eq(TestEntity.class), (QueryRule[]) anyVararg())).thenReturn(23);
+		doAnswer(new Answer<Void>()
+		{
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				Object[] args = invocation.getArguments();
+				fieldsToExport = (List<String>) args[2];
+				rules = new ArrayList<QueryRule>();
+				for (int i = 3; i < args.length; i++)
+				{
+					if (args[i] instanceof QueryRule[]) rules.addAll(Arrays.asList((QueryRule[]) args[i]));
+					else
+						rules.add((QueryRule) args[i]);
+				}
+				TupleWriter writer = (TupleWriter) args[1];
+				writer.writeColNames(fieldsToExport);
+				writer.write(new EntityTuple(new TestEntity(1, "n1")));
+				writer.write(new EntityTuple(new TestEntity(2, null)));
+				writer.close();
+				return null;
+			}
+		}).when(db).find(eq(TestEntity.class), any(TupleWriter.class), anyListOf(String.class),
+				(QueryRule[]) anyVararg());
+
+		mockHttpServletRequest = new MockHttpServletRequest();
+		mockHttpServletResponse = new MockHttpServletResponse();
+		mockHttpServletRequest.addParameter("entity", "TestEntity");
+		mockHttpServletRequest.addParameter("sEcho", "3");
+		mockHttpServletRequest.addParameter("iDisplayStart", "0");
+		mockHttpServletRequest.addParameter("iDisplayLength", "-1");
+		mockHttpServletRequest.addParameter("iColumns", "2");
+		mockHttpServletRequest.addParameter("mDataProp_0", "name");
+		mockHttpServletRequest.addParameter("mDataProp_1", "unknown");
+		mockHttpServletRequest.addParameter("iSortCol_0", "0");
+		mockHttpServletRequest.addParameter("sSortDir_0", "desc");
+	}
+
+	@Test
+	public void projectionAndColumnFilter() throws Exception
+	{
+		mockHttpServletRequest.addParameter("sSearch", "");
+		mockHttpServletRequest.addParameter("sSearch_0", "n");
+		mockHttpServletRequest.addParameter("sSearch_1", "ignored");
+		handleRequest();
+
+		assertEquals(fieldsToExport, Arrays.asList("name"));
+		assertEquals(rules, Arrays.asList(new QueryRule("name", Operator.LIKE, "n"), new QueryRule(Operator.SORTDESC,
+				"name")));
+
+		JSONObject json = new JSONObject(mockHttpServletResponse.getContentAsString());
+		assertEquals(json.getString("sEcho"), "3");
+		assertEquals(json.getInt("iTotalRecords"), 23);
+		assertEquals(json.getInt("iTotalDisplayRecords"), 23);
+		JSONArray aaData = json.getJSONArray("aaData");
+		assertEquals(aaData.length(), 2);
+		assertEquals(aaData.getJSONObject(0).getString("name"), "n1");
+		assertEquals(aaData.getJSONObject(0).getString("unknown"), "");
+		assertEquals(aaData.getJSONObject(1).getString("name"), "");
+	}
+
+	@Test
+	public void globalSearch() throws Exception
+	{
+		mockHttpServletRequest.addParameter("sSearch", "n1");
+		mockHttpServletRequest.addParameter("bSearchable_0", "false");
+		mockHttpServletRequest.addParameter("sSearch_0", "ignored");
+		handleRequest();
+
+		assertEquals(rules, Arrays.asList(new QueryRule(Operator.SEARCH, "n1"), new QueryRule(Operator.SORTDESC,
+				"name")));
+	}
+
+	private void handleRequest() throws Exception
+	{
+		MolgenisRequest molgenisRequest = new MolgenisRequest(mockHttpServletRequest);
+		molgenisRequest.setDatabase(db);
+		new MolgenisDataTableService(mock(MolgenisContext.class)).handleRequest(molgenisRequest,
+				new MolgenisResponse(mockHttpServletResponse));
+	}
+}
@@ -0,0 +1,236 @@
+package org.molgenis.framework.server.services;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import org.json.JSONArray;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.molgenis.framework.db.AbstractDatabase;
+import org.molgenis.framework.db.Database;
+import org.molgenis.framework.db.Mapper;
+import org.molgenis.framework.db.MapperDecorator;
+import org.molgenis.framework.db.Query;
+import org.molgenis.framework.db.QueryRule;
+import org.molgenis.framework.db.jdbc.JDBCDatabase;
+import org.molgenis.framework.db.paging.PrimaryKeyPagerTest.TestEntity;
+import org.molgenis.framework.security.Login;
+import org.molgenis.framework.server.MolgenisContext;
+import org.molgenis.framework.server.MolgenisRequest;
+import org.molgenis.framework.server.MolgenisResponse;
+import org.molgenis.framework.ui.html.AbstractRefInput;
+import org.molgenis.framework.ui.html.HtmlInput;
+import org.molgenis.io.TupleWriter;
+import org.molgenis.util.tuple.EntityTuple;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class MolgenisXrefServiceTest
+{
+	private MolgenisXrefService service;
+	private MockHttpServletRequest mockHttpServletRequest;
+
+	@BeforeMethod
+	public void setUp()
+	{
+		service = new MolgenisXrefService(mock(MolgenisContext.class));
+		mockHttpServletRequest = new MockHttpServletRequest();
+		mockHttpServletRequest.addParameter(AbstractRefInput.XREF_ENTITY, TestEntity.class.getName());
+		mockHttpServletRequest.addParameter(AbstractRefInput.XREF_FIELD, "id");
+		mockHttpServletRequest.addParameter(AbstractRefInput.XREF_LABELS, "name");
+		mockHttpServletRequest.addParameter(HtmlInput.NILLABLE, "false");
+		mockHttpServletRequest.addParameter(AbstractRefInput.SEARCH_TERM, "ob");
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void likeWithoutDataVersion() throws Exception
+	{
+		Database db = mock(Database.class);
+		Query<TestEntity> query = mock(Query.class);
+		doReturn(query).when(db).query(TestEntity.class);
+		when(query.find()).thenReturn(Arrays.asList(new TestEntity(1, "bob"), new TestEntity(2, "rob")));
+
+		MockHttpServletResponse response = handleRequest(db);
+		verify(query).like("name", "%ob%");
+		JSONArray json = new JSONArray(response.getContentAsString());
+		assertEquals(json.length(), 2);
+		assertEquals(json.getJSONObject(0).getString("value"), "1");
+		assertEquals(json.getJSONObject(0).getString("text"), "bob");
+		assertEquals(response.getHeader("Cache-Control"), "no-cache");
+
+		// same response: not modified
+		mockHttpServletRequest.addHeader("If-None-Match", response.getHeader("ETag"));
+		response = handleRequest(db);
+		assertEquals(response.getStatus(), 304);
+		assertEquals(response.getContentAsString(), "");
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void labelIndexAndResponseCache() throws Exception
+	{
+		AbstractDatabase db = mock(AbstractDatabase.class);
+		Mapper<TestEntity> mapper = createMapper(db);
+		// database returns the matches in another order than the index
+		doReturn(Arrays.asList(new TestEntity(1, "rob"), new TestEntity(2, "obi"))).when(db).find(
+				eq(TestEntity.class), (QueryRule[]) anyVararg());
+
+		MockHttpServletResponse response = handleRequest(db);
+		JSONArray json = new JSONArray(response.getContentAsString());
+		assertEquals(json.length(), 2);
+		assertEquals(json.getJSONObject(0).getString("text"), "obi");
+		assertEquals(json.getJSONObject(1).getString("text"), "rob");
+		assertEquals(response.getHeader("Cache-Control"), "private, max-age=" + MolgenisXrefService.DEFAULT_MAX_AGE);
+		assertNotNull(response.getHeader("ETag"));
+
+		// second request is served from the response cache
+		response = handleRequest(db);
+		assertEquals(new JSONArray(response.getContentAsString()).length(), 2);
+		verify(db, times(1)).find(eq(TestEntity.class), (QueryRule[]) anyVararg());
+		verify(mapper, times(1)).find(any(TupleWriter.class), anyListOf(String.class), any(QueryRule[].class));
+
+		// a new term uses the index without rebuilding it
+		mockHttpServletRequest.setParameter(AbstractRefInput.SEARCH_TERM, "an");
+		doReturn(Arrays.asList(new TestEntity(3, "ann"))).when(db).find(eq(TestEntity.class),
+				(QueryRule[]) anyVararg());
+		response = handleRequest(db);
+		json = new JSONArray(response.getContentAsString());
+		assertEquals(json.getJSONObject(0).getString("text"), "ann");
+		verify(mapper, times(1)).find(any(TupleWriter.class), anyListOf(String.class), any(QueryRule[].class));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void labelIndexSharedByUsers() throws Exception
+	{
+		AbstractDatabase db = mock(AbstractDatabase.class);
+		Mapper<TestEntity> mapper = createMapper(db);
+		Login login = mock(Login.class);
+		when(db.getLogin()).thenReturn(login);
+
+		// the find through the security decorator only returns readable rows
+		when(login.getUserName()).thenReturn("alice");
+		doReturn(Arrays.asList(new TestEntity(1, "rob"))).when(db).find(eq(TestEntity.class),
+				(QueryRule[]) anyVararg());
+		JSONArray json = new JSONArray(handleRequest(db).getContentAsString());
+		assertEquals(json.length(), 1);
+		assertEquals(json.getJSONObject(0).getString("text"), "rob");
+
+		when(login.getUserName()).thenReturn("bob");
+		doReturn(Arrays.asList(new TestEntity(2, "obi"))).when(db).find(eq(TestEntity.class),
+				(QueryRule[]) anyVararg());
+		json = new JSONArray(handleRequest(db).getContentAsString());
+		assertEquals(json.length(), 1);
+		assertEquals(json.getJSONObject(0).getString("text"), "obi");
+
+		// one index of all records, the candidates of both users are read
+		// with an 'IN' query
+		verify(mapper, times(1)).find(any(TupleWriter.class), anyListOf(String.class), any(QueryRule[].class));
+		verify(db, times(2)).find(eq(TestEntity.class), (QueryRule[]) anyVararg());
+	}
+
+	@Test
+	public void labelIndexAndResponseCacheWithConnectionDatabases() throws Exception
+	{
+		// the front controller creates a database with just a connection on
+		// each request
+		final Mapper<TestEntity> mapper = createLabelMapper();
+		doReturn(Arrays.asList(new TestEntity(1, "rob"), new TestEntity(2, "obi"))).when(mapper).find(
+				(QueryRule[]) anyVararg());
+		String url = "jdbc:hsqldb:mem:xref" + System.nanoTime();
+
+		JSONArray json = new JSONArray(handleRequest(createConnectionDatabase(url, mapper)).getContentAsString());
+		assertEquals(json.length(), 2);
+		json = new JSONArray(handleRequest(createConnectionDatabase(url, mapper)).getContentAsString());
+		assertEquals(json.length(), 2);
+		verify(mapper, times(1)).find(any(TupleWriter.class), anyListOf(String.class), any(QueryRule[].class));
+		verify(mapper, times(1)).find((QueryRule[]) anyVararg());
+
+		// a write through another request rebuilds the index
+		createConnectionDatabase(url, mapper).executeUpdate("update TestEntity set name = 'bob'");
+		handleRequest(createConnectionDatabase(url, mapper));
+		verify(mapper, times(2)).find(any(TupleWriter.class), anyListOf(String.class), any(QueryRule[].class));
+		verify(mapper, times(2)).find((QueryRule[]) anyVararg());
+	}
+
+	private static JDBCDatabase createConnectionDatabase(String url, final Mapper<TestEntity> mapper)
+			throws Exception
+	{
+		DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+		when(metaData.getURL()).thenReturn(url);
+		when(metaData.getUserName()).thenReturn("sa");
+		Connection connection = mock(Connection.class);
+		when(connection.getMetaData()).thenReturn(metaData);
+		when(connection.createStatement()).thenReturn(mock(Statement.class));
+		return new JDBCDatabase(connection)
+		{
+			{
+				putMapper(TestEntity.class, mapper);
+			}
+		};
+	}
+
+	/**
+	 * Creates the generated mapper, wrapped in a decorator, that reads the
+	 * label index records
+	 */
+	private static Mapper<TestEntity> createMapper(AbstractDatabase db) throws Exception
+	{
+		when(db.getDataVersion(eq(TestEntity.class), anyBoolean())).thenReturn(3L);
+		Mapper<TestEntity> mapper = createLabelMapper();
+		doReturn(new MapperDecorator<TestEntity>(mapper)).when(db).getMapperFor(TestEntity.class);
+		return mapper;
+	}
+
+	/**
+	 * Creates a mapper that reads the label index records
+	 */
+	@SuppressWarnings("unchecked")
+	private static Mapper<TestEntity> createLabelMapper() throws Exception
+	{
+		Mapper<TestEntity> mapper = mock(Mapper.class);
+		when(mapper.count((QueryRule[]) anyVararg())).thenReturn(3);
+		doAnswer(new Answer<Void>()
+		{
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable
+			{
+				TupleWriter writer = (TupleWriter) invocation.getArguments()[0];
+				writer.write(new EntityTuple(new TestEntity(1, "rob")));
+				writer.write(new EntityTuple(new TestEntity(2, "obi")));
+				writer.write(new EntityTuple(new TestEntity(3, "ann")));
+				writer.close();
+				return null;
+			}
+		}).when(mapper).find(any(TupleWriter.class), anyListOf(String.class), any(QueryRule[].class));
+		return mapper;
+	}
+
+	private MockHttpServletResponse handleRequest(Database db) throws Exception
+	{
+		MockHttpServletResponse mockHttpServletResponse = new MockHttpServletResponse();
+		MolgenisRequest molgenisRequest = new MolgenisRequest(mockHttpServletRequest);
+		molgenisRequest.setDatabase(db);
+		service.handleRequest(molgenisRequest, new MolgenisResponse(mockHttpServletResponse));
+		return mockHttpServletResponse;
+	}
+}
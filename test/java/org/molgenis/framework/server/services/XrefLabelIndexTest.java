@@ -0,0 +1,74 @@
+package org.molgenis.framework.server.services;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class XrefLabelIndexTest
+{
+	private XrefLabelIndex index;
+
+	@BeforeMethod
+	public void setUp()
+	{
+		List<Object[]> records = new ArrayList<Object[]>();
+		records.add(new Object[]
+		{ 1, "Hemoglobin", "HBB" });
+		records.add(new Object[]
+		{ 2, "Globin", "GLB" });
+		records.add(new Object[]
+		{ 3, "Myoglobin", "MB" });
+		records.add(new Object[]
+		{ 4, "Insulin", null });
+		index = new XrefLabelIndex(7, records);
+	}
+
+	@Test
+	public void findPrefixBeforeInfix()
+	{
+		assertEquals(index.find("glob", 10), Arrays.<Object> asList(2, 1, 3));
+		assertEquals(index.find("GLO", 10), Arrays.<Object> asList(2, 1, 3));
+	}
+
+	@Test
+	public void findSecondLabel()
+	{
+		assertEquals(index.find("hb", 10), Arrays.<Object> asList(1));
+		assertEquals(index.find("lb", 10), Arrays.<Object> asList(2));
+	}
+
+	@Test
+	public void findShortAndEmptyTerm()
+	{
+		assertEquals(index.find("in", 10), Arrays.<Object> asList(4, 2, 1, 3));
+		assertEquals(index.find("", 10), Arrays.<Object> asList(2, 1, 4, 3));
+		assertEquals(index.find(null, 2), Arrays.<Object> asList(2, 1));
+	}
+
+	@Test
+	public void findNoMatch()
+	{
+		assertEquals(index.find("globinx", 10), Collections.emptyList());
+		// ngrams of both labels, but not within one label
+		assertEquals(index.find("binhbb", 10), Collections.emptyList());
+	}
+
+	@Test
+	public void max()
+	{
+		assertEquals(index.find("glob", 2), Arrays.<Object> asList(2, 1));
+	}
+
+	@Test
+	public void version()
+	{
+		assertEquals(index.getVersion(), 7);
+		assertEquals(index.size(), 4);
+	}
+}
@@ -0,0 +1,110 @@
+package org.molgenis.generators.sql;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.molgenis.MolgenisOptions;
+import org.molgenis.generators.sql.IndexPlan.PlannedIndex;
+import org.molgenis.model.MolgenisModelParser;
+import org.molgenis.model.MolgenisModelValidator;
+import org.molgenis.model.elements.Model;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class IndexPlanTest
+{
+	private Model model;
+	private IndexPlan indexPlan;
+
+	@BeforeClass
+	public void setUp() throws Exception
+	{
+		String xml = "<molgenis name=\"test\">"
+				+ "<entity name=\"Species\"><field name=\"id\" type=\"autoid\"/><field name=\"name\" unique=\"true\"/>"
+				+ "<field name=\"description\" nillable=\"true\"/></entity>"
+				+ "<entity name=\"Gene\"><field name=\"id\" type=\"autoid\"/><field name=\"symbol\"/>"
+				+ "<field name=\"chromosome\" type=\"int\"/><field name=\"position\" type=\"int\"/>"
+				+ "<unique fields=\"chromosome,symbol\"/><index fields=\"chromosome,position\"/></entity>"
+				+ "<entity name=\"Animal\"><field name=\"id\" type=\"autoid\"/><field name=\"name\" unique=\"true\"/>"
+				+ "<field name=\"species\" type=\"xref\" xref_entity=\"Species\" xref_label=\"name\"/>"
+				+ "<field name=\"genes\" type=\"mref\" xref_entity=\"Gene\" xref_label=\"symbol\" nillable=\"true\"/>"
+				+ "<field name=\"chromosome\" type=\"int\" index=\"true\"/></entity>"
+				+ "<entity name=\"Base\"><field name=\"id\" type=\"autoid\"/>"
+				+ "<field name=\"__Type\" type=\"enum\" enum_options=\"[Base,Sub]\"/></entity>"
+				+ "<entity name=\"Sub\" extends=\"Base\"><field name=\"extra\" nillable=\"true\"/></entity>"
+				+ "</molgenis>";
+		model = MolgenisModelParser.parseDbSchema(xml);
+		MolgenisModelValidator.validate(model, new MolgenisOptions());
+		indexPlan = new IndexPlan(model.getEntities());
+	}
+
+	@Test
+	public void xrefColumn() throws Exception
+	{
+		PlannedIndex index = getIndex("Animal", "species");
+		assertTrue(index.isCreated());
+		assertEquals(index.getName(), "idx_Animal_species");
+		assertEquals(index.getColumnList(), "species");
+	}
+
+	@Test
+	public void declaredIndexes() throws Exception
+	{
+		assertTrue(getIndex("Gene", "chromosome", "position").isCreated());
+		assertTrue(getIndex("Animal", "chromosome").isCreated());
+	}
+
+	@Test
+	public void mrefLinkTable() throws Exception
+	{
+		// the lookup on the first column of the unique key is served by the
+		// key, the lookup on the second column needs an index
+		PlannedIndex remote = getIndex("Animal_genes", "genes");
+		assertFalse(remote.isCreated());
+		assertTrue(remote.getServedBy().startsWith("key"));
+		assertTrue(getIndex("Animal_genes", "Animal").isCreated());
+	}
+
+	@Test
+	public void xrefLabels() throws Exception
+	{
+		// unique labels are served by their key
+		PlannedIndex name = getIndex("Species", "name");
+		assertFalse(name.isCreated());
+		assertTrue(name.getQueryShapes().get(0).contains("Animal.species"));
+
+		// labels that are not the first column of a key need an index
+		PlannedIndex symbol = getIndex("Gene", "symbol");
+		assertTrue(symbol.isCreated());
+		assertNull(symbol.getServedBy());
+	}
+
+	@Test
+	public void typeColumn() throws Exception
+	{
+		assertTrue(getIndex("Base", "__Type").isCreated());
+		assertTrue(indexPlan.getIndexes(model.getEntity("Sub")).isEmpty());
+	}
+
+	@Test
+	public void longName()
+	{
+		String name = new PlannedIndex("VeryLongTableNameForTesting", Arrays.asList("firstLongColumnName",
+				"secondLongColumnName"), "test").getName();
+		assertTrue(name.length() <= IndexPlan.MAX_NAME_LENGTH);
+		assertTrue(name.startsWith("idx_VeryLongTableNameForTesting_"));
+	}
+
+	private PlannedIndex getIndex(String entityName, String... columns)
+	{
+		List<PlannedIndex> indexes = indexPlan.getIndexes(model.getEntity(entityName));
+		for (PlannedIndex index : indexes)
+			if (index.getColumns().equals(Arrays.asList(columns))) return index;
+		throw new AssertionError("no index on " + Arrays.asList(columns) + " in " + entityName);
+	}
+}
@@ -1,6 +1,7 @@
 package org.molgenis.io;
 
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -10,6 +11,7 @@ import java.util.Arrays;
 import java.util.zip.ZipException;
 
 import org.apache.commons.io.FilenameUtils;
+import org.molgenis.io.excel.StreamingExcelReader;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
@@ -154,6 +156,21 @@ public class TableReaderFactoryTest
 		}
 	}
 
+	@Test
+	public void createFile_xlsx() throws IOException, URISyntaxException
+	{
+		TableReader tableReader = TableReaderFactory.create(new File(getClass().getResource("/test.xlsx").toURI()));
+		try
+		{
+			assertTrue(tableReader instanceof StreamingExcelReader);
+			assertNotNull(tableReader.getTupleReader("test"));
+		}
+		finally
+		{
+			tableReader.close();
+		}
+	}
+
 	@Test(expectedExceptions = IOException.class)
 	public void createFile_unknownFormat() throws IOException
 	{
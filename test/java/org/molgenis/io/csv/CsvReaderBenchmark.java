@@ -0,0 +1,190 @@
+package org.molgenis.io.csv;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.molgenis.util.tuple.Tuple;
+import org.molgenis.util.tuple.ValueIndexTuple;
+
+/**
+ * Compares the throughput of {@link CsvReader} and {@link ParallelCsvReader}
+ * with the opencsv based reader CsvReader used before on a wide (many columns)
+ * and a tall (many rows) synthetic file.
+ * Not a unit test, run with:
+ *
+ * <pre>
+ * java -cp ... org.molgenis.io.csv.CsvReaderBenchmark [nrRuns]
+ * </pre>
+ */
+public class CsvReaderBenchmark
+{
+	private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
+
+	public static void main(String[] args) throws IOException
+	{
+		int nrRuns = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+		File wideFile = createFile("wide", 200, 10000);
+		File tallFile = createFile("tall", 500000, 10);
+		try
+		{
+			for (File file : Arrays.asList(wideFile, tallFile))
+			{
+				System.out.println(file.getName() + " (" + file.length() / (1024 * 1024) + " MB)");
+				for (int run = 0; run < nrRuns; ++run)
+				{
+					long opencsv = readOpenCsv(file);
+					long copy = readCsvReader(file, false);
+					long reuse = readCsvReader(file, true);
+					long parallel = readParallelCsvReader(file);
+					System.out.println("run " + run + ": opencsv " + opencsv + " ms, CsvReader " + copy
+							+ " ms, CsvReader reusing tuples " + reuse + " ms, ParallelCsvReader " + parallel + " ms");
+				}
+			}
+		}
+		finally
+		{
+			wideFile.delete();
+			tallFile.delete();
+		}
+	}
+
+	private static File createFile(String name, int nrRows, int nrCols) throws IOException
+	{
+		File file = File.createTempFile("csvbenchmark_" + name, ".csv");
+		Random random = new Random(nrRows * 31L + nrCols);
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), CHARSET_UTF8));
+		try
+		{
+			for (int col = 0; col < nrCols; ++col)
+				writer.write((col > 0 ? "," : "") + "col" + col);
+			writer.write('\n');
+			for (int row = 0; row < nrRows; ++row)
+			{
+				for (int col = 0; col < nrCols; ++col)
+				{
+					if (col > 0) writer.write(',');
+					switch (col % 4)
+					{
+						case 0:
+							writer.write(Integer.toString(row));
+							break;
+						case 1:
+							writer.write(Double.toString(random.nextDouble()));
+							break;
+						case 2:
+							// quoted with separators and escaped quotes
+							writer.write("\"value, \"\"" + random.nextInt(1000) + "\"\"\"");
+							break;
+						default:
+							// missing values
+							if (random.nextBoolean()) writer.write("text" + random.nextInt(100));
+							break;
+					}
+				}
+				writer.write('\n');
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+		return file;
+	}
+
+	/**
+	 * Reads all cells the way CsvReader did before it had its own parser
+	 */
+	private static long readOpenCsv(File file) throws IOException
+	{
+		long start = System.currentTimeMillis();
+		au.com.bytecode.opencsv.CSVReader csvReader = new au.com.bytecode.opencsv.CSVReader(createReader(file));
+		try
+		{
+			String[] headers = csvReader.readNext();
+			Map<String, Integer> colNamesMap = new LinkedHashMap<String, Integer>();
+			for (int i = 0; i < headers.length; ++i)
+				colNamesMap.put(headers[i], i);
+
+			long nrChars = 0;
+			String[] values;
+			while ((values = csvReader.readNext()) != null)
+			{
+				for (int i = 0; i < values.length; ++i)
+					values[i] = values[i].isEmpty() ? null : values[i];
+				nrChars += readAll(new ValueIndexTuple(colNamesMap, Arrays.asList(values)));
+			}
+			if (nrChars == 0) throw new IOException("no values read");
+		}
+		finally
+		{
+			csvReader.close();
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	private static long readCsvReader(File file, boolean reuseTuples) throws IOException
+	{
+		long start = System.currentTimeMillis();
+		CsvReader csvReader = new CsvReader(createReader(file));
+		try
+		{
+			csvReader.setReuseTuples(reuseTuples);
+			long nrChars = 0;
+			for (Tuple tuple : csvReader)
+				nrChars += readAll(tuple);
+			if (nrChars == 0) throw new IOException("no values read");
+		}
+		finally
+		{
+			csvReader.close();
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	private static long readParallelCsvReader(File file) throws IOException
+	{
+		long start = System.currentTimeMillis();
+		ParallelCsvReader csvReader = new ParallelCsvReader(file);
+		try
+		{
+			long nrChars = 0;
+			for (Tuple tuple : csvReader)
+				nrChars += readAll(tuple);
+			if (nrChars == 0) throw new IOException("no values read");
+		}
+		finally
+		{
+			csvReader.close();
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	private static Reader createReader(File file) throws IOException
+	{
+		return new InputStreamReader(new FileInputStream(file), CHARSET_UTF8);
+	}
+
+	private static long readAll(Tuple tuple)
+	{
+		long nrChars = 0;
+		for (int i = 0; i < tuple.getNrCols(); ++i)
+		{
+			String value = tuple.getString(i);
+			if (value != null) nrChars += value.length();
+		}
+		return nrChars;
+	}
+}
@@ -1,6 +1,8 @@
 package org.molgenis.io.csv;
 
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
@@ -230,6 +232,117 @@ public class CsvReaderTest
 		}
 	}
 
+	@Test
+	public void iterator_reuseTuples() throws IOException
+	{
+		CsvReader csvReader = new CsvReader(new StringReader("col1,col2\nval1,val2\nval3,val4\n"));
+		try
+		{
+			csvReader.setReuseTuples(true);
+			Iterator<Tuple> it = csvReader.iterator();
+			Tuple t0 = it.next();
+			assertTrue(t0 instanceof CsvRowTuple);
+			assertEquals(t0.get("col1"), "val1");
+			Tuple copy = ((CsvRowTuple) t0).copy();
+			Tuple t1 = it.next();
+			assertTrue(t0 == t1);
+			assertEquals(t1.get("col1"), "val3");
+			assertEquals(t1.get("col2"), "val4");
+			assertEquals(copy.get("col1"), "val1");
+			assertEquals(copy.get("col2"), "val2");
+			assertFalse(it.hasNext());
+		}
+		finally
+		{
+			csvReader.close();
+		}
+	}
+
+	@Test
+	public void iterator_reuseTuples_lazyCellProcessors() throws IOException
+	{
+		CellProcessor processor = when(mock(CellProcessor.class).processData()).thenReturn(true).getMock();
+		when(processor.process("val1")).thenReturn("VAL1");
+		CsvReader csvReader = new CsvReader(new StringReader("col1,col2\nval1,val2"));
+		try
+		{
+			csvReader.addCellProcessor(processor);
+			csvReader.setReuseTuples(true);
+			for (Tuple tuple : csvReader)
+			{
+				assertEquals(tuple.get("col1"), "VAL1");
+				assertEquals(tuple.get("col1"), "VAL1");
+			}
+			verify(processor, times(1)).process("val1");
+			verify(processor, never()).process("val2");
+		}
+		finally
+		{
+			csvReader.close();
+		}
+	}
+
+	@Test(expectedExceptions = IndexOutOfBoundsException.class)
+	public void iterator_reuseTuples_missingValue() throws IOException
+	{
+		CsvReader csvReader = new CsvReader(new StringReader("col1,col2\nval1"));
+		try
+		{
+			csvReader.setReuseTuples(true);
+			csvReader.iterator().next().get("col2");
+		}
+		finally
+		{
+			csvReader.close();
+		}
+	}
+
+	@Test
+	public void iterator_lineEndings() throws IOException
+	{
+		CsvReader csvReader = new CsvReader(new StringReader("a\r\nb\rc\n\nd"), ',', false);
+		try
+		{
+			List<Tuple> tuples = new ArrayList<Tuple>();
+			for (Tuple tuple : csvReader)
+				tuples.add(tuple);
+			assertEquals(tuples.size(), 5);
+			assertEquals(tuples.get(0).get(0), "a");
+			assertEquals(tuples.get(1).get(0), "b");
+			assertEquals(tuples.get(2).get(0), "c");
+			assertEquals(tuples.get(3).getNrCols(), 1);
+			assertTrue(tuples.get(3).isNull(0));
+			assertEquals(tuples.get(4).get(0), "d");
+		}
+		finally
+		{
+			csvReader.close();
+		}
+	}
+
+	@Test
+	public void iterator_largeQuotedCell() throws IOException
+	{
+		// cell spans several fills of the read buffer
+		StringBuilder value = new StringBuilder();
+		for (int i = 0; i < 50000; ++i)
+			value.append("a,\"\n");
+		String quotedValue = value.toString().replace("\"", "\"\"");
+		CsvReader csvReader = new CsvReader(new StringReader("col1,col2\n\"" + quotedValue + "\",x\n"));
+		try
+		{
+			Iterator<Tuple> it = csvReader.iterator();
+			Tuple t0 = it.next();
+			assertEquals(t0.get("col1"), value.toString());
+			assertEquals(t0.get("col2"), "x");
+			assertFalse(it.hasNext());
+		}
+		finally
+		{
+			csvReader.close();
+		}
+	}
+
 	@Test
 	public void close() throws IOException
 	{
@@ -0,0 +1,158 @@
+package org.molgenis.io.csv;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.molgenis.util.tuple.KeyValueTuple;
+import org.molgenis.util.tuple.Tuple;
+
+/**
+ * Compares the throughput of {@link CsvWriter} in its default and export mode
+ * with the opencsv based writer CsvWriter used before. Rows are written to a
+ * PrintWriter over a stream that counts the writes that reach it, like the
+ * response writer MolgenisDownloadService exports to. Not a unit test, run
+ * with:
+ *
+ * <pre>
+ * java -cp ... org.molgenis.io.csv.CsvWriterBenchmark [nrRuns]
+ * </pre>
+ */
+public class CsvWriterBenchmark
+{
+	private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
+
+	private static final int NR_ROWS = 500000;
+	private static final int NR_COLS = 10;
+
+	public static void main(String[] args) throws IOException
+	{
+		int nrRuns = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+		List<String> colNames = new ArrayList<String>();
+		for (int col = 0; col < NR_COLS; ++col)
+			colNames.add("col" + col);
+		List<Tuple> tuples = createTuples(colNames);
+
+		for (int run = 0; run < nrRuns; ++run)
+		{
+			CountingOutputStream opencsvOut = new CountingOutputStream();
+			long opencsv = writeOpenCsv(colNames, tuples, opencsvOut);
+			CountingOutputStream defaultOut = new CountingOutputStream();
+			long defaultMode = writeCsvWriter(colNames, tuples, defaultOut, false);
+			CountingOutputStream exportOut = new CountingOutputStream();
+			long exportMode = writeCsvWriter(colNames, tuples, exportOut, true);
+			System.out.println("run " + run + ": opencsv " + opencsv + " ms (" + opencsvOut.nrWrites
+					+ " writes), CsvWriter " + defaultMode + " ms (" + defaultOut.nrWrites
+					+ " writes), CsvWriter export mode " + exportMode + " ms (" + exportOut.nrWrites + " writes)");
+		}
+	}
+
+	private static List<Tuple> createTuples(List<String> colNames)
+	{
+		Random random = new Random(NR_ROWS);
+		List<Tuple> tuples = new ArrayList<Tuple>(NR_ROWS);
+		for (int row = 0; row < NR_ROWS; ++row)
+		{
+			KeyValueTuple tuple = new KeyValueTuple();
+			for (int col = 0; col < NR_COLS; ++col)
+			{
+				switch (col % 4)
+				{
+					case 0:
+						tuple.set(colNames.get(col), row);
+						break;
+					case 1:
+						tuple.set(colNames.get(col), random.nextDouble());
+						break;
+					case 2:
+						tuple.set(colNames.get(col), "value, \"" + random.nextInt(1000) + "\"");
+						break;
+					default:
+						tuple.set(colNames.get(col), random.nextBoolean() ? "text" + random.nextInt(100) : null);
+						break;
+				}
+			}
+			tuples.add(tuple);
+		}
+		return tuples;
+	}
+
+	/**
+	 * Writes the way CsvWriter did before it had its own buffer
+	 */
+	private static long writeOpenCsv(List<String> colNames, List<Tuple> tuples, OutputStream out) throws IOException
+	{
+		long start = System.currentTimeMillis();
+		au.com.bytecode.opencsv.CSVWriter csvWriter = new au.com.bytecode.opencsv.CSVWriter(new PrintWriter(
+				new OutputStreamWriter(out, CHARSET_UTF8)));
+		try
+		{
+			csvWriter.writeNext(colNames.toArray(new String[0]));
+			if (csvWriter.checkError()) throw new IOException();
+			for (Tuple tuple : tuples)
+			{
+				String[] values = new String[colNames.size()];
+				int i = 0;
+				for (String colName : colNames)
+				{
+					Object value = tuple.get(colName);
+					values[i++] = value != null ? value.toString() : null;
+				}
+				csvWriter.writeNext(values);
+				if (csvWriter.checkError()) throw new IOException();
+			}
+		}
+		finally
+		{
+			csvWriter.close();
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	private static long writeCsvWriter(List<String> colNames, List<Tuple> tuples, OutputStream out,
+			boolean exportMode) throws IOException
+	{
+		long start = System.currentTimeMillis();
+		CsvWriter csvWriter = new CsvWriter(new PrintWriter(new OutputStreamWriter(out, CHARSET_UTF8)));
+		try
+		{
+			if (exportMode)
+			{
+				csvWriter.setQuoteAll(false);
+				csvWriter.setFlushInterval(CsvWriter.DEFAULT_EXPORT_FLUSH_INTERVAL);
+			}
+			csvWriter.writeColNames(colNames);
+			for (Tuple tuple : tuples)
+				csvWriter.write(tuple);
+		}
+		finally
+		{
+			csvWriter.close();
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	/** discards bytes, counts write calls */
+	private static class CountingOutputStream extends OutputStream
+	{
+		long nrWrites = 0;
+
+		@Override
+		public void write(int b)
+		{
+			++nrWrites;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len)
+		{
+			++nrWrites;
+		}
+	}
+}
@@ -6,6 +6,7 @@ import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.util.Arrays;
@@ -130,13 +131,83 @@ public class CsvWriterTest
 		}
 	}
 
+	@Test
+	public void write_quoteAllFalse() throws IOException
+	{
+		StringWriter strWriter = new StringWriter();
+		CsvWriter csvWriter = new CsvWriter(strWriter);
+		try
+		{
+			csvWriter.setQuoteAll(false);
+			csvWriter.write(new ValueTuple(Arrays.asList("val1", "val,2", "val\"3\"", "val\n4", null, "")));
+			assertEquals(strWriter.toString(), "val1,\"val,2\",\"val\"\"3\"\"\",\"val\n4\",,\n");
+		}
+		finally
+		{
+			csvWriter.close();
+		}
+	}
+
+	@Test
+	public void write_flushInterval() throws IOException
+	{
+		StringWriter strWriter = new StringWriter();
+		CsvWriter csvWriter = new CsvWriter(strWriter);
+		try
+		{
+			csvWriter.setQuoteAll(false);
+			csvWriter.setFlushInterval(2);
+			csvWriter.write(new ValueTuple(Arrays.asList("val1")));
+			assertEquals(strWriter.toString(), "");
+			csvWriter.write(new ValueTuple(Arrays.asList("val2")));
+			assertEquals(strWriter.toString(), "val1\nval2\n");
+			csvWriter.write(new ValueTuple(Arrays.asList("val3")));
+		}
+		finally
+		{
+			csvWriter.close();
+		}
+		assertEquals(strWriter.toString(), "val1\nval2\nval3\n");
+	}
+
+	@Test
+	public void write_largeValue() throws IOException
+	{
+		StringBuilder value = new StringBuilder();
+		for (int i = 0; i < 100000; ++i)
+			value.append('x');
+		StringWriter strWriter = new StringWriter();
+		CsvWriter csvWriter = new CsvWriter(strWriter);
+		try
+		{
+			csvWriter.setQuoteAll(false);
+			csvWriter.setFlushInterval(0);
+			csvWriter.write(new ValueTuple(Arrays.asList("val1", value.toString())));
+		}
+		finally
+		{
+			csvWriter.close();
+		}
+		assertEquals(strWriter.toString(), "val1," + value + '\n');
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void close_printWriterError() throws IOException
+	{
+		PrintWriter printWriter = mock(PrintWriter.class);
+		when(printWriter.checkError()).thenReturn(true);
+		CsvWriter csvWriter = new CsvWriter(printWriter);
+		csvWriter.setFlushInterval(0);
+		csvWriter.write(new ValueTuple(Arrays.asList("val1")));
+		csvWriter.close();
+	}
+
 	@Test
 	public void close() throws IOException
 	{
-		// FIXME enable when double closing bug in opencsv is fixed
-		// Writer writer = mock(Writer.class);
-		// CsvWriter csvWriter = new CsvWriter(writer);
-		// csvWriter.close();
-		// verify(writer).close();
+		Writer writer = mock(Writer.class);
+		CsvWriter csvWriter = new CsvWriter(writer);
+		csvWriter.close();
+		verify(writer).close();
 	}
 }
@@ -0,0 +1,366 @@
+package org.molgenis.io.csv;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.molgenis.io.processor.AbstractCellProcessor;
+import org.molgenis.io.processor.LowerCaseProcessor;
+import org.molgenis.util.tuple.Tuple;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ParallelCsvReaderTest
+{
+	private File file;
+
+	@BeforeMethod
+	public void setUp() throws IOException
+	{
+		file = File.createTempFile("ParallelCsvReaderTest", ".csv");
+	}
+
+	@AfterMethod
+	public void tearDown()
+	{
+		file.delete();
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void ParallelCsvReader()
+	{
+		new ParallelCsvReader(null);
+	}
+
+	@Test
+	public void iterator_ordered() throws IOException
+	{
+		String csv = createCsv(500, "\n");
+		write(csv);
+		for (int chunkSize : new int[]
+		{ 1, 7, 64, 1024 * 1024 })
+		{
+			ParallelCsvReader reader = new ParallelCsvReader(file, ',', true, 4);
+			try
+			{
+				reader.setChunkSize(chunkSize);
+				reader.setQueueSize(2);
+				assertEquals(toStrings(reader), toStrings(new CsvReader(new StringReader(csv))));
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+	}
+
+	@Test
+	public void iterator_unordered() throws IOException
+	{
+		String csv = createCsv(500, "\r\n");
+		write(csv);
+		ParallelCsvReader reader = new ParallelCsvReader(file, ',', true, 4);
+		try
+		{
+			reader.setOrdered(false);
+			reader.setChunkSize(32);
+			List<String> rows = toStrings(reader);
+			List<String> expected = toStrings(new CsvReader(new StringReader(csv)));
+			Collections.sort(rows);
+			Collections.sort(expected);
+			assertEquals(rows, expected);
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	@Test
+	public void iterator_carriageReturns() throws IOException
+	{
+		String csv = createCsv(100, "\r");
+		write(csv);
+		ParallelCsvReader reader = new ParallelCsvReader(file, ',', true, 2);
+		try
+		{
+			reader.setChunkSize(16);
+			assertEquals(toStrings(reader), toStrings(new CsvReader(new StringReader(csv))));
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	@Test
+	public void iterator_noHeader() throws IOException
+	{
+		write("a,b\n\"c\nd\",e\n");
+		ParallelCsvReader reader = new ParallelCsvReader(file, ',', false, 2);
+		try
+		{
+			reader.setChunkSize(1);
+			Iterator<Tuple> it = reader.iterator();
+			Tuple t0 = it.next();
+			assertFalse(t0.hasColNames());
+			assertEquals(t0.get(0), "a");
+			assertEquals(it.next().get(0), "c\nd");
+			assertFalse(it.hasNext());
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	@Test
+	public void iterator_empty() throws IOException
+	{
+		write("");
+		ParallelCsvReader reader = new ParallelCsvReader(file);
+		try
+		{
+			assertNull(reader.colNamesIterator());
+			assertFalse(reader.iterator().hasNext());
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	@Test
+	public void colNamesIterator() throws IOException
+	{
+		write("COL1\tcol2\nval1\tval2\n");
+		ParallelCsvReader reader = new ParallelCsvReader(file, '\t');
+		try
+		{
+			reader.addCellProcessor(new LowerCaseProcessor(true, false));
+			Iterator<String> colNamesIt = reader.colNamesIterator();
+			assertEquals(colNamesIt.next(), "col1");
+			assertEquals(colNamesIt.next(), "col2");
+			assertFalse(colNamesIt.hasNext());
+
+			Iterator<Tuple> it = reader.iterator();
+			Tuple t0 = it.next();
+			assertEquals(t0.get("col1"), "val1");
+			assertEquals(t0.get("col2"), "val2");
+			assertFalse(it.hasNext());
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	@Test
+	public void nextBatch() throws Exception
+	{
+		write(createCsv(1000, "\n"));
+		final ParallelCsvReader reader = new ParallelCsvReader(file, ',', true, 2);
+		try
+		{
+			reader.setChunkSize(128);
+			final List<Tuple> tuples = Collections.synchronizedList(new ArrayList<Tuple>());
+			List<Thread> consumers = new ArrayList<Thread>();
+			for (int i = 0; i < 3; ++i)
+			{
+				Thread consumer = new Thread()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							for (List<Tuple> batch = reader.nextBatch(); batch != null; batch = reader.nextBatch())
+								tuples.addAll(batch);
+						}
+						catch (IOException e)
+						{
+							throw new RuntimeException(e);
+						}
+					}
+				};
+				consumer.start();
+				consumers.add(consumer);
+			}
+			for (Thread consumer : consumers)
+				consumer.join();
+			assertEquals(tuples.size(), 1000);
+			assertNull(reader.nextBatch());
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	@Test(timeOut = 10000)
+	public void nextBatch_cellProcessorFails_ordered() throws IOException
+	{
+		nextBatch_cellProcessorFails(true);
+	}
+
+	@Test(timeOut = 10000)
+	public void nextBatch_cellProcessorFails_unordered() throws IOException
+	{
+		nextBatch_cellProcessorFails(false);
+	}
+
+	private void nextBatch_cellProcessorFails(boolean ordered) throws IOException
+	{
+		write(createCsv(1000, "\n"));
+		ParallelCsvReader reader = new ParallelCsvReader(file, ',', true, 4);
+		try
+		{
+			reader.setOrdered(ordered);
+			reader.setChunkSize(128);
+			reader.addCellProcessor(new FailingCellProcessor("value500"));
+			int nrTuples = 0;
+			int nrFailures = 0;
+			while (true)
+			{
+				try
+				{
+					List<Tuple> batch = reader.nextBatch();
+					if (batch == null) break;
+					nrTuples += batch.size();
+				}
+				catch (IOException e)
+				{
+					assertEquals(e.getMessage(), "invalid value: value500");
+					++nrFailures;
+				}
+			}
+			// the tuples of the other batches are still read
+			assertEquals(nrFailures, 1);
+			assertTrue(nrTuples > 0 && nrTuples < 1000);
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	@Test(timeOut = 10000, expectedExceptions = RuntimeException.class)
+	public void iterator_cellProcessorFails() throws IOException
+	{
+		write(createCsv(1000, "\n"));
+		ParallelCsvReader reader = new ParallelCsvReader(file, ',', true, 2);
+		try
+		{
+			reader.setChunkSize(128);
+			reader.addCellProcessor(new FailingCellProcessor("value500"));
+			for (Iterator<Tuple> it = reader.iterator(); it.hasNext();)
+				it.next();
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void setChunkSize_started() throws IOException
+	{
+		write("col1\nval1\n");
+		ParallelCsvReader reader = new ParallelCsvReader(file);
+		try
+		{
+			assertTrue(reader.iterator().hasNext());
+			reader.setChunkSize(1);
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void close() throws IOException
+	{
+		write("col1\nval1\n");
+		ParallelCsvReader reader = new ParallelCsvReader(file);
+		reader.close();
+		reader.nextBatch();
+	}
+
+	/** fails on one data value */
+	private static class FailingCellProcessor extends AbstractCellProcessor
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final String failValue;
+
+		public FailingCellProcessor(String failValue)
+		{
+			super(false, true);
+			this.failValue = failValue;
+		}
+
+		@Override
+		public String process(String value)
+		{
+			if (failValue.equals(value)) throw new IllegalArgumentException("invalid value: " + value);
+			return value;
+		}
+	}
+
+	/**
+	 * Creates csv with quoted separators, line breaks and quotes and empty
+	 * cells
+	 */
+	private static String createCsv(int nrRows, String lineSeparator)
+	{
+		StringBuilder sb = new StringBuilder("col1,col2,col3").append(lineSeparator);
+		for (int i = 0; i < nrRows; ++i)
+		{
+			sb.append(i).append(',');
+			if (i % 3 == 0) sb.append("\"multi").append(lineSeparator).append("line, \"\"").append(i).append("\"\"\"");
+			sb.append(',');
+			if (i % 2 == 0) sb.append("value").append(i);
+			sb.append(lineSeparator);
+		}
+		return sb.toString();
+	}
+
+	private void write(String csv) throws IOException
+	{
+		OutputStream out = new FileOutputStream(file);
+		try
+		{
+			out.write(csv.getBytes("UTF-8"));
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	private static List<String> toStrings(Iterable<Tuple> tuples) throws IOException
+	{
+		List<String> rows = new ArrayList<String>();
+		for (Tuple tuple : tuples)
+		{
+			StringBuilder row = new StringBuilder();
+			for (String colName : tuple.getColNames())
+				row.append(colName).append('=').append(tuple.getString(colName)).append(';');
+			rows.add(row.toString());
+		}
+		return rows;
+	}
+}
@@ -11,6 +11,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 
 import org.molgenis.io.processor.CellProcessor;
@@ -86,6 +87,14 @@ public class ExcelSheetWriterTest
 		}
 	}
 
+	@Test(expectedExceptions = IOException.class)
+	public void write_maxRows() throws IOException
+	{
+		Tuple emptyRow = new ValueTuple(Collections.emptyList());
+		for (int i = 0; i <= 65536; ++i)
+			excelSheetWriter.write(emptyRow);
+	}
+
 	@Test
 	public void writeColNames() throws IOException
 	{
@@ -7,9 +7,12 @@ import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.molgenis.io.TupleWriter;
 import org.molgenis.io.excel.ExcelWriter.FileFormat;
@@ -63,6 +66,57 @@ public class ExcelWriterTest
 		assertEquals(b[3] & 0xff, 0x04);
 	}
 
+	@Test
+	public void ExcelWriterStreaming() throws IOException
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		new ExcelWriter(bos, ExcelWriter.DEFAULT_ROW_ACCESS_WINDOW, true).close();
+		byte[] b = bos.toByteArray();
+		assertEquals(b[0] & 0xff, 0x50);
+		assertEquals(b[1] & 0xff, 0x4B);
+		assertEquals(b[2] & 0xff, 0x03);
+		assertEquals(b[3] & 0xff, 0x04);
+	}
+
+	@Test
+	public void ExcelWriterStreaming_deleteTempFiles() throws IOException
+	{
+		Set<String> tempFiles = getSheetTempFiles();
+		ExcelWriter excelWriter = new ExcelWriter(new ByteArrayOutputStream(), 1, false);
+		try
+		{
+			TupleWriter sheetWriter = excelWriter.createTupleWriter("sheet");
+			sheetWriter.writeColNames(Arrays.asList("col1"));
+			for (int i = 0; i < 10; i++)
+			{
+				KeyValueTuple row = new KeyValueTuple();
+				row.set("col1", "val" + i);
+				sheetWriter.write(row);
+			}
+		}
+		finally
+		{
+			excelWriter.close();
+		}
+		assertEquals(getSheetTempFiles(), tempFiles);
+	}
+
+	private static Set<String> getSheetTempFiles()
+	{
+		Set<String> tempFiles = new HashSet<String>();
+		String[] names = new File(System.getProperty("java.io.tmpdir")).list();
+		if (names != null) for (String name : names)
+			if (name.startsWith("poi-sxssf-sheet")) tempFiles.add(name);
+		return tempFiles;
+	}
+
+	@SuppressWarnings("resource")
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void ExcelWriterStreaming_rowAccessWindow()
+	{
+		new ExcelWriter(new ByteArrayOutputStream(), 0, false);
+	}
+
 	@Test
 	public void addCellProcessor_header() throws IOException
 	{
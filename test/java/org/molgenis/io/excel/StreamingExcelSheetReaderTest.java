@@ -0,0 +1,194 @@
+package org.molgenis.io.excel;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Iterator;
+
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.molgenis.io.processor.CellProcessor;
+import org.molgenis.util.tuple.Tuple;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class StreamingExcelSheetReaderTest
+{
+	private StreamingExcelReader excelReader;
+	private StreamingExcelSheetReader excelSheetReader;
+
+	@BeforeMethod
+	public void setUp() throws IOException, URISyntaxException
+	{
+		excelReader = new StreamingExcelReader(new File(this.getClass().getResource("/test.xlsx").toURI()));
+		excelSheetReader = excelReader.getSheet("test");
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException
+	{
+		excelSheetReader.close();
+		excelReader.close();
+	}
+
+	@SuppressWarnings("resource")
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void StreamingExcelSheetReader()
+	{
+		new StreamingExcelSheetReader(null, "test", "rId1", true, null);
+	}
+
+	@Test
+	public void addCellProcessor_header()
+	{
+		CellProcessor processor = when(mock(CellProcessor.class).processHeader()).thenReturn(true).getMock();
+		excelSheetReader.addCellProcessor(processor);
+		for (@SuppressWarnings("unused")
+		Tuple tuple : excelSheetReader)
+		{
+		}
+		verify(processor).process("col1");
+		verify(processor).process("col2");
+	}
+
+	@Test
+	public void addCellProcessor_data()
+	{
+		CellProcessor processor = when(mock(CellProcessor.class).processData()).thenReturn(true).getMock();
+		excelSheetReader.addCellProcessor(processor);
+		for (Tuple tuple : excelSheetReader)
+			tuple.get("col2");
+		verify(processor).process("val2");
+		verify(processor).process("val4");
+		verify(processor).process("val6");
+	}
+
+	@Test
+	public void colNamesIterator() throws IOException
+	{
+		Iterator<String> colNamesIt = excelSheetReader.colNamesIterator();
+		assertTrue(colNamesIt.hasNext());
+		assertEquals(colNamesIt.next(), "col1");
+		assertTrue(colNamesIt.hasNext());
+		assertEquals(colNamesIt.next(), "col2");
+		assertFalse(colNamesIt.hasNext());
+	}
+
+	@Test
+	public void getName()
+	{
+		assertEquals(excelSheetReader.getName(), "test");
+	}
+
+	@Test
+	public void hasColNames()
+	{
+		assertTrue(excelSheetReader.hasColNames());
+	}
+
+	@Test
+	public void iterator()
+	{
+		Iterator<Tuple> it = excelSheetReader.iterator();
+		assertTrue(it.hasNext());
+
+		Tuple row1 = it.next();
+		assertEquals(row1.get("col1"), "val1");
+		assertEquals(row1.get("col2"), "val2");
+		assertTrue(it.hasNext());
+
+		Tuple row2 = it.next();
+		assertEquals(row2.get("col1"), "val3");
+		assertEquals(row2.get("col2"), "val4");
+		assertTrue(it.hasNext());
+
+		Tuple row3 = it.next();
+		assertEquals(row3.get("col1"), "XXX");
+		assertEquals(row3.get("col2"), "val6");
+		assertTrue(it.hasNext());
+
+		// test number cell (col1) and formula cell (col2)
+		Tuple row4 = it.next();
+		assertEquals(row4.get("col1"), "1.2");
+		assertEquals(row4.get("col2"), "2.4");
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void iterator_cellTypes()
+	{
+		Iterator<Tuple> it = excelReader.getSheet("Blad2").iterator();
+		Tuple row1 = it.next();
+		assertEquals(row1.get("string"), "inline string");
+		assertEquals(row1.get("number"), "42");
+		assertEquals(row1.get("boolean"), "true");
+		assertEquals(row1.get("date"), DateUtil.getJavaDate(41275).toString());
+		assertNull(row1.get("blank"));
+		assertNull(row1.get("gap"));
+		assertEquals(row1.get("formula"), "inline string");
+		assertEquals(row1.get("col1"), "col1");
+
+		// empty row 3 is skipped
+		Tuple row2 = it.next();
+		assertNull(row2.get("string"));
+		assertEquals(row2.get("number"), "-3.5");
+		assertEquals(row2.get("boolean"), "false");
+		assertEquals(row2.get("date"), DateUtil.getJavaDate(41275.5).toString());
+		assertNull(row2.get("formula"));
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void iterator_noHeader() throws IOException
+	{
+		StreamingExcelReader noHeaderReader = new StreamingExcelReader(new File(excelReaderFile()), false);
+		try
+		{
+			Iterator<Tuple> it = noHeaderReader.getSheet("test").iterator();
+			Tuple row0 = it.next();
+			assertFalse(row0.hasColNames());
+			assertEquals(row0.getNrCols(), 2);
+			assertEquals(row0.get(0), "col1");
+			assertEquals(row0.get(1), "col2");
+		}
+		finally
+		{
+			noHeaderReader.close();
+		}
+	}
+
+	@Test
+	public void iterator_emptySheet()
+	{
+		assertFalse(excelReader.getSheet("Blad3").iterator().hasNext());
+	}
+
+	@Test
+	public void toColIdx()
+	{
+		assertEquals(StreamingExcelSheetReader.toColIdx("A1"), 0);
+		assertEquals(StreamingExcelSheetReader.toColIdx("Z10"), 25);
+		assertEquals(StreamingExcelSheetReader.toColIdx("AA3"), 26);
+		assertEquals(StreamingExcelSheetReader.toColIdx("XFD1048576"), 16383);
+	}
+
+	private java.net.URI excelReaderFile()
+	{
+		try
+		{
+			return this.getClass().getResource("/test.xlsx").toURI();
+		}
+		catch (URISyntaxException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -10,9 +10,13 @@ import javax.persistence.EntityManager;
 import org.molgenis.framework.db.Database;
 import org.molgenis.framework.db.DatabaseException;
 import org.molgenis.framework.db.ExampleData;
+import org.molgenis.framework.db.ForeignKeyCache;
 import org.molgenis.framework.db.Mapper;
+import org.molgenis.framework.db.PreparedQuery;
+import org.molgenis.framework.db.PreparedQueryImp;
 import org.molgenis.framework.db.Query;
 import org.molgenis.framework.db.QueryRule;
+import org.molgenis.framework.db.TupleIterator;
 import org.molgenis.framework.security.Login;
 import org.molgenis.io.TupleReader;
 import org.molgenis.io.TupleWriter;
@@ -36,6 +40,8 @@ public class MockDatabase implements Database
 	private Model metaData;
 	private boolean inTransaction = false;
 	private Login login;
+	private ForeignKeyCache importCache;
+	private int importCacheDepth = 0;
 
 	public MockDatabase()
 	{
@@ -124,6 +130,24 @@ public class MockDatabase implements Database
 		inTransaction = false;
 	}
 
+	@Override
+	public void beginImportCache()
+	{
+		if (importCacheDepth++ == 0) importCache = new ForeignKeyCache();
+	}
+
+	@Override
+	public void endImportCache()
+	{
+		if (--importCacheDepth == 0) importCache = null;
+	}
+
+	@Override
+	public ForeignKeyCache getImportCache()
+	{
+		return importCache;
+	}
+
 	@Override
 	public <E extends Entity> int count(Class<E> entityClass, QueryRule... rules) throws DatabaseException
 	{
@@ -179,6 +203,12 @@ public class MockDatabase implements Database
 		return null;
 	}
 
+	@Override
+	public <E extends Entity> PreparedQuery<E> prepare(Class<E> entityClass, QueryRule... rules)
+	{
+		return new PreparedQueryImp<E>(this, entityClass, false, rules);
+	}
+
 	@Override
 	public <E extends Entity> int add(E entity) throws DatabaseException
 	{
@@ -333,6 +363,27 @@ public class MockDatabase implements Database
 		return null;
 	}
 
+	@Override
+	public TupleIterator sqlIterator(String query, QueryRule... queryRules) throws DatabaseException
+	{
+		// TODO Auto-generated method stub
+		return null;
+	}
+
+	@Override
+	public List<Tuple> sql(String query, List<Object> parameters) throws DatabaseException
+	{
+		// TODO Auto-generated method stub
+		return null;
+	}
+
+	@Override
+	public TupleIterator sqlIterator(String query, List<Object> parameters) throws DatabaseException
+	{
+		// TODO Auto-generated method stub
+		return null;
+	}
+
 	@Override
 	public <E extends Entity> String createFindSql(Class<E> entityClass, QueryRule... rules) throws DatabaseException
 	{
@@ -0,0 +1,106 @@
+package org.molgenis.model.elements;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.molgenis.MolgenisOptions;
+import org.molgenis.model.MolgenisModelParser;
+import org.molgenis.model.MolgenisModelValidator;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class ModelIndexTest
+{
+	private Model model;
+	private ModelIndex index;
+
+	@BeforeClass
+	public void setUp() throws Exception
+	{
+		String xml = "<molgenis name=\"test\">"
+				+ "<entity name=\"Animal\"><field name=\"id\" type=\"autoid\"/><field name=\"name\" unique=\"true\"/>"
+				+ "<field name=\"species\" type=\"xref\" xref_entity=\"Species\" xref_label=\"name\"/></entity>"
+				+ "<entity name=\"Species\"><field name=\"id\" type=\"autoid\"/><field name=\"name\" unique=\"true\"/></entity>"
+				+ "<entity name=\"Base\"><field name=\"id\" type=\"autoid\"/><field name=\"label\"/>"
+				+ "<field name=\"__Type\" type=\"enum\" enum_options=\"[Base,Sub]\"/></entity>"
+				+ "<entity name=\"Sub\" extends=\"Base\"><field name=\"extra\" nillable=\"true\"/></entity>"
+				+ "</molgenis>";
+		model = MolgenisModelParser.parseDbSchema(xml);
+		MolgenisModelValidator.validate(model, new MolgenisOptions());
+		index = model.getIndex();
+	}
+
+	@Test
+	public void builtByValidator() throws Exception
+	{
+		assertSame(model.getIndex(), index);
+		assertEquals(index.getEntities().size(), model.getEntities().size());
+	}
+
+	@Test
+	public void getEntity()
+	{
+		assertSame(index.getEntity("species"), model.getEntity("Species"));
+		assertSame(index.getEntity("SUB"), model.getEntity("Sub"));
+		assertNull(index.getEntity("Unknown"));
+		assertNull(index.getEntity(null));
+	}
+
+	@Test
+	public void getAllFields() throws Exception
+	{
+		Entity sub = model.getEntity("Sub");
+		assertEquals(names(index.getAllFields("Sub")), names(sub.getAllFields()));
+		assertTrue(names(index.getAllFields("Sub")).contains("label"));
+		assertEquals(names(index.getImplementedFields("Sub")), names(sub.getImplementedFields()));
+		assertTrue(index.getAllFields("Unknown").isEmpty());
+	}
+
+	@Test
+	public void getField()
+	{
+		assertEquals(index.getField("sub", "LABEL").getName(), "label");
+		assertEquals(index.getField("Sub", "extra").getName(), "extra");
+		assertNull(index.getField("Sub", "unknown"));
+		assertNull(index.getField("Species", "extra"));
+	}
+
+	@Test
+	public void hierarchy() throws Exception
+	{
+		assertEquals(index.getAncestors("Sub").size(), 1);
+		assertEquals(index.getAncestors("Sub").get(0).getName(), "Base");
+		assertEquals(index.getDescendants("Base").size(), 1);
+		assertEquals(index.getDescendants("Base").get(0).getName(), "Sub");
+		assertTrue(index.getAncestors("Species").isEmpty());
+	}
+
+	@Test
+	public void dependencyOrder()
+	{
+		List<String> order = new ArrayList<String>();
+		for (Entity e : index.getDependencyOrder())
+			order.add(e.getName());
+		assertTrue(order.indexOf("Species") < order.indexOf("Animal"));
+		assertTrue(order.indexOf("Base") < order.indexOf("Sub"));
+	}
+
+	@Test(expectedExceptions = UnsupportedOperationException.class)
+	public void unmodifiable()
+	{
+		index.getAllFields("Species").clear();
+	}
+
+	private List<String> names(List<Field> fields)
+	{
+		List<String> names = new ArrayList<String>();
+		for (Field f : fields)
+			names.add(f.getName());
+		return names;
+	}
+}
@@ -0,0 +1,42 @@
+package org.molgenis.util.tuple;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class CaseInsensitiveValueIndexTupleTest
+{
+	private CaseInsensitiveValueIndexTuple tuple;
+
+	@BeforeMethod
+	public void setUp()
+	{
+		Map<String, Integer> colNamesIndex = new LinkedHashMap<String, Integer>();
+		colNamesIndex.put("col1", 0);
+		colNamesIndex.put("col2", 1);
+		tuple = new CaseInsensitiveValueIndexTuple(colNamesIndex, Arrays.asList("val1", "VAL2"));
+	}
+
+	@Test
+	public void get()
+	{
+		assertEquals(tuple.get("col1"), "val1");
+		assertEquals(tuple.get("COL1"), "val1");
+		assertEquals(tuple.get("col2"), "VAL2");
+		assertEquals(tuple.get("Col2"), "VAL2");
+		assertNull(tuple.get("col3"));
+	}
+
+	@Test
+	public void getint()
+	{
+		assertEquals(tuple.get(0), "val1");
+		assertEquals(tuple.get(1), "VAL2");
+	}
+}